@@ -51,6 +51,15 @@ public class GradientDescentOptimizer implements Optimizer{
 	private double bestGradients[];
 	private double bestSqGradients[];
 	private double bestDelta[];
+	private int numBestCopies;
+	
+	// The state of the sparse update, see optimizeSparse
+	/** The number of iterations already applied to each variable, only allocated when using sparse update */
+	private int numItersApplied[];
+	/** The coefficient of the L2 regularization gradient added by the sparse update */
+	private double lazyL2Coef;
+	/** The index of the first variable to be regularized by the sparse update */
+	private int lazyL2Start;
 	
 	/**
 	 * The number of iterations without improvement before the trigger is activated.<br>
@@ -204,6 +213,9 @@ public class GradientDescentOptimizer implements Optimizer{
 		Arrays.fill(this.bestGradients, 0.0);
 		Arrays.fill(this.bestSqGradients, 0.0);
 		Arrays.fill(this.bestDelta, 0.0);
+		if(this.numItersApplied != null){
+			Arrays.fill(this.numItersApplied, 0);
+		}
 	}
 	
 	public double getLearningRate(){
@@ -248,6 +260,127 @@ public class GradientDescentOptimizer implements Optimizer{
 //		sum = Math.sqrt(sum);
 //		System.err.println("L2norm: "+sum);
 		
+		if(this.handleStagnation()){
+			return true;
+		}
+		if (this.gradientClipping)
+			clipGradients(this.gradientClippingThreshold);
+		for(int k = 0; k<this._x.length; k++){
+			this.update(k);
+		}
+		this.iterNum += 1; 
+		return false;
+	}
+	
+	/**
+	 * Sets the L2 regularization applied by {@link #optimizeSparse(int[], int)}, where the regularization
+	 * gradient of variable k is <code>l2Coef * x[k]</code> for k &gt;= firstRegularized.
+	 * @param l2Coef
+	 * @param firstRegularized
+	 */
+	public void setLazyRegularization(double l2Coef, int firstRegularized){
+		this.lazyL2Coef = l2Coef;
+		this.lazyL2Start = firstRegularized;
+	}
+	
+	/**
+	 * Updates only the specified variables, for mini-batches which only touch a small fraction of the variables.<br>
+	 * The gradients of the specified variables should contain only the gradient of the loss, as the L2 regularization
+	 * gradient (see {@link #setLazyRegularization(double, int)}) is added here. The other variables are not visited:
+	 * the iterations they missed (the L2 decay, and the decay of the moment estimates) are applied in closed form
+	 * when they are next updated, or when {@link #catchUp()} is called.<br>
+	 * The catch-up is exact for plain gradient descent. For the adaptive methods, the adaptive learning rate is kept
+	 * at its value at the last update, and the momentum is decayed without being applied, as in the lazy variants
+	 * of these methods.
+	 * @param features The indices of the variables to be updated
+	 * @param numFeatures The number of indices to be read from <code>features</code>
+	 * @return true if the adaptive strategy stops the optimization, false otherwise
+	 */
+	public boolean optimizeSparse(int[] features, int numFeatures){
+		if(this.numItersApplied == null){
+			this.numItersApplied = new int[this._x.length];
+			Arrays.fill(this.numItersApplied, this.iterNum);
+		}
+		if(this.handleStagnation()){
+			return true;
+		}
+		for(int i=0; i<numFeatures; i++){
+			int k = features[i];
+			this.catchUp(k);
+			if(k >= this.lazyL2Start){
+				this._g[k] += this.lazyL2Coef * this._x[k];
+			}
+		}
+		if (this.gradientClipping)
+			clipGradients(this.gradientClippingThreshold, features, numFeatures);
+		for(int i=0; i<numFeatures; i++){
+			int k = features[i];
+			this.update(k);
+			this.numItersApplied[k] = this.iterNum+1;
+		}
+		this.iterNum += 1;
+		return false;
+	}
+	
+	/**
+	 * Applies the iterations missed by all variables in {@link #optimizeSparse(int[], int)},
+	 * so that all variables are up to date. This does nothing if the sparse update is not used.
+	 */
+	public void catchUp(){
+		if(this.numItersApplied == null){
+			return;
+		}
+		for(int k=0; k<this._x.length; k++){
+			this.catchUp(k);
+		}
+	}
+	
+	/**
+	 * Applies the iterations missed by the specified variable, in which its only gradient
+	 * is the L2 regularization gradient.
+	 * @param k
+	 */
+	private void catchUp(int k){
+		int numMissed = this.iterNum - this.numItersApplied[k];
+		if(numMissed <= 0){
+			return;
+		}
+		this.numItersApplied[k] = this.iterNum;
+		double rate = 0.0;
+		switch(currentAdaptiveMethod){
+		case NONE:
+			rate = this.learningRate;
+			break;
+		case ADAGRAD:
+			rate = prevSqGradients[k]!=0.0 ? this.learningRate/Math.sqrt(prevSqGradients[k]) : this.learningRate;
+			break;
+		case ADADELTA:
+			rate = Math.sqrt(prevDelta[k]+adadeltaEps)/Math.sqrt(prevSqGradients[k]+adadeltaEps);
+			prevGradients[k] *= Math.pow(adadeltaGradDecay, numMissed);
+			prevSqGradients[k] *= Math.pow(adadeltaPhi, numMissed);
+			prevDelta[k] *= Math.pow(adadeltaPhi, numMissed);
+			break;
+		case RMSPROP:
+			rate = this.learningRate / (Math.sqrt(prevSqGradients[k]) + rmsPropEps);
+			prevSqGradients[k] *= Math.pow(rmsPropDecay, numMissed);
+			break;
+		case ADAM:
+			rate = this.learningRate;
+			prevGradients[k] *= Math.pow(adamBeta1, numMissed);
+			prevSqGradients[k] *= Math.pow(adamBeta2, numMissed);
+			break;
+		}
+		if(k >= this.lazyL2Start && this.lazyL2Coef != 0.0){
+			this._x[k] *= Math.pow(1 - rate*this.lazyL2Coef, numMissed);
+		}
+	}
+	
+	/**
+	 * Records the current objective value if it is the best so far, and applies the trigger of the adaptive
+	 * strategy if there has been no improvement for {@link #maxStagnantIterCount} iterations.
+	 * @return true if the adaptive strategy stops the optimization, false otherwise
+	 */
+	private boolean handleStagnation(){
 		boolean currentIsBest = checkAndSetAndIsBest();
 		if(!currentIsBest && (this.iterNum - this.bestIterNum >= maxStagnantIterCount)){
 			if(adaptiveStrategy == AdaptiveStrategy.ADADELTA_THEN_GD && currentAdaptiveMethod != AdaptiveMethod.NONE){
@@ -284,44 +417,46 @@ public class GradientDescentOptimizer implements Optimizer{
 				System.err.println("[AdaGrad]Reset from obj = "+this._obj+", new learning rate = "+learningRate);
 			}
 		}
-		if (this.gradientClipping)
-			clipGradients(this.gradientClippingThreshold);
-		for(int k = 0; k<this._x.length; k++){
-			if(currentAdaptiveMethod == AdaptiveMethod.NONE){ // Normal (S)GD
-				this._x[k] -= this.learningRate * this._g[k];
-				
-			} else if(currentAdaptiveMethod == AdaptiveMethod.ADAGRAD) { // based on http://www.jmlr.org/papers/volume12/duchi11a/duchi11a.pdf
-				prevSqGradients[k] += Math.pow(this._g[k], 2);
-				double updateCoef = this.learningRate;
-				if(prevSqGradients[k]!=0.0){
-					updateCoef /= Math.sqrt(prevSqGradients[k]);
-				}
-				this._x[k] -= updateCoef * this._g[k];
-				
-			} else if (currentAdaptiveMethod == AdaptiveMethod.ADADELTA){ // based on http://www.matthewzeiler.com/pubs/googleTR2012/googleTR2012.pdf
-				prevGradients[k] = adadeltaGradDecay*prevGradients[k] + (1-adadeltaGradDecay)*this._g[k]; // An attempt to reduce high jumps
-				prevSqGradients[k] = adadeltaPhi*prevSqGradients[k] + (1-adadeltaPhi)*Math.pow(this._g[k], 2);
-				double update = Math.sqrt(prevDelta[k]+adadeltaEps)/Math.sqrt(prevSqGradients[k]+adadeltaEps) * prevGradients[k];
-				prevDelta[k] = adadeltaPhi*prevDelta[k] + (1-adadeltaPhi)*Math.pow(update, 2);
-				this._x[k] -= update;
-				
-			} else if (currentAdaptiveMethod == AdaptiveMethod.RMSPROP){ // based on http://cs231n.github.io/neural-networks-3/#anneal
-				prevSqGradients[k] = rmsPropDecay * prevSqGradients[k] + (1-rmsPropDecay) * Math.pow(this._g[k], 2);
-				this._x[k] -= (this.learningRate / (Math.sqrt(prevSqGradients[k]) + rmsPropEps)) * this._g[k];
-				
-			} else if (currentAdaptiveMethod == AdaptiveMethod.ADAM){ // based on http://cs231n.github.io/neural-networks-3/#anneal
-				prevGradients[k] = adamBeta1 * prevGradients[k] + (1-adamBeta1)*this._g[k];
-				prevSqGradients[k] = adamBeta2 * prevSqGradients[k] + (1-adamBeta2) * Math.pow(this._g[k], 2);
-				// bias correction
-				double biasCorrection1 = 1 - Math.pow(adamBeta1, this.iterNum+1);
-				double biasCorrection2 = 1 - Math.pow(adamBeta2, this.iterNum+1);
-				double correctedLearningRate = this.learningRate*Math.sqrt(biasCorrection2)/biasCorrection1;
-				this._x[k] -= (correctedLearningRate / (Math.sqrt(prevSqGradients[k]) + adamEps)) * prevGradients[k];
-
+		return false;
+	}
+	
+	/**
+	 * Updates the variable at the specified index using its gradient, with the current adaptive method.
+	 * @param k
+	 */
+	private void update(int k){
+		if(currentAdaptiveMethod == AdaptiveMethod.NONE){ // Normal (S)GD
+			this._x[k] -= this.learningRate * this._g[k];
+			
+		} else if(currentAdaptiveMethod == AdaptiveMethod.ADAGRAD) { // based on http://www.jmlr.org/papers/volume12/duchi11a/duchi11a.pdf
+			prevSqGradients[k] += Math.pow(this._g[k], 2);
+			double updateCoef = this.learningRate;
+			if(prevSqGradients[k]!=0.0){
+				updateCoef /= Math.sqrt(prevSqGradients[k]);
 			}
+			this._x[k] -= updateCoef * this._g[k];
+			
+		} else if (currentAdaptiveMethod == AdaptiveMethod.ADADELTA){ // based on http://www.matthewzeiler.com/pubs/googleTR2012/googleTR2012.pdf
+			prevGradients[k] = adadeltaGradDecay*prevGradients[k] + (1-adadeltaGradDecay)*this._g[k]; // An attempt to reduce high jumps
+			prevSqGradients[k] = adadeltaPhi*prevSqGradients[k] + (1-adadeltaPhi)*Math.pow(this._g[k], 2);
+			double update = Math.sqrt(prevDelta[k]+adadeltaEps)/Math.sqrt(prevSqGradients[k]+adadeltaEps) * prevGradients[k];
+			prevDelta[k] = adadeltaPhi*prevDelta[k] + (1-adadeltaPhi)*Math.pow(update, 2);
+			this._x[k] -= update;
+			
+		} else if (currentAdaptiveMethod == AdaptiveMethod.RMSPROP){ // based on http://cs231n.github.io/neural-networks-3/#anneal
+			prevSqGradients[k] = rmsPropDecay * prevSqGradients[k] + (1-rmsPropDecay) * Math.pow(this._g[k], 2);
+			this._x[k] -= (this.learningRate / (Math.sqrt(prevSqGradients[k]) + rmsPropEps)) * this._g[k];
+			
+		} else if (currentAdaptiveMethod == AdaptiveMethod.ADAM){ // based on http://cs231n.github.io/neural-networks-3/#anneal
+			prevGradients[k] = adamBeta1 * prevGradients[k] + (1-adamBeta1)*this._g[k];
+			prevSqGradients[k] = adamBeta2 * prevSqGradients[k] + (1-adamBeta2) * Math.pow(this._g[k], 2);
+			// bias correction
+			double biasCorrection1 = 1 - Math.pow(adamBeta1, this.iterNum+1);
+			double biasCorrection2 = 1 - Math.pow(adamBeta2, this.iterNum+1);
+			double correctedLearningRate = this.learningRate*Math.sqrt(biasCorrection2)/biasCorrection1;
+			this._x[k] -= (correctedLearningRate / (Math.sqrt(prevSqGradients[k]) + adamEps)) * prevGradients[k];
+
 		}
-		this.iterNum += 1; 
-		return false;
 	}
 	
 	private void clipGradients(double threshold){
@@ -332,6 +467,18 @@ public class GradientDescentOptimizer implements Optimizer{
 		}
 	}
 	
+	private void clipGradients(double threshold, int[] features, int numFeatures){
+		double sum = 0.0;
+		for(int i=0; i<numFeatures; i++){
+			sum += this._g[features[i]] * this._g[features[i]];
+		}
+		sum = Math.sqrt(sum);
+		sum = sum/Math.min(threshold, sum);
+		for(int i=0; i<numFeatures; i++){
+			this._g[features[i]] /= sum;
+		}
+	}
+	
 	/**
 	 * Check whether current objective value is the best, and if it is, set as the current best.<br>
 	 * Then return whether the current objective value is the best 
@@ -341,6 +488,7 @@ public class GradientDescentOptimizer implements Optimizer{
 	private boolean checkAndSetAndIsBest(){
 		if (paramSelectCriteria == BestParamCriteria.BEST_OBJ) {
 			if(this._obj < this.bestObj){
+				this.catchUp();
 				this.bestObj = this._obj;
 				for(int k=0; k<this._x.length; k++){
 					this.bestX[k] = this._x[k];
@@ -359,6 +507,7 @@ public class GradientDescentOptimizer implements Optimizer{
 	 * Set the current parameter as the best parameters
 	 */
 	public void setCurrentAsBestParameters() {
+		this.catchUp();
 		for(int k=0; k<this._x.length; k++){
 			this.bestX[k] = this._x[k];
 		}
@@ -378,6 +527,18 @@ public class GradientDescentOptimizer implements Optimizer{
 			this.prevSqGradients[k] = this.bestSqGradients[k];
 			this.bestIterNum = this.iterNum;
 		}
+		if(this.numItersApplied != null){
+			Arrays.fill(this.numItersApplied, this.iterNum);
+		}
+		this.numBestCopies++;
+	}
+	
+	/**
+	 * Returns the number of times the parameters were restored by {@link #copyBest()}.
+	 * @return
+	 */
+	public int getNumBestCopies(){
+		return this.numBestCopies;
 	}
 	
 	public String name(){
@@ -13,6 +13,7 @@ import java.util.Iterator;
 import java.util.List;
 
 import org.statnlp.commons.types.Instance;
+import org.statnlp.hypergraph.CompactEdges;
 import org.statnlp.hypergraph.LocalNetworkParam;
 import org.statnlp.hypergraph.NetworkCompiler;
 import org.statnlp.hypergraph.NetworkConfig;
@@ -165,6 +166,49 @@ public class BaseNetwork extends TableLookupNetwork {
 			}
 		}
 		
+		/**
+		 * Quickly builds a BaseNetwork which shares the nodes and edges of the given network (usually a generic
+		 * unlabeled network), where only the first nodeCount nodes are part of the network to be constructed.<br>
+		 * @param networkId The network id
+		 * @param inst The instance associated with the network to be constructed
+		 * @param network The network whose nodes and edges are to be shared.
+		 * @param nodeCount The actual number of nodes from the given network that are actually part of the network to be constructed.
+		 * @param param The LocalNetworkParam object associated with the network to be constructed.
+		 * @param compiler The network compiler that builds the network.
+		 * @return
+		 * @see #quickBuild(Class, int, Instance, TableLookupNetwork, int, LocalNetworkParam, NetworkCompiler)
+		 */
+		public static BaseNetwork quickBuild(int networkId, Instance inst, TableLookupNetwork network, int nodeCount,
+				LocalNetworkParam param, NetworkCompiler compiler){
+			return quickBuild(BaseNetwork.class, networkId, inst, network, nodeCount, param, compiler);
+		}
+		
+		/**
+		 * Quickly builds a network with the specified network class, which shares the nodes and edges of the given
+		 * network (usually a generic unlabeled network), where only the first nodeCount nodes are part of the
+		 * network to be constructed.<br>
+		 * Unlike {@link #quickBuild(Class, int, Instance, long[], int[][][], int, LocalNetworkParam, NetworkCompiler)},
+		 * this keeps the compact edge storage of the given network (see {@link NetworkConfig#USE_COMPACT_NETWORK_STORAGE}),
+		 * if any, so that the edges are not converted into the nested array form.<br>
+		 * The network class has the same constructor requirement as the other quickBuild method.
+		 * @param networkClass The class of the network to be constructed
+		 * @param networkId The network id
+		 * @param inst The instance associated with the network to be constructed
+		 * @param network The network whose nodes and edges are to be shared.
+		 * @param nodeCount The actual number of nodes from the given network that are actually part of the network to be constructed.
+		 * @param param The LocalNetworkParam object associated with the network to be constructed.
+		 * @param compiler The network compiler that builds the network.
+		 * @return
+		 */
+		public static <T extends BaseNetwork> T quickBuild(Class<T> networkClass, int networkId, Instance inst,
+				TableLookupNetwork network, int nodeCount, LocalNetworkParam param, NetworkCompiler compiler){
+			CompactEdges compactEdges = network.getCompactEdges();
+			int[][][] children = compactEdges == null ? network.getAllChildren() : null;
+			T result = quickBuild(networkClass, networkId, inst, network.getAllNodes(), children, nodeCount, param, compiler);
+			result._compactEdges = compactEdges;
+			return result;
+		}
+		
 		public NetworkBuilder(Class<T> networkClass){
 			this._children_tmp = new HashMap<Long, List<long[]>>();
 			this.networkClass = networkClass;
@@ -341,6 +385,43 @@ public class BaseNetwork extends TableLookupNetwork {
 				nodesValue2IdMap.put(nodeList[k], k);
 			}
 			
+			int[][][] childrenList = null;
+			CompactEdges compactEdges = null;
+			if(NetworkConfig.USE_COMPACT_NETWORK_STORAGE){
+				compactEdges = this.buildCompactEdges(nodeList, nodesValue2IdMap);
+			} else {
+				childrenList = this.buildChildrenList(nodeList, nodesValue2IdMap);
+			}
+			T result = null;
+			if(networkID != null || instance != null || param != null || compiler != null){
+				result = quickBuild(networkClass, networkID, instance, nodeList, childrenList, nodeList.length, param, compiler);
+			} else {
+				try {
+					result = quickBuild(networkClass);
+				} catch (SecurityException | InstantiationException | IllegalAccessException
+						| IllegalArgumentException e) {
+					throw new RuntimeException("No public empty constructor found for network class "+networkClass.getName(), e);
+				}
+				result._nodes = nodeList;
+				result._children = childrenList;
+				result.nodeCount = nodeList.length;
+			}
+			result._compactEdges = compactEdges;
+			if (NetworkConfig.INFERENCE == InferenceType.MEAN_FIELD) {
+				result.structArr = new int[nodeList.length];
+			}
+			result.isVisible = isVisible;
+			return result;
+		}
+		
+		/**
+		 * Converts the temporary edges into the nested array form, where the i-th hyperedge of the k-th node
+		 * is stored as an array of child node indices in <code>childrenList[k][i]</code>.
+		 * @param nodeList The sorted list of nodes
+		 * @param nodesValue2IdMap The mapping from node to its index in nodeList
+		 * @return
+		 */
+		private int[][][] buildChildrenList(long[] nodeList, HashMap<Long, Integer> nodesValue2IdMap){
 			int[][][] childrenList = new int[nodeList.length][][];
 
 			Iterator<Long> parents = this._children_tmp.keySet().iterator();
@@ -375,25 +456,57 @@ public class BaseNetwork extends TableLookupNetwork {
 					childrenList[k] = new int[1][0];
 				}
 			}
-			T result = null;
-			if(networkID != null || instance != null || param != null || compiler != null){
-				result = quickBuild(networkClass, networkID, instance, nodeList, childrenList, nodeList.length, param, compiler);
-			} else {
-				try {
-					result = quickBuild(networkClass);
-				} catch (SecurityException | InstantiationException | IllegalAccessException
-						| IllegalArgumentException e) {
-					throw new RuntimeException("No public empty constructor found for network class "+networkClass.getName(), e);
+			return childrenList;
+		}
+		
+		/**
+		 * Converts the temporary edges into the compact form (see {@link CompactEdges}), without creating
+		 * one array for each hyperedge.
+		 * @param nodeList The sorted list of nodes
+		 * @param nodesValue2IdMap The mapping from node to its index in nodeList
+		 * @return
+		 */
+		private CompactEdges buildCompactEdges(long[] nodeList, HashMap<Long, Integer> nodesValue2IdMap){
+			int numEdges = 0;
+			int numChildren = 0;
+			for(long node: nodeList){
+				List<long[]> childrens = this._children_tmp.get(node);
+				if(childrens==null){
+					numEdges += 1;
+					continue;
+				}
+				numEdges += childrens.size();
+				for(long[] children: childrens){
+					numChildren += children.length;
 				}
-				result._nodes = nodeList;
-				result._children = childrenList;
-				result.nodeCount = nodeList.length;
 			}
-			if (NetworkConfig.INFERENCE == InferenceType.MEAN_FIELD) {
-				result.structArr = new int[nodeList.length];
+			int[] edgeOffsets = new int[nodeList.length+1];
+			int[] childOffsets = new int[numEdges+1];
+			int[] childIndices = new int[numChildren];
+			int edge = 0;
+			int child = 0;
+			for(int k = 0; k<nodeList.length; k++){
+				edgeOffsets[k] = edge;
+				List<long[]> childrens = this._children_tmp.get(nodeList[k]);
+				if(childrens==null){
+					// Same as in the nested array form, a node with no child edge has one edge with no child node
+					childOffsets[edge++] = child;
+					continue;
+				}
+				for(long[] children: childrens){
+					childOffsets[edge++] = child;
+					for(long c: children){
+						if(c < 0){
+							childIndices[child++] = (int)c;
+						} else {
+							childIndices[child++] = nodesValue2IdMap.get(c);
+						}
+					}
+				}
 			}
-			result.isVisible = isVisible;
-			return result;
+			edgeOffsets[nodeList.length] = edge;
+			childOffsets[numEdges] = child;
+			return new CompactEdges(edgeOffsets, childOffsets, childIndices);
 		}
 		
 		private void checkLinkValidity(long parent, long[] children) throws NetworkException {
@@ -19,6 +19,8 @@ import org.statnlp.hypergraph.GlobalNetworkParam;
 import org.statnlp.hypergraph.Network;
 import org.statnlp.util.Pipeline;
 
+import gnu.trove.list.array.TIntArrayList;
+
 /**
  * A default feature extractor that is based on a template.
  */
@@ -123,32 +125,59 @@ public class TemplateBasedFeatureManager extends FeatureManager {
 		if(!LinearInstance.class.isInstance(network.getInstance())){
 			throw new RuntimeException("TemplateBasedFeatureManager currently only works with LinearInstance.");
 		}
-		LinearInstance<?> instance = (LinearInstance<?>)network.getInstance();
-		List<String[]> inputs = instance.input;
 		int[] nodeArr = network.getNodeArray(parent_k);
 		int pos = network.getPosForNode(nodeArr);
+		Object output = network.getOutputForNode(nodeArr);
+		if(output == null){
+			return createFeatureArray(network, new ArrayList<Integer>());
+		}
+		// The features of the bigram templates depend on the child output, so they are extracted for each edge,
+		// while the other features are shared by all edges of the node.
+		int[] observations = getObservations(network, pos);
 		GlobalNetworkParam param = this._param_g;
 		List<Integer> featuresList = new ArrayList<Integer>();
-		for(String featureTemplate: featureTemplates){
-			String featureType = featureTemplate;
-			String outputFeature = "";
-			Object output = network.getOutputForNode(nodeArr);
-			if(output == null){
+		for(int i=0; i<featureTemplates.size(); i++){
+			if(featureTemplates.get(i).charAt(0) != 'B'){
 				continue;
 			}
-			if(featureTemplate.charAt(0) == 'U'){
-				outputFeature = output.toString();
-			} else if(featureTemplate.charAt(0) == 'B'){
-				Object childOutput = network.getOutputForNode(network.getNodeArray(children_k[0]));
-				if(childOutput == null){
-					continue;
-				}
-				outputFeature = childOutput.toString();
-				outputFeature += "||";
-				outputFeature += output.toString();
-			} else {
-				outputFeature = "";
+			Object childOutput = network.getOutputForNode(network.getNodeArray(children_k[0]));
+			if(childOutput == null){
+				continue;
 			}
+			int outputId = toOutput(network, childOutput.toString()+"||"+output.toString());
+			featuresList.add(param.toFeature(network, observations[2*i], outputId, observations[2*i+1]));
+		}
+		return createFeatureArray(network, featuresList, getNodeFeatures(network, parent_k));
+	}
+	
+	@Override
+	protected FeatureArray extractNodeFeatures(Network network, int parent_k){
+		int[] nodeArr = network.getNodeArray(parent_k);
+		int[] observations = getObservations(network, network.getPosForNode(nodeArr));
+		GlobalNetworkParam param = this._param_g;
+		List<Integer> featuresList = new ArrayList<Integer>();
+		int outputId = toOutput(network, network.getOutputForNode(nodeArr).toString());
+		int emptyOutputId = toOutput(network, "");
+		for(int i=0; i<featureTemplates.size(); i++){
+			char templateType = featureTemplates.get(i).charAt(0);
+			if(templateType == 'B'){
+				continue;
+			}
+			int templateOutputId = templateType == 'U' ? outputId : emptyOutputId;
+			featuresList.add(param.toFeature(network, observations[2*i], templateOutputId, observations[2*i+1]));
+		}
+		return createFeatureArray(network, featuresList);
+	}
+	
+	/**
+	 * Extracts the input of each feature template at the specified position, in the order of the templates.
+	 */
+	@Override
+	protected int[] extractObservations(Network network, int pos){
+		LinearInstance<?> instance = (LinearInstance<?>)network.getInstance();
+		List<String[]> inputs = instance.input;
+		TIntArrayList observations = new TIntArrayList(2*featureTemplates.size());
+		for(String featureTemplate: featureTemplates){
 			String inputFeature = "";
 			int[][] emissions = compiledFeatureTemplates.get(featureTemplate);
 			for(int[] emission: emissions){
@@ -161,9 +190,9 @@ public class TemplateBasedFeatureManager extends FeatureManager {
 					inputFeature += "***";
 				}
 			}
-			featuresList.add(param.toFeature(network, featureType, outputFeature, inputFeature));
+			addObservation(network, observations, featureTemplate, inputFeature);
 		}
-		return createFeatureArray(network, featuresList);
+		return observations.toArray();
 	}
 	
 	private int[][] findEmissions(String template){
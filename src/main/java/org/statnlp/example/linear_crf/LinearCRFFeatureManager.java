@@ -38,6 +38,8 @@ import org.statnlp.util.Pipeline;
 import org.statnlp.util.instance_parser.DelimiterBasedInstanceParser;
 import org.statnlp.util.instance_parser.InstanceParser;
 
+import gnu.trove.list.array.TIntArrayList;
+
 /**
  * @author Aldrian Obaja (aldrianobaja.m@gmail.com)
  */
@@ -176,9 +178,6 @@ public class LinearCRFFeatureManager extends FeatureManager{
 		
 		@SuppressWarnings("unchecked")
 		LinearInstance<String> instance = (LinearInstance<String>)net.getInstance();
-		int size = instance.size();
-		
-		ArrayList<String[]> input = (ArrayList<String[]>)instance.getInput();
 		
 		long curNode = net.getNode(parent_k);
 		int[] arr = NetworkIDMapper.toHybridNodeArray(curNode);
@@ -208,7 +207,66 @@ public class LinearCRFFeatureManager extends FeatureManager{
 			return new FeatureArray(new int[]{param_g.toFeature(net, "CHEAT", tag_id+"", Math.abs(instance.getInstanceId())+" "+pos+" "+child_tag_id)});
 		}
 
+		// Node-based features, shared by all edges coming out of this node
+		FeatureArray featureArray = getNodeFeatures(network, parent_k);
+
+		// Edge-based features
+		ArrayList<Integer> features = new ArrayList<Integer>();
+		// Label transition feature
+		if(isEnabled(FeatureType.TRANSITION)){
+			if(tag_id != labelSize && child_tag_id != labelSize){
+				int transitionFeature = param_g.toFeature(network, FeatureType.TRANSITION.name(), child_tag_id+" "+tag_id, "");
+				features.add(transitionFeature);
+			}
+		}
+		
+		if(features.size() > 0){
+			return createFeatureArray(network, features, featureArray);
+		} else {
+			return featureArray;
+		}
+	}
+	
+	@Override
+	protected FeatureArray extractNodeFeatures(Network network, int parent_k){
+		int[] arr = network.getNodeArray(parent_k);
+		int pos = arr[0]-1;
+		int tag_id = arr[1];
+		if(!productWithOutput){
+			tag_id = -1;
+		}
+		int[] observations;
+		if(tag_id != labels.size()){
+			observations = getObservations(network, pos);
+		} else {
+			// The root node is at the position of the last word, but does not have the window features
+			observations = extractObservations(network, pos, false);
+		}
 		ArrayList<Integer> features = new ArrayList<Integer>();
+		addConjoinedFeatures(network, observations, toOutput(network, tag_id+""), features);
+		return createFeatureArray(network, features);
+	}
+	
+	@Override
+	protected int[] extractObservations(Network network, int pos){
+		return extractObservations(network, pos, true);
+	}
+	
+	/**
+	 * Extracts the observation features at the specified position.
+	 * @param network
+	 * @param pos
+	 * @param withWindowFeatures Whether to include the word and POS tag window features
+	 * @return
+	 */
+	private int[] extractObservations(Network network, int pos, boolean withWindowFeatures){
+		@SuppressWarnings("unchecked")
+		LinearInstance<String> instance = (LinearInstance<String>)network.getInstance();
+		int size = instance.size();
+		
+		ArrayList<String[]> input = (ArrayList<String[]>)instance.getInput();
+		
+		TIntArrayList observations = new TIntArrayList();
 		int prevIdx = pos - 1;
 		int nextIdx = pos + 1;
 		String prevWord = "STR";
@@ -222,11 +280,11 @@ public class LinearCRFFeatureManager extends FeatureManager{
 		
 		if(NetworkConfig.USE_NEURAL_FEATURES){
 			String postag = input.get(pos)[1];
-//			features.add(param_g.toFeature(network, FeatureType.neural.name(), tag_id+"",input.get(pos)[0]));
-			features.add(param_g.toFeature(network, FeatureType.neural.name(), tag_id+"", prevWord+IN_SEP+input.get(pos)[0]+IN_SEP+nextWord+OUT_SEP+prevPos+IN_SEP+postag));
+//			addObservation(network, observations, FeatureType.neural.name(), input.get(pos)[0]);
+			addObservation(network, observations, FeatureType.neural.name(), prevWord+IN_SEP+input.get(pos)[0]+IN_SEP+nextWord+OUT_SEP+prevPos+IN_SEP+postag);
 		} else {
 			// Word window features
-			if(isEnabled(FeatureType.WORD) && tag_id != labelSize){
+			if(isEnabled(FeatureType.WORD) && withWindowFeatures){
 				int wordWindowSize = wordHalfWindowSize*2+1;
 				if(wordWindowSize < 0){
 					wordWindowSize = 0;
@@ -239,13 +297,13 @@ public class LinearCRFFeatureManager extends FeatureManager{
 						word = input.get(idx)[0];
 					}
 					if(idx > pos) continue; // Only consider the left window
-					features.add(param_g.toFeature(network, FeatureType.WORD+":"+relIdx, tag_id+"", word));
+					addObservation(network, observations, FeatureType.WORD+":"+relIdx, word);
 				}
 			}
 		}
 		
 		// POS tag window features
-		if(isEnabled(FeatureType.TAG) && tag_id != labelSize){
+		if(isEnabled(FeatureType.TAG) && withWindowFeatures){
 			int posWindowSize = posHalfWindowSize*2+1;
 			if(posWindowSize < 0){
 				posWindowSize = 0;
@@ -257,7 +315,7 @@ public class LinearCRFFeatureManager extends FeatureManager{
 				if(idx >= 0 && idx < size){
 					postag = input.get(idx)[1];
 				}
-				features.add(param_g.toFeature(network, FeatureType.TAG+":"+relIdx, tag_id+"", postag));
+				addObservation(network, observations, FeatureType.TAG+":"+relIdx, postag);
 			}
 		}
 		
@@ -276,7 +334,7 @@ public class LinearCRFFeatureManager extends FeatureManager{
 						bigram += " ";
 					}
 				}
-				features.add(param_g.toFeature(network, FeatureType.WORD_BIGRAM+":"+i, tag_id+"", bigram));
+				addObservation(network, observations, FeatureType.WORD_BIGRAM+":"+i, bigram);
 			}
 		}
 		
@@ -295,32 +353,15 @@ public class LinearCRFFeatureManager extends FeatureManager{
 						bigram += " ";
 					}
 				}
-				features.add(param_g.toFeature(network, FeatureType.TAG_BIGRAM+":"+i, tag_id+"", bigram));
+				addObservation(network, observations, FeatureType.TAG_BIGRAM+":"+i, bigram);
 			}
 		}
 		
 		// Label feature
 		if(isEnabled(FeatureType.LABEL)){
-			int labelFeature = param_g.toFeature(network, FeatureType.LABEL.name(), tag_id+"", "");
-			features.add(labelFeature);
-		}
-		FeatureArray featureArray = createFeatureArray(network, features);
-
-		// Edge-based features
-		features.clear();
-		// Label transition feature
-		if(isEnabled(FeatureType.TRANSITION)){
-			if(tag_id != labelSize && child_tag_id != labelSize){
-				int transitionFeature = param_g.toFeature(network, FeatureType.TRANSITION.name(), child_tag_id+" "+tag_id, "");
-				features.add(transitionFeature);
-			}
-		}
-		
-		if(features.size() > 0){
-			return createFeatureArray(network, features, featureArray);
-		} else {
-			return featureArray;
+			addObservation(network, observations, FeatureType.LABEL.name(), "");
 		}
+		return observations.toArray();
 	}
 
 }
@@ -24,7 +24,6 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.NoSuchElementException;
 
 import org.statnlp.commons.types.Instance;
 import org.statnlp.commons.types.Label;
@@ -35,8 +34,6 @@ import org.statnlp.hypergraph.LocalNetworkParam;
 import org.statnlp.hypergraph.Network;
 import org.statnlp.hypergraph.NetworkCompiler;
 import org.statnlp.hypergraph.NetworkIDMapper;
-import org.statnlp.hypergraph.decoding.NodeHypothesis;
-import org.statnlp.hypergraph.decoding.ScoredIndex;
 import org.statnlp.util.Pipeline;
 import org.statnlp.util.instance_parser.DelimiterBasedInstanceParser;
 
@@ -57,7 +54,7 @@ public class LinearCRFNetworkCompiler extends NetworkCompiler{
 	private static int MAX_LENGTH = 300;
 	
 	private long[] _allNodes;
-	private int[][][] _allChildren;
+	private BaseNetwork _genericUnlabeled;
 
 	public static HashMap<Long, HashMap<Long, Integer>> edge2idx;
 	private int edgeId;
@@ -82,6 +79,11 @@ public class LinearCRFNetworkCompiler extends NetworkCompiler{
 		this.compile_unlabled_generic();
 	}
 	
+	@Override
+	public boolean isLinearChain(){
+		return true;
+	}
+	
 	public BaseNetwork compileLabeled(int networkId, Instance instance, LocalNetworkParam param){
 		@SuppressWarnings("unchecked")
 		LinearInstance<Label> inst = (LinearInstance<Label>)instance;
@@ -131,7 +133,7 @@ public class LinearCRFNetworkCompiler extends NetworkCompiler{
 		int numNodes = pos+1; // Num nodes should equals to (instanceSize * (numLabels+1)) + 1
 //		System.out.println(String.format("Instance size: %d, Labels size: %d, numNodes: %d", size, _labels.size(), numNodes));
 		
-		BaseNetwork result = NetworkBuilder.quickBuild(BaseNetwork.class, networkId, inst, this._allNodes, this._allChildren, numNodes, param, this);
+		BaseNetwork result = NetworkBuilder.quickBuild(BaseNetwork.class, networkId, inst, this._genericUnlabeled, numNodes, param, this);
 		
 //		viewer.visualizeNetwork(result, null, "Unlabeled network for network "+networkId);
 		
@@ -179,7 +181,7 @@ public class LinearCRFNetworkCompiler extends NetworkCompiler{
 		BaseNetwork network = networkBuilder.buildRudimentaryNetwork();
 		
 		this._allNodes = network.getAllNodes();
-		this._allChildren = network.getAllChildren();
+		this._genericUnlabeled = network;
 		
 	}
 	
@@ -212,12 +214,13 @@ public class LinearCRFNetworkCompiler extends NetworkCompiler{
 		
 		ArrayList<ArrayList<Label>> topKPredictions = new ArrayList<ArrayList<Label>>();
 		for(int k=0; k<numPredictionsGenerated; k++){
-			try{
-				topKPredictions.add(getKthBestPrediction(instance, lcrfNetwork, k));
-			} catch (NoSuchElementException e){
+			if(!lcrfNetwork.selectKthBestPath(k)){
 				break;
 			}
+			topKPredictions.add(getMaxPrediction(instance, lcrfNetwork));
 		}
+		// Set the max paths to the best prediction again
+		lcrfNetwork.selectKthBestPath(0);
 		
 		LinearInstance<Label> result = instance.duplicate();
 		
@@ -227,27 +230,24 @@ public class LinearCRFNetworkCompiler extends NetworkCompiler{
 		return result;
 	}
 	
-	private ArrayList<Label> getKthBestPrediction(LinearInstance<Label> instance, BaseNetwork lcrfNetwork, int k){
+	/**
+	 * Returns the prediction following the max paths of the network.
+	 * @param instance
+	 * @param lcrfNetwork
+	 * @return
+	 */
+	private ArrayList<Label> getMaxPrediction(LinearInstance<Label> instance, BaseNetwork lcrfNetwork){
 		int size = instance.size();
 		ArrayList<Label> predictions = new ArrayList<Label>();
 		long root = toNode_root(size);
 		int node_k = Arrays.binarySearch(_allNodes, root);
-		NodeHypothesis nodeHypothesis = lcrfNetwork.getNodeHypothesis(node_k);
-		ScoredIndex bestPath = nodeHypothesis.getKthBestHypothesis(k);
-
-		ScoredIndex[] children_k;
 		for(int i=size-1; i>=0; i--){
-			try{
-				children_k = lcrfNetwork.getMaxPath(nodeHypothesis, bestPath);
-			} catch (NoSuchElementException e){
-				throw new NoSuchElementException("There is no "+k+"-best result!");
-			}
+			int[] children_k = lcrfNetwork.getMaxPath(node_k);
 			if(children_k.length != 1){
 				System.err.println("Child length not 1!");
 			}
-			int child_k = children_k[0].node_k;
+			int child_k = children_k[0];
 			long child = lcrfNetwork.getNode(child_k);
-			nodeHypothesis = lcrfNetwork.getNodeHypothesis(child_k);
 			int[] child_arr = NetworkIDMapper.toHybridNodeArray(child);
 			int pos = child_arr[0]-1;
 			int tag_id = child_arr[1];
@@ -255,8 +255,7 @@ public class LinearCRFNetworkCompiler extends NetworkCompiler{
 				System.err.println("Position encoded in the node array not the same as the interpretation!");
 			}
 			predictions.add(0, _labels.get(tag_id));
-//			node_k = child_k;
-			bestPath = children_k[0];
+			node_k = child_k;
 		}
 		return predictions;
 	}
@@ -57,6 +57,11 @@ public class ECRFNetworkCompiler extends NetworkCompiler{
 		return NetworkIDMapper.toHybridNodeID(arr);
 	}
 
+	@Override
+	public boolean isLinearChain(){
+		return true;
+	}
+	
 	public BaseNetwork compileLabeled(int networkId, Instance instance, LocalNetworkParam param){
 		ECRFInstance inst = (ECRFInstance)instance;
 		NetworkBuilder<BaseNetwork> lcrfNetwork = NetworkBuilder.builder();
@@ -21,7 +21,7 @@ public class SemiCRFNetworkCompiler extends NetworkCompiler {
 	public int maxSize = 128;
 	public int maxSegmentLength = 8;
 	public long[] allNodes;
-	public int[][][] allChildren;
+	public BaseNetwork genericUnlabeled;
 	
 	public enum NodeType {
 		LEAF,
@@ -81,7 +81,7 @@ public class SemiCRFNetworkCompiler extends NetworkCompiler {
 		long root = toNode_root(size);
 		int root_k = Arrays.binarySearch(allNodes, root);
 		int numNodes = root_k + 1;
-		return NetworkBuilder.quickBuild(networkId, instance, this.allNodes, this.allChildren, numNodes, param, this);
+		return NetworkBuilder.quickBuild(networkId, instance, this.genericUnlabeled, numNodes, param, this);
 	}
 	
 	//for O label, should only with span length 1.
@@ -138,7 +138,7 @@ public class SemiCRFNetworkCompiler extends NetworkCompiler {
 		BaseNetwork network = builder.buildRudimentaryNetwork();
 		//sViewer.visualizeNetwork(network, null, "UnLabeled Network");
 		allNodes = network.getAllNodes();
-		allChildren = network.getAllChildren();
+		genericUnlabeled = network;
 	}
 	
 	private long toNode_leaf(){
@@ -157,6 +157,16 @@ public class SemiCRFNetworkCompiler extends NetworkCompiler {
 		return NetworkIDMapper.toHybridNodeID(new int[]{pos, labelId, type.ordinal()});
 	}
 
+	/**
+	 * Each position has hyperedges from up to {@link #maxSegmentLength} previous positions,
+	 * so the network grows with the size times the maximum segment length.
+	 */
+	@Override
+	public double estimateNetworkSize(Instance inst) {
+		int size = inst.size();
+		return (double)size * Math.min(size, maxSegmentLength);
+	}
+
 	@Override
 	public SemiCRFInstance decompile(Network net) {
 		BaseNetwork network = (BaseNetwork)net;
@@ -64,6 +64,11 @@ public class TagNetworkCompiler extends NetworkCompiler {
 		return NetworkIDMapper.toHybridNodeID(new int[]{pos, labelId, nodeType.ordinal()});
 	}
 	
+	@Override
+	public boolean isLinearChain(){
+		return true;
+	}
+	
 	@Override
 	public BaseNetwork compileLabeled(int networkId, Instance inst, LocalNetworkParam param) {
 		NetworkBuilder<BaseNetwork> builder = NetworkBuilder.builder();
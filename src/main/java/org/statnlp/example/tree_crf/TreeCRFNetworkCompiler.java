@@ -92,13 +92,12 @@ public class TreeCRFNetworkCompiler extends NetworkCompiler {
 	public BaseNetwork compileUnlabeled(int networkId, Instance instance, LocalNetworkParam param){
 		int size = instance.size();
 		long[] allNodes = genericUnlabeled.getAllNodes();
-		int[][][] allChildren = genericUnlabeled.getAllChildren();
 
 		long root = toNode_root(size-1);
 		int root_k = Arrays.binarySearch(allNodes, root);
 		int numNodes = root_k+1;
 		
-		BaseNetwork network = NetworkBuilder.quickBuild(networkId, instance, allNodes, allChildren, numNodes, param, this);
+		BaseNetwork network = NetworkBuilder.quickBuild(networkId, instance, genericUnlabeled, numNodes, param, this);
 		return network;
 	}
 	
@@ -225,6 +224,16 @@ public class TreeCRFNetworkCompiler extends NetworkCompiler {
 		return NetworkIDMapper.toHybridNodeID(arr);
 	}
 
+	/**
+	 * Each of the O(n^2) spans has hyperedges for each of its O(n) split points,
+	 * so the network grows with the cube of the size.
+	 */
+	@Override
+	public double estimateNetworkSize(Instance inst) {
+		double size = inst.size();
+		return size * size * size;
+	}
+
 	/**
 	 * Convert a network into an instance, the surface form.<br>
 	 * This process is also called the decoding part (e.g., to get the
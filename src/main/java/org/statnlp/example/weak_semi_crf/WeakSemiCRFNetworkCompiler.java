@@ -199,6 +199,16 @@ public class WeakSemiCRFNetworkCompiler extends NetworkCompiler {
 		return NetworkIDMapper.toHybridNodeID(new int[]{pos, type.ordinal(), labelId});
 	}
 
+	/**
+	 * Each position has hyperedges from up to {@link #maxSegmentLength} previous positions,
+	 * so the network grows with the size times the maximum segment length.
+	 */
+	@Override
+	public double estimateNetworkSize(Instance inst) {
+		int size = inst.size();
+		return (double)size * Math.min(size, maxSegmentLength);
+	}
+
 	@Override
 	public LinearInstance<Span> decompile(Network net) {
 		BaseNetwork network = (BaseNetwork)net;
@@ -0,0 +1,187 @@
+/** Statistical Natural Language Processing System
+    Copyright (C) 2014-2016  Lu, Wei
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.statnlp.hypergraph;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A compact representation of the hyperedges of a network, similar to the compressed sparse row (CSR)
+ * format for sparse matrices.<br>
+ * Instead of storing each hyperedge as a separate array (see {@link TableLookupNetwork#getAllChildren()}),
+ * all hyperedges are stored in three flat arrays:
+ * <ol>
+ * <li>{@link #edgeOffsets}: the hyperedges of node k are the hyperedges with index <code>edgeOffsets[k]</code>
+ * (inclusive) up to <code>edgeOffsets[k+1]</code> (exclusive).</li>
+ * <li>{@link #childOffsets}: the children of hyperedge e are stored in {@link #children} from index
+ * <code>childOffsets[e]</code> (inclusive) up to <code>childOffsets[e+1]</code> (exclusive).
+ * So the arity of hyperedge e is <code>childOffsets[e+1]-childOffsets[e]</code>.</li>
+ * <li>{@link #children}: the child node indices of all hyperedges, one hyperedge after another.</li>
+ * </ol>
+ * Since the hyperedges are ordered by their parent node, the first n entries of each array form a valid
+ * representation of the sub-network consisting of the first n nodes, so one object can be shared by all
+ * networks created from a generic network.
+ * @see NetworkConfig#USE_COMPACT_NETWORK_STORAGE
+ */
+public class CompactEdges implements Serializable {
+
+	private static final long serialVersionUID = 3209457361948532517L;
+
+	/** The index of the first hyperedge of each node, with one extra entry at the end */
+	public final int[] edgeOffsets;
+	/** The index (in {@link #children}) of the first child of each hyperedge, with one extra entry at the end */
+	public final int[] childOffsets;
+	/** The child node indices of all hyperedges */
+	public final int[] children;
+
+	public CompactEdges(int[] edgeOffsets, int[] childOffsets, int[] children){
+		this.edgeOffsets = edgeOffsets;
+		this.childOffsets = childOffsets;
+		this.children = children;
+	}
+
+	/**
+	 * Creates the compact representation of the hyperedges stored in the nested array form,
+	 * where <code>childrenList[k][i]</code> is the child node indices of the i-th hyperedge of node k.
+	 * @param childrenList
+	 * @return
+	 */
+	public static CompactEdges fromNested(int[][][] childrenList){
+		int numEdges = 0;
+		int numChildren = 0;
+		for(int[][] edges: childrenList){
+			numEdges += edges.length;
+			for(int[] edge: edges){
+				numChildren += edge.length;
+			}
+		}
+		int[] edgeOffsets = new int[childrenList.length+1];
+		int[] childOffsets = new int[numEdges+1];
+		int[] children = new int[numChildren];
+		int edge = 0;
+		int child = 0;
+		for(int k=0; k<childrenList.length; k++){
+			edgeOffsets[k] = edge;
+			for(int[] edgeChildren: childrenList[k]){
+				childOffsets[edge++] = child;
+				System.arraycopy(edgeChildren, 0, children, child, edgeChildren.length);
+				child += edgeChildren.length;
+			}
+		}
+		edgeOffsets[childrenList.length] = edge;
+		childOffsets[numEdges] = child;
+		return new CompactEdges(edgeOffsets, childOffsets, children);
+	}
+
+	/**
+	 * Returns the number of nodes covered by this representation
+	 * @return
+	 */
+	public int countNodes(){
+		return this.edgeOffsets.length-1;
+	}
+
+	/**
+	 * Returns the number of hyperedges coming out of node k
+	 * @param k
+	 * @return
+	 */
+	public int countEdges(int k){
+		return this.edgeOffsets[k+1]-this.edgeOffsets[k];
+	}
+
+	/**
+	 * Returns the global index of the specified hyperedge of node k
+	 * @param k
+	 * @param children_k_index
+	 * @return
+	 */
+	public int getEdge(int k, int children_k_index){
+		return this.edgeOffsets[k]+children_k_index;
+	}
+
+	/**
+	 * Returns the number of children of the hyperedge with the specified global index
+	 * @param edge
+	 * @return
+	 */
+	public int getArity(int edge){
+		return this.childOffsets[edge+1]-this.childOffsets[edge];
+	}
+
+	/**
+	 * Returns a copy of the child node indices of the specified hyperedge of node k
+	 * @param k
+	 * @param children_k_index
+	 * @return
+	 */
+	public int[] getChildren(int k, int children_k_index){
+		int edge = this.getEdge(k, children_k_index);
+		return Arrays.copyOfRange(this.children, this.childOffsets[edge], this.childOffsets[edge+1]);
+	}
+
+	/**
+	 * Returns a copy of the child node indices of all hyperedges of node k, in the nested array form
+	 * @param k
+	 * @return
+	 */
+	public int[][] getChildren(int k){
+		int[][] result = new int[this.countEdges(k)][];
+		for(int i=0; i<result.length; i++){
+			result[i] = this.getChildren(k, i);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns whether the specified hyperedge of node k has exactly the given child node indices
+	 * @param k
+	 * @param children_k_index
+	 * @param children_k
+	 * @return
+	 */
+	public boolean hasChildren(int k, int children_k_index, int[] children_k){
+		if(children_k == null){
+			return false;
+		}
+		int edge = this.getEdge(k, children_k_index);
+		int start = this.childOffsets[edge];
+		if(this.childOffsets[edge+1]-start != children_k.length){
+			return false;
+		}
+		for(int i=0; i<children_k.length; i++){
+			if(this.children[start+i] != children_k[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Converts this representation back into the nested array form, for the first numNodes nodes
+	 * @param numNodes
+	 * @return
+	 */
+	public int[][][] toNested(int numNodes){
+		int[][][] result = new int[numNodes][][];
+		for(int k=0; k<numNodes; k++){
+			result[k] = this.getChildren(k);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,278 @@
+/** Statistical Natural Language Processing System
+    Copyright (C) 2014-2016  Lu, Wei
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.statnlp.hypergraph;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A feature index shared by all threads during the parallel touch process.<br>
+ * Each feature is keyed on its (type, output, input) triple. The triples are packed in a flat int array
+ * of an open-addressing hash table, which is split into segments.<br>
+ * Lookups take no lock: each segment publishes its table through a volatile reference, and the feature ID of
+ * a slot is written after its triple, so a thread which sees the ID also sees the triple.
+ * Only insertions and resizing lock the segment (lock striping), so threads extracting features at the same
+ * time rarely wait for each other.<br>
+ * The feature IDs assigned here are already the global feature IDs, so unlike the per-thread feature indices,
+ * nothing needs to be merged or remapped after the touch process.<br>
+ * Since the global feature IDs require the string IDs to be the same in all threads, the strings used as the
+ * feature type, output, and input are also indexed here, also with lock-free lookups and striped insertions.
+ * @see NetworkConfig#USE_CONCURRENT_FEATURE_INDEX
+ */
+public class ConcurrentFeatureIndex {
+
+	/** The number of segments, must be a power of two */
+	private static final int NUM_SEGMENTS = 64;
+	/** The shift to get the segment from the hash, which is 32-log2({@link #NUM_SEGMENTS}) */
+	private static final int SEGMENT_SHIFT = 26;
+
+	private final Segment[] segments;
+	/** The number of features, which is also the next feature ID */
+	private final AtomicInteger size;
+	/** The string index, where a string is only inserted while holding the lock of its stripe */
+	private final ConcurrentHashMap<String, Integer> strings;
+	/** The locks for inserting strings, one per stripe of the string hash */
+	private final Object[] stringLocks;
+	/** The number of strings, which is also the next string ID */
+	private final AtomicInteger numStrings;
+
+	/**
+	 * Creates an empty index with default capacity.
+	 */
+	public ConcurrentFeatureIndex(){
+		this(1 << 16);
+	}
+
+	/**
+	 * Creates an empty index which can hold the specified number of features before resizing.
+	 * @param capacity
+	 */
+	public ConcurrentFeatureIndex(int capacity){
+		this.segments = new Segment[NUM_SEGMENTS];
+		for(int i=0; i<NUM_SEGMENTS; i++){
+			this.segments[i] = new Segment(capacity/NUM_SEGMENTS);
+		}
+		this.size = new AtomicInteger(0);
+		this.strings = new ConcurrentHashMap<String, Integer>();
+		this.stringLocks = new Object[NUM_SEGMENTS];
+		for(int i=0; i<NUM_SEGMENTS; i++){
+			this.stringLocks[i] = new Object();
+		}
+		this.numStrings = new AtomicInteger(0);
+	}
+
+	/**
+	 * Returns the ID of the specified string, assigning it the next available ID if it is not already present.
+	 * @param str
+	 * @return
+	 */
+	public int toInt(String str){
+		Integer id = this.strings.get(str);
+		if(id == null){
+			synchronized(this.stringLocks[str.hashCode() & (NUM_SEGMENTS-1)]){
+				id = this.strings.get(str);
+				if(id == null){
+					id = this.numStrings.getAndIncrement();
+					this.strings.put(str, id);
+				}
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the ID of the specified feature, assigning it the next available ID if it is not already present.
+	 * @param type
+	 * @param output
+	 * @param input
+	 * @return
+	 */
+	public int getOrPut(int type, int output, int input){
+		int hash = hash(type, output, input);
+		return this.segments[hash >>> SEGMENT_SHIFT].getOrPut(type, output, input, hash, this.size);
+	}
+
+	/**
+	 * Returns the ID of the specified feature, or -1 if it is not present.
+	 * @param type
+	 * @param output
+	 * @param input
+	 * @return
+	 */
+	public int get(int type, int output, int input){
+		int hash = hash(type, output, input);
+		return this.segments[hash >>> SEGMENT_SHIFT].get(type, output, input, hash);
+	}
+
+	/**
+	 * Returns the number of features in this index.
+	 * @return
+	 */
+	public int size(){
+		return this.size.get();
+	}
+
+	/**
+	 * Returns a new {@link StringIndex} containing the strings in this index, with the same IDs.<br>
+	 * This should only be called when no other thread is using this index.
+	 * @return
+	 */
+	public StringIndex toStringIndex(){
+		StringIndex result = new StringIndex(this.strings.size());
+		for(Map.Entry<String, Integer> entry: this.strings.entrySet()){
+			result.forcePut(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a new {@link PackedFeatureIndex} containing the features in this index, with the same IDs.<br>
+	 * This should only be called when no other thread is using this index.
+	 * @return
+	 */
+	public PackedFeatureIndex toPackedFeatureIndex(){
+		PackedFeatureIndex result = new PackedFeatureIndex(this.size());
+		for(Segment segment: this.segments){
+			Table table = segment.table;
+			for(int slot=0; slot<table.ids.length(); slot++){
+				int id = table.ids.get(slot);
+				if(id == -1){
+					continue;
+				}
+				int pos = 3*slot;
+				result.getOrPut(table.keys[pos], table.keys[pos+1], table.keys[pos+2], id);
+			}
+		}
+		return result;
+	}
+
+	private static int hash(int type, int output, int input){
+		int h = type * 0x9E3779B9 + output;
+		h = h * 0x9E3779B9 + input;
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * The hash table of a segment, an open-addressing hash table with linear probing.<br>
+	 * The table is never resized in place: a larger table is filled and then published instead.
+	 */
+	private static final class Table {
+
+		/** The (type, output, input) triple of each slot */
+		private final int[] keys;
+		/** The feature ID of each slot, -1 if the slot is empty, written after the triple of the slot */
+		private final AtomicIntegerArray ids;
+		private final int mask;
+
+		private Table(int numSlots){
+			this.keys = new int[3*numSlots];
+			this.ids = new AtomicIntegerArray(numSlots);
+			for(int slot=0; slot<numSlots; slot++){
+				this.ids.lazySet(slot, -1);
+			}
+			this.mask = numSlots-1;
+		}
+
+		/**
+		 * Returns the slot containing the specified triple, or the empty slot where it should be inserted.
+		 */
+		private int find(int type, int output, int input, int hash){
+			int slot = hash & this.mask;
+			while(this.ids.get(slot) != -1){
+				int pos = 3*slot;
+				if(this.keys[pos] == type && this.keys[pos+1] == output && this.keys[pos+2] == input){
+					return slot;
+				}
+				slot = (slot+1) & this.mask;
+			}
+			return slot;
+		}
+
+		private void put(int slot, int type, int output, int input, int id){
+			int pos = 3*slot;
+			this.keys[pos] = type;
+			this.keys[pos+1] = output;
+			this.keys[pos+2] = input;
+			this.ids.set(slot, id);
+		}
+	}
+
+	/**
+	 * One segment of the index, where lookups read the current table without locking,
+	 * and insertions lock the segment.
+	 */
+	private static final class Segment {
+
+		private volatile Table table;
+		/** The number of features in this segment, only accessed while holding the lock of the segment */
+		private int count;
+
+		private Segment(int capacity){
+			int numSlots = 16;
+			while(numSlots < 2*capacity){
+				numSlots <<= 1;
+			}
+			this.table = new Table(numSlots);
+		}
+
+		private int get(int type, int output, int input, int hash){
+			Table table = this.table;
+			return table.ids.get(table.find(type, output, input, hash));
+		}
+
+		private int getOrPut(int type, int output, int input, int hash, AtomicInteger size){
+			int id = this.get(type, output, input, hash);
+			if(id != -1){
+				return id;
+			}
+			synchronized(this){
+				Table table = this.table;
+				int slot = table.find(type, output, input, hash);
+				id = table.ids.get(slot);
+				if(id == -1){
+					id = size.getAndIncrement();
+					table.put(slot, type, output, input, id);
+					this.count++;
+					if(2*this.count > table.ids.length()){
+						this.rehash(table);
+					}
+				}
+				return id;
+			}
+		}
+
+		private void rehash(Table oldTable){
+			Table newTable = new Table(2*oldTable.ids.length());
+			for(int slot=0; slot<oldTable.ids.length(); slot++){
+				int id = oldTable.ids.get(slot);
+				if(id == -1){
+					continue;
+				}
+				int pos = 3*slot;
+				int type = oldTable.keys[pos];
+				int output = oldTable.keys[pos+1];
+				int input = oldTable.keys[pos+2];
+				newTable.put(newTable.find(type, output, input, hash(type, output, input)), type, output, input, id);
+			}
+			this.table = newTable;
+		}
+	}
+
+}
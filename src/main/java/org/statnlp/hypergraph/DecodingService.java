@@ -0,0 +1,146 @@
+/** Statistical Natural Language Processing System
+    Copyright (C) 2014-2016  Lu, Wei
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.statnlp.hypergraph;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.statnlp.commons.types.Instance;
+
+/**
+ * A long-lived decoding service for a trained model, which decodes instances submitted one at a time.<br>
+ * Unlike {@link NetworkModel#decode(Instance[])}, which creates new decoder threads for each batch and returns
+ * only when the whole batch is decoded, this service keeps a fixed pool of worker threads. Each worker has its own
+ * {@link LocalNetworkParam} and {@link InferenceWorkspace}, which are reused for all instances it decodes, and
+ * each submitted instance is completed as soon as it is decoded.<br>
+ * The networks compiled here are not stored in the compiler, so the service can run indefinitely, and the
+ * instance IDs only need to be unique among the instances being decoded at the same time.<br>
+ * The model should not be trained while the service is running.
+ * The reduced-precision weights (see {@link NetworkConfig#DECODING_WEIGHT_PRECISION}), if used, are created when the
+ * service is created.
+ * Models using neural features are not supported, since their neural network is run on the whole batch at once.
+ * @see NetworkModel#createDecodingService(int)
+ */
+public class DecodingService {
+
+	private final NetworkModel model;
+	private final ExecutorService executor;
+	/** The reduced-precision weights shared by all workers, if any */
+	private final DecodingWeights decodingWeights;
+
+	/**
+	 * Creates a decoding service for the specified model with the specified number of worker threads.
+	 * @param model The trained model.
+	 * @param numThreads The number of worker threads.
+	 */
+	public DecodingService(NetworkModel model, int numThreads){
+		if(model.getConfig().isUsingNeuralFeatures()){
+			throw new RuntimeException("The decoding service does not support neural features.");
+		}
+		if(numThreads < 1){
+			throw new IllegalArgumentException("The number of threads should be positive, received: "+numThreads);
+		}
+		this.model = model;
+		this.decodingWeights = model.getFeatureManager().getParam_G().getDecodingWeights();
+		this.executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new WorkerFactory());
+	}
+
+	/**
+	 * Submits an instance to be decoded.
+	 * @param instance The instance to be decoded.
+	 * @return A future which is completed with the instance with its prediction set.
+	 */
+	public CompletableFuture<Instance> submit(Instance instance){
+		return this.submit(instance, 1);
+	}
+
+	/**
+	 * Submits an instance to be decoded, taking the top-k structures.
+	 * @param instance The instance to be decoded.
+	 * @param numPredictionsGenerated The number of top-k structures to be decoded.
+	 * @return A future which is completed with the instance with its prediction(s) set.
+	 */
+	public CompletableFuture<Instance> submit(final Instance instance, final int numPredictionsGenerated){
+		return CompletableFuture.supplyAsync(new Supplier<Instance>(){
+			@Override
+			public Instance get() {
+				return ((Worker)Thread.currentThread()).decode(instance, numPredictionsGenerated);
+			}
+		}, this.executor);
+	}
+
+	/**
+	 * Stops accepting new instances. The instances already submitted are still decoded.
+	 */
+	public void shutdown(){
+		this.executor.shutdown();
+	}
+
+	/**
+	 * Waits until all submitted instances are decoded after {@link #shutdown()}, or until the timeout.
+	 * @param timeout
+	 * @param unit
+	 * @return Whether all instances are decoded.
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException{
+		return this.executor.awaitTermination(timeout, unit);
+	}
+
+	private class WorkerFactory implements ThreadFactory {
+
+		private final AtomicInteger numWorkers = new AtomicInteger(0);
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Worker worker = new Worker(r, this.numWorkers.getAndIncrement());
+			worker.setDaemon(true);
+			return worker;
+		}
+	}
+
+	/**
+	 * A worker thread, holding the decoder state reused for all instances it decodes.
+	 */
+	private class Worker extends Thread {
+
+		private final LocalNetworkDecoderThread decoder;
+
+		private Worker(Runnable r, int workerId){
+			super(r, "DecodingService-"+workerId);
+			FeatureManager fm = model.getFeatureManager();
+			LocalNetworkParam param = new LocalNetworkParam(workerId, fm, 0);
+			param.disableCache();
+			param.setWorkspace(new InferenceWorkspace());
+			param.setDecodingWeights(decodingWeights);
+			this.decoder = new LocalNetworkDecoderThread(workerId, fm, new Instance[0], model._compiler, param, false);
+		}
+
+		private Instance decode(Instance instance, int numPredictionsGenerated){
+			Network network = model._compiler.compile(0, instance, this.decoder.getParam());
+			return this.decoder.decode(network, numPredictionsGenerated);
+		}
+	}
+
+}
@@ -0,0 +1,160 @@
+/** Statistical Natural Language Processing System
+    Copyright (C) 2014-2016  Lu, Wei
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.statnlp.hypergraph;
+
+import java.nio.DoubleBuffer;
+
+import org.statnlp.hypergraph.NetworkConfig.WeightPrecision;
+
+/**
+ * A read-only copy of the weights in reduced precision, used by {@link LocalNetworkParam#getWeight(int)}
+ * during decoding in place of the weights in {@link GlobalNetworkParam}.
+ * @see NetworkConfig#DECODING_WEIGHT_PRECISION
+ */
+public abstract class DecodingWeights {
+
+	/** The number of features sharing one scale in {@link WeightPrecision#INT16}, must be a power of two */
+	public static final int BLOCK_SIZE = 256;
+	private static final int BLOCK_SHIFT = 8;
+
+	/**
+	 * Creates a copy of the specified weights in the specified precision.
+	 * @param weights
+	 * @param precision
+	 * @return The reduced-precision weights, or null if the precision is {@link WeightPrecision#DOUBLE}.
+	 */
+	public static DecodingWeights create(double[] weights, WeightPrecision precision){
+		return create(DoubleBuffer.wrap(weights), precision);
+	}
+
+	/**
+	 * Creates a copy of the weights in the specified buffer in the specified precision, without copying
+	 * the weights in double precision first, e.g., when the buffer is mapped from a model file.
+	 * @param weights The weights, from position 0 to the limit of the buffer
+	 * @param precision
+	 * @return The reduced-precision weights, or null if the precision is {@link WeightPrecision#DOUBLE}.
+	 * @see MappedModelFile#read(java.io.File, WeightPrecision)
+	 */
+	public static DecodingWeights create(DoubleBuffer weights, WeightPrecision precision){
+		switch(precision){
+		case DOUBLE:
+			return null;
+		case FLOAT:
+			return new FloatWeights(weights);
+		case INT16:
+			return new Int16Weights(weights);
+		default:
+			throw new IllegalArgumentException("Unsupported weight precision: "+precision);
+		}
+	}
+
+	/**
+	 * Returns the precision of the weights.
+	 * @return
+	 */
+	public abstract WeightPrecision getPrecision();
+
+	/**
+	 * Returns the weight of the specified feature.
+	 * @param f
+	 * @return
+	 */
+	public abstract double get(int f);
+
+	/**
+	 * Returns the number of bytes used to store the weights.
+	 * @return
+	 */
+	public abstract long memoryBytes();
+
+	private static class FloatWeights extends DecodingWeights {
+
+		private final float[] weights;
+
+		private FloatWeights(DoubleBuffer weights){
+			this.weights = new float[weights.limit()];
+			for(int f=0; f<this.weights.length; f++){
+				this.weights[f] = (float)weights.get(f);
+			}
+		}
+
+		@Override
+		public WeightPrecision getPrecision(){
+			return WeightPrecision.FLOAT;
+		}
+
+		@Override
+		public double get(int f){
+			return this.weights[f];
+		}
+
+		@Override
+		public long memoryBytes(){
+			return 4L*this.weights.length;
+		}
+	}
+
+	/**
+	 * The weights quantized into 16-bit integers, where each block of {@link DecodingWeights#BLOCK_SIZE} features
+	 * is scaled by the largest absolute weight in the block.<br>
+	 * A scale per block is used instead of per feature type, since the feature IDs are not grouped by feature type,
+	 * so the type of a feature is not known at scoring time without an additional lookup.
+	 */
+	private static class Int16Weights extends DecodingWeights {
+
+		private final short[] weights;
+		private final float[] scales;
+
+		private Int16Weights(DoubleBuffer weights){
+			this.weights = new short[weights.limit()];
+			this.scales = new float[(this.weights.length+BLOCK_SIZE-1) >>> BLOCK_SHIFT];
+			for(int block=0; block<this.scales.length; block++){
+				int start = block << BLOCK_SHIFT;
+				int end = Math.min(start+BLOCK_SIZE, this.weights.length);
+				double max = 0.0;
+				for(int f=start; f<end; f++){
+					max = Math.max(max, Math.abs(weights.get(f)));
+				}
+				float scale = (float)(max/Short.MAX_VALUE);
+				this.scales[block] = scale;
+				if(scale == 0.0f){
+					continue;
+				}
+				for(int f=start; f<end; f++){
+					long quantized = Math.round(weights.get(f)/scale);
+					this.weights[f] = (short)Math.max(-Short.MAX_VALUE, Math.min(Short.MAX_VALUE, quantized));
+				}
+			}
+		}
+
+		@Override
+		public WeightPrecision getPrecision(){
+			return WeightPrecision.INT16;
+		}
+
+		@Override
+		public double get(int f){
+			return this.weights[f] * this.scales[f >>> BLOCK_SHIFT];
+		}
+
+		@Override
+		public long memoryBytes(){
+			return 2L*this.weights.length + 4L*this.scales.length;
+		}
+	}
+
+}
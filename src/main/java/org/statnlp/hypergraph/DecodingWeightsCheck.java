@@ -0,0 +1,102 @@
+/** Statistical Natural Language Processing System
+    Copyright (C) 2014-2016  Lu, Wei
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.statnlp.hypergraph;
+
+import java.util.Objects;
+
+import org.statnlp.commons.types.Instance;
+import org.statnlp.hypergraph.NetworkConfig.WeightPrecision;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * A tool to check the effect of decoding with reduced-precision weights (see {@link DecodingWeights}),
+ * by comparing the predictions against those made with the weights in double precision.
+ */
+public class DecodingWeightsCheck {
+
+	/**
+	 * The result of the comparison.
+	 */
+	public static class Result {
+		/** The precision being checked */
+		public WeightPrecision precision;
+		/** The number of instances decoded */
+		public int numInstances;
+		/** The number of instances with the same prediction in both precisions */
+		public int numSamePredictions;
+		/** The number of bytes used by the weights in double precision */
+		public long doubleBytes;
+		/** The number of bytes used by the weights in the checked precision */
+		public long reducedBytes;
+
+		/**
+		 * Returns the proportion of instances with the same prediction in both precisions.
+		 * @return
+		 */
+		public double getAgreement(){
+			return this.numInstances == 0 ? 1.0 : 1.0*this.numSamePredictions/this.numInstances;
+		}
+
+		@Override
+		public String toString(){
+			return String.format("%s: %d/%d (%.2f%%) same predictions, weights %d bytes -> %d bytes",
+					this.precision, this.numSamePredictions, this.numInstances, 100*this.getAgreement(),
+					this.doubleBytes, this.reducedBytes);
+		}
+	}
+
+	/**
+	 * Decodes the instances with the weights in double precision and in the specified precision,
+	 * and compares the predictions.<br>
+	 * The instances should have distinct instance IDs, as required by {@link NetworkModel#decode(Instance[])}.
+	 * The decoding weight precision of the model configuration is restored afterwards.
+	 * @param model The trained model.
+	 * @param instances The instances to be decoded.
+	 * @param precision The precision to be checked.
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public static Result compare(NetworkModel model, Instance[] instances, WeightPrecision precision) throws InterruptedException{
+		ModelConfig config = model.getConfig();
+		WeightPrecision originalPrecision = config.getDecodingWeightPrecision();
+		Result result = new Result();
+		result.precision = precision;
+		try{
+			config.setDecodingWeightPrecision(WeightPrecision.DOUBLE);
+			TIntObjectHashMap<Object> expectedPredictions = new TIntObjectHashMap<Object>();
+			for(Instance output: model.decode(instances)){
+				expectedPredictions.put(output.getInstanceId(), output.getPrediction());
+			}
+			config.setDecodingWeightPrecision(precision);
+			for(Instance output: model.decode(instances)){
+				result.numInstances++;
+				if(Objects.equals(expectedPredictions.get(output.getInstanceId()), output.getPrediction())){
+					result.numSamePredictions++;
+				}
+			}
+			GlobalNetworkParam param = model.getFeatureManager().getParam_G();
+			DecodingWeights decodingWeights = param.getDecodingWeights();
+			result.doubleBytes = 8L*param.size();
+			result.reducedBytes = decodingWeights == null ? result.doubleBytes : decodingWeights.memoryBytes();
+		} finally {
+			config.setDecodingWeightPrecision(originalPrecision);
+		}
+		return result;
+	}
+
+}
@@ -49,20 +49,9 @@ public class DiscriminativeNetworkModel extends NetworkModel {
 		
 		Instance[][] insts = new Instance[this._numThreads][];
 
-		ArrayList<ArrayList<Instance>> insts_list = new ArrayList<ArrayList<Instance>>();
-		int threadId;
-		for(threadId = 0; threadId<this._numThreads; threadId++){
-			insts_list.add(new ArrayList<Instance>());
-		}
-		
-		threadId = 0;
-		for(int k = 0; k<this._allInstances.length; k++){
-			Instance inst = this._allInstances[k];
-			insts_list.get(threadId).add(inst);
-			threadId = (threadId+1)%this._numThreads;
-		}
+		ArrayList<ArrayList<Instance>> insts_list = this.assignInstancesToThreads(this._allInstances);
 		
-		for(threadId = 0; threadId<this._numThreads; threadId++){
+		for(int threadId = 0; threadId<this._numThreads; threadId++){
 			int size = insts_list.get(threadId).size();
 			insts[threadId] = new Instance[size*2];
 			//put a very small modification here:
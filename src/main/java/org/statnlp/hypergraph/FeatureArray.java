@@ -171,7 +171,8 @@ public class FeatureArray implements Serializable{
 				localIdx--;
 				continue;
 			}
-			if(!NetworkConfig.PARALLEL_FEATURE_EXTRACTION || NetworkConfig.NUM_THREADS == 1 || param._isFinalized){
+			if(!NetworkConfig.PARALLEL_FEATURE_EXTRACTION || param.getConfig().getNumThreads() == 1
+					|| NetworkConfig.USE_CONCURRENT_FEATURE_INDEX || param._isFinalized){
 				fs_local[localIdx] = param.toLocalFeature(this._fb.get(k));
 			} else {
 				fs_local[localIdx] = this._fb.get(k);
@@ -187,7 +188,7 @@ public class FeatureArray implements Serializable{
 		
 		FeatureArray fa;
 		if (this._next != null){
-			fa = new FeatureArray(FeatureBox.getFeatureBox(fs_local, fv_local, param), this._next.toLocal(param)); //saving memory
+			fa = new FeatureArray(FeatureBox.getFeatureBox(fs_local, fv_local, param), param.toLocalNext(this._next)); //saving memory
 		} else {
 			fa = new FeatureArray(FeatureBox.getFeatureBox(fs_local, fv_local, param)); //saving memory
 		}
@@ -222,6 +223,15 @@ public class FeatureArray implements Serializable{
 		return this._next;
 	}
 	
+	/**
+	 * Returns whether the features in this array (excluding the chained feature arrays) are fully described by
+	 * their indices, i.e., they have no feature values and are not joint features for mean-field inference.
+	 * @return
+	 */
+	boolean isPlain(){
+		return (this._fb._fv == null || !NetworkConfig.USE_FEATURE_VALUE) && !this._fb._alwaysChange && this.dstNodes == null;
+	}
+	
 	public FeatureArray addNext(FeatureArray nextFa) {
 		this._next = nextFa;
 		return this._next;
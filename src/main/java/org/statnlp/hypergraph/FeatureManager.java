@@ -21,12 +21,21 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.statnlp.util.instance_parser.InstanceParser;
 
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 
@@ -67,6 +76,15 @@ public abstract class FeatureManager implements Serializable{
 	
 	protected int _numThreads;
 	
+	/** The local feature indices of each thread, sorted by their global feature indices, used in the parallel reduction */
+	private transient int[][] _sortedLocalFeatures;
+	/** The global feature indices of {@link #_sortedLocalFeatures} */
+	private transient int[][] _sortedGlobalFeatures;
+	/** The local-to-global feature arrays from which the sorted feature indices were built */
+	private transient int[][] _reducedFeatures;
+	/** The threads used in the parallel reduction */
+	private transient ExecutorService _reductionPool;
+	
 	public FeatureManager(GlobalNetworkParam param_g){
 		this(param_g, null);
 	}
@@ -74,7 +92,7 @@ public abstract class FeatureManager implements Serializable{
 	public FeatureManager(GlobalNetworkParam param_g, InstanceParser instanceParser){
 		this._param_g = param_g;
 		this._instanceParser = instanceParser;
-		this._numThreads = NetworkConfig.NUM_THREADS;
+		this._numThreads = this._param_g.getConfig().getNumThreads();
 		this._params_l = new LocalNetworkParam[this._numThreads];
 		this._cacheEnabled = false;
 	}
@@ -102,30 +120,48 @@ public abstract class FeatureManager implements Serializable{
 	 */
 	public synchronized boolean update(boolean justUpdateObjectiveAndGradient){
 		//if the number of thread is 1, then your local param fetches information directly from the global param.
-		if(NetworkConfig.NUM_THREADS != 1){
+		if(this._param_g.getConfig().getNumThreads() != 1){
 			this._param_g.resetCountsAndObj();
 			
-			for(LocalNetworkParam param_l : this._params_l){
-				int[] fs = param_l.getFeatures();
-				for(int f_local = 0; f_local<fs.length; f_local++){
-					int f_global = fs[f_local];
-					double count = param_l.getCount(f_local);
-					this._param_g.addCount(f_global, count);
+			if(this._param_g.isSparseUpdate()){
+				// Only the features in the current batch have counts
+				for(LocalNetworkParam param_l : this._params_l){
+					int[] fs = param_l.getFeatures();
+					int[] touched = param_l.getTouchedFeatures();
+					for(int i = 0; i<param_l.countTouchedFeatures(); i++){
+						int f_local = touched[i];
+						this._param_g.addCount(fs[f_local], param_l.getCount(f_local));
+					}
+					this._param_g.addObj(param_l.getObj());
+				}
+			} else if(NetworkConfig.PARALLEL_GRADIENT_REDUCTION){
+				this.reduceCountsInParallel();
+				for(LocalNetworkParam param_l : this._params_l){
+					this._param_g.addObj(param_l.getObj());
+				}
+			} else {
+				for(LocalNetworkParam param_l : this._params_l){
+					int[] fs = param_l.getFeatures();
+					for(int f_local = 0; f_local<fs.length; f_local++){
+						int f_global = fs[f_local];
+						double count = param_l.getCount(f_local);
+						this._param_g.addCount(f_global, count);
+					}
+					this._param_g.addObj(param_l.getObj());
 				}
-				this._param_g.addObj(param_l.getObj());
 			}
 		}
 		if(justUpdateObjectiveAndGradient){
 			this._param_g._obj_old = this._param_g._obj;
 			return false;
 		}
-		if (NetworkConfig.USE_NEURAL_FEATURES) {
+		if (this._param_g.getConfig().isUsingNeuralFeatures()) {
 			this._param_g.getNNParamG().backward();
 		}
 		
 		boolean done = this._param_g.update();
 
-		if(NetworkConfig.NUM_THREADS != 1){
+		if(this._param_g.getConfig().getNumThreads() != 1){
 			for(LocalNetworkParam param_l : this._params_l){
 				param_l.reset();
 			}
@@ -134,6 +170,111 @@ public abstract class FeatureManager implements Serializable{
 		}
 		return done;
 	}
+
+	/**
+	 * Sums the counts of all threads into the global counts, using one task for each range of global features.<br>
+	 * Each task only updates the features in its own range, going through the threads in order, so no locking is
+	 * needed and the result is the same as the sequential reduction.
+	 */
+	private void reduceCountsInParallel(){
+		int numThreads = this._params_l.length;
+		if(this._reducedFeatures == null || this._reducedFeatures.length != numThreads){
+			this._reducedFeatures = new int[numThreads][];
+			this._sortedLocalFeatures = new int[numThreads][];
+			this._sortedGlobalFeatures = new int[numThreads][];
+		}
+		for(int threadId = 0; threadId < numThreads; threadId++){
+			int[] fs = this._params_l[threadId].getFeatures();
+			if(fs != this._reducedFeatures[threadId]){
+				this.sortFeatures(threadId, fs);
+			}
+		}
+		if(this._reductionPool == null){
+			this._reductionPool = Executors.newFixedThreadPool(numThreads, new ThreadFactory(){
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		int numFeatures = this._param_g.size();
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for(int range = 0; range < numThreads; range++){
+			final int begin = (int)((long)numFeatures*range/numThreads);
+			final int end = (int)((long)numFeatures*(range+1)/numThreads);
+			tasks.add(new Callable<Void>(){
+				@Override
+				public Void call() {
+					reduceCounts(begin, end);
+					return null;
+				}
+			});
+		}
+		try {
+			for(Future<Void> future: this._reductionPool.invokeAll(tasks)){
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Shuts down the threads used in the parallel reduction, which is done at the end of the training.
+	 * The threads are created again if there is another training.
+	 */
+	protected void shutdownReductionPool(){
+		if(this._reductionPool != null){
+			this._reductionPool.shutdown();
+			this._reductionPool = null;
+		}
+	}
+	
+	/**
+	 * Sums the counts of all threads for the global features in the range [begin, end) into the global counts.
+	 * @param begin
+	 * @param end
+	 */
+	private void reduceCounts(int begin, int end){
+		for(int threadId = 0; threadId < this._params_l.length; threadId++){
+			LocalNetworkParam param_l = this._params_l[threadId];
+			int[] globalFeatures = this._sortedGlobalFeatures[threadId];
+			int[] localFeatures = this._sortedLocalFeatures[threadId];
+			int pos = Arrays.binarySearch(globalFeatures, begin);
+			if(pos < 0){
+				pos = -pos-1;
+			}
+			for(; pos < globalFeatures.length && globalFeatures[pos] < end; pos++){
+				this._param_g.addCountUnsynchronized(globalFeatures[pos], param_l.getCount(localFeatures[pos]));
+			}
+		}
+	}
+	
+	/**
+	 * Builds the local feature indices of the specified thread sorted by their global feature indices.
+	 * @param threadId
+	 * @param fs The local-to-global feature array of the thread.
+	 */
+	private void sortFeatures(int threadId, int[] fs){
+		long[] pairs = new long[fs.length];
+		for(int f_local = 0; f_local < fs.length; f_local++){
+			pairs[f_local] = ((long)fs[f_local] << 32) | f_local;
+		}
+		Arrays.sort(pairs);
+		int[] globalFeatures = new int[fs.length];
+		int[] localFeatures = new int[fs.length];
+		for(int i = 0; i < pairs.length; i++){
+			globalFeatures[i] = (int)(pairs[i] >>> 32);
+			localFeatures[i] = (int)pairs[i];
+		}
+		this._sortedGlobalFeatures[threadId] = globalFeatures;
+		this._sortedLocalFeatures[threadId] = localFeatures;
+		this._reducedFeatures[threadId] = fs;
+	}
 	
 	public void enableCache(int numNetworks){
 		this._numNetworks = numNetworks;
@@ -170,12 +311,19 @@ public abstract class FeatureManager implements Serializable{
 	 * Starts the routine to copy all local feature index into global feature index.
 	 */
 	protected void mergeSubFeaturesToGlobalFeatures(){
-		TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>> globalFeature2IntMap = this._param_g.getFeatureIntMap();
+		if(this._param_g._concurrentFeatureIndex != null){
+			//The features already have their global indices, and each thread already has its global-to-local map.
+			this._param_g._featureIndex = this._param_g._concurrentFeatureIndex.toPackedFeatureIndex();
+			this._param_g._size = this._param_g._concurrentFeatureIndex.size();
+			this._param_g._concurrentFeatureIndex = null;
+			return;
+		}
+		PackedFeatureIndex globalFeatureIndex = this._param_g.getFeatureIndex();
 
 		this._param_g._size = 0;
 		for(int t=0;t<this._param_g._subFeatureIntMaps.size();t++){
 			//This method basically filling the _globalFeature2LocalFeature map for each thread.
-			addIntoGlobalFeatures(globalFeature2IntMap, this._param_g._subFeatureIntMaps.get(t), this._params_l[t]._globalFeature2LocalFeature, this._params_l[t]._localStr2Global);
+			addIntoGlobalFeatures(globalFeatureIndex, this._param_g._subFeatureIntMaps.get(t), this._params_l[t]._globalFeature2LocalFeature, this._params_l[t]._localStr2Global);
 			this._param_g._subFeatureIntMaps.set(t, null);
 			this._params_l[t]._localStr2Global = null;
 		}
@@ -184,36 +332,27 @@ public abstract class FeatureManager implements Serializable{
 
 	/**
 	 * Used during parallel touch, this method copies features extracted from each thread into the global feature index.
-	 * @param globalMap The global feature index, storing the features from all thread.
-	 * 		  map<type, <output, <input, globalFeatureIndex>>> The feature string is comprised by <type+output+input>
+	 * @param globalIndex The global feature index, storing the features from all thread.
 	 * @param localMap The local feature index, storing the features from one thread.
 	 * @param gf2lf The feature indices mapping from global feature indices to local feature indices.<br>
 	 * 				This is used in each local network param to get the correct local feature indices.
 	 */
-	private void addIntoGlobalFeatures(TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>> globalMap,
+	private void addIntoGlobalFeatures(PackedFeatureIndex globalIndex,
 			TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>> localMap, TIntIntHashMap gf2lf,
 			TIntIntHashMap ls2gs){
 		for(int localType: localMap.keys()){
 			TIntObjectHashMap<TIntIntHashMap> localOutput2input = localMap.get(localType);
-			localType = ls2gs.get(localType);
-			if(!globalMap.containsKey(localType)){
-				globalMap.put(localType, new TIntObjectHashMap<TIntIntHashMap>());
-			}
-			TIntObjectHashMap<TIntIntHashMap> globalOutput2input = globalMap.get(localType);
+			int globalType = ls2gs.get(localType);
 			for(int localOutput: localOutput2input.keys()){
 				TIntIntHashMap localInput2int = localOutput2input.get(localOutput);
-				localOutput = ls2gs.get(localOutput);
-				if(!globalOutput2input.containsKey(localOutput)){
-					globalOutput2input.put(localOutput, new TIntIntHashMap());
-				}
-				TIntIntHashMap globalInput2int = globalOutput2input.get(localOutput);
+				int globalOutput = ls2gs.get(localOutput);
 				for(int localInput: localInput2int.keys()){
 					int featureId = localInput2int.get(localInput);
-					localInput = ls2gs.get(localInput);
-					if(!globalInput2int.containsKey(localInput)){
-						globalInput2int.put(localInput, this._param_g._size++);
+					int globalFeatureId = globalIndex.getOrPut(globalType, globalOutput, ls2gs.get(localInput), this._param_g._size);
+					if(globalFeatureId == this._param_g._size){
+						this._param_g._size++;
 					}
-					gf2lf.put(globalInput2int.get(localInput), featureId);
+					gf2lf.put(globalFeatureId, featureId);
 				}
 			}
 		}
@@ -226,16 +365,12 @@ public abstract class FeatureManager implements Serializable{
 	 * @param globalFeaturesToLocalFeatures The mapping from global feature indices into local feature indices
 	 */
 	protected void addIntoLocalFeatures(TIntIntHashMap globalFeaturesToLocalFeatures){
-		TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>> globalMap = this._param_g.getFeatureIntMap();
-		for(int type: globalMap.keys()){
-			TIntObjectHashMap<TIntIntHashMap> outputToInputToIndex = globalMap.get(type);
-			for(int output: outputToInputToIndex.keys()){
-				TIntIntHashMap inputToIndex = outputToInputToIndex.get(output);
-				for(int featureIndex: inputToIndex.values()){
-					if(!globalFeaturesToLocalFeatures.containsKey(featureIndex)){
-						globalFeaturesToLocalFeatures.put(featureIndex, globalFeaturesToLocalFeatures.size());
-					}
-				}
+		PackedFeatureIndex.FeatureIterator iter = this._param_g.getFeatureIndex().iterator();
+		while(iter.hasNext()){
+			iter.advance();
+			int featureIndex = iter.featureId();
+			if(!globalFeaturesToLocalFeatures.containsKey(featureIndex)){
+				globalFeaturesToLocalFeatures.put(featureIndex, globalFeaturesToLocalFeatures.size());
 			}
 		}
 	}
@@ -245,22 +380,19 @@ public abstract class FeatureManager implements Serializable{
 	 * the input features.
 	 */
 	protected void completeType2Int(){
-		TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>> globalMap = this._param_g._featureIntMap;
 		TIntObjectHashMap<ArrayList<Integer>> type2Input = this._param_g._type2inputMap;
-		for(int type: globalMap.keys()){
+		PackedFeatureIndex.FeatureIterator iter = this._param_g.getFeatureIndex().iterator();
+		while(iter.hasNext()){
+			iter.advance();
+			int type = iter.type();
 			if(!type2Input.containsKey(type)){
 				type2Input.put(type, new ArrayList<Integer>());
 			}
 			ArrayList<Integer> inputs = type2Input.get(type);
-			TIntObjectHashMap<TIntIntHashMap> output2input  = globalMap.get(type);
-			for(int output: output2input.keys()){
-				TIntIntHashMap input2int = output2input.get(output);
-				for(int input: input2int.keys()){
-					int index = Collections.binarySearch(inputs, input);
-					if(index<0){
-						inputs.add(-1-index, input);
-					}
-				}
+			int input = iter.input();
+			int index = Collections.binarySearch(inputs, input);
+			if(index<0){
+				inputs.add(-1-index, input);
 			}
 		}
 	}
@@ -283,7 +415,7 @@ public abstract class FeatureManager implements Serializable{
 		// Do not cache in the first touch when parallel touch and extract only from labeled is enabled,
 		// since the local feature indices will change
 		boolean shouldCache = this.isCacheEnabled() && (!NetworkConfig.PARALLEL_FEATURE_EXTRACTION
-														|| NetworkConfig.NUM_THREADS == 1
+														|| this._param_g.getConfig().getNumThreads() == 1
 														|| !NetworkConfig.BUILD_FEATURES_FROM_LABELED_ONLY
 														|| this._param_g.isLocked());
 		if(shouldCache){
@@ -291,7 +423,7 @@ public abstract class FeatureManager implements Serializable{
 				this._cache[network.getNetworkId()] = new FeatureArray[network.countNodes()][];
 			}
 			if(this._cache[network.getNetworkId()][parent_k] == null){
-				this._cache[network.getNetworkId()][parent_k] = new FeatureArray[network.getChildren(parent_k).length];
+				this._cache[network.getNetworkId()][parent_k] = new FeatureArray[network.countEdges(parent_k)];
 			}
 			if(this._cache[network.getNetworkId()][parent_k][children_k_index] != null){
 				return this._cache[network.getNetworkId()][parent_k][children_k_index];
@@ -317,6 +449,111 @@ public abstract class FeatureManager implements Serializable{
 	 * @return
 	 */
 	protected abstract FeatureArray extract_helper(Network network, int parent_k, int[] children_k, int children_k_index);
+	
+	/**
+	 * Returns the observation features at the specified position of the network, i.e., the features of the input
+	 * before being conjoined with any output label, as pairs of the string IDs of the feature type and the input.<br>
+	 * The observation features are extracted by {@link #extractObservations(Network, int)} only once per position,
+	 * and are shared by all hyperedges at that position. Each hyperedge then conjoins them with its output label
+	 * using {@link #addConjoinedFeatures(Network, int[], int, List)}, so the feature strings are not rebuilt for
+	 * every label.
+	 * @param network
+	 * @param pos
+	 * @return
+	 */
+	protected int[] getObservations(Network network, int pos){
+		LocalNetworkParam param = network._param;
+		param.cacheFactoredFeaturesOf(network);
+		int[] observations = param._observationCache.get(pos);
+		if(observations == null){
+			observations = this.extractObservations(network, pos);
+			param._observationCache.put(pos, observations);
+		}
+		return observations;
+	}
+	
+	/**
+	 * Extracts the observation features at the specified position of the network, to be cached by
+	 * {@link #getObservations(Network, int)}.<br>
+	 * Use {@link #addObservation(Network, TIntArrayList, String, String)} to build the returned array.
+	 * By default there is no observation feature.
+	 * @param network
+	 * @param pos
+	 * @return
+	 */
+	protected int[] extractObservations(Network network, int pos){
+		return new int[0];
+	}
+	
+	/**
+	 * Adds the observation feature with the specified feature type and input into the list of observations.
+	 * @param network
+	 * @param observations
+	 * @param type The feature type (e.g., "EMISSION", "FEATURE_1", etc.)
+	 * @param input The input (e.g., for emission feature in HMM this might be the word itself)
+	 */
+	protected void addObservation(Network network, TIntArrayList observations, String type, String input){
+		observations.add(this._param_g.toInt(network, type));
+		observations.add(this._param_g.toInt(network, input));
+	}
+	
+	/**
+	 * Converts the specified output into its string ID, to be conjoined with the observation features.
+	 * @param network
+	 * @param output
+	 * @return
+	 */
+	protected int toOutput(Network network, String output){
+		return this._param_g.toInt(network, output);
+	}
+	
+	/**
+	 * Conjoins each of the observation features with the specified output, and adds the resulting feature indices
+	 * into the list of features.
+	 * @param network
+	 * @param observations The observation features, as returned by {@link #getObservations(Network, int)}
+	 * @param output_id The output, as returned by {@link #toOutput(Network, String)}
+	 * @param features
+	 */
+	protected void addConjoinedFeatures(Network network, int[] observations, int output_id, List<Integer> features){
+		for(int i=0; i<observations.length; i+=2){
+			features.add(this._param_g.toFeature(network, observations[i], output_id, observations[i+1]));
+		}
+	}
+	
+	/**
+	 * Returns the node features of the specified node, i.e., the features which do not depend on the child nodes
+	 * (e.g., the observation features conjoined with the label of the node).<br>
+	 * The node features are extracted by {@link #extractNodeFeatures(Network, int)} only once per node, and the
+	 * same {@link FeatureArray} is shared by all hyperedges of the node, usually as the next feature array in the
+	 * chain of the edge features (see {@link #createFeatureArray(Network, Collection, FeatureArray)}).
+	 * So the node features are stored and scored once per node instead of once per hyperedge, also when the
+	 * features are converted into local features in multi-threaded training (see {@link LocalNetworkParam#toLocalNext(FeatureArray)}).
+	 * @param network
+	 * @param parent_k
+	 * @return
+	 */
+	protected FeatureArray getNodeFeatures(Network network, int parent_k){
+		LocalNetworkParam param = network._param;
+		param.cacheFactoredFeaturesOf(network);
+		FeatureArray fa = param._nodeFeatureCache[parent_k];
+		if(fa == null){
+			fa = this.extractNodeFeatures(network, parent_k);
+			param._nodeFeatureCache[parent_k] = fa;
+		}
+		return fa;
+	}
+	
+	/**
+	 * Extracts the node features of the specified node, to be cached by {@link #getNodeFeatures(Network, int)}.<br>
+	 * By default there is no node feature.
+	 * @param network
+	 * @param parent_k
+	 * @return
+	 */
+	protected FeatureArray extractNodeFeatures(Network network, int parent_k){
+		return FeatureArray.EMPTY;
+	}
 
 	/**
 	 * Creates a FeatureArray object based on the feature indices given, possibly with caching to ensure no duplicate
@@ -455,7 +692,7 @@ public abstract class FeatureManager implements Serializable{
 		this._param_g = (GlobalNetworkParam)ois.readObject();
 		this._cacheEnabled = ois.readBoolean();
 		this._numThreads = ois.readInt();
-		this._params_l = new LocalNetworkParam[NetworkConfig.NUM_THREADS];
+		this._params_l = new LocalNetworkParam[this._param_g.getConfig().getNumThreads()];
 	}
 	
 	public static String NEURAL_FEATURE_TYPE_PREFIX = "neural";
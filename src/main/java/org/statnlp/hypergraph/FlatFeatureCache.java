@@ -0,0 +1,453 @@
+/** Statistical Natural Language Processing System
+    Copyright (C) 2014-2016  Lu, Wei
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.statnlp.hypergraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+/**
+ * The cached features of the networks of one thread, stored in flat int arrays instead of
+ * one {@link FeatureArray} per hyperedge.<br>
+ * Each FeatureArray chain is split into its elements (the segments), and each distinct sequence of feature indices
+ * is stored only once in a pool shared by all networks of the thread. So features shared by many hyperedges,
+ * such as the node features (see {@link FeatureManager#getNodeFeatures(Network, int)}) or the label-only features
+ * of the networks carved from the same generic network, are stored only once, as long as the feature manager puts
+ * them in their own element of the chain.<br>
+ * Each network is then described by one int array: the start of the edges of each node, the start of the
+ * segments of each edge, and the segment IDs, so no object is created per hyperedge.<br>
+ * Like in {@link FeatureBox}, the score of each segment is cached until the weights change, so a segment shared by
+ * many hyperedges is scored once per weight version.<br>
+ * If a spill directory is given, the arrays of the networks and the pool are written into memory-mapped files
+ * in that directory as they are added, and read back in place, so they are paged in and out by the operating system
+ * instead of being kept on the heap. The pool is moved into its own memory-mapped file by {@link #compact()}, and
+ * segments added afterwards are written into that file. Only the scores of the distinct segments are kept on the heap.
+ * The files are deleted right after they are mapped.
+ * @see NetworkConfig#USE_FLAT_FEATURE_CACHE
+ * @see NetworkConfig#FEATURE_CACHE_DIRECTORY
+ */
+public class FlatFeatureCache {
+
+	/** The segment ID representing {@link FeatureArray#NEGATIVE_INFINITY} */
+	private static final int DISABLED = -1;
+	/** The minimum number of ints in each memory-mapped file */
+	private static final int SPILL_FILE_INTS = 1 << 24;
+
+	/** The feature indices of all segments, while segments are still being added, or null if the pool is memory-mapped */
+	private int[] poolArray;
+	/** The feature indices of all segments, for reading, and for adding segments once the pool is memory-mapped */
+	private IntBuffer pool;
+	private int poolSize;
+	/** The start of each segment in the pool, followed by the end of the last segment */
+	private int[] segmentStarts;
+	private int numSegments;
+	/** The open-addressing table from the content of a segment to its ID, only kept while adding networks */
+	private int[] slots;
+	/** The cached score of each segment */
+	private double[] segmentScores;
+	/** The weight version of the cached score of each segment */
+	private int[] segmentVersions;
+
+	/**
+	 * For each network, the number of nodes, the number of edges, the start of the edges of each node
+	 * (followed by the number of edges), the start of the segments of each edge (followed by the number of segments),
+	 * and the segment IDs of each edge, in the order of the FeatureArray chain.
+	 */
+	private IntBuffer[] networks;
+
+	/** The directory of the memory-mapped files, or null if everything is kept on the heap */
+	private File spillDirectory;
+	/** The memory-mapped file currently being filled */
+	private IntBuffer spillBuffer;
+
+	public FlatFeatureCache(int numNetworks){
+		this(numNetworks, null);
+	}
+
+	/**
+	 * Creates a cache for the specified number of networks, which writes the arrays into memory-mapped files in
+	 * the specified directory, or keeps them on the heap if the directory is null.
+	 * @param numNetworks
+	 * @param spillDirectory
+	 */
+	public FlatFeatureCache(int numNetworks, File spillDirectory){
+		this.poolArray = new int[1024];
+		this.pool = IntBuffer.wrap(this.poolArray);
+		this.segmentStarts = new int[256];
+		this.segmentScores = new double[256];
+		this.segmentVersions = new int[256];
+		Arrays.fill(this.segmentVersions, -1); //not scored yet
+		this.networks = new IntBuffer[numNetworks];
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * Adds the features of the specified network, as cached for each hyperedge (by parent index and edge index).<br>
+	 * The features are not added if the cache is incomplete, or if some features have feature values or are
+	 * joint features for mean-field inference, in which case the FeatureArray objects should be kept.
+	 * @param networkId
+	 * @param features
+	 * @return Whether the features were added.
+	 */
+	public boolean add(int networkId, FeatureArray[][] features){
+		int numEdges = 0;
+		int numSegments = 0;
+		for(FeatureArray[] nodeFeatures: features){
+			if(nodeFeatures == null){
+				continue;
+			}
+			for(FeatureArray fa: nodeFeatures){
+				if(fa == null){
+					return false;
+				}
+				numEdges++;
+				if(fa == FeatureArray.NEGATIVE_INFINITY){
+					numSegments++;
+					continue;
+				}
+				for(; fa != null; fa = fa.getNext()){
+					if(!fa.isPlain()){
+						return false;
+					}
+					numSegments++;
+				}
+			}
+		}
+		if(this.slots == null){
+			this.buildSlots();
+		}
+		int numNodes = features.length;
+		int edgeStarts = 3+numNodes;
+		int segments = edgeStarts+numEdges+1;
+		int[] layout = new int[segments+numSegments];
+		layout[0] = numNodes;
+		layout[1] = numEdges;
+		int edge = 0;
+		int segment = 0;
+		for(int k=0; k<numNodes; k++){
+			layout[2+k] = edge;
+			if(features[k] == null){
+				continue;
+			}
+			for(FeatureArray fa: features[k]){
+				layout[edgeStarts+edge] = segment;
+				edge++;
+				if(fa == FeatureArray.NEGATIVE_INFINITY){
+					layout[segments+segment] = DISABLED;
+					segment++;
+					continue;
+				}
+				for(; fa != null; fa = fa.getNext()){
+					layout[segments+segment] = this.getOrAddSegment(fa.getCurrent());
+					segment++;
+				}
+			}
+		}
+		layout[2+numNodes] = edge;
+		layout[edgeStarts+edge] = segment;
+		this.networks[networkId] = this.store(layout, layout.length);
+		return true;
+	}
+
+	/**
+	 * Returns the index of the specified hyperedge in the specified network,
+	 * or -1 if the features of the hyperedge are not in this cache.
+	 * @param networkId
+	 * @param parent_k
+	 * @param children_k_index
+	 * @return
+	 */
+	public int getEdge(int networkId, int parent_k, int children_k_index){
+		IntBuffer network = this.networks[networkId];
+		if(network == null){
+			return -1;
+		}
+		int edge = network.get(2+parent_k)+children_k_index;
+		return edge < network.get(3+parent_k) ? edge : -1;
+	}
+
+	/**
+	 * Returns the total score of the features of the specified hyperedge, as in {@link FeatureArray#getScore(LocalNetworkParam, int)}.
+	 * @param param
+	 * @param networkId
+	 * @param edge The hyperedge, as returned by {@link #getEdge(int, int, int)}
+	 * @param version The current version of the weights
+	 * @return
+	 */
+	public double getScore(LocalNetworkParam param, int networkId, int edge, int version){
+		IntBuffer network = this.networks[networkId];
+		int edgeStarts = 3+network.get(0);
+		int segments = edgeStarts+network.get(1)+1;
+		int start = segments+network.get(edgeStarts+edge);
+		int end = segments+network.get(edgeStarts+edge+1);
+		if(network.get(start) == DISABLED){
+			return Double.NEGATIVE_INFINITY;
+		}
+		// Sum from the last segment, in the same order as the recursion in FeatureArray
+		double score = this.getSegmentScore(param, network.get(end-1), version);
+		for(int i=end-2; i>=start; i--){
+			score = this.getSegmentScore(param, network.get(i), version) + score;
+		}
+		return score;
+	}
+
+	private double getSegmentScore(LocalNetworkParam param, int segment, int version){
+		if(this.segmentVersions[segment] != version){
+			double score = 0.0;
+			for(int i=this.segmentStarts[segment]; i<this.segmentStarts[segment+1]; i++){
+				int f = this.pool.get(i);
+				if(f != -1){
+					score += param.getWeight(f);
+				}
+			}
+			this.segmentScores[segment] = score;
+			this.segmentVersions[segment] = version;
+		}
+		return this.segmentScores[segment];
+	}
+
+	/**
+	 * Adds the specified count to the features of the specified hyperedge, as in {@link FeatureArray#update(LocalNetworkParam, double)}.
+	 * @param param
+	 * @param networkId
+	 * @param edge The hyperedge, as returned by {@link #getEdge(int, int, int)}
+	 * @param count
+	 */
+	public void update(LocalNetworkParam param, int networkId, int edge, double count){
+		IntBuffer network = this.networks[networkId];
+		int edgeStarts = 3+network.get(0);
+		int segments = edgeStarts+network.get(1)+1;
+		int end = segments+network.get(edgeStarts+edge+1);
+		for(int i=segments+network.get(edgeStarts+edge); i<end; i++){
+			int segment = network.get(i);
+			if(segment == DISABLED){
+				return;
+			}
+			for(int j=this.segmentStarts[segment]; j<this.segmentStarts[segment+1]; j++){
+				param.addCount(this.pool.get(j), count);
+			}
+		}
+	}
+
+	/**
+	 * Releases the memory only needed while adding networks, after all networks have been added,
+	 * and moves the pool into a memory-mapped file if a spill directory is given.
+	 * More networks can still be added afterwards.
+	 */
+	public void compact(){
+		this.slots = null;
+		this.segmentStarts = Arrays.copyOf(this.segmentStarts, this.numSegments+1);
+		this.segmentScores = Arrays.copyOf(this.segmentScores, this.numSegments);
+		this.segmentVersions = Arrays.copyOf(this.segmentVersions, this.numSegments);
+		if(this.poolArray == null){
+			return;
+		}
+		if(this.spillDirectory != null){
+			// In its own file, with room for the segments added afterwards
+			this.pool = this.mapSpillFile(Math.max(SPILL_FILE_INTS, 2*this.poolSize));
+			this.pool.put(this.poolArray, 0, this.poolSize);
+			this.pool.clear();
+			this.poolArray = null;
+		} else {
+			this.poolArray = Arrays.copyOf(this.poolArray, this.poolSize);
+			this.pool = IntBuffer.wrap(this.poolArray);
+		}
+	}
+
+	/**
+	 * Returns the number of distinct segments stored.
+	 * @return
+	 */
+	public int countSegments(){
+		return this.numSegments;
+	}
+
+	/**
+	 * Returns the number of feature indices stored in the pool.
+	 * @return
+	 */
+	public int countFeatures(){
+		return this.poolSize;
+	}
+
+	/**
+	 * Returns whether the arrays are written into memory-mapped files.
+	 * @return
+	 */
+	public boolean isSpilled(){
+		return this.spillDirectory != null;
+	}
+
+	/**
+	 * Stores the first <code>length</code> ints of the specified array, either by wrapping the array,
+	 * or by copying them into a memory-mapped file.
+	 * @param values
+	 * @param length
+	 * @return
+	 */
+	private IntBuffer store(int[] values, int length){
+		if(this.spillDirectory == null){
+			return IntBuffer.wrap(values, 0, length).slice();
+		}
+		if(this.spillBuffer == null || this.spillBuffer.remaining() < length){
+			this.spillBuffer = this.mapSpillFile(Math.max(SPILL_FILE_INTS, length));
+		}
+		IntBuffer result = this.spillBuffer.slice();
+		result.limit(length);
+		this.spillBuffer.put(values, 0, length);
+		return result;
+	}
+
+	/**
+	 * Creates a new memory-mapped file with the specified number of ints in the spill directory.
+	 * The file is deleted right away, the mapping stays valid until it is garbage-collected.
+	 * @param numInts
+	 * @return
+	 */
+	private IntBuffer mapSpillFile(int numInts){
+		try{
+			File file = File.createTempFile("statnlp-features-", ".bin", this.spillDirectory);
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try{
+				raf.setLength(4L*numInts);
+				return raf.getChannel().map(MapMode.READ_WRITE, 0, 4L*numInts).order(ByteOrder.nativeOrder()).asIntBuffer();
+			} finally {
+				raf.close();
+				if(!file.delete()){
+					file.deleteOnExit();
+				}
+			}
+		} catch (IOException e){
+			throw new RuntimeException("Cannot create the feature cache file in "+this.spillDirectory, e);
+		}
+	}
+
+	private int getOrAddSegment(int[] fs){
+		int hash = hash(fs, 0, fs.length);
+		int mask = this.slots.length-1;
+		int slot = hash & mask;
+		int segment;
+		while((segment = this.slots[slot]) != -1){
+			if(this.segmentEquals(segment, fs)){
+				return segment;
+			}
+			slot = (slot+1) & mask;
+		}
+		segment = this.numSegments;
+		if(this.poolArray == null){
+			this.ensureMappedPoolCapacity(this.poolSize+fs.length);
+			for(int i=0; i<fs.length; i++){
+				this.pool.put(this.poolSize+i, fs[i]);
+			}
+		} else {
+			if(this.poolSize+fs.length > this.poolArray.length){
+				this.poolArray = Arrays.copyOf(this.poolArray, Math.max(2*this.poolArray.length, this.poolSize+fs.length));
+				this.pool = IntBuffer.wrap(this.poolArray);
+			}
+			System.arraycopy(fs, 0, this.poolArray, this.poolSize, fs.length);
+		}
+		this.poolSize += fs.length;
+		if(segment+2 > this.segmentStarts.length){
+			this.segmentStarts = Arrays.copyOf(this.segmentStarts, Math.max(256, 2*this.segmentStarts.length));
+		}
+		this.segmentStarts[segment+1] = this.poolSize;
+		if(segment >= this.segmentScores.length){
+			int oldLength = this.segmentVersions.length;
+			this.segmentScores = Arrays.copyOf(this.segmentScores, Math.max(256, 2*oldLength));
+			this.segmentVersions = Arrays.copyOf(this.segmentVersions, Math.max(256, 2*oldLength));
+			Arrays.fill(this.segmentVersions, oldLength, this.segmentVersions.length, -1); //not scored yet
+		}
+		this.numSegments++;
+		this.slots[slot] = segment;
+		if(2*this.numSegments > this.slots.length){
+			this.buildSlots();
+		}
+		return segment;
+	}
+
+	private boolean segmentEquals(int segment, int[] fs){
+		int start = this.segmentStarts[segment];
+		if(this.segmentStarts[segment+1]-start != fs.length){
+			return false;
+		}
+		for(int i=0; i<fs.length; i++){
+			if(this.pool.get(start+i) != fs[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Makes room for the specified number of ints in the memory-mapped pool, moving it into a larger
+	 * memory-mapped file if needed, so that the pool is not copied back onto the heap.
+	 * @param size
+	 */
+	private void ensureMappedPoolCapacity(int size){
+		if(size <= this.pool.capacity()){
+			return;
+		}
+		IntBuffer oldPool = this.pool.duplicate();
+		oldPool.clear();
+		oldPool.limit(this.poolSize);
+		this.pool = this.mapSpillFile(Math.max(2*this.pool.capacity(), size));
+		this.pool.put(oldPool);
+		this.pool.clear();
+	}
+
+	/**
+	 * (Re)builds the table from the content of the segments to their IDs, with at most half of the slots used.<br>
+	 * The content is read in place, also when the pool has been moved into a memory-mapped file.
+	 */
+	private void buildSlots(){
+		int numSlots = 16;
+		while(numSlots < 4*this.numSegments){
+			numSlots <<= 1;
+		}
+		this.slots = new int[numSlots];
+		Arrays.fill(this.slots, -1);
+		int mask = numSlots-1;
+		for(int segment=0; segment<this.numSegments; segment++){
+			int slot = hash(this.pool, this.segmentStarts[segment], this.segmentStarts[segment+1]) & mask;
+			while(this.slots[slot] != -1){
+				slot = (slot+1) & mask;
+			}
+			this.slots[slot] = segment;
+		}
+	}
+
+	private static int hash(int[] fs, int start, int end){
+		int h = 1;
+		for(int i=start; i<end; i++){
+			h = 31*h + fs[i];
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static int hash(IntBuffer fs, int start, int end){
+		int h = 1;
+		for(int i=start; i<end; i++){
+			h = 31*h + fs.get(i);
+		}
+		return h ^ (h >>> 16);
+	}
+
+}
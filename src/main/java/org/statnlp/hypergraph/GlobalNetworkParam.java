@@ -22,6 +22,7 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
@@ -33,6 +34,7 @@ import org.statnlp.commons.ml.opt.MathsVector;
 import org.statnlp.commons.ml.opt.Optimizer;
 import org.statnlp.commons.ml.opt.OptimizerFactory;
 import org.statnlp.hypergraph.NetworkConfig.StoppingCriteria;
+import org.statnlp.hypergraph.NetworkConfig.WeightPrecision;
 import org.statnlp.hypergraph.neural.AbstractNeuralNetwork;
 import org.statnlp.hypergraph.neural.GlobalNeuralNetworkParam;
 import org.statnlp.hypergraph.neural.NeuralNetworkCore;
@@ -66,24 +68,42 @@ public class GlobalNetworkParam implements Serializable{
 	protected transient double _obj;
 	/** A variable for batch SGD optimization, if applicable */
 	protected transient int _batchSize;
+	/** Whether the weights are updated sparsely in batch training, see {@link NetworkConfig#USE_SPARSE_BATCH_UPDATE} */
+	protected transient boolean _sparseUpdate;
+	/** The features with counts in the current batch, when using sparse update or asynchronous training */
+	protected transient int[] _touchedFeatures;
+	/** The number of features in {@link #_touchedFeatures} */
+	protected transient int _numTouchedFeatures;
+	/** Whether each feature is in {@link #_touchedFeatures} */
+	protected transient boolean[] _isTouched;
+	/** The sum of squared weights for the regularization term, maintained incrementally when using sparse update */
+	protected transient double _squaredWeightSum;
+	/** The number of times the optimizer restored its best parameters, to know when to recompute {@link #_squaredWeightSum} */
+	protected transient int _numBestCopies;
+	/** The locks for the stripes of features in asynchronous training, null if lock-free */
+	protected transient Object[] _asyncLocks;
 	
 	protected transient int _version;
 	
-	/** Map from feature type to [a map from output to [a map from input to feature ID]] */
-	protected TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>> _featureIntMap;
+	/** The feature index, mapping each (type, output, input) triple into its feature ID */
+	protected PackedFeatureIndex _featureIndex;
 
 	/** Map from feature type to input */
 	protected TIntObjectHashMap<ArrayList<Integer>> _type2inputMap;
-	/** A feature int map (similar to {@link #_featureIntMap}) for each local thread */
+	/** A feature int map (similar to {@link #getFeatureIntMap()}) for each local thread */
 	protected ArrayList<TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>>> _subFeatureIntMaps;
 	/** The size of each feature int maps for each local thread */
 	protected int[] _subSize;
+	/** The feature index shared by all threads during parallel touch, if {@link NetworkConfig#USE_CONCURRENT_FEATURE_INDEX} is enabled */
+	protected transient ConcurrentFeatureIndex _concurrentFeatureIndex;
 	
 	protected StringIndex _stringIndex;
 	
 	protected int[][] _feature2rep;//three-dimensional array representation of the feature.
-	/** The weights parameter */
+	/** The weights parameter, null if released for decoding only (see {@link #releaseWeights()}) */
 	protected double[] _weights;
+	/** The reduced-precision weights for decoding, built from {@link #_weights} when needed, see {@link #getDecodingWeights()} */
+	protected transient DecodingWeights _decodingWeights;
 	/** A flag whether the model is discriminative */
 	protected boolean _isDiscriminative;
 	
@@ -110,6 +130,9 @@ public class GlobalNetworkParam implements Serializable{
 	
 	protected GlobalNeuralNetworkParam _nn_param_g;
 	
+	/** The configuration of the model using this param, null means the global configuration */
+	protected transient ModelConfig _config;
+	
 	public GlobalNetworkParam(){
 		this(OptimizerFactory.getLBFGSFactory());
 	}
@@ -119,6 +142,19 @@ public class GlobalNetworkParam implements Serializable{
 	}
 	
 	public GlobalNetworkParam(OptimizerFactory optimizerFactory, GlobalNeuralNetworkParam nn_param_g){
+		this(optimizerFactory, nn_param_g, ModelConfig.global());
+	}
+	
+	/**
+	 * Creates a param using the specified configuration, which is then used by the model, the feature manager,
+	 * and the networks using this param.
+	 * @param optimizerFactory
+	 * @param nn_param_g
+	 * @param config The configuration, use {@link ModelConfig#snapshot()} to have settings independent of other models.
+	 */
+	public GlobalNetworkParam(OptimizerFactory optimizerFactory, GlobalNeuralNetworkParam nn_param_g, ModelConfig config){
+		this._config = config;
+		int numThreads = config.getNumThreads();
 		this._locked = false;
 		this._version = -1;
 		this._size = 0;
@@ -130,28 +166,77 @@ public class GlobalNetworkParam implements Serializable{
 			this._batchSize = NetworkConfig.BATCH_SIZE;
 			this._kappa = NetworkConfig.L2_REGULARIZATION_CONSTANT;
 		}
-		this._featureIntMap = new TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>>();
+		this._featureIndex = new PackedFeatureIndex();
 		if(NetworkConfig.TRAIN_MODE_IS_GENERATIVE){
 			this._type2inputMap = new TIntObjectHashMap<ArrayList<Integer>>();
 		}
 		this._optFactory = optimizerFactory;
-		if (NetworkConfig.PARALLEL_FEATURE_EXTRACTION && NetworkConfig.NUM_THREADS > 1){
+		if (NetworkConfig.PARALLEL_FEATURE_EXTRACTION && numThreads > 1 && NetworkConfig.USE_CONCURRENT_FEATURE_INDEX){
+			this._concurrentFeatureIndex = new ConcurrentFeatureIndex();
+		} else if (NetworkConfig.PARALLEL_FEATURE_EXTRACTION && numThreads > 1){
 			this._subFeatureIntMaps = new ArrayList<TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>>>();
-			for (int i = 0; i < NetworkConfig.NUM_THREADS; i++){
+			for (int i = 0; i < numThreads; i++){
 				this._subFeatureIntMaps.add(new TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>>());
 			}
-			this._subSize = new int[NetworkConfig.NUM_THREADS];
+			this._subSize = new int[numThreads];
 		}
 		this._nn_param_g = nn_param_g;
-		if (!NetworkConfig.PARALLEL_FEATURE_EXTRACTION || NetworkConfig.NUM_THREADS == 1) {
+		if (!NetworkConfig.PARALLEL_FEATURE_EXTRACTION || numThreads == 1) {
 			this._stringIndex = new StringIndex();
 		}
 	}
 	
+	/**
+	 * Creates a param with the specified learned components, as a deserialized param would be.<br>
+	 * This is used when loading a model from {@link MappedModelFile}.
+	 * @param weights The weights, or null if only the reduced-precision weights are loaded
+	 * @param decodingWeights The reduced-precision weights, or null
+	 */
+	GlobalNetworkParam(PackedFeatureIndex featureIndex, StringIndex stringIndex, double[] weights,
+			DecodingWeights decodingWeights, int size, int fixedFeaturesSize, boolean locked, GlobalNeuralNetworkParam nn_param_g){
+		this._featureIndex = featureIndex;
+		this._stringIndex = stringIndex;
+		this._weights = weights;
+		this._decodingWeights = decodingWeights;
+		this._size = size;
+		this._fixedFeaturesSize = fixedFeaturesSize;
+		this._locked = locked;
+		this._nn_param_g = nn_param_g;
+	}
+	
+	/**
+	 * Returns the configuration of the model using this param.
+	 * @return
+	 */
+	public ModelConfig getConfig(){
+		if(this._config == null){
+			return ModelConfig.global();
+		}
+		return this._config;
+	}
+	
+	/**
+	 * Sets the configuration of the model using this param.<br>
+	 * The configuration is not serialized, so this can be used to give a deserialized model its own configuration.
+	 * @param config
+	 */
+	public void setConfig(ModelConfig config){
+		this._config = config;
+	}
+	
 	public void mergeStringIndex(LocalNetworkLearnerThread[] learners){
 		if(_stringIndex != null){
 			return;
 		}
+		if(_concurrentFeatureIndex != null){
+			// The strings are already indexed globally, so there is nothing to map
+			this._stringIndex = _concurrentFeatureIndex.toStringIndex();
+			for(LocalNetworkLearnerThread learner: learners){
+				learner.getLocalNetworkParam()._stringIndex = null;
+			}
+			this._stringIndex.lock();
+			return;
+		}
 		StringIndex[] stringIndexes = new StringIndex[learners.length];
 		for(LocalNetworkLearnerThread learner: learners){
 			stringIndexes[learner.getThreadId()] = learner.getLocalNetworkParam()._stringIndex;
@@ -170,27 +255,61 @@ public class GlobalNetworkParam implements Serializable{
 	}
 	
 	public int toInt(String s){
+		if(this._concurrentFeatureIndex != null){
+			return this._concurrentFeatureIndex.toInt(s);
+		}
 		return this._stringIndex.getOrPut(s);
 	}
 	
+	/**
+	 * Converts the specified string into its ID in the string index used for the features of the specified network,
+	 * which is the local string index of the thread during parallel touch, and the global string index otherwise.<br>
+	 * The returned ID can be used in {@link #toFeature(Network, int, int, int)}.
+	 * @param network
+	 * @param s
+	 * @return
+	 */
+	public int toInt(Network network, String s){
+		if(this._stringIndex == null && this._concurrentFeatureIndex == null){
+			return network._param.toInt(s);
+		}
+		return this.toInt(s);
+	}
+	
 	public StringIndex getStringIndex(){
 		return _stringIndex;
 	}
 	
 	/**
-	 * Get the map from feature type to [a map from output to [a map from input to feature ID]]
+	 * Get the map from feature type to [a map from output to [a map from input to feature ID]]<br>
+	 * The map is built from the feature index on each call, so changes to it are not reflected
+	 * in the feature index. Use {@link #getFeatureIndex()} to look up features.
 	 * @return
 	 */
 	public TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>> getFeatureIntMap(){
-		return this._featureIntMap;
+		return this._featureIndex.toNestedMap();
 	}
 	
+	/**
+	 * Get the feature index, mapping each (type, output, input) triple into its feature ID
+	 * @return
+	 */
+	public PackedFeatureIndex getFeatureIndex(){
+		return this._featureIndex;
+	}
+	
+	/**
+	 * Returns the weights, or null if they have been released for decoding only.
+	 * @return
+	 * @see #releaseWeights()
+	 */
 	public double[] getWeights(){
 		return this._weights;
 	}
 	
 	public void setWeights(double[] newWeights){
 		this._weights = newWeights;
+		this._decodingWeights = null;
 	}
 	
 	/**
@@ -237,12 +356,31 @@ public class GlobalNetworkParam implements Serializable{
 	 * @param count
 	 */
 	public synchronized void addCount(int feature, double count){
+		this.addCountUnsynchronized(feature, count);
+	}
+	
+	/**
+	 * Add certain value to the specified feature (identified by the id), without synchronization.<br>
+	 * This is only safe when no other thread is updating the same feature, as in the parallel reduction
+	 * in {@link FeatureManager#update(boolean)}, where each thread updates a disjoint range of features.
+	 * The parallel reduction is not used with sparse update, which records the features updated here.
+	 * @param feature
+	 * @param count
+	 */
+	protected void addCountUnsynchronized(int feature, double count){
 		if(Double.isNaN(count)){
 			throw new RuntimeException("count is NaN.");
 		}
 		
 		if(this.isFixed(feature))
 			return;
+		if(this._isTouched != null && !this._isTouched[feature]){
+			if(this._numTouchedFeatures == this._touchedFeatures.length){
+				this._touchedFeatures = Arrays.copyOf(this._touchedFeatures, 2*this._numTouchedFeatures);
+			}
+			this._touchedFeatures[this._numTouchedFeatures++] = feature;
+			this._isTouched[feature] = true;
+		}
 		//if the model is discriminative model, we will flip the sign for
 		//the counts because we will need to use LBFGS.
 		if(this.isDiscriminative()){
@@ -273,9 +411,62 @@ public class GlobalNetworkParam implements Serializable{
 		//if the feature is just newly created, for example, return the initial weight, which is zero.
 //		if(f>=this._weights.length)
 //			return NetworkConfig.FEATURE_INIT_WEIGHT;
+		if(this._weights == null){
+			return this._decodingWeights.get(f);
+		}
 		return this._weights[f];
 	}
 	
+	/**
+	 * Returns the current weights in the precision specified in the configuration
+	 * (see {@link ModelConfig#getDecodingWeightPrecision()}), to be used during decoding.<br>
+	 * The reduced-precision copy is kept until the weights change, so it is built once for all decoding calls
+	 * after training. If the weights have been released (see {@link #releaseWeights()}), the reduced-precision
+	 * weights are returned regardless of the configured precision.
+	 * @return The reduced-precision weights, or null if the weights should be used in double precision.
+	 */
+	public synchronized DecodingWeights getDecodingWeights(){
+		if(this._weights == null){
+			return this._decodingWeights;
+		}
+		WeightPrecision precision = this.getConfig().getDecodingWeightPrecision();
+		if(this._decodingWeights == null || this._decodingWeights.getPrecision() != precision){
+			this._decodingWeights = DecodingWeights.create(this._weights, precision);
+		}
+		return this._decodingWeights;
+	}
+	
+	/**
+	 * Releases the weights in double precision, keeping only the reduced-precision weights returned by
+	 * {@link #getDecodingWeights()}, so that a trained model uses less memory.<br>
+	 * The param can only be used for decoding afterwards: training or saving the model will fail.
+	 * @see MappedModelFile#read(java.io.File, WeightPrecision)
+	 */
+	public synchronized void releaseWeights(){
+		if(this._weights == null){
+			return;
+		}
+		if(this.getDecodingWeights() == null){
+			throw new RuntimeException("The weights cannot be released when decoding in double precision.");
+		}
+		this._weights = null;
+	}
+	
+	/**
+	 * Whether the weights in double precision have been released, so the param can only be used for decoding.
+	 * @return
+	 * @see #releaseWeights()
+	 */
+	public boolean isDecodingOnly(){
+		return this._weights == null && this._decodingWeights != null;
+	}
+	
+	private void checkNotDecodingOnly(){
+		if(this.isDecodingOnly()){
+			throw new RuntimeException("The weights in double precision have been released, the model can only be used for decoding.");
+		}
+	}
+	
 	/**
 	 * Set a weight at the specified index if it is not fixed yet
 	 * @param f
@@ -285,6 +476,7 @@ public class GlobalNetworkParam implements Serializable{
 	public synchronized void setWeight(int f, double weight){
 		if(this.isFixed(f)) return;
 		this._weights[f] = weight;
+		this._decodingWeights = null;
 	}
 	
 	/**
@@ -295,6 +487,7 @@ public class GlobalNetworkParam implements Serializable{
 	 */
 	public synchronized void overRideWeight(int f, double weight){
 		this._weights[f] = weight;
+		this._decodingWeights = null;
 	}
 	
 	public void unlock(){
@@ -323,14 +516,13 @@ public class GlobalNetworkParam implements Serializable{
 		
 		System.err.println("==EXPANDING THE FEATURES===");
 		System.err.println("Before expansion:"+this.size());
-		for(int type_id: this._featureIntMap.keys()){
-			TIntObjectHashMap<TIntIntHashMap> outputId2inputId = this._featureIntMap.get(type_id);
+		int numGroups = this._featureIndex.countGroups();
+		for(int group=0; group<numGroups; group++){
+			int type_id = this._featureIndex.getGroupType(group);
+			int output_id = this._featureIndex.getGroupOutput(group);
 			ArrayList<Integer> input_ids = this._type2inputMap.get(type_id);
-			System.err.println("Feature of type "+type_id+" has "+input_ids.size()+" possible inputs.");
-			for(int output_id: outputId2inputId.keys()){
-				for(int input_id : input_ids){
-					this.toFeature(null, type_id, output_id, input_id);
-				}
+			for(int input_id : input_ids){
+				this.toFeature(null, type_id, output_id, input_id);
 			}
 		}
 		System.err.println("After expansion:"+this.size());
@@ -390,6 +582,7 @@ public class GlobalNetworkParam implements Serializable{
 		}
 		initWeights(weights_new, numWeightsKept, this._size);
 		this._weights = weights_new;
+		this._decodingWeights = null;
 		
 		this._nn_param_g.initializeNetwork();
 		
@@ -398,15 +591,10 @@ public class GlobalNetworkParam implements Serializable{
 		 * **/
 		if(this._storeFeatureReps){
 			this._feature2rep = new int[this._size][];
-			for(int type: this._featureIntMap.keys()){
-				TIntObjectHashMap<TIntIntHashMap> output2input = this._featureIntMap.get(type);
-				for(int output: output2input.keys()){
-					TIntIntHashMap input2id = output2input.get(output);
-					for(int input: input2id.keys()){
-						int id = input2id.get(input);
-						this._feature2rep[id] = new int[]{type, output, input};
-					}
-				}
+			PackedFeatureIndex.FeatureIterator iter = this._featureIndex.iterator();
+			while(iter.hasNext()){
+				iter.advance();
+				this._feature2rep[iter.featureId()] = new int[]{iter.type(), iter.output(), iter.input()};
 			}
 		}
 		this.resetCountsAndObj();
@@ -415,13 +603,186 @@ public class GlobalNetworkParam implements Serializable{
 		this._version = 0;
 		this._stringIndex.lock();
 		int numWeights = this._weights.length + this.getAllNNParamSize();
-		this._opt = this._optFactory.create(numWeights, getFeatureIntMap(), this._stringIndex);
+		TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>> featureIntMap = null;
+		if(this.optimizerFactoryUsesFeatureIntMap()){
+			featureIntMap = getFeatureIntMap();
+		}
+		this._opt = this._optFactory.create(numWeights, featureIntMap, this._stringIndex);
 		this._locked = true;
+		if(NetworkConfig.USE_SPARSE_BATCH_UPDATE){
+			this.initSparseUpdate();
+		}
 		
 		System.err.println(this._size+" features.");
 		
 	}
 	
+	/**
+	 * Prepares the sparse update of the weights in batch training, if applicable.
+	 * @see NetworkConfig#USE_SPARSE_BATCH_UPDATE
+	 */
+	private void initSparseUpdate(){
+		if(!NetworkConfig.USE_BATCH_TRAINING || !this.isDiscriminative() || !(this._opt instanceof GradientDescentOptimizer)
+				|| this.getConfig().isUsingNeuralFeatures()){
+			System.err.println("Sparse update requires batch training with gradient descent without neural features, using dense update.");
+			return;
+		}
+		this._sparseUpdate = true;
+		this.trackTouchedFeatures();
+		this._squaredWeightSum = MathsVector.square(this._weights);
+		GradientDescentOptimizer gdOptimizer = (GradientDescentOptimizer)this._opt;
+		this._numBestCopies = gdOptimizer.getNumBestCopies();
+		double l2Coef = this._kappa > 0 ? 2 * this.getRegularizationCoef() * this._kappa : 0.0;
+		gdOptimizer.setLazyRegularization(l2Coef, this._fixedFeaturesSize);
+		// The regularization gradient is added by the optimizer instead
+		Arrays.fill(this._counts, 0.0);
+		this.resetCountsAndObj();
+	}
+	
+	/**
+	 * Starts recording the features with counts, which are cleared by {@link #resetCountsAndObj()}
+	 * or {@link #updateWeightsAsync(LocalNetworkParam, double)}.
+	 */
+	private void trackTouchedFeatures(){
+		this._isTouched = new boolean[this._size];
+		this._touchedFeatures = new int[1024];
+		this._numTouchedFeatures = 0;
+	}
+	
+	/**
+	 * Prepares the asynchronous training, where the weights are updated by the learner threads directly.
+	 * @see NetworkConfig#USE_ASYNC_TRAINING
+	 */
+	public void prepareAsyncTraining(){
+		if(!this.isDiscriminative() || this.getConfig().isUsingNeuralFeatures()){
+			throw new RuntimeException("Asynchronous training only supports discriminative models without neural features.");
+		}
+		if(this._isTouched == null){
+			this.trackTouchedFeatures();
+		}
+		Arrays.fill(this._counts, 0.0);
+		this._obj = 0.0;
+		// The optimizer does not take the steps, but keeps the best parameters on the development set
+		this._opt.setVariables(this._weights);
+		this._opt.setGradients(this._counts);
+		if(NetworkConfig.ASYNC_LOCK_STRIPES > 0){
+			this._asyncLocks = new Object[NetworkConfig.ASYNC_LOCK_STRIPES];
+			for(int i=0; i<this._asyncLocks.length; i++){
+				this._asyncLocks[i] = new Object();
+			}
+		} else {
+			this._asyncLocks = null;
+		}
+	}
+	
+	/**
+	 * Applies one stochastic gradient step on the shared weights using the counts accumulated by the specified
+	 * thread since the last step (the features are those recorded by {@link LocalNetworkParam#trackTouchedFeatures()}),
+	 * then resets the counts and the objective of the thread.<br>
+	 * This is called concurrently by the learner threads in asynchronous training, where each feature is updated
+	 * without synchronization (Hogwild), or with the lock of its stripe if {@link NetworkConfig#ASYNC_LOCK_STRIPES}
+	 * is positive. The L2 regularization of each instance is applied to the features in the step.
+	 * @param param_l
+	 * @param learningRate
+	 */
+	public void updateWeightsAsync(LocalNetworkParam param_l, double learningRate){
+		double l2Coef = this._kappa > 0 ? 2 * this._kappa / this.totalNumInsts : 0.0;
+		if(param_l.isGlobalMode()){
+			// With one thread, the counts are stored here, negated
+			for(int i=0; i<this._numTouchedFeatures; i++){
+				int f = this._touchedFeatures[i];
+				this.updateWeightAsync(f, -this._counts[f], learningRate, l2Coef);
+				this._counts[f] = 0.0;
+				this._isTouched[f] = false;
+			}
+			this._numTouchedFeatures = 0;
+			this._obj = 0.0;
+		} else {
+			int[] fs = param_l.getFeatures();
+			int[] touched = param_l.getTouchedFeatures();
+			for(int i=0; i<param_l.countTouchedFeatures(); i++){
+				int f_local = touched[i];
+				if(!this.isFixed(fs[f_local])){
+					this.updateWeightAsync(fs[f_local], param_l.getCount(f_local), learningRate, l2Coef);
+				}
+			}
+			param_l.reset();
+		}
+		// So that the cached feature scores are recomputed with the new weights
+		synchronized(this){
+			this._version++;
+			this._decodingWeights = null;
+		}
+	}
+	
+	private void updateWeightAsync(int f, double gradient, double learningRate, double l2Coef){
+		if(this._asyncLocks == null){
+			this._weights[f] += learningRate * (gradient - l2Coef * this._weights[f]);
+			return;
+		}
+		synchronized(this._asyncLocks[f % this._asyncLocks.length]){
+			this._weights[f] += learningRate * (gradient - l2Coef * this._weights[f]);
+		}
+	}
+	
+	/**
+	 * Whether the optimizer is a gradient descent optimizer (e.g., SGD or AdaGrad), which does not assume that
+	 * the objective function stays the same between iterations, unlike the line search of L-BFGS.
+	 * @return
+	 * @see NetworkConfig#PRUNING_THRESHOLD
+	 */
+	public boolean usesGradientDescent(){
+		return this._opt instanceof GradientDescentOptimizer;
+	}
+	
+	/**
+	 * Whether the best parameters are selected by the evaluation on the development set
+	 * (see {@link BestParamCriteria#BEST_ON_DEV}), which is the only criterion also used in asynchronous training.
+	 * @return
+	 * @see NetworkConfig#USE_ASYNC_TRAINING
+	 */
+	public boolean selectsBestOnDevelopment(){
+		return this.usesGradientDescent() && ((GradientDescentOptimizer)this._opt).getCriteria() == BestParamCriteria.BEST_ON_DEV;
+	}
+	
+	/**
+	 * Whether the weights are updated sparsely in batch training.
+	 * @return
+	 * @see NetworkConfig#USE_SPARSE_BATCH_UPDATE
+	 */
+	public boolean isSparseUpdate(){
+		return this._sparseUpdate;
+	}
+	
+	/**
+	 * Applies the updates deferred by the sparse update to all weights, so that the weights
+	 * can be used outside of the training iterations (e.g., for decoding).<br>
+	 * This does nothing when not using sparse update.
+	 * @see NetworkConfig#USE_SPARSE_BATCH_UPDATE
+	 */
+	public synchronized void applyPendingUpdates(){
+		if(!this._sparseUpdate){
+			return;
+		}
+		((GradientDescentOptimizer)this._opt).catchUp();
+		this._squaredWeightSum = MathsVector.square(this._weights);
+		this._decodingWeights = null;
+	}
+	
+	/**
+	 * Whether the optimizer factory overrides {@link OptimizerFactory#create(int, TIntObjectHashMap, StringIndex)},
+	 * since building the feature int map is expensive for large feature index.
+	 * @return
+	 */
+	private boolean optimizerFactoryUsesFeatureIntMap(){
+		try {
+			return this._optFactory.getClass().getMethod("create", int.class, TIntObjectHashMap.class, StringIndex.class)
+					.getDeclaringClass() != OptimizerFactory.class;
+		} catch (NoSuchMethodException | SecurityException e) {
+			return true;
+		}
+	}
+	
 	public int size(){
 		return this._size;
 	}
@@ -474,9 +835,9 @@ public class GlobalNetworkParam implements Serializable{
 	 * @return
 	 */
 	public int toFeature(Network network , String type , String output , String input){
-		int type_id = _stringIndex == null ? network._param.toInt(type) : toInt(type);
-		int output_id = _stringIndex == null ? network._param.toInt(output) : toInt(output);
-		int input_id = _stringIndex == null ? network._param.toInt(input) : toInt(input);
+		int type_id = toInt(network, type);
+		int output_id = toInt(network, output);
+		int input_id = toInt(network, input);
 		return toFeature(network, type_id, output_id, input_id);
 	}
 
@@ -498,19 +859,31 @@ public class GlobalNetworkParam implements Serializable{
 		} catch (NullPointerException e){
 			throw new NetworkException("Missing network on some toFeature calls while trying to extract only from labeled networks.");
 		}
-		TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>> featureIntMap = null;
-		if(!NetworkConfig.PARALLEL_FEATURE_EXTRACTION || NetworkConfig.NUM_THREADS == 1 || this.isLocked()){
-			featureIntMap = this._featureIntMap;
-		} else {
-			if(threadId == -1){
-				throw new NetworkException("Missing network on some toFeature calls while in parallel touch.");
+		if(this._concurrentFeatureIndex != null){
+			//parallel touch with a shared index: the returned ID is already the global feature ID.
+			if(shouldNotCreateNewFeature){
+				return this._concurrentFeatureIndex.get(type_id, output_id, input_id);
+			}
+			return this._concurrentFeatureIndex.getOrPut(type_id, output_id, input_id);
+		}
+		if(!NetworkConfig.PARALLEL_FEATURE_EXTRACTION || this.getConfig().getNumThreads() == 1 || this.isLocked()){
+			//if it is locked, then we might return a dummy feature
+			//if the feature does not appear to be present.
+			if(this.isLocked() || shouldNotCreateNewFeature){
+				return this._featureIndex.get(type_id, output_id, input_id);
 			}
-			featureIntMap = this._subFeatureIntMaps.get(threadId);
+			int featureId = this._featureIndex.getOrPut(type_id, output_id, input_id, this._size);
+			if(featureId == this._size){
+				this._size++;
+			}
+			return featureId;
 		}
 		
-		//if it is locked, then we might return a dummy feature
-		//if the feature does not appear to be present.
-		if(this.isLocked() || shouldNotCreateNewFeature){
+		if(threadId == -1){
+			throw new NetworkException("Missing network on some toFeature calls while in parallel touch.");
+		}
+		TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>> featureIntMap = this._subFeatureIntMaps.get(threadId);
+		if(shouldNotCreateNewFeature){
 			return this.getFeatureId(type_id, output_id, input_id, featureIntMap);
 		}
 		
@@ -525,11 +898,7 @@ public class GlobalNetworkParam implements Serializable{
 		
 		TIntIntHashMap inputToIdx = outputToInputToIdx.get(output_id);
 		if(!inputToIdx.containsKey(input_id)){
-			if(!NetworkConfig.PARALLEL_FEATURE_EXTRACTION || NetworkConfig.NUM_THREADS == 1){
-				inputToIdx.put(input_id, this._size++);
-			} else {
-				inputToIdx.put(input_id, this._subSize[threadId]++);
-			}
+			inputToIdx.put(input_id, this._subSize[threadId]++);
 		}
 
 		return inputToIdx.get(input_id);
@@ -544,7 +913,19 @@ public class GlobalNetworkParam implements Serializable{
 	 * @return
 	 */
 	public int getFeatureId(String type, String output, String input){
-		return getFeatureId(toInt(type), toInt(output), toInt(input), this._featureIntMap);
+		return getFeatureId(toInt(type), toInt(output), toInt(input));
+	}
+
+	/**
+	 * Returns the feature ID of the specified feature from the global feature index.<br>
+	 * If the feature is not present in the feature index, return -1.
+	 * @param type The feature type
+	 * @param output The feature output type
+	 * @param input The feature input type
+	 * @return
+	 */
+	public int getFeatureId(int type, int output, int input){
+		return this._featureIndex.get(type, output, input);
 	}
 
 	/**
@@ -578,6 +959,7 @@ public class GlobalNetworkParam implements Serializable{
 	 * @return true if the optimization is deemed to be finished, false otherwise
 	 */
 	public synchronized boolean update(){
+		this.checkNotDecodingOnly();
 		boolean done;
 		if(this.isDiscriminative()){
 			done = this.updateDiscriminative();
@@ -586,6 +968,7 @@ public class GlobalNetworkParam implements Serializable{
 		}
 		
 		this._obj_old = this._obj;
+		this._decodingWeights = null;
 		
 		return done;
 	}
@@ -600,27 +983,26 @@ public class GlobalNetworkParam implements Serializable{
 	 * 		   is less than {@link NetworkConfig#objtol}, false otherwise.
 	 */
 	private boolean updateGenerative(){
-		for(int type: this._featureIntMap.keys()){
-			TIntObjectHashMap<TIntIntHashMap> output2input = this._featureIntMap.get(type);
-			for(int output: output2input.keys()){
-				TIntIntHashMap input2feature;
-				double sum = 0;
-				input2feature = output2input.get(output);
-				for(int input: input2feature.keys()){
-					int feature = input2feature.get(input);
-					sum += this.getCount(feature);
-				}
-				
-				input2feature = output2input.get(output);
-				for(int input: input2feature.keys()){
-					int feature = input2feature.get(input);
-					double value = sum != 0 ? this.getCount(feature)/sum : 1.0/input2feature.size();
-					this.setWeight(feature, Math.log(value));
-					
-					if(Double.isNaN(Math.log(value))){
-						throw new RuntimeException("x"+value+"\t"+this.getCount(feature)+"/"+sum+"\t"+input2feature.size());
-					}
-				}
+		//the sum of counts and the number of features for each (type, output) pair.
+		double[] sums = new double[this._featureIndex.countGroups()];
+		int[] sizes = new int[this._featureIndex.countGroups()];
+		PackedFeatureIndex.FeatureIterator iter = this._featureIndex.iterator();
+		while(iter.hasNext()){
+			iter.advance();
+			sums[iter.groupId()] += this.getCount(iter.featureId());
+			sizes[iter.groupId()]++;
+		}
+		
+		iter = this._featureIndex.iterator();
+		while(iter.hasNext()){
+			iter.advance();
+			int feature = iter.featureId();
+			double sum = sums[iter.groupId()];
+			double value = sum != 0 ? this.getCount(feature)/sum : 1.0/sizes[iter.groupId()];
+			this.setWeight(feature, Math.log(value));
+			
+			if(Double.isNaN(Math.log(value))){
+				throw new RuntimeException("x"+value+"\t"+this.getCount(feature)+"/"+sum+"\t"+sizes[iter.groupId()]);
 			}
 		}
 		boolean done = Math.abs(this._obj-this._obj_old) < NetworkConfig.OBJTOL;
@@ -658,12 +1040,14 @@ public class GlobalNetworkParam implements Serializable{
 	 * Set the best parameters (only used in gradient optimizer.)
 	 */
 	public void setBestParameters() {
+		this.applyPendingUpdates();
 		if(this._opt.name().contains("Gradient Descent Optimizer")){
     		System.out.println("Copying the best parameters");
     		GradientDescentOptimizer gdOptimizer = (GradientDescentOptimizer)this._opt;
     		if (gdOptimizer.getCriteria() != BestParamCriteria.LAST_UPDATE) {
     			gdOptimizer.copyBest();
-        		if (NetworkConfig.USE_NEURAL_FEATURES) {
+    			this._decodingWeights = null;
+        		if (this.getConfig().isUsingNeuralFeatures()) {
             		// De-concatenate into their corresponding weight vectors 
             		int ptr = 0;
             		System.arraycopy(concatWeights, ptr, _weights, 0, _weights.length);
@@ -689,7 +1073,7 @@ public class GlobalNetworkParam implements Serializable{
 	 * 		   the decrease is less than 0.01% for three iterations, false otherwise.
 	 */
 	protected boolean updateDiscriminative(){
-		if (NetworkConfig.USE_NEURAL_FEATURES) {
+		if (this.getConfig().isUsingNeuralFeatures()) {
 			if (concatWeights == null) {
 				int concatDim = getFeatureSize();
 				concatWeights = new double[concatDim];
@@ -725,7 +1109,11 @@ public class GlobalNetworkParam implements Serializable{
     		// The _weights parameters will be updated inside this optimize method.
     		// This is possible since the _weights array is passed to the optimizer above,
     		// and the optimizer will set the weights directly, as arrays are passed by reference
-        	done = this._opt.optimize();
+    		if(this._sparseUpdate){
+    			done = this.optimizeSparse();
+    		} else {
+    			done = this._opt.optimize();
+    		}
     	} catch(ExceptionWithIflag e){
     		throw new NetworkException("Exception with Iflag:"+e.getMessage());
     	}
@@ -746,7 +1134,7 @@ public class GlobalNetworkParam implements Serializable{
 	    	}
     	}
     	
-    	if(done && this._opt.name().contains("LBFGS Optimizer") && !NetworkConfig.USE_NEURAL_FEATURES){
+    	if(done && this._opt.name().contains("LBFGS Optimizer") && !this.getConfig().isUsingNeuralFeatures()){
     		// If we stop early, we need to copy solution_cache,
     		// as noted in the Javadoc for solution_cache in LBFGS class.
     		// This is because the _weights will contain the next value to be evaluated, 
@@ -758,7 +1146,7 @@ public class GlobalNetworkParam implements Serializable{
         	}
     	}
     	
-    	if (NetworkConfig.USE_NEURAL_FEATURES) {
+    	if (this.getConfig().isUsingNeuralFeatures()) {
     		// De-concatenate into their corresponding weight vectors 
     		int ptr = 0;
     		System.arraycopy(concatWeights, ptr, _weights, 0, _weights.length);
@@ -776,6 +1164,30 @@ public class GlobalNetworkParam implements Serializable{
 		return done;
 	}
 	
+	/**
+	 * Updates only the weights of the features with counts in the current batch.
+	 * @return
+	 */
+	private boolean optimizeSparse(){
+		GradientDescentOptimizer gdOptimizer = (GradientDescentOptimizer)this._opt;
+		for(int i=0; i<this._numTouchedFeatures; i++){
+			double weight = this._weights[this._touchedFeatures[i]];
+			this._squaredWeightSum -= weight * weight;
+		}
+		boolean done = gdOptimizer.optimizeSparse(this._touchedFeatures, this._numTouchedFeatures);
+		if(gdOptimizer.getNumBestCopies() != this._numBestCopies){
+			// All weights were restored
+			this._numBestCopies = gdOptimizer.getNumBestCopies();
+			this._squaredWeightSum = MathsVector.square(this._weights);
+		} else {
+			for(int i=0; i<this._numTouchedFeatures; i++){
+				double weight = this._weights[this._touchedFeatures[i]];
+				this._squaredWeightSum += weight * weight;
+			}
+		}
+		return done;
+	}
+	
 	private int getFeatureSize() {
 		int size = this.countFeatures();
 		for (AbstractNeuralNetwork net : this._nn_param_g.getAllNets()) {
@@ -793,13 +1205,21 @@ public class GlobalNetworkParam implements Serializable{
 	 * essentially zeroing the values to be updated with the model gradient and objective value. 
 	 */
 	protected synchronized void resetCountsAndObj(){
+		this.checkNotDecodingOnly();
 		
-		double coef = 1.0;
-		if(NetworkConfig.USE_BATCH_TRAINING){
-			coef = this._batchSize*1.0/this.totalNumInsts;
-			if(coef>1) coef = 1.0;
-		}
+		double coef = this.getRegularizationCoef();
 		
+		if(this._sparseUpdate){
+			// Only the counts of the features in the last batch are non-zero,
+			// and the regularization gradient is added by the optimizer
+			for(int i=0; i<this._numTouchedFeatures; i++){
+				this._counts[this._touchedFeatures[i]] = 0.0;
+				this._isTouched[this._touchedFeatures[i]] = false;
+			}
+			this._numTouchedFeatures = 0;
+			this._obj = this._kappa > 0 ? - coef * this._kappa * this._squaredWeightSum : 0.0;
+			return;
+		}
 		
 		for(int k = 0 ; k<this._size; k++){
 			this._counts[k] = 0.0;
@@ -813,7 +1233,7 @@ public class GlobalNetworkParam implements Serializable{
 		//for regularization
 		if(this.isDiscriminative() && this._kappa > 0){
 			this._obj += MathsVector.square(this._weights);
-			if (NetworkConfig.USE_NEURAL_FEATURES) {
+			if (this.getConfig().isUsingNeuralFeatures()) {
 				for (NeuralNetworkCore net : this._nn_param_g.getAllNets()) {
 					net.setScale(coef);
 					if (NetworkConfig.REGULARIZE_NEURAL_FEATURES) {
@@ -830,6 +1250,20 @@ public class GlobalNetworkParam implements Serializable{
 	}
 	
 	
+	/**
+	 * Returns the coefficient of the regularization term, which is the fraction of instances
+	 * in each batch in batch training, and 1 otherwise.
+	 * @return
+	 */
+	private double getRegularizationCoef(){
+		double coef = 1.0;
+		if(NetworkConfig.USE_BATCH_TRAINING){
+			coef = this._batchSize*1.0/this.totalNumInsts;
+			if(coef>1) coef = 1.0;
+		}
+		return coef;
+	}
+	
 	public void setNNParamG(GlobalNeuralNetworkParam nn_param_g) {
 		this._nn_param_g = nn_param_g;
 	}
@@ -862,10 +1296,12 @@ public class GlobalNetworkParam implements Serializable{
 //	}
 	
 	private void writeObject(ObjectOutputStream out) throws IOException{
+		this.checkNotDecodingOnly();
 		out.writeObject("Version 1");
 		
+		//written in the nested map form, to keep the model format unchanged.
 		out.writeObject("_featureIntMap");
-		out.writeObject(this._featureIntMap);
+		out.writeObject(this._featureIndex.toNestedMap());
 		
 		out.writeObject("_stringIndex");
 		out.writeObject(this._stringIndex);
@@ -893,7 +1329,7 @@ public class GlobalNetworkParam implements Serializable{
 		try{
 			version = (String)obj;
 		} catch (Exception e){
-			this._featureIntMap = (TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>>)obj;
+			this._featureIndex = PackedFeatureIndex.fromNestedMap((TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>>)obj);
 		}
 		if(version == null){
 			this._weights = (double[])in.readObject();
@@ -913,6 +1349,10 @@ public class GlobalNetworkParam implements Serializable{
 							break;
 						}
 						obj = in.readObject();
+						if(varName.equals("_featureIntMap")){
+							this._featureIndex = PackedFeatureIndex.fromNestedMap((TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>>)obj);
+							continue;
+						}
 						Field field = this.getClass().getDeclaredField(varName);
 						field.setAccessible(true);
 						field.set(this, obj);
@@ -0,0 +1,166 @@
+/** Statistical Natural Language Processing System
+    Copyright (C) 2014-2016  Lu, Wei
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.statnlp.hypergraph;
+
+/**
+ * The working arrays used by the inference procedures of {@link Network} (inside, outside, max, etc.).<br>
+ * This is done to avoid reallocating new arrays for each network: the arrays are allocated on demand,
+ * grow with the largest network seen, and are reused by all networks processed with this workspace.<br>
+ * A workspace must only be used by one thread at a time. Each {@link LocalNetworkParam} has its own
+ * workspace, which can be replaced using {@link LocalNetworkParam#setWorkspace(InferenceWorkspace)} to share
+ * it between the learner and the decoder of the same thread.
+ */
+public class InferenceWorkspace {
+
+	/** The working array for calculating inside scores */
+	private double[] inside;
+	/** The working array for calculating outside scores */
+	private double[] outside;
+	/** The working array for calculating max scores */
+	private double[] max;
+	/** The working array for storing max paths (for backtracking) */
+	private int[][] maxPaths;
+	/** The working array for storing the marginal scores of the unlabeled network */
+	private double[] marginal;
+	/** The working array for storing the new marginal scores of the unlabeled network */
+	private double[] newMarginal;
+	/** The working array for storing the scores of the hyperedges */
+	private double[] edgeScores;
+	/** The working array for storing the index of the first hyperedge of each node */
+	private int[] edgeOffsets;
+	/** The working array for gathering the scores of the hyperedges of a node, see {@link LogSumExp} */
+	private double[] nodeEdgeScores;
+	/** The working array for accumulating the outside scores, shifted by the values in the outside array */
+	private double[] outsideSums;
+	/** The working array for the scores of the hyperedges between two layers of a linear chain, see {@link LinearChainInference} */
+	private double[] chainScores;
+	/** The k-best decoder, whose arrays are reused for all networks */
+	private KBestDecoder kBestDecoder;
+
+	public double[] getInside(int numNodes){
+		if(this.inside == null || numNodes > this.inside.length){
+			this.inside = new double[numNodes];
+		}
+		return this.inside;
+	}
+
+	public double[] getOutside(int numNodes){
+		if(this.outside == null || numNodes > this.outside.length){
+			this.outside = new double[numNodes];
+		}
+		return this.outside;
+	}
+
+	public double[] getMax(int numNodes){
+		if(this.max == null || numNodes > this.max.length){
+			this.max = new double[numNodes];
+		}
+		return this.max;
+	}
+
+	public int[][] getMaxPaths(int numNodes){
+		if(this.maxPaths == null || numNodes > this.maxPaths.length){
+			this.maxPaths = new int[numNodes][];
+		}
+		return this.maxPaths;
+	}
+
+	public double[] getMarginal(int numNodes){
+		if(this.marginal == null || numNodes > this.marginal.length){
+			this.marginal = new double[numNodes];
+		}
+		return this.marginal;
+	}
+
+	public double[] getNewMarginal(int numNodes){
+		if(this.newMarginal == null || numNodes > this.newMarginal.length){
+			this.newMarginal = new double[numNodes];
+		}
+		return this.newMarginal;
+	}
+
+	public double[] getEdgeScores(int numEdges){
+		if(this.edgeScores == null || numEdges > this.edgeScores.length){
+			this.edgeScores = new double[numEdges];
+		}
+		return this.edgeScores;
+	}
+
+	public int[] getEdgeOffsets(int numNodes){
+		if(this.edgeOffsets == null || numNodes+1 > this.edgeOffsets.length){
+			this.edgeOffsets = new int[numNodes+1];
+		}
+		return this.edgeOffsets;
+	}
+
+	public double[] getNodeEdgeScores(int numEdges){
+		if(this.nodeEdgeScores == null || numEdges > this.nodeEdgeScores.length){
+			this.nodeEdgeScores = new double[Math.max(numEdges, 16)];
+		}
+		return this.nodeEdgeScores;
+	}
+
+	public double[] getOutsideSums(int numNodes){
+		if(this.outsideSums == null || numNodes > this.outsideSums.length){
+			this.outsideSums = new double[numNodes];
+		}
+		return this.outsideSums;
+	}
+
+	public double[] getChainScores(int size){
+		if(this.chainScores == null || size > this.chainScores.length){
+			this.chainScores = new double[size];
+		}
+		return this.chainScores;
+	}
+
+	public KBestDecoder getKBestDecoder(){
+		if(this.kBestDecoder == null){
+			this.kBestDecoder = new KBestDecoder();
+		}
+		return this.kBestDecoder;
+	}
+
+	/**
+	 * Invalidates the k-best derivations computed by the k-best decoder, if any.
+	 * This is called whenever the max scores are recomputed.
+	 */
+	public void resetKBestDecoder(){
+		if(this.kBestDecoder != null){
+			this.kBestDecoder.reset();
+		}
+	}
+
+	/**
+	 * Releases all working arrays, which will be reallocated when needed.
+	 */
+	public void clear(){
+		this.inside = null;
+		this.outside = null;
+		this.max = null;
+		this.maxPaths = null;
+		this.marginal = null;
+		this.newMarginal = null;
+		this.edgeScores = null;
+		this.edgeOffsets = null;
+		this.nodeEdgeScores = null;
+		this.outsideSums = null;
+		this.chainScores = null;
+		this.kBestDecoder = null;
+	}
+
+}
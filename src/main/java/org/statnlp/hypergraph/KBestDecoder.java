@@ -0,0 +1,376 @@
+/** Statistical Natural Language Processing System
+    Copyright (C) 2014-2016  Lu, Wei
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.statnlp.hypergraph;
+
+import java.util.Arrays;
+
+/**
+ * The lazy k-best decoder, following Algorithm 3 of Huang and Chiang (2005), "Better k-best parsing".<br>
+ * The k-best derivations of each node are only computed when requested, starting from the scores
+ * of the hyperedges and the 1-best scores computed by {@link Network#max()}.<br>
+ * All derivations and candidates are kept in primitive arrays, which grow with the largest network seen
+ * and are reused for all networks decoded with the same {@link InferenceWorkspace}, so that no objects are
+ * created per derivation. A derivation is represented by its score, the index of its hyperedge in the list of
+ * hyperedges of its node, and the rank of the derivation taken at each child of that hyperedge.<br>
+ * To avoid putting the same candidate twice into the queue of a node without a hash set, the successors of a
+ * derivation only increase the rank of a child up to the first child with a non-zero rank, so that each rank
+ * configuration has exactly one predecessor.
+ * @see Network#selectKthBestPath(int)
+ */
+public class KBestDecoder {
+
+	/** The network being decoded, or null if this decoder has not been prepared */
+	private Network network;
+
+	/** The score of each derivation (or candidate) */
+	private double[] scores;
+	/** The index of the hyperedge of each derivation, or -1 for a sum node without any hyperedge */
+	private int[] edges;
+	/** The position in {@link #ranks} of the ranks of the children of each derivation */
+	private int[] rankStarts;
+	private int numDerivations;
+	/** The ranks of the derivations taken at the children */
+	private int[] ranks;
+	private int numRanks;
+
+	/** The derivations of each node found so far, in descending order of score */
+	private int[][] found;
+	private int[] numFound;
+	/** The number of derivations of each node whose successors have been put into the queue */
+	private int[] numExpanded;
+	/** The binary heap of the candidates of each node */
+	private int[][] heaps;
+	private int[] heapSizes;
+	private boolean[] initialized;
+
+	/** The max scores and max paths computed by {@link Network#max()}, to be restored */
+	private double[] savedMax;
+	private int[][] savedMaxPaths;
+	/** The nodes whose max score and max path have been changed by {@link #select(int)} */
+	private int[] changed;
+	private int numChanged;
+	/** The stack of (node, derivation) pairs used when setting the max paths */
+	private int[] stack;
+
+	/**
+	 * Whether this decoder has been prepared for the specified network since its last call to {@link Network#max()}.
+	 * @param network
+	 * @return
+	 */
+	public boolean isPreparedFor(Network network){
+		return this.network == network;
+	}
+
+	/**
+	 * Prepares this decoder for the specified network, on which {@link Network#max()} has been called.
+	 * @param network
+	 */
+	public void prepare(Network network){
+		this.network = network;
+		int numNodes = network.countNodes();
+		if(this.found == null || numNodes > this.found.length){
+			int capacity = Math.max(numNodes, this.found == null ? 0 : 2*this.found.length);
+			this.found = Arrays.copyOf(this.found == null ? new int[0][] : this.found, capacity);
+			this.heaps = Arrays.copyOf(this.heaps == null ? new int[0][] : this.heaps, capacity);
+			this.numFound = new int[capacity];
+			this.numExpanded = new int[capacity];
+			this.heapSizes = new int[capacity];
+			this.initialized = new boolean[capacity];
+			this.savedMax = new double[capacity];
+			this.savedMaxPaths = new int[capacity][];
+			this.changed = new int[capacity];
+		}
+		if(this.scores == null){
+			this.scores = new double[256];
+			this.edges = new int[256];
+			this.rankStarts = new int[256];
+			this.ranks = new int[256];
+			this.stack = new int[256];
+		}
+		Arrays.fill(this.numFound, 0, numNodes, 0);
+		Arrays.fill(this.numExpanded, 0, numNodes, 0);
+		Arrays.fill(this.heapSizes, 0, numNodes, 0);
+		Arrays.fill(this.initialized, 0, numNodes, false);
+		System.arraycopy(network._max, 0, this.savedMax, 0, numNodes);
+		System.arraycopy(network._max_paths, 0, this.savedMaxPaths, 0, numNodes);
+		this.numDerivations = 0;
+		this.numRanks = 0;
+		this.numChanged = 0;
+	}
+
+	/**
+	 * Releases the network, so that this decoder needs to be prepared again before use.
+	 */
+	public void reset(){
+		this.network = null;
+	}
+
+	/**
+	 * Sets the max scores and max paths of the nodes in the k-th best (0-based) structure of the network
+	 * to those of that structure, after restoring the nodes changed by the previous call.
+	 * @param k
+	 * @return Whether the network has at least k+1 structures. If not, the max paths are those of the best structure.
+	 */
+	public boolean select(int k){
+		Network network = this.network;
+		for(int i=0; i<this.numChanged; i++){
+			int node_k = this.changed[i];
+			network._max[node_k] = this.savedMax[node_k];
+			network._max_paths[node_k] = this.savedMaxPaths[node_k];
+		}
+		this.numChanged = 0;
+		int root_k = network.countNodes()-1;
+		int derivation = this.getKthBest(root_k, k);
+		if(derivation < 0){
+			return false;
+		}
+		if(k == 0){
+			return true;
+		}
+		CompactEdges compactEdges = network.getCompactEdges();
+		int stackSize = 0;
+		this.stack[stackSize++] = root_k;
+		this.stack[stackSize++] = derivation;
+		while(stackSize > 0){
+			derivation = this.stack[--stackSize];
+			int node_k = this.stack[--stackSize];
+			if(this.numChanged == this.changed.length){
+				this.changed = Arrays.copyOf(this.changed, 2*this.changed.length);
+			}
+			this.changed[this.numChanged++] = node_k;
+			network._max[node_k] = this.scores[derivation];
+			int edge = this.edges[derivation];
+			if(edge < 0){
+				continue;
+			}
+			int[] children_k = compactEdges == null ? network.getChildren(node_k)[edge] : compactEdges.getChildren(node_k, edge);
+			network._max_paths[node_k] = children_k;
+			int rankStart = this.rankStarts[derivation];
+			for(int i=0; i<children_k.length; i++){
+				int child_k = children_k[i];
+				if(child_k < 0){
+					// A negative child_k is not a reference to a node, it's just a number associated with this edge
+					continue;
+				}
+				if(stackSize+2 > this.stack.length){
+					this.stack = Arrays.copyOf(this.stack, 2*this.stack.length);
+				}
+				this.stack[stackSize++] = child_k;
+				this.stack[stackSize++] = this.found[child_k][this.ranks[rankStart+i]];
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the k-th best (0-based) derivation of the specified node, computing it lazily if necessary.
+	 * This corresponds to LazyKthBest(v, k) of Algorithm 3 in Huang and Chiang (2005) paper.
+	 * @param node_k
+	 * @param k
+	 * @return The derivation, or -1 if the node has at most k derivations.
+	 */
+	private int getKthBest(int node_k, int k){
+		if(!this.initialized[node_k]){
+			this.initialize(node_k);
+		}
+		while(this.numFound[node_k] <= k){
+			if(this.numExpanded[node_k] < this.numFound[node_k]){
+				this.numExpanded[node_k] = this.numFound[node_k];
+				this.pushSuccessors(node_k, this.found[node_k][this.numFound[node_k]-1]);
+			}
+			if(this.heapSizes[node_k] == 0){
+				return -1;
+			}
+			int derivation = this.pop(node_k);
+			int[] found_k = this.found[node_k];
+			if(found_k == null || this.numFound[node_k] == found_k.length){
+				found_k = this.found[node_k] = found_k == null ? new int[4] : Arrays.copyOf(found_k, 2*found_k.length);
+			}
+			found_k[this.numFound[node_k]++] = derivation;
+		}
+		return this.found[node_k][k];
+	}
+
+	/**
+	 * Puts the best derivation of each hyperedge of the specified node into its queue.
+	 * This corresponds to GetCandidates(v, k) of Algorithm 3 in Huang and Chiang (2005) paper.
+	 * @param node_k
+	 */
+	private void initialize(int node_k){
+		this.initialized[node_k] = true;
+		Network network = this.network;
+		if(network.isRemoved(node_k)){
+			return;
+		}
+		CompactEdges compactEdges = network.getCompactEdges();
+		int[][] childrenList_k = compactEdges == null ? network.getChildren(node_k) : null;
+		int numEdges = compactEdges == null ? childrenList_k.length : compactEdges.countEdges(node_k);
+		if(network.isSumNode(node_k)){
+			// A sum node has a single derivation, which is the one taken by max
+			if(numEdges == 0){
+				this.push(node_k, this.newDerivation(-1, 0, network._max[node_k]));
+				return;
+			}
+			numEdges = 1;
+		}
+		for(int children_k_index = 0; children_k_index < numEdges; children_k_index++){
+			int[] childIndices = compactEdges == null ? childrenList_k[children_k_index] : compactEdges.children;
+			int childStart = compactEdges == null ? 0 : compactEdges.childOffsets[compactEdges.getEdge(node_k, children_k_index)];
+			int childEnd = compactEdges == null ? childIndices.length : compactEdges.childOffsets[compactEdges.getEdge(node_k, children_k_index)+1];
+			double score = network.isSumNode(node_k) ? network._max[node_k] : network._edgeScores[network._edgeOffsets[node_k]+children_k_index];
+			boolean valid = true;
+			for(int c = childStart; c < childEnd; c++){
+				int child_k = childIndices[c];
+				if(child_k < 0){
+					continue;
+				}
+				int childDerivation = network.isRemoved(child_k) ? -1 : this.getKthBest(child_k, 0);
+				if(childDerivation < 0){
+					valid = false;
+					break;
+				}
+				if(!network.isSumNode(node_k)){
+					score += this.scores[childDerivation];
+				}
+			}
+			if(valid){
+				int derivation = this.newDerivation(children_k_index, childEnd-childStart, score);
+				Arrays.fill(this.ranks, this.rankStarts[derivation], this.rankStarts[derivation]+childEnd-childStart, 0);
+				this.push(node_k, derivation);
+			}
+		}
+	}
+
+	/**
+	 * Puts the successors of the specified derivation into the queue of the specified node,
+	 * each taking the next best derivation of one child.
+	 * This corresponds to LazyNext(cand[v], e, j, k) of Algorithm 3 in Huang and Chiang (2005) paper.
+	 * @param node_k
+	 * @param derivation
+	 */
+	private void pushSuccessors(int node_k, int derivation){
+		Network network = this.network;
+		int edge = this.edges[derivation];
+		if(edge < 0 || network.isSumNode(node_k)){
+			return;
+		}
+		CompactEdges compactEdges = network.getCompactEdges();
+		int[] childIndices = compactEdges == null ? network.getChildren(node_k)[edge] : compactEdges.children;
+		int childStart = compactEdges == null ? 0 : compactEdges.childOffsets[compactEdges.getEdge(node_k, edge)];
+		int arity = compactEdges == null ? childIndices.length : compactEdges.childOffsets[compactEdges.getEdge(node_k, edge)+1]-childStart;
+		for(int i=0; i<arity; i++){
+			int child_k = childIndices[childStart+i];
+			if(child_k < 0){
+				continue;
+			}
+			int rank = this.ranks[this.rankStarts[derivation]+i];
+			if(this.getKthBest(child_k, rank+1) >= 0){
+				int successor = this.newDerivation(edge, arity, 0.0);
+				System.arraycopy(this.ranks, this.rankStarts[derivation], this.ranks, this.rankStarts[successor], arity);
+				this.ranks[this.rankStarts[successor]+i] = rank+1;
+				double score = network._edgeScores[network._edgeOffsets[node_k]+edge];
+				for(int j=0; j<arity; j++){
+					int other_k = childIndices[childStart+j];
+					if(other_k >= 0){
+						score += this.scores[this.found[other_k][this.ranks[this.rankStarts[successor]+j]]];
+					}
+				}
+				this.scores[successor] = score;
+				this.push(node_k, successor);
+			}
+			if(rank > 0){
+				break;
+			}
+		}
+	}
+
+	private int newDerivation(int edge, int arity, double score){
+		if(this.numDerivations == this.scores.length){
+			int capacity = 2*this.scores.length;
+			this.scores = Arrays.copyOf(this.scores, capacity);
+			this.edges = Arrays.copyOf(this.edges, capacity);
+			this.rankStarts = Arrays.copyOf(this.rankStarts, capacity);
+		}
+		if(this.numRanks+arity > this.ranks.length){
+			this.ranks = Arrays.copyOf(this.ranks, Math.max(2*this.ranks.length, this.numRanks+arity));
+		}
+		int derivation = this.numDerivations++;
+		this.scores[derivation] = score;
+		this.edges[derivation] = edge;
+		this.rankStarts[derivation] = this.numRanks;
+		this.numRanks += arity;
+		return derivation;
+	}
+
+	/**
+	 * Whether derivation a should be taken before derivation b.
+	 * Ties are broken in favor of the later hyperedge, as in {@link Network#max(int)}.
+	 */
+	private boolean isBetter(int a, int b){
+		if(this.scores[a] != this.scores[b]){
+			return this.scores[a] > this.scores[b];
+		}
+		if(this.edges[a] != this.edges[b]){
+			return this.edges[a] > this.edges[b];
+		}
+		return a < b;
+	}
+
+	private void push(int node_k, int derivation){
+		int[] heap = this.heaps[node_k];
+		int size = this.heapSizes[node_k];
+		if(heap == null || size == heap.length){
+			heap = this.heaps[node_k] = heap == null ? new int[4] : Arrays.copyOf(heap, 2*heap.length);
+		}
+		int pos = size;
+		while(pos > 0){
+			int parent = (pos-1) >>> 1;
+			if(!this.isBetter(derivation, heap[parent])){
+				break;
+			}
+			heap[pos] = heap[parent];
+			pos = parent;
+		}
+		heap[pos] = derivation;
+		this.heapSizes[node_k] = size+1;
+	}
+
+	private int pop(int node_k){
+		int[] heap = this.heaps[node_k];
+		int size = --this.heapSizes[node_k];
+		int top = heap[0];
+		int last = heap[size];
+		int pos = 0;
+		while(true){
+			int child = 2*pos+1;
+			if(child >= size){
+				break;
+			}
+			if(child+1 < size && this.isBetter(heap[child+1], heap[child])){
+				child++;
+			}
+			if(!this.isBetter(heap[child], last)){
+				break;
+			}
+			heap[pos] = heap[child];
+			pos = child;
+		}
+		heap[pos] = last;
+		return top;
+	}
+
+}
@@ -0,0 +1,248 @@
+/** Statistical Natural Language Processing System
+    Copyright (C) 2014-2016  Lu, Wei
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.statnlp.hypergraph;
+
+import java.util.Arrays;
+
+/**
+ * The inference procedures (forward-backward and Viterbi) for networks which are linear chains,
+ * used by {@link Network} in place of the general hypergraph procedures when the compiler of the network
+ * declares its networks to be linear chains (see {@link NetworkCompiler#isLinearChain()}).<br>
+ * A network is a linear chain if its nodes can be divided into layers, where:
+ * <ol>
+ * <li>The first layer consists of the leaf nodes</li>
+ * <li>Every hyperedge of a node in the other layers has exactly one child, which is in the previous layer</li>
+ * <li>A node has at most one hyperedge to each node of the previous layer</li>
+ * <li>The nodes of each layer are contiguous in the node order, which is the case when the node IDs encode the
+ * position first, as with {@link NetworkIDMapper}</li>
+ * </ol>
+ * The hyperedges between two layers then form a dense score matrix (the current nodes times the previous nodes),
+ * and the inside and outside scores of each layer are computed from the scores of the previous (or next) layer
+ * as max-shifted log-sum-exp over the rows (or columns) of that matrix, without going through the hyperedges of
+ * the hypergraph again.<br>
+ * The hyperedge scores are computed by {@link Network#computeEdgeScore(int, int[], int)}, so the features,
+ * cost, and neural scores are the same as with the general procedures, and the inside, outside, and max arrays
+ * are filled in the same way, so the gradient update, the pruning, and the decompilers work unchanged.
+ */
+public class LinearChainInference {
+
+	/**
+	 * Returns the start of each layer of the network, followed by the number of nodes,
+	 * if the network is a linear chain, or null otherwise.
+	 * @param network
+	 * @return
+	 */
+	public static int[] findLayers(Network network){
+		int numNodes = network.countNodes();
+		if(numNodes == 0){
+			return null;
+		}
+		CompactEdges edges = network.getCompactEdges();
+		int[] layerOf = new int[numNodes];
+		int[] lastParent = new int[numNodes];
+		Arrays.fill(lastParent, -1);
+		int numLayers = 1;
+		for(int k=0; k<numNodes; k++){
+			if(network.isSumNode(k)){
+				return null;
+			}
+			int numEdges = edges == null ? network.getChildren(k).length : edges.countEdges(k);
+			int layer = -1;
+			for(int children_k_index=0; children_k_index<numEdges; children_k_index++){
+				int arity = edges == null ? network.getChildren(k)[children_k_index].length : edges.getArity(edges.getEdge(k, children_k_index));
+				if(arity == 0 && numEdges == 1){
+					// A leaf node with a single hyperedge without child
+					break;
+				}
+				if(arity != 1){
+					return null;
+				}
+				int child_k = edges == null ? network.getChildren(k)[children_k_index][0] : edges.children[edges.childOffsets[edges.getEdge(k, children_k_index)]];
+				if(child_k < 0 || lastParent[child_k] == k){
+					return null;
+				}
+				lastParent[child_k] = k;
+				if(layer == -1){
+					layer = layerOf[child_k]+1;
+				} else if(layer != layerOf[child_k]+1){
+					return null;
+				}
+			}
+			layerOf[k] = layer == -1 ? 0 : layer;
+			if(k > 0 && layerOf[k] != layerOf[k-1]){
+				if(layerOf[k] != layerOf[k-1]+1){
+					return null;
+				}
+				numLayers++;
+			}
+		}
+		int[] layers = new int[numLayers+1];
+		for(int k=1; k<numNodes; k++){
+			if(layerOf[k] != layerOf[k-1]){
+				layers[layerOf[k]] = k;
+			}
+		}
+		layers[numLayers] = numNodes;
+		return layers;
+	}
+
+	/**
+	 * Calculates the inside scores of all nodes (the forward pass), and stores the hyperedge scores.
+	 * @param network
+	 * @param layers The layers of the network, as returned by {@link #findLayers(Network)}
+	 */
+	public static void inside(Network network, int[] layers){
+		for(int k=layers[0]; k<layers[1]; k++){
+			network.inside(k);
+		}
+		double[] inside = network._inside;
+		CompactEdges edges = network.getCompactEdges();
+		for(int s=1; s+1<layers.length; s++){
+			int prevStart = layers[s-1];
+			int numPrev = layers[s]-prevStart;
+			double[] row = network._param.getWorkspace().getNodeEdgeScores(numPrev);
+			for(int k=layers[s]; k<layers[s+1]; k++){
+				if(network.isRemoved(k)){
+					inside[k] = Double.NEGATIVE_INFINITY;
+					continue;
+				}
+				Arrays.fill(row, 0, numPrev, Double.NEGATIVE_INFINITY);
+				int[][] childrenList_k = edges == null ? network.getChildren(k) : null;
+				int numEdges = edges == null ? childrenList_k.length : edges.countEdges(k);
+				for(int children_k_index=0; children_k_index<numEdges; children_k_index++){
+					int child_k = edges == null ? childrenList_k[children_k_index][0] : edges.children[edges.childOffsets[edges.getEdge(k, children_k_index)]];
+					if(network.isRemoved(child_k)){
+						continue;
+					}
+					double score = network.computeEdgeScore(k, edges == null ? childrenList_k[children_k_index] : null, children_k_index);
+					network._edgeScores[network._edgeOffsets[k]+children_k_index] = score;
+					row[child_k-prevStart] = score + inside[child_k];
+				}
+				inside[k] = LogSumExp.logSumExp(row, 0, numPrev);
+				if(inside[k] == Double.NEGATIVE_INFINITY){
+					network.remove(k);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Calculates the outside scores of all nodes (the backward pass), using the hyperedge scores
+	 * stored by {@link #inside(Network, int[])}.
+	 * @param network
+	 * @param layers The layers of the network, as returned by {@link #findLayers(Network)}
+	 */
+	public static void outside(Network network, int[] layers){
+		double[] inside = network._inside;
+		double[] outside = network._outside;
+		int lastLayer = layers.length-2;
+		for(int k=layers[lastLayer]; k<layers[lastLayer+1]; k++){
+			if(network.isRemoved(k)){
+				outside[k] = Double.NEGATIVE_INFINITY;
+				continue;
+			}
+			outside[k] = network.isRoot(k) && inside[k] != Double.NEGATIVE_INFINITY ? 0.0 : Double.NEGATIVE_INFINITY;
+			if(outside[k] == Double.NEGATIVE_INFINITY){
+				network.remove(k);
+			}
+		}
+		CompactEdges edges = network.getCompactEdges();
+		InferenceWorkspace workspace = network._param.getWorkspace();
+		for(int s=lastLayer; s>=1; s--){
+			int start = layers[s];
+			int numCur = layers[s+1]-start;
+			int prevStart = layers[s-1];
+			int numPrev = layers[s]-prevStart;
+			// The scores of the hyperedges between the two layers plus the outside scores of the parents,
+			// stored row by row, one row for each node in the current layer
+			double[] matrix = workspace.getChainScores(numCur*numPrev);
+			Arrays.fill(matrix, 0, numCur*numPrev, Double.NEGATIVE_INFINITY);
+			for(int k=start; k<start+numCur; k++){
+				if(network.isRemoved(k) || outside[k] == Double.NEGATIVE_INFINITY){
+					continue;
+				}
+				int[][] childrenList_k = edges == null ? network.getChildren(k) : null;
+				int numEdges = edges == null ? childrenList_k.length : edges.countEdges(k);
+				int rowStart = (k-start)*numPrev;
+				for(int children_k_index=0; children_k_index<numEdges; children_k_index++){
+					int child_k = edges == null ? childrenList_k[children_k_index][0] : edges.children[edges.childOffsets[edges.getEdge(k, children_k_index)]];
+					if(network.isRemoved(child_k)){
+						continue;
+					}
+					matrix[rowStart+child_k-prevStart] = network._edgeScores[network._edgeOffsets[k]+children_k_index] + outside[k];
+				}
+			}
+			double[] column = workspace.getNodeEdgeScores(numCur);
+			for(int j=0; j<numPrev; j++){
+				int child_k = prevStart+j;
+				if(network.isRemoved(child_k)){
+					outside[child_k] = Double.NEGATIVE_INFINITY;
+					continue;
+				}
+				for(int i=0; i<numCur; i++){
+					column[i] = matrix[i*numPrev+j];
+				}
+				outside[child_k] = inside[child_k] == Double.NEGATIVE_INFINITY ? Double.NEGATIVE_INFINITY : LogSumExp.logSumExp(column, 0, numCur);
+				if(outside[child_k] == Double.NEGATIVE_INFINITY){
+					network.remove(child_k);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Calculates the max scores and the max paths of all nodes (Viterbi), and stores the hyperedge scores.
+	 * @param network
+	 * @param layers The layers of the network, as returned by {@link #findLayers(Network)}
+	 */
+	public static void max(Network network, int[] layers){
+		for(int k=layers[0]; k<layers[1]; k++){
+			network.max(k);
+		}
+		double[] max = network._max;
+		CompactEdges edges = network.getCompactEdges();
+		for(int s=1; s+1<layers.length; s++){
+			for(int k=layers[s]; k<layers[s+1]; k++){
+				max[k] = Double.NEGATIVE_INFINITY;
+				if(network.isRemoved(k)){
+					continue;
+				}
+				int[][] childrenList_k = edges == null ? network.getChildren(k) : null;
+				int numEdges = edges == null ? childrenList_k.length : edges.countEdges(k);
+				int best = -1;
+				for(int children_k_index=0; children_k_index<numEdges; children_k_index++){
+					int child_k = edges == null ? childrenList_k[children_k_index][0] : edges.children[edges.childOffsets[edges.getEdge(k, children_k_index)]];
+					if(network.isRemoved(child_k)){
+						continue;
+					}
+					double score = network.computeEdgeScore(k, edges == null ? childrenList_k[children_k_index] : null, children_k_index);
+					network._edgeScores[network._edgeOffsets[k]+children_k_index] = score;
+					score += max[child_k];
+					// Ties are broken in favor of the later hyperedge, as in Network#max(int)
+					if(score >= max[k]){
+						max[k] = score;
+						best = children_k_index;
+					}
+				}
+				if(best >= 0){
+					network._max_paths[k] = edges == null ? childrenList_k[best] : edges.getChildren(k, best);
+				}
+			}
+		}
+	}
+
+}
@@ -21,9 +21,6 @@ import java.util.List;
 
 import org.statnlp.commons.types.Instance;
 import org.statnlp.hypergraph.NetworkConfig.InferenceType;
-import org.statnlp.hypergraph.decoding.EdgeHypothesis;
-import org.statnlp.hypergraph.decoding.NodeHypothesis;
-import org.statnlp.hypergraph.decoding.ScoredIndex;
 
 public class LocalNetworkDecoderThread extends Thread{
 	
@@ -119,13 +116,24 @@ public class LocalNetworkDecoderThread extends Thread{
 		if(!_cacheParam){
 			this._param.disableCache();
 		}
-		if(NetworkConfig.INFERENCE == InferenceType.MEAN_FIELD){
+		return this.decode(network, this.numPredictionsGenerated);
+	}
+	
+	/**
+	 * Decodes the specified network, which should have been compiled using the param of this decoder,
+	 * and returns the instance with the prediction(s) set.
+	 * @param network The network to be decoded.
+	 * @param numPredictionsGenerated The number of top-k structures to be decoded.
+	 * @return
+	 */
+	public Instance decode(Network network, int numPredictionsGenerated){
+		if(this._param.getConfig().getInference() == InferenceType.MEAN_FIELD){
 			//initialize the joint feature map and also the marginal score map.
 			network.initStructArr();
 			network.clearMarginalMap();
 			boolean prevDone = false;
-			for (int it = 0; it < NetworkConfig.MAX_MF_UPDATES; it++) {
-				for (int curr = 0; curr < NetworkConfig.NUM_STRUCTS; curr++) {
+			for (int it = 0; it < this._param.getConfig().getMaxMFUpdates(); it++) {
+				for (int curr = 0; curr < this._param.getConfig().getNumStructs(); curr++) {
 					network.enableKthStructure(curr);
 					network.inference(true);
 				}
@@ -138,14 +146,14 @@ public class LocalNetworkDecoderThread extends Thread{
 				network.renewCurrentMarginalMap();
 			}
 			Instance inst = null;
-			for (int curr = 0; curr < NetworkConfig.NUM_STRUCTS; curr++) {
+			for (int curr = 0; curr < this._param.getConfig().getNumStructs(); curr++) {
 				network.enableKthStructure(curr);
 				network.max();
 				network.setStructure(curr);
 				inst = this._compiler.decompile(network);
 			}
 			return inst;
-		}else if(NetworkConfig.MAX_MARGINAL_DECODING){
+		}else if(this._param.getConfig().isMaxMarginalDecoding()){
 			network.inference(true);
 			network.renewCurrentMarginalMap();
 		}else{
@@ -159,82 +167,26 @@ public class LocalNetworkDecoderThread extends Thread{
 				// Try calling the implementation for top-K decompiler (not decoding)
 				return this._compiler.decompile(network, numPredictionsGenerated);
 			} catch (UnsupportedOperationException e){
-				// If not implemented, then do a workaround by changing the max array into the k-th best prediction
+				// If not implemented, then do a workaround by changing the max paths into the k-th best prediction
 				// Then call decompile to get the k-th best structure.
 				Instance result = this._compiler.decompile(network);
 				List<Object> topKPredictions = new ArrayList<>();
 				result.setTopKPredictions(topKPredictions);
 				topKPredictions.add(result.getPrediction());
-				NodeHypothesis rootHypothesis = network.getNodeHypothesis(network.getRootId());
 				for(int i=1; i<numPredictionsGenerated; i++){
-					ScoredIndex kthPrediction = rootHypothesis.getKthBestHypothesis(i);
-					if(kthPrediction == null){
+					if(!network.selectKthBestPath(i)){
 						break;
 					}
-					setMaxArrayForKthPrediction(network, kthPrediction, rootHypothesis);
 					Instance tmp = this._compiler.decompile(network);
 					topKPredictions.add(tmp.getPrediction());
 				}
-				// Set the max to the true max again
-				setMaxArrayForBestPrediction(network);
+				// Set the max paths to the best prediction again
+				network.selectKthBestPath(0);
 				return result;
 			}
 		}
 	}
 	
-	/**
-	 * This method is to restore the max array with the best prediction structure.<br>
-	 * This is used after {@link #setMaxArrayForKthPrediction(Network, ScoredIndex, NodeHypothesis)}
-	 * in order to restore the max and max_path arrays. Note that running {@link #setMaxArrayForKthPrediction(Network, ScoredIndex, NodeHypothesis)}
-	 * with the best path from root will not restore the max and max_path arrays for all nodes, since 
-	 * not all nodes will be visited in the best prediction, which might have been altered by other 
-	 * k-th best structures.
-	 * @param network
-	 */
-	private void setMaxArrayForBestPrediction(Network network){
-		for(int k=0; k<network.countNodes(); k++){
-			NodeHypothesis node = network._hypotheses[k];
-			ScoredIndex bestPath = node.getKthBestHypothesis(0);
-			EdgeHypothesis edge = node.children()[bestPath.index[0]];
-			ScoredIndex score = edge.getKthBestHypothesis(bestPath.index[1]);
-			int nodeIndex = node.nodeIndex();
-			if(network._max_paths[nodeIndex].length != edge.children().length){
-				network._max_paths[nodeIndex] = new int[edge.children().length];
-			}
-			for(int i=0; i<edge.children().length; i++){
-				network._max_paths[nodeIndex][i] = edge.children()[i].nodeIndex();
-			}
-			network._max[nodeIndex] = score.score;
-		}
-	}
-	
-	/**
-	 * This method is to override the max array with the k-th prediction structure.<br>
-	 * In the case where there is no decompile (not decoding) method defined for top-K prediction,
-	 * we override the max array based on the k-th prediction, then we can call max decompile to
-	 * get the k-th output prediction.
-	 * @param network
-	 * @param kthPrediction
-	 * @param nodeHypothesis
-	 */
-	private void setMaxArrayForKthPrediction(Network network, ScoredIndex kthPrediction, NodeHypothesis nodeHypothesis){
-		int nodeIndex = nodeHypothesis.nodeIndex();
-		EdgeHypothesis edge = nodeHypothesis.children()[kthPrediction.index[0]];
-		ScoredIndex score = edge.getKthBestHypothesis(kthPrediction.index[1]);
-		ScoredIndex[] nextPath = new ScoredIndex[edge.children().length];
-		if(network._max_paths[nodeIndex].length != edge.children().length){
-			network._max_paths[nodeIndex] = new int[edge.children().length];
-		}
-		for(int i=0; i<edge.children().length; i++){
-			nextPath[i] = edge.children()[i].getKthBestHypothesis(score.index[i]);
-			network._max_paths[nodeIndex][i] = edge.children()[i].nodeIndex();
-		}
-		network._max[nodeIndex] = kthPrediction.score;
-		for(int i=0; i<edge.children().length; i++){
-			setMaxArrayForKthPrediction(network, nextPath[i], edge.children()[i]);
-		}
-	}
-	
 	public Instance[] getOutputs(){
 		return this._instances_output;
 	}
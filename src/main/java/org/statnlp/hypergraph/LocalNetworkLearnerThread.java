@@ -20,6 +20,7 @@ import java.util.concurrent.Callable;
 
 import org.statnlp.commons.types.Instance;
 import org.statnlp.hypergraph.NetworkConfig.InferenceType;
+import org.statnlp.hypergraph.neural.AsyncNeuralForward;
 
 import gnu.trove.set.TIntSet;
 
@@ -54,6 +55,15 @@ public class LocalNetworkLearnerThread extends Thread implements Callable<Void>
 	/**default: false. Depend on whether network config precompile or not.**/
 	private boolean precompile = false;
 	
+	/** The model being trained asynchronously, null in the synchronous training */
+	private NetworkModel asyncModel = null;
+	/** The learning rate of the asynchronous training */
+	private double asyncLearningRate;
+	/** The number of nodes pruned from the networks of this thread, see {@link NetworkConfig#PRUNING_THRESHOLD} */
+	private int _numPrunedNodes = 0;
+	/** The neural forward pass running in the background, see {@link NetworkConfig#OVERLAP_NEURAL_FORWARD} */
+	private AsyncNeuralForward neuralForward = null;
+	
 	/**
 	 * Construct a new learner thread using current networks (if cached) or builder (if not cached),
 	 * also advancing the iteration number by 1.
@@ -134,6 +144,7 @@ public class LocalNetworkLearnerThread extends Thread implements Callable<Void>
      */
 	public void touch(){
 		long time = System.currentTimeMillis();
+		this._param.clearFactoredFeatures();
 		//extract the features..
 		for(int networkId = 0; networkId< this._instances.length; networkId++){
 			if(networkId%100==0)
@@ -145,8 +156,11 @@ public class LocalNetworkLearnerThread extends Thread implements Callable<Void>
 				// is only for feature caching
 				continue;
 			}
-			this.getNetwork(networkId).touch();
+			Network network = this.getNetwork(networkId);
+			network.touch();
+			this._param.flattenFeatures(network);
 		}
+		this._param.compactFlatFeatures();
 		System.err.println();
 		time = System.currentTimeMillis() - time;
 		System.out.println("Thread "+this._threadId + " touch time: "+ time/1000.0+" secs.");
@@ -181,14 +195,17 @@ public class LocalNetworkLearnerThread extends Thread implements Callable<Void>
 			if (this.trainInstsIds != null && !this.trainInstsIds.contains(this._instances[i].getInstanceId())
 					&& !this.trainInstsIds.contains(-this._instances[i].getInstanceId()))
 				continue;
+			if (this.neuralForward != null) {
+				this.neuralForward.awaitInstance(this._instances[i].getInstanceId());
+			}
 			Network network = this.getNetwork(i);
-			if (NetworkConfig.INFERENCE == InferenceType.MEAN_FIELD) {
+			if (this._param.getConfig().getInference() == InferenceType.MEAN_FIELD) {
 				// only the unlabeled network needs the marginal map.
 				if (!network.getInstance().isLabeled()){
 					network.clearMarginalMap();
 					boolean prevDone = false;
-					for (int smallIt = 0; smallIt < NetworkConfig.MAX_MF_UPDATES; smallIt++) {
-						for (int curr = 0; curr < NetworkConfig.NUM_STRUCTS; curr++) {
+					for (int smallIt = 0; smallIt < this._param.getConfig().getMaxMFUpdates(); smallIt++) {
+						for (int curr = 0; curr < this._param.getConfig().getNumStructs(); curr++) {
 							network.enableKthStructure(curr);
 							network.inference(true);
 						}
@@ -202,16 +219,66 @@ public class LocalNetworkLearnerThread extends Thread implements Callable<Void>
 					}
 				}
 				//update the network
-				for (int curr = 0; curr < NetworkConfig.NUM_STRUCTS; curr++) {
+				for (int curr = 0; curr < this._param.getConfig().getNumStructs(); curr++) {
 					network.enableKthStructure(curr);
 					network.train();
 				}
 			} else {
 				network.train();
+				if (this.shouldPrune(network, it)) {
+					this._numPrunedNodes += network.prune(NetworkConfig.PRUNING_THRESHOLD);
+				}
+			}
+			if (this.asyncModel != null && this.isLastNetworkOfInstance(i)) {
+				this.updateAsync();
 			}
 		}
 	}
 	
+	/**
+	 * Whether the specified network, just trained in the specified iteration, should be pruned.
+	 * @param network
+	 * @param it
+	 * @return
+	 * @see NetworkConfig#PRUNING_THRESHOLD
+	 */
+	private boolean shouldPrune(Network network, int it){
+		return NetworkConfig.PRUNING_THRESHOLD > 0 && it >= NetworkConfig.PRUNING_START_ITERATION
+				&& this._cacheNetworks && !network.getInstance().isLabeled()
+				&& network.getInstance().getWeight() != 0 && this._param.getConfig().getModelType().USE_SOFTMAX
+				&& (NetworkConfig.USE_ASYNC_TRAINING || this._param._fm.getParam_G().usesGradientDescent());
+	}
+	
+	/**
+	 * Returns the total number of nodes pruned from the networks of this thread so far.
+	 * @return
+	 * @see NetworkConfig#PRUNING_THRESHOLD
+	 */
+	public int getNumPrunedNodes(){
+		return this._numPrunedNodes;
+	}
+	
+	/**
+	 * Whether the network at the specified index is the last network of its instance, as the labeled and unlabeled
+	 * networks of the same instance are next to each other.
+	 * @param networkId
+	 * @return
+	 */
+	private boolean isLastNetworkOfInstance(int networkId){
+		return networkId+1 == this._instances.length
+				|| Math.abs(this._instances[networkId+1].getInstanceId()) != Math.abs(this._instances[networkId].getInstanceId());
+	}
+	
+	/**
+	 * Applies the gradient of the instance just trained to the shared weights.
+	 */
+	private void updateAsync(){
+		GlobalNetworkParam param_g = this._param._fm.getParam_G();
+		double obj = this._param.isGlobalMode() ? param_g.getObj() : this._param.getObj();
+		param_g.updateWeightsAsync(this._param, this.asyncLearningRate);
+		this.asyncModel.reportAsyncProgress(obj);
+	}
+	
 	public Network getNetwork(int networkId){
 		if(this._cacheNetworks && this._networks[networkId]!=null)
 			return this._networks[networkId];
@@ -245,6 +312,35 @@ public class LocalNetworkLearnerThread extends Thread implements Callable<Void>
 		this.trainInstsIds = set;
 	}
 	
+	/**
+	 * Sets the neural forward pass running in the background, whose outputs this thread should wait for,
+	 * or null if the forward pass is done before this thread starts.
+	 * @param neuralForward
+	 * @see NetworkConfig#OVERLAP_NEURAL_FORWARD
+	 */
+	public void setNeuralForward(AsyncNeuralForward neuralForward){
+		this.neuralForward = neuralForward;
+	}
+	
+	/**
+	 * Returns the instances of this thread, in the order they are processed.
+	 * @return
+	 */
+	public Instance[] getInstances(){
+		return this._instances;
+	}
+	
+	/**
+	 * Sets this thread to update the weights after each instance, as part of the asynchronous training of the model.
+	 * @param model The model being trained, or null to return to the synchronous training.
+	 * @param learningRate
+	 * @see NetworkConfig#USE_ASYNC_TRAINING
+	 */
+	public void setAsyncTraining(NetworkModel model, double learningRate){
+		this.asyncModel = model;
+		this.asyncLearningRate = learningRate;
+	}
+	
 	public void setPrecompile(){this.precompile = true;}
 	public void unsetPrecompile(){this.precompile = false;}
 }
\ No newline at end of file
@@ -16,15 +16,18 @@
  */
 package org.statnlp.hypergraph;
 
+import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.statnlp.hypergraph.NetworkConfig.InferenceType;
 import org.statnlp.hypergraph.neural.NeuralIO;
 
 import gnu.trove.map.TIntObjectMap;
@@ -54,6 +57,10 @@ public class LocalNetworkParam implements Serializable{
 	protected int[] _fs;
 	//the counts for all the features.
 	protected double[] _counts;
+	//the local features with counts in the current batch, only tracked when using sparse update.
+	protected int[] _touchedFeatures;
+	protected int _numTouchedFeatures;
+	protected boolean[] _isTouched;
 	/**
 	 * Mapping from global features to local features. Used when extracting features.
 	 * If cache is used, this one can be discarded after touch process completes.
@@ -64,6 +71,8 @@ public class LocalNetworkParam implements Serializable{
 	
 	//the cache that stores the features
 	protected FeatureArray[][][] _cache;
+	//the cache that stores the features in flat arrays, see NetworkConfig#USE_FLAT_FEATURE_CACHE.
+	protected transient FlatFeatureCache _flatCache;
 	//the cache that stores the features
 	protected Double[][][] _costCache;
 	//check whether the cache is enabled.
@@ -82,6 +91,19 @@ public class LocalNetworkParam implements Serializable{
 	protected StringIndex _stringIndex;
 	protected TIntIntHashMap _localStr2Global;
 	
+	//the working arrays for inference on the networks of this thread.
+	protected transient InferenceWorkspace _workspace;
+	//the reduced-precision weights used instead of the global weights during decoding, if any.
+	protected transient DecodingWeights _decodingWeights;
+	//the network whose observation features and node features are currently cached.
+	protected transient Network _factoredNetwork;
+	//the observation features of the cached network at each position, see FeatureManager#getObservations.
+	protected transient TIntObjectHashMap<int[]> _observationCache;
+	//the node features of the cached network at each node, see FeatureManager#getNodeFeatures.
+	protected transient FeatureArray[] _nodeFeatureCache;
+	//the local copy of each feature array chained after the edge features of the cached network, see #toLocalNext.
+	protected transient IdentityHashMap<FeatureArray, FeatureArray> _localNextCache;
+	
 	/**
 	 * For memory-optimized, map an integer array object to a feature array object
 	 * avoid creating duplicate integer array. 
@@ -99,17 +121,17 @@ public class LocalNetworkParam implements Serializable{
 		this._isFinalized = false;
 		this._version = 0;
 		this._globalMode = false;
-		if (NetworkConfig.USE_NEURAL_FEATURES && fm._param_g.getNNParamG() != null) {
+		if (fm._param_g.getConfig().isUsingNeuralFeatures() && fm._param_g.getNNParamG() != null) {
 			this._neuralCache = new NeuralIO[fm._param_g.getNNParamG().getAllNets().size()][][][];
 			this.initializeLocalNNInput2Id(fm._param_g.getNNParamG().getAllNets().size());
-			if (NetworkConfig.USE_BATCH_TRAINING && fm._param_g.getNNParamG().isLearningState()) {
+			if ((NetworkConfig.USE_BATCH_TRAINING || NetworkConfig.OVERLAP_NEURAL_FORWARD) && fm._param_g.getNNParamG().isLearningState()) {
 				this.initializeLocalInstId2Input(fm._param_g.getNNParamG().getAllNets().size());
 			}
 		}
 		if(!NetworkConfig.CACHE_FEATURES_DURING_TRAINING){
 			this.disableCache();
 		}
-		if(NetworkConfig.NUM_THREADS == 1){
+		if(fm._param_g.getConfig().getNumThreads() == 1){
 			this._globalMode = true;
 		}
 		this._stringIndex = new StringIndex(numNetworks*100);
@@ -124,6 +146,14 @@ public class LocalNetworkParam implements Serializable{
 		this._globalFeature2LocalFeature = null;
 	}
 	
+	/**
+	 * Returns the configuration of the model this param belongs to.
+	 * @return
+	 */
+	public ModelConfig getConfig(){
+		return this._fm._param_g.getConfig();
+	}
+	
 	//check whether it is in global mode.
 	public boolean isGlobalMode(){
 		return this._globalMode;
@@ -197,6 +227,9 @@ public class LocalNetworkParam implements Serializable{
 	public double getWeight(int featureID){
 		if(this.isGlobalMode()){
 			//note that during testing, it is global mode.
+			if(this._decodingWeights != null){
+				return this._decodingWeights.get(featureID);
+			}
 			return this._fm.getParam_G().getWeight(featureID);
 		} else {
 			//so _fs[featureID] must be the global feature Index
@@ -229,10 +262,44 @@ public class LocalNetworkParam implements Serializable{
 			this._fm.getParam_G().addCount(f_local, count);
 			return;
 		}
+		if(this._isTouched != null && !this._isTouched[f_local]){
+			if(this._numTouchedFeatures == this._touchedFeatures.length){
+				this._touchedFeatures = Arrays.copyOf(this._touchedFeatures, 2*this._numTouchedFeatures);
+			}
+			this._touchedFeatures[this._numTouchedFeatures++] = f_local;
+			this._isTouched[f_local] = true;
+		}
 		this._counts[f_local] += count;
 		
 	}
 	
+	/**
+	 * Starts tracking the local features with counts, so that only their counts are summed into the
+	 * global counts and reset in each batch, as required by {@link GlobalNetworkParam#isSparseUpdate()}.<br>
+	 * This does nothing in global mode, where the counts are added to the global param directly.
+	 */
+	public void trackTouchedFeatures(){
+		if(this._globalMode){
+			return;
+		}
+		this._isTouched = new boolean[this._counts.length];
+		this._touchedFeatures = new int[1024];
+		this._numTouchedFeatures = 0;
+	}
+	
+	/**
+	 * Returns the local features with counts since the last reset, only valid after {@link #trackTouchedFeatures()}.
+	 * Only the first {@link #countTouchedFeatures()} entries are valid.
+	 * @return
+	 */
+	public int[] getTouchedFeatures(){
+		return this._touchedFeatures;
+	}
+	
+	public int countTouchedFeatures(){
+		return this._numTouchedFeatures;
+	}
+	
 	public double getCount(int f_local){
 		if(this._globalMode){
 			throw new RuntimeException("It's global mode, why do you do this?");
@@ -245,11 +312,20 @@ public class LocalNetworkParam implements Serializable{
 			return;
 		}
 		this._obj = 0.0;
+		if(this._isTouched != null){
+			for(int i=0; i<this._numTouchedFeatures; i++){
+				this._counts[this._touchedFeatures[i]] = 0.0;
+				this._isTouched[this._touchedFeatures[i]] = false;
+			}
+			this._numTouchedFeatures = 0;
+			return;
+		}
 		Arrays.fill(this._counts, 0.0);
 	}
 	
 	public void disableCache(){
 		this._cache = null;
+		this._flatCache = null;
 		this._cacheEnabled = false;
 	}
 	
@@ -286,10 +362,107 @@ public class LocalNetworkParam implements Serializable{
 		return this._neuralCache[netId][network.getNetworkId()][parent_k][children_k_idx];
 	}
 	
+	/**
+	 * Returns the input and output of each hyperedge of each node of the specified network for the specified
+	 * neural network, or null if the network has no hyperedge with neural input.
+	 * @param netId
+	 * @param networkId
+	 * @return
+	 */
+	public NeuralIO[][] getHyperEdgeIOs(int netId, int networkId) {
+		if (this._neuralCache == null || this._neuralCache[netId] == null){
+			return null;
+		}
+		return this._neuralCache[netId][networkId];
+	}
+	
+	public int countNetworks() {
+		return this._numNetworks;
+	}
+	
+	/**
+	 * Returns the working arrays for inference on the networks using this param,
+	 * creating them if they do not exist yet.
+	 * @return
+	 */
+	public InferenceWorkspace getWorkspace(){
+		if(this._workspace == null){
+			this._workspace = new InferenceWorkspace();
+		}
+		return this._workspace;
+	}
+	
+	/**
+	 * Sets the working arrays for inference on the networks using this param.<br>
+	 * The workspace can be shared with other params, as long as they are not used at the same time.
+	 * @param workspace
+	 */
+	public void setWorkspace(InferenceWorkspace workspace){
+		this._workspace = workspace;
+	}
+	
+	/**
+	 * Sets the reduced-precision weights to be used instead of the global weights in global mode,
+	 * or null to use the global weights.<br>
+	 * This should only be set for decoding, since the reduced-precision weights are not updated.
+	 * @param decodingWeights
+	 * @see NetworkConfig#DECODING_WEIGHT_PRECISION
+	 */
+	public void setDecodingWeights(DecodingWeights decodingWeights){
+		this._decodingWeights = decodingWeights;
+	}
+	
 	public int toInt(String str){
 		return this._stringIndex.getOrPut(str);
 	}
 	
+	/**
+	 * Prepares the cache of the observation features and node features for the specified network,
+	 * discarding the cache of the previous network if it is a different network.<br>
+	 * Only the features of one network are kept, since the features of a network are extracted consecutively.
+	 * @param network
+	 */
+	void cacheFactoredFeaturesOf(Network network){
+		if(this._factoredNetwork == network){
+			return;
+		}
+		this._factoredNetwork = network;
+		this._observationCache = new TIntObjectHashMap<int[]>();
+		this._nodeFeatureCache = new FeatureArray[network.countNodes()];
+		this._localNextCache = this.isGlobalMode() ? null : new IdentityHashMap<FeatureArray, FeatureArray>();
+	}
+	
+	/**
+	 * Discards the cache of the observation features and node features.<br>
+	 * This should be called whenever the string IDs or the feature IDs may have changed, e.g., before each touch.
+	 */
+	public void clearFactoredFeatures(){
+		this._factoredNetwork = null;
+		this._observationCache = null;
+		this._nodeFeatureCache = null;
+		this._localNextCache = null;
+	}
+	
+	/**
+	 * Converts the feature array chained after the features of a hyperedge into local features.<br>
+	 * While the factored features of a network are cached, the local copy is shared by all hyperedges chained
+	 * to the same feature array (e.g., the node features, see {@link FeatureManager#getNodeFeatures(Network, int)}),
+	 * so that it is stored and scored once.
+	 * @param next
+	 * @return
+	 */
+	FeatureArray toLocalNext(FeatureArray next){
+		if(this._localNextCache == null){
+			return next.toLocal(this);
+		}
+		FeatureArray local = this._localNextCache.get(next);
+		if(local == null){
+			local = next.toLocal(this);
+			this._localNextCache.put(next, local);
+		}
+		return local;
+	}
+	
 	/**
 	 * Extract hyper edges information for a specific network.
 	 * @param network
@@ -308,7 +481,7 @@ public class LocalNetworkParam implements Serializable{
 			this._neuralCache[netId][networkId] = new NeuralIO[network.countNodes()][];
 		}
 		if (this._neuralCache[netId][networkId][parent_k] == null) {
-			this._neuralCache[netId][networkId][parent_k] = new NeuralIO[network.getChildren(parent_k).length];
+			this._neuralCache[netId][networkId][parent_k] = new NeuralIO[network.countEdges(parent_k)];
 		}
 		if (this._neuralCache[netId][networkId][parent_k][children_k_idx] != null) {
 			throw new NetworkException("nn input-output pair added for this edge, add again?");
@@ -318,7 +491,8 @@ public class LocalNetworkParam implements Serializable{
 		if (!localNNInput2Id.get(netId).containsKey(nnInput)) {
 			localNNInput2Id.get(netId).put(nnInput, localNNInput2Id.size());
 		}
-		if (NetworkConfig.USE_BATCH_TRAINING && this._fm._param_g.getNNParamG().isLearningState()) {
+		if ((NetworkConfig.USE_BATCH_TRAINING || NetworkConfig.OVERLAP_NEURAL_FORWARD)
+				&& this._fm._param_g.getNNParamG().isLearningState()) {
 			// need both positive and negative instance ID
 			int instId = Math.abs(network.getInstance().getInstanceId());
 			TIntObjectMap<Set<Object>> map =  this.localInstId2NNInput.get(netId);
@@ -337,7 +511,9 @@ public class LocalNetworkParam implements Serializable{
 	 * index (parent_k) and its children node indices (children_k).<br>
 	 * The children_k_index represents the index of current hyperedge in the list of hyperedges coming out of
 	 * the parent node.<br>
-	 * Note that a node with no outgoing hyperedge will still be considered here with empty children_k
+	 * Note that a node with no outgoing hyperedge will still be considered here with empty children_k<br>
+	 * The children_k can be null (e.g., for networks using {@link CompactEdges}), in which case it will be
+	 * retrieved from the network only if the features are not already cached.
 	 * @param network
 	 * @param parent_k
 	 * @param children_k
@@ -345,12 +521,7 @@ public class LocalNetworkParam implements Serializable{
 	 * @return
 	 */
 	public FeatureArray extract(Network network, int parent_k, int[] children_k, int children_k_index){
-		// Do not cache in the first touch when parallel touch and extract only from labeled is enabled,
-		// since the local feature indices will change
-		boolean shouldCache = this.isCacheEnabled() && (!NetworkConfig.PARALLEL_FEATURE_EXTRACTION
-														|| NetworkConfig.NUM_THREADS == 1
-														|| !NetworkConfig.BUILD_FEATURES_FROM_LABELED_ONLY
-														|| this._isFinalized);
+		boolean shouldCache = this.shouldCacheFeatures();
   		if(shouldCache){
 			if(this._cache == null){
 				this._cache = new FeatureArray[this._numNetworks][][];
@@ -359,13 +530,16 @@ public class LocalNetworkParam implements Serializable{
 				this._cache[network.getNetworkId()] = new FeatureArray[network.countNodes()][];
 			}
 			if(this._cache[network.getNetworkId()][parent_k] == null){
-				this._cache[network.getNetworkId()][parent_k] = new FeatureArray[network.getChildren(parent_k).length];
+				this._cache[network.getNetworkId()][parent_k] = new FeatureArray[network.countEdges(parent_k)];
 			}
 			if(this._cache[network.getNetworkId()][parent_k][children_k_index] != null){
 				return this._cache[network.getNetworkId()][parent_k][children_k_index];
 			}
 		}
 		
+		if(children_k == null){
+			children_k = network.getChildren(parent_k, children_k_index);
+		}
 		FeatureArray fa = this._fm.extract(network, parent_k, children_k, children_k_index);
 		if(!this.isGlobalMode()){
 			fa = fa.toLocal(this);
@@ -378,6 +552,94 @@ public class LocalNetworkParam implements Serializable{
 		return fa;
 	}
 	
+	private boolean shouldCacheFeatures(){
+		// Do not cache in the first touch when parallel touch and extract only from labeled is enabled,
+		// since the local feature indices will change
+		return this.isCacheEnabled() && (!NetworkConfig.PARALLEL_FEATURE_EXTRACTION
+										|| this.getConfig().getNumThreads() == 1
+										|| !NetworkConfig.BUILD_FEATURES_FROM_LABELED_ONLY
+										|| this._isFinalized);
+	}
+	
+	/**
+	 * Returns the total score of the features at the specified hyperedge, from the flat feature cache
+	 * if the features are there, or from {@link #extract(Network, int, int[], int)} otherwise.
+	 * @param network
+	 * @param parent_k
+	 * @param children_k
+	 * @param children_k_index
+	 * @param version The current version of the weights
+	 * @return
+	 * @see FeatureArray#getScore(LocalNetworkParam, int)
+	 */
+	public double getScore(Network network, int parent_k, int[] children_k, int children_k_index, int version){
+		if(this._flatCache != null){
+			int edge = this._flatCache.getEdge(network.getNetworkId(), parent_k, children_k_index);
+			if(edge != -1){
+				return this._flatCache.getScore(this, network.getNetworkId(), edge, version);
+			}
+		}
+		return this.extract(network, parent_k, children_k, children_k_index).getScore(this, version);
+	}
+	
+	/**
+	 * Adds the specified count to the features at the specified hyperedge, from the flat feature cache
+	 * if the features are there, or from {@link #extract(Network, int, int[], int)} otherwise.
+	 * @param network
+	 * @param parent_k
+	 * @param children_k
+	 * @param children_k_index
+	 * @param count
+	 * @see FeatureArray#update(LocalNetworkParam, double)
+	 */
+	public void update(Network network, int parent_k, int[] children_k, int children_k_index, double count){
+		if(this._flatCache != null){
+			int edge = this._flatCache.getEdge(network.getNetworkId(), parent_k, children_k_index);
+			if(edge != -1){
+				this._flatCache.update(this, network.getNetworkId(), edge, count);
+				return;
+			}
+		}
+		this.extract(network, parent_k, children_k, children_k_index).update(this, count);
+	}
+	
+	/**
+	 * Moves the cached features of the specified network into the flat feature cache,
+	 * if {@link NetworkConfig#USE_FLAT_FEATURE_CACHE} is enabled.<br>
+	 * This should be called after the network is touched.
+	 * @param network
+	 */
+	public void flattenFeatures(Network network){
+		if(!NetworkConfig.USE_FLAT_FEATURE_CACHE || this._cache == null || !this.shouldCacheFeatures()
+				|| this.getConfig().getInference() == InferenceType.MEAN_FIELD){
+			return;
+		}
+		int networkId = network.getNetworkId();
+		if(this._cache[networkId] == null){
+			return;
+		}
+		if(this._flatCache == null){
+			File spillDirectory = NetworkConfig.FEATURE_CACHE_DIRECTORY == null ? null : new File(NetworkConfig.FEATURE_CACHE_DIRECTORY);
+			this._flatCache = new FlatFeatureCache(this._numNetworks, spillDirectory);
+		}
+		if(this._flatCache.add(networkId, this._cache[networkId])){
+			this._cache[networkId] = null;
+		}
+	}
+	
+	/**
+	 * Releases the memory only needed while filling the flat feature cache, after all networks are touched.
+	 */
+	public void compactFlatFeatures(){
+		if(this._flatCache != null){
+			this._flatCache.compact();
+			if(NetworkConfig.DEBUG_MODE){
+				System.err.println("Flat feature cache: "+this._flatCache.countSegments()+" distinct feature arrays, "
+						+this._flatCache.countFeatures()+" feature indices"+(this._flatCache.isSpilled() ? ", memory-mapped" : ""));
+			}
+		}
+	}
+	
 	public double cost(Network network, int parent_k, int[] children_k, int children_k_index, NetworkCompiler compiler){
 		// Do not cache in the first touch when parallel touch and extract only from labeled is enabled,
 		// since the local feature indices will change
@@ -390,13 +652,16 @@ public class LocalNetworkParam implements Serializable{
 				this._costCache[network.getNetworkId()] = new Double[network.countNodes()][];
 			}
 			if(this._costCache[network.getNetworkId()][parent_k] == null){
-				this._costCache[network.getNetworkId()][parent_k] = new Double[network.getChildren(parent_k).length];
+				this._costCache[network.getNetworkId()][parent_k] = new Double[network.countEdges(parent_k)];
 			}
 			if(this._costCache[network.getNetworkId()][parent_k][children_k_index] != null){
 				return this._costCache[network.getNetworkId()][parent_k][children_k_index];
 			}
 		}
 		
+		if(children_k == null){
+			children_k = network.getChildren(parent_k, children_k_index);
+		}
 		double cost = compiler.cost(network, parent_k, children_k);
 		
 		if(shouldCache){
@@ -412,6 +677,8 @@ public class LocalNetworkParam implements Serializable{
 	 * global feature index directly.
 	 */
 	public void finalizeIt(){
+		//the string IDs and feature IDs used during touch are no longer valid.
+		this.clearFactoredFeatures();
 		//if it is global mode, do not have to do this at all.
 		if(this.isGlobalMode()){
 			System.err.println("Finalizing local features in global mode: not required");
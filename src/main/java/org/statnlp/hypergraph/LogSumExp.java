@@ -0,0 +1,95 @@
+/** Statistical Natural Language Processing System
+    Copyright (C) 2014-2016  Lu, Wei
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.statnlp.hypergraph;
+
+/**
+ * The log-sum-exp kernels used by the inside-outside procedure of {@link Network}.<br>
+ * Instead of adding the scores in log space one hyperedge at a time (one <code>exp</code> and one <code>log</code>
+ * per hyperedge), the scores of all hyperedges of a node are gathered into an array and summed at once,
+ * shifted by their maximum, which needs one <code>exp</code> per hyperedge and one <code>log</code> per node.<br>
+ * The kernel is written as separate passes of simple counted loops over a contiguous array (the maximum,
+ * then the sum of the exponentials), so that the passes can be replaced by vectorized implementations.
+ * @see NetworkConfig#USE_FAST_EXP
+ */
+public class LogSumExp {
+
+	private static final double LOG2E = 1.4426950408889634;
+	private static final double LN2 = 0.6931471805599453;
+
+	/**
+	 * Returns log(sum(exp(values[i]))) for i from start (inclusive) to end (exclusive).
+	 * @param values
+	 * @param start
+	 * @param end
+	 * @return The log-sum-exp of the values, or negative infinity if there is no value.
+	 */
+	public static double logSumExp(double[] values, int start, int end){
+		double max = Double.NEGATIVE_INFINITY;
+		for(int i=start; i<end; i++){
+			if(values[i] > max){
+				max = values[i];
+			}
+		}
+		if(max == Double.NEGATIVE_INFINITY || max == Double.POSITIVE_INFINITY){
+			return max;
+		}
+		double sum = 0.0;
+		if(NetworkConfig.USE_FAST_EXP){
+			for(int i=start; i<end; i++){
+				sum += fastExp(values[i]-max);
+			}
+		} else {
+			for(int i=start; i<end; i++){
+				sum += Math.exp(values[i]-max);
+			}
+		}
+		return max + Math.log(sum);
+	}
+
+	/**
+	 * Returns exp(x), using {@link #fastExp(double)} if {@link NetworkConfig#USE_FAST_EXP} is true.
+	 * @param x
+	 * @return
+	 */
+	public static double exp(double x){
+		return NetworkConfig.USE_FAST_EXP ? fastExp(x) : Math.exp(x);
+	}
+
+	/**
+	 * Returns an approximation of exp(x) with a relative error below 1e-11, computed as 2^n * exp(r),
+	 * where n is the integer nearest to x/ln(2), and exp(r) with |r| &lt;= ln(2)/2 is computed by its
+	 * Taylor polynomial of degree 10.<br>
+	 * Unlike {@link Math#exp(double)}, this uses only arithmetic operations, which can be vectorized.
+	 * @param x
+	 * @return
+	 */
+	public static double fastExp(double x){
+		if(x < -708.0){
+			return 0.0;
+		}
+		if(!(x <= 709.0)){
+			// Overflow or NaN
+			return Math.exp(x);
+		}
+		double n = Math.floor(x*LOG2E + 0.5);
+		double r = x - n*LN2;
+		double p = 1.0 + r*(1.0 + r*(1.0/2 + r*(1.0/6 + r*(1.0/24 + r*(1.0/120 + r*(1.0/720
+				+ r*(1.0/5040 + r*(1.0/40320 + r*(1.0/362880 + r*(1.0/3628800))))))))));
+		return p * Double.longBitsToDouble(((long)n + 1023) << 52);
+	}
+
+}
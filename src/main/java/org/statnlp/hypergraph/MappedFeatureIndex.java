@@ -0,0 +1,192 @@
+/** Statistical Natural Language Processing System
+    Copyright (C) 2014-2016  Lu, Wei
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.statnlp.hypergraph;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * A read-only feature index which is queried in place from a memory-mapped model file,
+ * in the layout written by {@link PackedFeatureIndex#write(java.io.DataOutput)}.<br>
+ * The lookups ({@link #get(int, int, int)} and {@link #getGroupId(int, int)}) do not load anything onto the heap.
+ * The operations which need to go through all features (e.g., {@link #iterator()}) load the whole index
+ * onto the heap on first use, with the same group IDs and feature IDs.<br>
+ * New features cannot be added to this index.
+ * @see MappedModelFile
+ */
+public class MappedFeatureIndex extends PackedFeatureIndex {
+
+	private static final long serialVersionUID = 5014870317870307062L;
+
+	private final int numGroups;
+	private final int size;
+	private final transient IntBuffer groupTypes;
+	private final transient IntBuffer groupOutputs;
+	private final transient LongBuffer groupKeys;
+	private final transient IntBuffer groupValues;
+	private final int groupMask;
+	private final transient LongBuffer keys;
+	private final transient IntBuffer ids;
+	private final int mask;
+	/** The index loaded onto the heap, only created when needed */
+	private transient PackedFeatureIndex loaded;
+
+	/**
+	 * Maps the index written at the specified position of the file.
+	 * @param channel
+	 * @param position
+	 * @throws IOException
+	 */
+	public MappedFeatureIndex(FileChannel channel, long position) throws IOException{
+		super(0);
+		IntBuffer header = channel.map(MapMode.READ_ONLY, position, 16).asIntBuffer();
+		this.numGroups = header.get(0);
+		this.size = header.get(1);
+		int numGroupSlots = header.get(2);
+		int numSlots = header.get(3);
+		position += 16;
+		this.groupTypes = channel.map(MapMode.READ_ONLY, position, 4L*this.numGroups).asIntBuffer();
+		position += 4L*this.numGroups;
+		this.groupOutputs = channel.map(MapMode.READ_ONLY, position, 4L*this.numGroups).asIntBuffer();
+		position += 4L*this.numGroups;
+		this.groupKeys = channel.map(MapMode.READ_ONLY, position, 8L*numGroupSlots).asLongBuffer();
+		position += 8L*numGroupSlots;
+		this.groupValues = channel.map(MapMode.READ_ONLY, position, 4L*numGroupSlots).asIntBuffer();
+		position += 4L*numGroupSlots;
+		this.groupMask = numGroupSlots-1;
+		this.keys = channel.map(MapMode.READ_ONLY, position, 8L*numSlots).asLongBuffer();
+		position += 8L*numSlots;
+		this.ids = channel.map(MapMode.READ_ONLY, position, 4L*numSlots).asIntBuffer();
+		this.mask = numSlots-1;
+	}
+
+	@Override
+	public int get(int type, int output, int input){
+		int group = this.getGroupId(type, output);
+		if(group == -1){
+			return -1;
+		}
+		long key = pack(group, input);
+		int slot = hash(key) & this.mask;
+		int id;
+		while((id = this.ids.get(slot)) != -1){
+			if(this.keys.get(slot) == key){
+				return id;
+			}
+			slot = (slot+1) & this.mask;
+		}
+		return -1;
+	}
+
+	@Override
+	public int getOrPut(int type, int output, int input, int newId){
+		int id = this.get(type, output, input);
+		if(id == -1){
+			throw new UnsupportedOperationException("Cannot add new features into a memory-mapped feature index.");
+		}
+		return id;
+	}
+
+	@Override
+	public int getGroupId(int type, int output){
+		long pair = pack(type, output);
+		int slot = hash(pair) & this.groupMask;
+		int group;
+		while((group = this.groupValues.get(slot)) != -1){
+			if(this.groupKeys.get(slot) == pair){
+				return group;
+			}
+			slot = (slot+1) & this.groupMask;
+		}
+		return -1;
+	}
+
+	@Override
+	public int countGroups(){
+		return this.numGroups;
+	}
+
+	@Override
+	public int getGroupType(int groupId){
+		return this.groupTypes.get(groupId);
+	}
+
+	@Override
+	public int getGroupOutput(int groupId){
+		return this.groupOutputs.get(groupId);
+	}
+
+	@Override
+	public int size(){
+		return this.size;
+	}
+
+	@Override
+	public FeatureIterator iterator(){
+		return this.load().iterator();
+	}
+
+	@Override
+	public TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>> toNestedMap(){
+		return this.load().toNestedMap();
+	}
+
+	/**
+	 * Returns this index loaded onto the heap, loading it on first call.
+	 * @return
+	 */
+	public synchronized PackedFeatureIndex load(){
+		if(this.loaded == null){
+			PackedFeatureIndex result = new PackedFeatureIndex(this.size);
+			for(int group=0; group<this.numGroups; group++){
+				result.getOrPutGroup(this.groupTypes.get(group), this.groupOutputs.get(group));
+			}
+			for(int slot=0; slot<=this.mask; slot++){
+				int id = this.ids.get(slot);
+				if(id == -1){
+					continue;
+				}
+				long key = this.keys.get(slot);
+				int group = (int)(key >>> 32);
+				result.getOrPut(this.groupTypes.get(group), this.groupOutputs.get(group), (int)key, id);
+			}
+			this.loaded = result;
+		}
+		return this.loaded;
+	}
+
+	@Override
+	void write(DataOutput out) throws IOException{
+		this.load().write(out);
+	}
+
+	/**
+	 * Serializes the index as a normal {@link PackedFeatureIndex}.
+	 */
+	private Object writeReplace() throws ObjectStreamException{
+		return this.load();
+	}
+
+}
@@ -0,0 +1,328 @@
+/** Statistical Natural Language Processing System
+    Copyright (C) 2014-2016  Lu, Wei
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.statnlp.hypergraph;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.statnlp.hypergraph.NetworkConfig.WeightPrecision;
+import org.statnlp.hypergraph.neural.GlobalNeuralNetworkParam;
+
+/**
+ * A versioned binary model format which can be memory-mapped, so that a trained model can be used for decoding
+ * without first deserializing the feature index and the string index onto the heap.<br>
+ * The file consists of:
+ * <ol>
+ * <li>The header: the magic number and the format version</li>
+ * <li>The objects (e.g., the {@link NetworkModel}) in Java serialization, where the {@link GlobalNetworkParam}
+ * is replaced by a reference to the following sections</li>
+ * <li>The weights, as a flat block of doubles</li>
+ * <li>The feature index, as open-addressing tables (see {@link PackedFeatureIndex#write(java.io.DataOutput)})</li>
+ * <li>The string index, as an offset-addressed dictionary with an open-addressing table
+ * (see {@link StringIndex#write(java.io.DataOutput)})</li>
+ * <li>The footer: the positions of the sections and the scalar fields of the param,
+ * followed by the position of the footer itself</li>
+ * </ol>
+ * When reading, the feature index and the string index are memory-mapped and queried in place
+ * (see {@link MappedFeatureIndex} and {@link MappedStringIndex}), so the model loads almost instantly and
+ * processes using the same model file share the page cache. The weights are copied onto the heap in one bulk read,
+ * since they are updated in place during training, or only their reduced-precision copy is built when the model is
+ * read for decoding only (see {@link #read(File, WeightPrecision)}).<br>
+ * A model read from this format can be used for decoding, but new features cannot be added to it.
+ * The neural network parameters, if any, are stored in Java serialization together with the objects.
+ */
+public class MappedModelFile {
+
+	/** The magic number at the start of the file, "STATNLPM" in ASCII */
+	private static final long MAGIC = 0x535441544E4C504DL;
+	/** The current version of the format */
+	public static final int VERSION = 1;
+
+	/**
+	 * Writes the specified objects (e.g., the {@link NetworkModel} and the {@link org.statnlp.util.instance_parser.InstanceParser})
+	 * into the specified file.<br>
+	 * The objects must refer to exactly one {@link GlobalNetworkParam}, which is written in the binary format.
+	 * @param file
+	 * @param objects
+	 * @throws IOException
+	 */
+	public static void write(File file, Object... objects) throws IOException{
+		ByteArrayOutputStream shellBytes = new ByteArrayOutputStream();
+		ParamReplacingOutputStream shell = new ParamReplacingOutputStream(shellBytes);
+		shell.writeInt(objects.length);
+		for(Object obj: objects){
+			shell.writeObject(obj);
+		}
+		shell.close();
+		GlobalNetworkParam param = shell.param;
+		if(param == null){
+			throw new IllegalArgumentException("The objects do not contain any GlobalNetworkParam.");
+		}
+		if(param.isDecodingOnly()){
+			throw new IllegalStateException("The weights of the param have been released for decoding only.");
+		}
+		if(param._stringIndex == null){
+			throw new IllegalStateException("The string index of the param has not been built, is the model trained?");
+		}
+
+		CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		DataOutputStream out = new DataOutputStream(counter);
+		try{
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+
+			long shellPosition = counter.count;
+			shellBytes.writeTo(out);
+
+			long weightsPosition = counter.count;
+			for(double weight: param._weights){
+				out.writeDouble(weight);
+			}
+
+			long featureIndexPosition = counter.count;
+			param._featureIndex.write(out);
+
+			long stringIndexPosition = counter.count;
+			param._stringIndex.write(out);
+
+			long footerPosition = counter.count;
+			out.writeLong(shellPosition);
+			out.writeInt(shellBytes.size());
+			out.writeLong(weightsPosition);
+			out.writeInt(param._weights.length);
+			out.writeLong(featureIndexPosition);
+			out.writeLong(stringIndexPosition);
+			out.writeInt(param._size);
+			out.writeInt(param._fixedFeaturesSize);
+			out.writeBoolean(param._locked);
+			out.writeLong(footerPosition);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the objects written by {@link #write(File, Object...)} from the specified file, memory-mapping
+	 * the feature index and the string index of the {@link GlobalNetworkParam}.
+	 * @param file
+	 * @return The objects, in the order they were written.
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static Object[] read(File file) throws IOException, ClassNotFoundException{
+		return read(file, WeightPrecision.DOUBLE);
+	}
+
+	/**
+	 * Reads the objects written by {@link #write(File, Object...)} from the specified file, memory-mapping
+	 * the feature index and the string index of the {@link GlobalNetworkParam}.<br>
+	 * If the precision is not {@link WeightPrecision#DOUBLE}, only the weights in that precision are built from the
+	 * mapped weights, without loading the weights in double precision, so the model can only be used for decoding
+	 * (see {@link GlobalNetworkParam#releaseWeights()}).
+	 * @param file
+	 * @param precision The precision of the weights to load
+	 * @return The objects, in the order they were written.
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	public static Object[] read(File file, WeightPrecision precision) throws IOException, ClassNotFoundException{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try{
+			FileChannel channel = raf.getChannel();
+			long fileSize = channel.size();
+			ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, 12);
+			if(fileSize < 20 || header.getLong(0) != MAGIC){
+				throw new IOException(file+" is not a model file in the binary format.");
+			}
+			int version = header.getInt(8);
+			if(version != VERSION){
+				throw new IOException("The binary model format version "+version+" is not supported, expected "+VERSION+".");
+			}
+			long footerPosition = channel.map(MapMode.READ_ONLY, fileSize-8, 8).getLong(0);
+			ByteBuffer footer = channel.map(MapMode.READ_ONLY, footerPosition, fileSize-8-footerPosition);
+			long shellPosition = footer.getLong();
+			int shellLength = footer.getInt();
+			long weightsPosition = footer.getLong();
+			int numWeights = footer.getInt();
+			long featureIndexPosition = footer.getLong();
+			long stringIndexPosition = footer.getLong();
+			int size = footer.getInt();
+			int fixedFeaturesSize = footer.getInt();
+			boolean locked = footer.get() != 0;
+
+			DoubleBuffer mappedWeights = channel.map(MapMode.READ_ONLY, weightsPosition, 8L*numWeights).asDoubleBuffer();
+			DecodingWeights decodingWeights = DecodingWeights.create(mappedWeights, precision);
+			double[] weights = null;
+			if(decodingWeights == null){
+				weights = new double[numWeights];
+				mappedWeights.get(weights);
+			}
+			MappedFeatureIndex featureIndex = new MappedFeatureIndex(channel, featureIndexPosition);
+			MappedStringIndex stringIndex = new MappedStringIndex(channel, stringIndexPosition);
+
+			byte[] shellBytes = new byte[shellLength];
+			channel.map(MapMode.READ_ONLY, shellPosition, shellLength).get(shellBytes);
+			ParamResolvingInputStream shell = new ParamResolvingInputStream(new ByteArrayInputStream(shellBytes),
+					featureIndex, stringIndex, weights, decodingWeights, size, fixedFeaturesSize, locked);
+			try{
+				Object[] objects = new Object[shell.readInt()];
+				for(int i=0; i<objects.length; i++){
+					objects[i] = shell.readObject();
+				}
+				return objects;
+			} finally {
+				shell.close();
+			}
+		} finally {
+			// The mapped buffers stay valid after the file is closed.
+			raf.close();
+		}
+	}
+
+	/**
+	 * Whether the specified file is a model file in this binary format.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isMappedModelFile(File file) throws IOException{
+		if(file.length() < 20){
+			return false;
+		}
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try{
+			return in.readLong() == MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * The object written in place of the {@link GlobalNetworkParam}.
+	 */
+	private static class ParamReference implements Serializable {
+
+		private static final long serialVersionUID = -3417628640531938764L;
+
+		private GlobalNeuralNetworkParam nnParam;
+
+		private ParamReference(GlobalNeuralNetworkParam nnParam){
+			this.nnParam = nnParam;
+		}
+	}
+
+	private static class ParamReplacingOutputStream extends ObjectOutputStream {
+
+		private GlobalNetworkParam param;
+
+		private ParamReplacingOutputStream(OutputStream out) throws IOException{
+			super(out);
+			this.enableReplaceObject(true);
+		}
+
+		@Override
+		protected Object replaceObject(Object obj) throws IOException{
+			if(!(obj instanceof GlobalNetworkParam)){
+				return obj;
+			}
+			if(obj.getClass() != GlobalNetworkParam.class){
+				throw new IOException("Subclasses of GlobalNetworkParam are not supported in the binary model format.");
+			}
+			if(this.param != null && this.param != obj){
+				throw new IOException("Only one GlobalNetworkParam is supported in the binary model format.");
+			}
+			this.param = (GlobalNetworkParam)obj;
+			return new ParamReference(this.param._nn_param_g);
+		}
+	}
+
+	private static class ParamResolvingInputStream extends ObjectInputStream {
+
+		private final PackedFeatureIndex featureIndex;
+		private final StringIndex stringIndex;
+		private final double[] weights;
+		private final DecodingWeights decodingWeights;
+		private final int size;
+		private final int fixedFeaturesSize;
+		private final boolean locked;
+
+		private ParamResolvingInputStream(InputStream in, PackedFeatureIndex featureIndex, StringIndex stringIndex,
+				double[] weights, DecodingWeights decodingWeights, int size, int fixedFeaturesSize, boolean locked) throws IOException{
+			super(in);
+			this.enableResolveObject(true);
+			this.featureIndex = featureIndex;
+			this.stringIndex = stringIndex;
+			this.weights = weights;
+			this.decodingWeights = decodingWeights;
+			this.size = size;
+			this.fixedFeaturesSize = fixedFeaturesSize;
+			this.locked = locked;
+		}
+
+		@Override
+		protected Object resolveObject(Object obj) throws IOException{
+			if(!(obj instanceof ParamReference)){
+				return obj;
+			}
+			return new GlobalNetworkParam(this.featureIndex, this.stringIndex, this.weights, this.decodingWeights,
+					this.size, this.fixedFeaturesSize, this.locked, ((ParamReference)obj).nnParam);
+		}
+	}
+
+	/**
+	 * An output stream which counts the number of bytes written, to record the position of each section.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		private CountingOutputStream(OutputStream out){
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException{
+			this.out.write(b);
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException{
+			this.out.write(b, off, len);
+			this.count += len;
+		}
+	}
+
+}
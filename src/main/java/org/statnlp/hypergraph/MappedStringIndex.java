@@ -0,0 +1,203 @@
+/** Statistical Natural Language Processing System
+    Copyright (C) 2014-2016  Lu, Wei
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.statnlp.hypergraph;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import gnu.trove.iterator.TObjectIntIterator;
+
+/**
+ * A read-only string index which is queried in place from a memory-mapped model file,
+ * in the layout written by {@link StringIndex#write(java.io.DataOutput)}.<br>
+ * The strings are stored as UTF-8 bytes addressed by offsets, so both the lookup by string and the
+ * lookup by ID ({@link #get(int)}) work without loading the index onto the heap.
+ * The operations which need to go through all strings (e.g., {@link #keys()}) load the whole index
+ * onto the heap on first use.<br>
+ * This index is always locked: {@link #getOrPut(String)} returns -1 for strings not in the index.
+ * @see MappedModelFile
+ */
+public class MappedStringIndex extends StringIndex {
+
+	private static final long serialVersionUID = 2218512937401948331L;
+
+	private final int numIds;
+	private final transient IntBuffer offsets;
+	private final transient IntBuffer slots;
+	private final int mask;
+	private final transient ByteBuffer data;
+	/** The index loaded onto the heap, only created when needed */
+	private transient StringIndex loaded;
+
+	/**
+	 * Maps the index written at the specified position of the file.
+	 * @param channel
+	 * @param position
+	 * @throws IOException
+	 */
+	public MappedStringIndex(FileChannel channel, long position) throws IOException{
+		super(0);
+		IntBuffer header = channel.map(MapMode.READ_ONLY, position, 12).asIntBuffer();
+		this.numIds = header.get(0);
+		int numSlots = header.get(1);
+		int length = header.get(2);
+		position += 12;
+		this.offsets = channel.map(MapMode.READ_ONLY, position, 4L*(this.numIds+1)).asIntBuffer();
+		position += 4L*(this.numIds+1);
+		this.slots = channel.map(MapMode.READ_ONLY, position, 4L*numSlots).asIntBuffer();
+		position += 4L*numSlots;
+		this.mask = numSlots-1;
+		this.data = channel.map(MapMode.READ_ONLY, position, length);
+	}
+
+	/**
+	 * The hash function of the UTF-8 bytes of the strings (FNV-1a).
+	 */
+	static int hash(byte[] bytes){
+		int h = 0x811C9DC5;
+		for(byte b: bytes){
+			h ^= (b & 0xFF);
+			h *= 0x01000193;
+		}
+		return h ^ (h >>> 16);
+	}
+
+	@Override
+	public int get(String str){
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		int slot = hash(bytes) & this.mask;
+		int id;
+		while((id = this.slots.get(slot)) != -1){
+			if(this.equals(id, bytes)){
+				return id;
+			}
+			slot = (slot+1) & this.mask;
+		}
+		return -1;
+	}
+
+	private boolean equals(int id, byte[] bytes){
+		int start = this.offsets.get(id);
+		if(this.offsets.get(id+1)-start != bytes.length){
+			return false;
+		}
+		for(int i=0; i<bytes.length; i++){
+			if(this.data.get(start+i) != bytes[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String get(int id){
+		int start = this.offsets.get(id);
+		byte[] bytes = new byte[this.offsets.get(id+1)-start];
+		ByteBuffer buffer = this.data.duplicate();
+		buffer.position(start);
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public int getOrPut(String str){
+		return this.get(str);
+	}
+
+	@Override
+	public void putAll(StringIndex index){
+		throw new UnsupportedOperationException("Cannot add new strings into a memory-mapped string index.");
+	}
+
+	@Override
+	public int forcePut(String str, int value){
+		throw new UnsupportedOperationException("Cannot add new strings into a memory-mapped string index.");
+	}
+
+	@Override
+	public void lock(){}
+
+	@Override
+	public void unlock(){
+		throw new UnsupportedOperationException("A memory-mapped string index cannot be unlocked.");
+	}
+
+	@Override
+	public boolean hasReverseIndex(){
+		return true;
+	}
+
+	@Override
+	public void buildReverseIndex(){}
+
+	@Override
+	public void removeReverseIndex(){}
+
+	@Override
+	public int size(){
+		return this.numIds;
+	}
+
+	@Override
+	public Set<String> keys(){
+		return this.load().keys();
+	}
+
+	@Override
+	public TObjectIntIterator<String> iterator(){
+		return this.load().iterator();
+	}
+
+	/**
+	 * Returns this index loaded onto the heap, loading it on first call.
+	 * @return
+	 */
+	public synchronized StringIndex load(){
+		if(this.loaded == null){
+			StringIndex result = new StringIndex(this.numIds);
+			for(int slot=0; slot<=this.mask; slot++){
+				int id = this.slots.get(slot);
+				if(id != -1){
+					result.forcePut(this.get(id), id);
+				}
+			}
+			result.lock();
+			this.loaded = result;
+		}
+		return this.loaded;
+	}
+
+	@Override
+	void write(DataOutput out) throws IOException{
+		this.load().write(out);
+	}
+
+	/**
+	 * Serializes the index as a normal {@link StringIndex}.
+	 */
+	private Object writeReplace() throws ObjectStreamException{
+		return this.load();
+	}
+
+}
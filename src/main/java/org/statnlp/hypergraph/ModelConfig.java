@@ -0,0 +1,249 @@
+/** Statistical Natural Language Processing System
+    Copyright (C) 2014-2016  Lu, Wei
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.statnlp.hypergraph;
+
+import java.io.Serializable;
+
+import org.statnlp.hypergraph.NetworkConfig.InferenceType;
+import org.statnlp.hypergraph.NetworkConfig.ModelStatus;
+import org.statnlp.hypergraph.NetworkConfig.ModelType;
+import org.statnlp.hypergraph.NetworkConfig.WeightPrecision;
+
+/**
+ * The configuration of one model, which is carried by its {@link GlobalNetworkParam} and
+ * read through it by {@link NetworkModel}, {@link FeatureManager}, {@link LocalNetworkParam}, {@link Network},
+ * {@link FeatureArray}, and the neural networks (see {@link org.statnlp.hypergraph.neural.AbstractNeuralNetwork#getModelConfig()}).<br>
+ * This covers the settings used during inference and decoding, so that multiple models with different
+ * settings can be used concurrently in one JVM.<br>
+ * There are two kinds of configuration:
+ * <ul>
+ * <li>The global configuration ({@link #global()}), which reads and writes the static fields in {@link NetworkConfig}.
+ * This is the default, so models behave as before unless given their own configuration.</li>
+ * <li>An independent configuration ({@link #snapshot()}), which starts from the current values in
+ * {@link NetworkConfig} but is not affected by later changes there, nor by other models.</li>
+ * </ul>
+ * Other settings (e.g., those related to the feature extraction and the optimization) are still read from
+ * {@link NetworkConfig} directly.
+ */
+public class ModelConfig implements Serializable {
+
+	private static final long serialVersionUID = -5290173645227512960L;
+
+	private static final ModelConfig GLOBAL = new ModelConfig(true);
+
+	/** Whether this configuration reads and writes {@link NetworkConfig} */
+	private final boolean isGlobal;
+
+	private ModelStatus status;
+	private ModelType modelType;
+	private InferenceType inference;
+	private int numThreads;
+	private boolean useNeuralFeatures;
+	private boolean maxMarginalDecoding;
+	private int maxMFUpdates;
+	private int numStructs;
+	private boolean featureTouchTest;
+	private WeightPrecision decodingWeightPrecision;
+
+	private ModelConfig(boolean isGlobal){
+		this.isGlobal = isGlobal;
+		if(!isGlobal){
+			this.status = NetworkConfig.STATUS;
+			this.modelType = NetworkConfig.MODEL_TYPE;
+			this.inference = NetworkConfig.INFERENCE;
+			this.numThreads = NetworkConfig.NUM_THREADS;
+			this.useNeuralFeatures = NetworkConfig.USE_NEURAL_FEATURES;
+			this.maxMarginalDecoding = NetworkConfig.MAX_MARGINAL_DECODING;
+			this.maxMFUpdates = NetworkConfig.MAX_MF_UPDATES;
+			this.numStructs = NetworkConfig.NUM_STRUCTS;
+			this.featureTouchTest = NetworkConfig.FEATURE_TOUCH_TEST;
+			this.decodingWeightPrecision = NetworkConfig.DECODING_WEIGHT_PRECISION;
+		}
+	}
+
+	/**
+	 * Returns the configuration backed by the static fields in {@link NetworkConfig}.
+	 * @return
+	 */
+	public static ModelConfig global(){
+		return GLOBAL;
+	}
+
+	/**
+	 * Returns a new independent configuration initialized with the current values in {@link NetworkConfig}.
+	 * @return
+	 */
+	public static ModelConfig snapshot(){
+		return new ModelConfig(false);
+	}
+
+	/**
+	 * Whether this is the configuration backed by the static fields in {@link NetworkConfig}.
+	 * @return
+	 */
+	public boolean isGlobal(){
+		return this.isGlobal;
+	}
+
+	/** @see NetworkConfig#STATUS */
+	public ModelStatus getStatus(){
+		return this.isGlobal ? NetworkConfig.STATUS : this.status;
+	}
+
+	/** @see NetworkConfig#STATUS */
+	public void setStatus(ModelStatus status){
+		if(this.isGlobal){
+			NetworkConfig.STATUS = status;
+		} else {
+			this.status = status;
+		}
+	}
+
+	/** @see NetworkConfig#MODEL_TYPE */
+	public ModelType getModelType(){
+		return this.isGlobal ? NetworkConfig.MODEL_TYPE : this.modelType;
+	}
+
+	/** @see NetworkConfig#MODEL_TYPE */
+	public void setModelType(ModelType modelType){
+		if(this.isGlobal){
+			NetworkConfig.MODEL_TYPE = modelType;
+		} else {
+			this.modelType = modelType;
+		}
+	}
+
+	/** @see NetworkConfig#INFERENCE */
+	public InferenceType getInference(){
+		return this.isGlobal ? NetworkConfig.INFERENCE : this.inference;
+	}
+
+	/** @see NetworkConfig#INFERENCE */
+	public void setInference(InferenceType inference){
+		if(this.isGlobal){
+			NetworkConfig.INFERENCE = inference;
+		} else {
+			this.inference = inference;
+		}
+	}
+
+	/** @see NetworkConfig#NUM_THREADS */
+	public int getNumThreads(){
+		return this.isGlobal ? NetworkConfig.NUM_THREADS : this.numThreads;
+	}
+
+	/** @see NetworkConfig#NUM_THREADS */
+	public void setNumThreads(int numThreads){
+		if(this.isGlobal){
+			NetworkConfig.NUM_THREADS = numThreads;
+		} else {
+			this.numThreads = numThreads;
+		}
+	}
+
+	/** @see NetworkConfig#USE_NEURAL_FEATURES */
+	public boolean isUsingNeuralFeatures(){
+		return this.isGlobal ? NetworkConfig.USE_NEURAL_FEATURES : this.useNeuralFeatures;
+	}
+
+	/** @see NetworkConfig#USE_NEURAL_FEATURES */
+	public void setUseNeuralFeatures(boolean useNeuralFeatures){
+		if(this.isGlobal){
+			NetworkConfig.USE_NEURAL_FEATURES = useNeuralFeatures;
+		} else {
+			this.useNeuralFeatures = useNeuralFeatures;
+		}
+	}
+
+	/** @see NetworkConfig#MAX_MARGINAL_DECODING */
+	public boolean isMaxMarginalDecoding(){
+		return this.isGlobal ? NetworkConfig.MAX_MARGINAL_DECODING : this.maxMarginalDecoding;
+	}
+
+	/** @see NetworkConfig#MAX_MARGINAL_DECODING */
+	public void setMaxMarginalDecoding(boolean maxMarginalDecoding){
+		if(this.isGlobal){
+			NetworkConfig.MAX_MARGINAL_DECODING = maxMarginalDecoding;
+		} else {
+			this.maxMarginalDecoding = maxMarginalDecoding;
+		}
+	}
+
+	/** @see NetworkConfig#MAX_MF_UPDATES */
+	public int getMaxMFUpdates(){
+		return this.isGlobal ? NetworkConfig.MAX_MF_UPDATES : this.maxMFUpdates;
+	}
+
+	/** @see NetworkConfig#MAX_MF_UPDATES */
+	public void setMaxMFUpdates(int maxMFUpdates){
+		if(this.isGlobal){
+			NetworkConfig.MAX_MF_UPDATES = maxMFUpdates;
+		} else {
+			this.maxMFUpdates = maxMFUpdates;
+		}
+	}
+
+	/** @see NetworkConfig#NUM_STRUCTS */
+	public int getNumStructs(){
+		return this.isGlobal ? NetworkConfig.NUM_STRUCTS : this.numStructs;
+	}
+
+	/** @see NetworkConfig#NUM_STRUCTS */
+	public void setNumStructs(int numStructs){
+		if(this.isGlobal){
+			NetworkConfig.NUM_STRUCTS = numStructs;
+		} else {
+			this.numStructs = numStructs;
+		}
+	}
+
+	/** @see NetworkConfig#FEATURE_TOUCH_TEST */
+	public boolean isFeatureTouchTest(){
+		return this.isGlobal ? NetworkConfig.FEATURE_TOUCH_TEST : this.featureTouchTest;
+	}
+
+	/** @see NetworkConfig#FEATURE_TOUCH_TEST */
+	public void setFeatureTouchTest(boolean featureTouchTest){
+		if(this.isGlobal){
+			NetworkConfig.FEATURE_TOUCH_TEST = featureTouchTest;
+		} else {
+			this.featureTouchTest = featureTouchTest;
+		}
+	}
+
+	/** @see NetworkConfig#DECODING_WEIGHT_PRECISION */
+	public WeightPrecision getDecodingWeightPrecision(){
+		return this.isGlobal ? NetworkConfig.DECODING_WEIGHT_PRECISION : this.decodingWeightPrecision;
+	}
+
+	/** @see NetworkConfig#DECODING_WEIGHT_PRECISION */
+	public void setDecodingWeightPrecision(WeightPrecision decodingWeightPrecision){
+		if(this.isGlobal){
+			NetworkConfig.DECODING_WEIGHT_PRECISION = decodingWeightPrecision;
+		} else {
+			this.decodingWeightPrecision = decodingWeightPrecision;
+		}
+	}
+
+	/**
+	 * Keeps a single global configuration after deserialization.
+	 */
+	private Object readResolve(){
+		return this.isGlobal ? GLOBAL : this;
+	}
+
+}
@@ -3,13 +3,9 @@ package org.statnlp.hypergraph;
 
 import java.io.Serializable;
 import java.util.Arrays;
-import java.util.NoSuchElementException;
 
 import org.statnlp.commons.types.Instance;
 import org.statnlp.hypergraph.NetworkConfig.InferenceType;
-import org.statnlp.hypergraph.decoding.EdgeHypothesis;
-import org.statnlp.hypergraph.decoding.NodeHypothesis;
-import org.statnlp.hypergraph.decoding.ScoredIndex;
 
 /**
  * The base class for representing networks. This class is equipped with algorithm to calculate the 
@@ -25,39 +21,6 @@ public abstract class Network implements Serializable, HyperGraph{
 	
 	private static final long serialVersionUID = -3630379919120581209L;
 	
-	/**
-	 * The working array for each thread for calculating inside scores
-	 * This is done to avoid reallocating a new array for each network
-	 */
-	protected static double[][] insideSharedArray = new double[NetworkConfig.NUM_THREADS][]; // TODO: The value of NetworkConfig.NUM_THREADS might change after first access to Network class
-	/**
-	 * The working array for each thread for calculating outside scores
-	 * This is done to avoid reallocating a new array for each network
-	 */
-	protected static double[][] outsideSharedArray = new double[NetworkConfig.NUM_THREADS][];
-
-	/**
-	 * The working array for each thread for calculating max scores
-	 * This is done to avoid reallocating a new array for each network
-	 */
-	protected static double[][] maxSharedArray = new double[NetworkConfig.NUM_THREADS][];
-	/**
-	 * The working array for each thread for storing max paths (for backtracking)
-	 * This is done to avoid reallocating a new array for each network
-	 */
-	protected static int[][][] maxPathsSharedArrays = new int[NetworkConfig.NUM_THREADS][][];
-
-//	protected static NodeHypothesis[][] hypothesisSharedArray = new NodeHypothesis[NetworkConfig.NUM_THREADS][];
-	/** 
-	 * The working array for each thread for calculating outside scores 
-	 */
-	protected static double[][] unlabeledMarginalSharedArray = new double[NetworkConfig.NUM_THREADS][];
-	
-	/** 
-	 * The working array for each thread for calculating outside scores 
-	 */
-	protected static double[][] unlabeledNewMarginalSharedArray = new double[NetworkConfig.NUM_THREADS][];
-	
 	/** The IDs associated with the network (within the scope of the thread). */
 	protected int _networkId;
 	/** The id of the thread */
@@ -77,18 +40,34 @@ public abstract class Network implements Serializable, HyperGraph{
 	protected transient double[] _max;
 	/** Stores the paths associated with the above tree */
 	protected transient int[][] _max_paths;
-	/** Stores the hypothesis (listing possible direction to take) */
-	protected transient NodeHypothesis[] _hypotheses;
 	/** To mark whether a node has been visited in one iteration */
 	protected transient boolean[] _visited;
 	/** The marginal score for each node */
 	protected transient double[] _marginal;
+	/**
+	 * At each hyperedge index, store the score of the hyperedge computed in the inside pass,
+	 * where the hyperedges of node k start at index <code>_edgeOffsets[k]</code>
+	 */
+	protected transient double[] _edgeScores;
+	/** At each index, store the index of the first hyperedge of the node in {@link #_edgeScores} */
+	protected transient int[] _edgeOffsets;
+	/**
+	 * During the outside pass, the outside score of a node which has not been visited yet is accumulated as
+	 * <code>_outside[k] + log(_outsideSums[k])</code>, so that only one log is needed per node
+	 */
+	protected transient double[] _outsideSums;
+	/** The layers of this network if it is a linear chain, see {@link #getChainLayers()} */
+	private transient int[] _chainLayers;
+	/** Whether {@link #_chainLayers} has been determined */
+	private transient boolean _chainLayersFound;
 	
 	/**
 	 * The compiler that created this network.<br>
 	 * This is used to get the cost.
 	 */
 	protected NetworkCompiler _compiler;
+	/** Whether the warning that a network has no compiler for the cost has been printed */
+	private static volatile boolean warnedNoCompiler = false;
 	/** The labeled version of this network, if exists, null otherwise */
 	private Network _labeledNetwork;
 	/** The unlabeled version of this network, if exists, null otherwise */
@@ -145,56 +124,81 @@ public abstract class Network implements Serializable, HyperGraph{
 	}
 	
 	protected double[] getInsideSharedArray(){
-		if(insideSharedArray[this._threadId] == null || this.countNodes() > insideSharedArray[this._threadId].length)
-			insideSharedArray[this._threadId] = new double[this.countNodes()];
-		return insideSharedArray[this._threadId];
+		return this._param.getWorkspace().getInside(this.countNodes());
 	}
 	
 	protected double[] getOutsideSharedArray(){
-		if(outsideSharedArray[this._threadId] == null || this.countNodes() > outsideSharedArray[this._threadId].length)
-			outsideSharedArray[this._threadId] = new double[this.countNodes()];
-		return outsideSharedArray[this._threadId];
+		return this._param.getWorkspace().getOutside(this.countNodes());
 	}
 
 	protected double[] getMaxSharedArray(){
-		if(maxSharedArray[this._threadId] == null || this.countNodes() > maxSharedArray[this._threadId].length)
-			maxSharedArray[this._threadId] = new double[this.countNodes()];
-		return maxSharedArray[this._threadId];
+		return this._param.getWorkspace().getMax(this.countNodes());
 	}
 
 	protected int[][] getMaxPathSharedArray(){
-		if(maxPathsSharedArrays[this._threadId] == null || this.countNodes() > maxPathsSharedArrays[this._threadId].length)
-			maxPathsSharedArrays[this._threadId] = new int[this.countNodes()][];
-		return maxPathsSharedArrays[this._threadId];
+		return this._param.getWorkspace().getMaxPaths(this.countNodes());
 	}
 	
-//	protected NodeHypothesis[] getHypothesisSharedArray(){
-//		if(hypothesisSharedArray[this._threadId] == null || this.countNodes() > hypothesisSharedArray[this._threadId].length){
-//			hypothesisSharedArray[this._threadId] = new NodeHypothesis[this.countNodes()];
-//		}
-//		return hypothesisSharedArray[this._threadId];
-//	}
-	
 	protected double[] getMarginalSharedArray(){
-		if(unlabeledMarginalSharedArray[this._threadId] == null || this.countNodes() > unlabeledMarginalSharedArray[this._threadId].length)
-			unlabeledMarginalSharedArray[this._threadId] = new double[this.countNodes()];
-		return unlabeledMarginalSharedArray[this._threadId];
+		return this._param.getWorkspace().getMarginal(this.countNodes());
 	}
 	
 	protected double[] getNewMarginalSharedArray(){
-		if(unlabeledNewMarginalSharedArray[this._threadId] == null || this.countNodes() > unlabeledNewMarginalSharedArray[this._threadId].length)
-			unlabeledNewMarginalSharedArray[this._threadId] = new double[this.countNodes()];
-		return unlabeledNewMarginalSharedArray[this._threadId];
+		return this._param.getWorkspace().getNewMarginal(this.countNodes());
 	}
 	
 	public int getNetworkId(){
 		return this._networkId;
 	}
+
+	/**
+	 * Returns the number of hyperedges coming out of the node with index k
+	 * @param k
+	 * @return
+	 */
+	public int countEdges(int k){
+		return this.getChildren(k).length;
+	}
+
+	/**
+	 * Returns the child node indices of the hyperedge with the specified index
+	 * in the list of hyperedges coming out of the node with index k
+	 * @param k
+	 * @param children_k_index
+	 * @return
+	 */
+	public int[] getChildren(int k, int children_k_index){
+		return this.getChildren(k)[children_k_index];
+	}
+
+	/**
+	 * Returns the compact storage of the hyperedges of this network, or null if this network
+	 * does not use compact storage, in which case the hyperedges are accessed through {@link #getChildren(int)}.<br>
+	 * When this is not null, the inference procedures traverse the compact storage directly, and pass
+	 * <code>null</code> as the child node indices to {@link LocalNetworkParam#extract(Network, int, int[], int)},
+	 * which will retrieve them through {@link #getChildren(int, int)} only if necessary.
+	 * @return
+	 * @see NetworkConfig#USE_COMPACT_NETWORK_STORAGE
+	 */
+	public CompactEdges getCompactEdges(){
+		return null;
+	}
 	
 	public int getThreadId(){
 		return this._threadId;
 	}
 	
+	/**
+	 * Returns the configuration of the model this network belongs to.
+	 * @return
+	 */
+	public ModelConfig getConfig(){
+		if(this._param == null){
+			return ModelConfig.global();
+		}
+		return this._param.getConfig();
+	}
+	
 	/**
 	 * Returns the instance modeled by this network
 	 * @return
@@ -312,29 +316,25 @@ public abstract class Network implements Serializable, HyperGraph{
 	}
 	
 	/**
-	 * Return the max path according to the configuration specified in the bestPath IndexedScore object.<br>
-	 * This is used in returning the top-k result also.
-	 * @param node
-	 * @param bestPath
-	 * @return
-	 * @throws NoSuchElementException
+	 * Sets the max paths (see {@link #getMaxPath(int)}) and the max scores of the nodes in the k-th best (0-based)
+	 * structure of this network to those of that structure, so that a decompiler following the max paths
+	 * returns the k-th best structure, and {@link #getMax()} returns its score.<br>
+	 * The k-best structures are computed lazily by the {@link KBestDecoder} of the workspace of this network,
+	 * and the changes made by the previous call are undone first, so calling this with k=0 restores the best structure.
+	 * This should be called after {@link #max()}.
+	 * @param k
+	 * @return Whether this network has at least k+1 structures.
 	 */
-	public ScoredIndex[] getMaxPath(NodeHypothesis node, ScoredIndex bestPath) throws NoSuchElementException {
-		try{
-			EdgeHypothesis edge = node.children()[bestPath.index[0]];
-			ScoredIndex score = edge.getKthBestHypothesis(bestPath.index[1]);
-			ScoredIndex[] result = new ScoredIndex[edge.children().length];
-			for(int i=0; i<edge.children().length; i++){
-				result[i] = edge.children()[i].getKthBestHypothesis(score.index[i]);
+	public boolean selectKthBestPath(int k){
+		KBestDecoder kBestDecoder = this._param.getWorkspace().getKBestDecoder();
+		if(!kBestDecoder.isPreparedFor(this)){
+			if(k == 0){
+				// The max paths are already those of the best structure
+				return true;
 			}
-			return result;
-		} catch (NullPointerException e){
-			throw new NoSuchElementException("The requested k-best exceeds the maximum number of structures.");
+			kBestDecoder.prepare(this);
 		}
-	}
-	
-	public NodeHypothesis getNodeHypothesis(int k){
-		return this._hypotheses[k];
+		return kBestDecoder.select(k);
 	}
 
 	/**
@@ -346,7 +346,7 @@ public abstract class Network implements Serializable, HyperGraph{
 		//Arrays.fill(this._newMarginal, Double.NEGATIVE_INFINITY);
 		for(int k=0; k<this.countNodes(); k++){
 			//for mean-field, only need to gather the marginal from the unlabeled network
-			if( NetworkConfig.MAX_MARGINAL_DECODING || (NetworkConfig.INFERENCE == InferenceType.MEAN_FIELD && !this.getInstance().isLabeled()
+			if( this.getConfig().isMaxMarginalDecoding() || (this.getConfig().getInference() == InferenceType.MEAN_FIELD && !this.getInstance().isLabeled()
 					&& !this.isRemoved(k)) ){
 				this.marginal(k);
 				this._newMarginal[k] = Math.exp(this._newMarginal[k]);
@@ -382,7 +382,7 @@ public abstract class Network implements Serializable, HyperGraph{
 	public void inference(boolean marginalize){
 		if(this._weight == 0)
 			return;
-		if(NetworkConfig.MODEL_TYPE.USE_SOFTMAX){
+		if(this.getConfig().getModelType().USE_SOFTMAX){
 			this.inside();
 			this.outside();
 			if(marginalize){
@@ -405,36 +405,153 @@ public abstract class Network implements Serializable, HyperGraph{
 		this.updateObjective();
 	}
 	
+	/**
+	 * Removes the nodes whose posterior probability, according to the last inside-outside pass on this network,
+	 * is below the specified threshold, so that they are skipped in the later inference on this network.<br>
+	 * The root and the nodes which are also in the labeled network (by node ID) are never removed,
+	 * so the correct structure is always kept. Nothing is removed if the labeled network is not known.<br>
+	 * This should be called on an unlabeled network, right after its inside and outside scores are calculated.
+	 * @param threshold
+	 * @return The number of nodes removed.
+	 */
+	public int prune(double threshold){
+		Network labeledNetwork = this.getLabeledNetwork();
+		if(labeledNetwork == null || labeledNetwork == this){
+			return 0;
+		}
+		double logThreshold = Math.log(threshold);
+		double logZ = this.getInside();
+		int numRemoved = 0;
+		for(int k=0; k<this.countNodes(); k++){
+			if(this.isRemoved(k) || this.isRoot(k)){
+				continue;
+			}
+			if(this._inside[k] + this._outside[k] - logZ >= logThreshold){
+				continue;
+			}
+			if(labeledNetwork.getNodeIndex(this.getNode(k)) >= 0){
+				continue;
+			}
+			this.remove(k);
+			numRemoved++;
+		}
+		return numRemoved;
+	}
+	
 	/**
 	 * Calculate the inside score of all nodes
 	 */
 	protected void inside(){
 		this._inside = this.getInsideSharedArray();
+		this.initEdgeScores();
 		Arrays.fill(this._inside, 0.0);
-		for(int k=0; k<this.countNodes(); k++){
-			this.inside(k);
+		int[] chainLayers = this.getChainLayers();
+		if(chainLayers != null){
+			LinearChainInference.inside(this, chainLayers);
+		} else {
+			for(int k=0; k<this.countNodes(); k++){
+				this.inside(k);
+			}
 		}
 		if(this.getInside()==Double.NEGATIVE_INFINITY){
 			throw new RuntimeException("Error: network (ID="+_networkId+") has zero inside score");
 		}
 	}
 	
+	/**
+	 * Prepares the buffer storing the score of each hyperedge.<br>
+	 * The buffer is filled by the inside pass and read by the outside pass and the gradient update,
+	 * so that the features, cost, and neural score of each hyperedge are computed once per iteration.
+	 */
+	protected void initEdgeScores(){
+		CompactEdges edges = this.getCompactEdges();
+		int numNodes = this.countNodes();
+		if(edges != null){
+			this._edgeOffsets = edges.edgeOffsets;
+		} else {
+			this._edgeOffsets = this._param.getWorkspace().getEdgeOffsets(numNodes);
+			int numEdges = 0;
+			for(int k=0; k<numNodes; k++){
+				this._edgeOffsets[k] = numEdges;
+				numEdges += this.countEdges(k);
+			}
+			this._edgeOffsets[numNodes] = numEdges;
+		}
+		this._edgeScores = this._param.getWorkspace().getEdgeScores(this._edgeOffsets[numNodes]);
+	}
+	
+	/**
+	 * Computes the score of the specified hyperedge, which is the total score of its features,
+	 * plus its cost if the model uses cost, and its neural score if the model uses neural features.
+	 * @param k
+	 * @param children_k
+	 * @param children_k_index
+	 * @return
+	 */
+	protected double computeEdgeScore(int k, int[] children_k, int children_k_index){
+		int globalParamVersion = this._param._fm.getParam_G().getVersion();
+		double score = this.getConfig().getInference()==InferenceType.MEAN_FIELD ?
+	 			this._param.extract(this, k, children_k, children_k_index).getScore_MF_Version(this._param, this.getUnlabeledNetwork().getMarginalSharedArray(), globalParamVersion):
+	 				this._param.getScore(this, k, children_k, children_k_index, globalParamVersion);
+		if(this.getConfig().getModelType().USE_COST){
+			if(this._compiler == null){
+				if(!warnedNoCompiler){
+					warnedNoCompiler = true;
+					System.err.println("WARNING: Compiler was not specified during network creation, setting cost to 0.0");
+				}
+			} else {
+				score += this._param.cost(this, k, children_k, children_k_index, this._compiler);
+			}
+		}
+		if (this.getConfig().isUsingNeuralFeatures()) {
+			score += this._param._fm.getParam_G().getNNParamG().getNNScore(this, k, children_k, children_k_index);
+		}
+		return score;
+	}
+	
 	/**
 	 * Calculate the outside score of all nodes
 	 */
 	protected void outside(){
 		this._outside = this.getOutsideSharedArray();
 		Arrays.fill(this._outside, Double.NEGATIVE_INFINITY);
+		this._outsideSums = this._param.getWorkspace().getOutsideSums(this.countNodes());
+		Arrays.fill(this._outsideSums, 0, this.countNodes(), 0.0);
+		int[] chainLayers = this.getChainLayers();
+		if(chainLayers != null){
+			LinearChainInference.outside(this, chainLayers);
+			return;
+		}
 		for(int k=this.countNodes()-1; k>=0; k--){
 			this.outside(k);
 		}
 	}
 	
+	/**
+	 * Returns the layers of this network (see {@link LinearChainInference#findLayers(Network)}) if the inference
+	 * on this network should be done by {@link LinearChainInference}, or null to use the general procedures.<br>
+	 * This is the case when {@link NetworkConfig#USE_LINEAR_CHAIN_INFERENCE} is true, the compiler of this network
+	 * declares its networks to be linear chains, and this network is indeed a linear chain.
+	 * Mean-field inference always uses the general procedures.
+	 * @return
+	 */
+	protected int[] getChainLayers(){
+		if(!NetworkConfig.USE_LINEAR_CHAIN_INFERENCE || this._compiler == null || !this._compiler.isLinearChain()
+				|| this.getConfig().getInference() == InferenceType.MEAN_FIELD){
+			return null;
+		}
+		if(!this._chainLayersFound){
+			this._chainLayers = LinearChainInference.findLayers(this);
+			this._chainLayersFound = true;
+		}
+		return this._chainLayers;
+	}
+	
 	/**
 	 * Calculate and update the inside-outside score of all nodes
 	 */
 	protected void updateGradient(){
-		if(NetworkConfig.MODEL_TYPE.USE_SOFTMAX){
+		if(this.getConfig().getModelType().USE_SOFTMAX){
 			for(int k=0; k<this.countNodes(); k++){
 				this.updateGradient(k);
 			}
@@ -455,7 +572,7 @@ public abstract class Network implements Serializable, HyperGraph{
 	
 	protected void updateObjective(){
 		double objective = 0.0;
-		if(NetworkConfig.MODEL_TYPE.USE_SOFTMAX){
+		if(this.getConfig().getModelType().USE_SOFTMAX){
 			objective = this.getInside() * this._weight;
 		} else { // Use real max
 			objective = this.getMax() * this._weight;
@@ -477,7 +594,13 @@ public abstract class Network implements Serializable, HyperGraph{
 	public void max(){
 		this._max = this.getMaxSharedArray();
 		this._max_paths = this.getMaxPathSharedArray();
-//		this._hypotheses = this.getHypothesisSharedArray();
+		this.initEdgeScores();
+		this._param.getWorkspace().resetKBestDecoder();
+		int[] chainLayers = this.getChainLayers();
+		if(chainLayers != null){
+			LinearChainInference.max(this, chainLayers);
+			return;
+		}
 		for(int k=0; k<this.countNodes(); k++){
 			this.max(k);
 		}
@@ -493,61 +616,32 @@ public abstract class Network implements Serializable, HyperGraph{
 			return;
 		}
 		
-		double inside = Double.NEGATIVE_INFINITY;
-		int[][] childrenList_k = this.getChildren(k);
+		CompactEdges edges = this.getCompactEdges();
+		int[][] childrenList_k = edges == null ? this.getChildren(k) : null;
+		int numEdges = edges == null ? childrenList_k.length : edges.countEdges(k);
 		
 		// If this node has no child edge, assume there is one edge with no child node
 		// This is done so that every node is visited in the feature extraction step below
-		if(childrenList_k.length==0){ 
+		boolean hasNoEdge = numEdges==0;
+		if(hasNoEdge){ 
 			childrenList_k = new int[1][0];
+			numEdges = 1;
+			edges = null;
 		}
 		
-		{
-			int children_k_index = 0;
-			int[] children_k = childrenList_k[children_k_index];
+		// The scores of the hyperedges are gathered here, then summed at once
+		double[] scores = this._param.getWorkspace().getNodeEdgeScores(numEdges);
+		int numScores = 0;
+		for(int children_k_index = 0; children_k_index < numEdges; children_k_index++){
+			// With compact storage, children_k is null, and the children are in childIndices[childStart..childEnd)
+			int[] children_k = edges == null ? childrenList_k[children_k_index] : null;
+			int[] childIndices = edges == null ? children_k : edges.children;
+			int childStart = edges == null ? 0 : edges.childOffsets[edges.getEdge(k, children_k_index)];
+			int childEnd = edges == null ? children_k.length : edges.childOffsets[edges.getEdge(k, children_k_index)+1];
 
 			boolean ignoreflag = false;
-			for(int child_k : children_k){
-				if(child_k < 0){
-					// A negative child_k is not a reference to a node, it's just a number associated with this edge
-					continue;
-				}
-				if(this.isRemoved(child_k)){
-					ignoreflag = true;
-				}
-			}
-			if(ignoreflag){
-				inside = Double.NEGATIVE_INFINITY;
-			} else {
-				FeatureArray fa = this._param.extract(this, k, children_k, children_k_index);
-				int globalParamVersion = this._param._fm.getParam_G().getVersion();
-				double score = NetworkConfig.INFERENCE==InferenceType.MEAN_FIELD  ?
-			 			fa.getScore_MF_Version(this._param, this.getUnlabeledNetwork().getMarginalSharedArray(), globalParamVersion):
-			 				fa.getScore(this._param, globalParamVersion);
-			 	
-			 	if(NetworkConfig.MODEL_TYPE.USE_COST){
-					score += this._param.cost(this, k, children_k, children_k_index, this._compiler);
-				}
-			 	if (NetworkConfig.USE_NEURAL_FEATURES) {
-			 		score += this._param._fm.getParam_G().getNNParamG().getNNScore(this, k, children_k, children_k_index);
-			 	}
-			 	
-				for(int child_k : children_k){
-					if(child_k < 0){
-						// A negative child_k is not a reference to a node, it's just a number associated with this edge
-						continue;
-					}
-					score += this._inside[child_k];
-				}
-				inside = score;
-			}
-		}
-
-		for(int children_k_index = 1; children_k_index < childrenList_k.length; children_k_index++){
-			int[] children_k = childrenList_k[children_k_index];
-
-			boolean ignoreflag = false;
-			for(int child_k : children_k){
+			for(int c = childStart; c < childEnd; c++){
+				int child_k = childIndices[c];
 				if(child_k < 0){
 					// A negative child_k is not a reference to a node, it's just a number associated with this edge
 					continue;
@@ -558,30 +652,24 @@ public abstract class Network implements Serializable, HyperGraph{
 			}
 			if(ignoreflag) continue;
 			
-			FeatureArray fa = this._param.extract(this, k, children_k, children_k_index);
-			int globalParamVersion = this._param._fm.getParam_G().getVersion();
-			double score = NetworkConfig.INFERENCE==InferenceType.MEAN_FIELD ?
-		 			fa.getScore_MF_Version(this._param, this.getUnlabeledNetwork().getMarginalSharedArray(), globalParamVersion):
-		 				fa.getScore(this._param, globalParamVersion);
-
- 			if(NetworkConfig.MODEL_TYPE.USE_COST){
-				score += this._param.cost(this, k, children_k, children_k_index, this._compiler);
+			double score = this.computeEdgeScore(k, children_k, children_k_index);
+			if(!hasNoEdge){
+				// The edge assumed above for nodes without child edge is not stored, since it is only used here
+				this._edgeScores[this._edgeOffsets[k]+children_k_index] = score;
 			}
- 			if (NetworkConfig.USE_NEURAL_FEATURES) {
- 				score += this._param._fm.getParam_G().getNNParamG().getNNScore(this, k, children_k, children_k_index);
- 			} 			
- 			
-			for(int child_k : children_k){
+			
+			for(int c = childStart; c < childEnd; c++){
+				int child_k = childIndices[c];
 				if(child_k < 0){
 					// A negative child_k is not a reference to a node, it's just a number associated with this edge
 					continue;
 				}
 				score += this._inside[child_k];
 			}
-			inside = sumLog(inside, score);
+			scores[numScores++] = score;
 		}
 		
-		this._inside[k] = inside;
+		this._inside[k] = LogSumExp.logSumExp(scores, 0, numScores);
 		
 		if(this._inside[k]==Double.NEGATIVE_INFINITY){
 			this.remove(k);
@@ -598,17 +686,23 @@ public abstract class Network implements Serializable, HyperGraph{
 			return;
 		}
 		else
-			this._outside[k] = this.isRoot(k) ? 0.0 : this._outside[k];
+			this._outside[k] = this.isRoot(k) ? 0.0 : this.getAccumulatedOutside(k);
 		
 		if(this._inside[k]==Double.NEGATIVE_INFINITY)
 			this._outside[k] = Double.NEGATIVE_INFINITY;
 		
-		int[][] childrenList_k = this.getChildren(k);
-		for(int children_k_index = 0; children_k_index< childrenList_k.length; children_k_index++){
-			int[] children_k = childrenList_k[children_k_index];
+		CompactEdges edges = this.getCompactEdges();
+		int[][] childrenList_k = edges == null ? this.getChildren(k) : null;
+		int numEdges = edges == null ? childrenList_k.length : edges.countEdges(k);
+		for(int children_k_index = 0; children_k_index< numEdges; children_k_index++){
+			int[] children_k = edges == null ? childrenList_k[children_k_index] : null;
+			int[] childIndices = edges == null ? children_k : edges.children;
+			int childStart = edges == null ? 0 : edges.childOffsets[edges.getEdge(k, children_k_index)];
+			int childEnd = edges == null ? children_k.length : edges.childOffsets[edges.getEdge(k, children_k_index)+1];
 			
 			boolean ignoreflag = false;
-			for(int child_k : children_k){
+			for(int c = childStart; c < childEnd; c++){
+				int child_k = childIndices[c];
 				if(child_k < 0){
 					// A negative child_k is not a reference to a node, it's just a number associated with this edge
 					continue;
@@ -620,19 +714,10 @@ public abstract class Network implements Serializable, HyperGraph{
 			if(ignoreflag)
 				continue;
 			
-			FeatureArray fa = this._param.extract(this, k, children_k, children_k_index);
-			int globalParamVersion = this._param._fm.getParam_G().getVersion();
-			double score = NetworkConfig.INFERENCE==InferenceType.MEAN_FIELD?
-		 			fa.getScore_MF_Version(this._param, this.getUnlabeledNetwork().getMarginalSharedArray(), globalParamVersion):
-		 				fa.getScore(this._param, globalParamVersion);
-			if(NetworkConfig.MODEL_TYPE.USE_COST){
-				score += this._param.cost(this, k, children_k, children_k_index, this._compiler);
-			}
-			if (NetworkConfig.USE_NEURAL_FEATURES) {
-				score += this._param._fm.getParam_G().getNNParamG().getNNScore(this, k, children_k, children_k_index);
-			}
+			double score = this._edgeScores[this._edgeOffsets[k]+children_k_index];
 			score += this._outside[k];
-			for(int child_k : children_k){
+			for(int c = childStart; c < childEnd; c++){
+				int child_k = childIndices[c];
 				if(child_k < 0){
 					// A negative child_k is not a reference to a node, it's just a number associated with this edge
 					continue;
@@ -643,14 +728,13 @@ public abstract class Network implements Serializable, HyperGraph{
 			if(score == Double.NEGATIVE_INFINITY)
 				continue;
 			
-			for(int child_k : children_k){
+			for(int c = childStart; c < childEnd; c++){
+				int child_k = childIndices[c];
 				if(child_k < 0){
 					// A negative child_k is not a reference to a node, it's just a number associated with this edge
 					continue;
 				}
-				double v1 = this._outside[child_k];
-				double v2 = score - this._inside[child_k];
-				this._outside[child_k] = sumLog(v1, v2);
+				this.accumulateOutside(child_k, score - this._inside[child_k]);
 			}
 		}
 		
@@ -659,6 +743,38 @@ public abstract class Network implements Serializable, HyperGraph{
 		}
 	}
 	
+	/**
+	 * Adds exp(score) to the outside score of the specified node, which has not been visited by the outside pass.<br>
+	 * The sum is kept shifted by the largest score added so far, so that no log is needed here.
+	 * @param k
+	 * @param score
+	 */
+	private void accumulateOutside(int k, double score){
+		double max = this._outside[k];
+		if(score == Double.NEGATIVE_INFINITY){
+			return;
+		}
+		if(score <= max){
+			this._outsideSums[k] += LogSumExp.exp(score-max);
+		} else if(score > max){
+			this._outsideSums[k] = max == Double.NEGATIVE_INFINITY ? 1.0 : this._outsideSums[k]*LogSumExp.exp(max-score) + 1.0;
+			this._outside[k] = score;
+		}
+	}
+	
+	/**
+	 * Returns the outside score accumulated by {@link #accumulateOutside(int, double)} for the specified node.
+	 * @param k
+	 * @return
+	 */
+	private double getAccumulatedOutside(int k){
+		double max = this._outside[k];
+		if(max == Double.NEGATIVE_INFINITY || max == Double.POSITIVE_INFINITY){
+			return max;
+		}
+		return max + Math.log(this._outsideSums[k]);
+	}
+	
 	/**
 	 * Calculate and update the gradient for features present at the specified node
 	 * @param k
@@ -667,20 +783,26 @@ public abstract class Network implements Serializable, HyperGraph{
 		if(this.isRemoved(k))
 			return;
 		
-		int[][] childrenList_k = this.getChildren(k);
+		CompactEdges edges = this.getCompactEdges();
+		int[][] childrenList_k = edges == null ? this.getChildren(k) : null;
+		int numEdges = edges == null ? childrenList_k.length : edges.countEdges(k);
 		int[] maxChildren = null;
-		if(!NetworkConfig.MODEL_TYPE.USE_SOFTMAX){
+		if(!this.getConfig().getModelType().USE_SOFTMAX){
 			if(this._visited[k]) return;
 			this._visited[k] = true;
 			maxChildren = this.getMaxPath(k); // For Structured SVM
 		}
 		
-		for(int children_k_index = 0; children_k_index<childrenList_k.length; children_k_index++){
+		for(int children_k_index = 0; children_k_index<numEdges; children_k_index++){
 			double count = 0.0;
-			int[] children_k = childrenList_k[children_k_index];
+			int[] children_k = edges == null ? childrenList_k[children_k_index] : null;
+			int[] childIndices = edges == null ? children_k : edges.children;
+			int childStart = edges == null ? 0 : edges.childOffsets[edges.getEdge(k, children_k_index)];
+			int childEnd = edges == null ? children_k.length : edges.childOffsets[edges.getEdge(k, children_k_index)+1];
 			
 			boolean ignoreflag = false;
-			for(int child_k : children_k){
+			for(int c = childStart; c < childEnd; c++){
+				int child_k = childIndices[c];
 				if(child_k < 0){
 					// A negative child_k is not a reference to a node, it's just a number associated with this edge
 					continue;
@@ -690,8 +812,9 @@ public abstract class Network implements Serializable, HyperGraph{
 					break;
 				}
 			}
-			if(!NetworkConfig.MODEL_TYPE.USE_SOFTMAX){ // Consider only max path
-				if(!Arrays.equals(children_k, maxChildren)){
+			if(!this.getConfig().getModelType().USE_SOFTMAX){ // Consider only max path
+				boolean isMaxPath = edges == null ? Arrays.equals(children_k, maxChildren) : edges.hasChildren(k, children_k_index, maxChildren);
+				if(!isMaxPath){
 					continue;
 				}
 			}
@@ -699,20 +822,11 @@ public abstract class Network implements Serializable, HyperGraph{
 				continue;
 			}
 			
-			FeatureArray fa = this._param.extract(this, k, children_k, children_k_index);
-			int globalParamVersion = this._param._fm.getParam_G().getVersion();
-			if(NetworkConfig.MODEL_TYPE.USE_SOFTMAX){
-				double score = NetworkConfig.INFERENCE==InferenceType.MEAN_FIELD ?
-			 			fa.getScore_MF_Version(this._param, this.getUnlabeledNetwork().getMarginalSharedArray(), globalParamVersion):
-			 				fa.getScore(this._param, globalParamVersion);
-				if(NetworkConfig.MODEL_TYPE.USE_COST){
-					score += this._param.cost(this, k, children_k, children_k_index, this._compiler);
-				}
-				if (NetworkConfig.USE_NEURAL_FEATURES) {
-					score += this._param._fm.getParam_G().getNNParamG().getNNScore(this, k, children_k, children_k_index);
-				}
+			if(this.getConfig().getModelType().USE_SOFTMAX){
+				double score = this._edgeScores[this._edgeOffsets[k]+children_k_index];
 				score += this._outside[k];  // beta(s')
-				for(int child_k : children_k){
+				for(int c = childStart; c < childEnd; c++){
+					int child_k = childIndices[c];
 					if(child_k < 0){
 						// A negative child_k is not a reference to a node, it's just a number associated with this edge
 						continue;
@@ -729,16 +843,18 @@ public abstract class Network implements Serializable, HyperGraph{
 			count *= this._weight;
 //			if(Double.isNaN(count))
 //				throw new RuntimeException("count is NaN in updating gradient?");
-			if (NetworkConfig.INFERENCE == InferenceType.MEAN_FIELD){
+			if (this.getConfig().getInference() == InferenceType.MEAN_FIELD){
+				FeatureArray fa = this._param.extract(this, k, children_k, children_k_index);
 				fa.update_MF_Version(this._param, count, this.getUnlabeledNetwork().getMarginalSharedArray());
 			}else{
-				fa.update(this._param, count);
+				this._param.update(this, k, children_k, children_k_index, count);
 			}
-			if (NetworkConfig.USE_NEURAL_FEATURES) {
+			if (this.getConfig().isUsingNeuralFeatures()) {
 				this._param._fm.getParam_G().getNNParamG().setNNGradOutput(count, this, k, children_k_index); // todo
 			}
-			if(!NetworkConfig.MODEL_TYPE.USE_SOFTMAX){
-				for(int child_k: children_k){
+			if(!this.getConfig().getModelType().USE_SOFTMAX){
+				for(int c = childStart; c < childEnd; c++){
+					int child_k = childIndices[c];
 					if(child_k < 0){
 						// A negative child_k is not a reference to a node, it's just a number associated with this edge
 						continue;
@@ -756,6 +872,13 @@ public abstract class Network implements Serializable, HyperGraph{
 	protected void touch(int k){
 		if(this.isRemoved(k))
 			return;
+		CompactEdges edges = this.getCompactEdges();
+		if(edges != null){
+			for(int children_k_index = 0; children_k_index < edges.countEdges(k); children_k_index++){
+				this._param.extract(this, k, null, children_k_index);
+			}
+			return;
+		}
 		int[][] childrenList_k = this.getChildren(k);
 		for(int children_k_index = 0; children_k_index < childrenList_k.length; children_k_index++){
 			int[] children_k = childrenList_k[children_k_index];
@@ -773,67 +896,33 @@ public abstract class Network implements Serializable, HyperGraph{
 			return;
 		}
 		
+		CompactEdges edges = this.getCompactEdges();
+		int[][] childrenList_k = edges == null ? this.getChildren(k) : null;
+		int numEdges = edges == null ? childrenList_k.length : edges.countEdges(k);
+		
 		if(this.isSumNode(k)){
 
-			double inside = 0.0;
-			int[][] childrenList_k = this.getChildren(k);
+			double inside = Double.NEGATIVE_INFINITY;
 			
-			if(childrenList_k.length==0){
+			if(numEdges==0){
 				childrenList_k = new int[1][0];
+				numEdges = 1;
+				edges = null;
 			}
 			
-			{
-				int children_k_index = 0;
-				int[] children_k = childrenList_k[children_k_index];
-				
-				boolean ignoreflag = false;
-				for(int child_k : children_k){
-					if(child_k < 0){
-						// A negative child_k is not a reference to a node, it's just a number associated with this edge
-						continue;
-					}
-					if(this.isRemoved(child_k)){
-						ignoreflag = true;
-					}
-				}
-				if(ignoreflag){
-					inside = Double.NEGATIVE_INFINITY;
-				} else {
-					FeatureArray fa = this._param.extract(this, k, children_k, children_k_index);
-					int globalParamVersion = this._param._fm.getParam_G().getVersion();
-					double score = NetworkConfig.INFERENCE==InferenceType.MEAN_FIELD  ? 
-				 			fa.getScore_MF_Version(this._param, this.getUnlabeledNetwork().getMarginalSharedArray(), globalParamVersion):
-				 				fa.getScore(this._param, globalParamVersion);
-					if(NetworkConfig.MODEL_TYPE.USE_COST){
-						try{
-							score += this._param.cost(this, k, children_k, children_k_index, this._compiler);
-						} catch (NullPointerException e){
-							System.err.println("WARNING: Compiler was not specified during network creation, setting cost to 0.0");
-						}
-					}
-					if (NetworkConfig.USE_NEURAL_FEATURES) {
-						score += this._param._fm.getParam_G().getNNParamG().getNNScore(this, k, children_k, children_k_index);
-					}
-					for(int child_k : children_k){
-						if(child_k < 0){
-							// A negative child_k is not a reference to a node, it's just a number associated with this edge
-							continue;
-						}
-						score += this._max[child_k];
-					}
-					inside = score;
-				}
-				
-				//if it is a sum node, then any path is the same for such a node.
-				//this is something you need to make sure when constructing such a network.
-				this._max_paths[k] = children_k;
-			}
+			//if it is a sum node, then any path is the same for such a node.
+			//this is something you need to make sure when constructing such a network.
+			this._max_paths[k] = edges == null ? childrenList_k[0] : edges.getChildren(k, 0);
 			
-			for(int children_k_index = 1; children_k_index < childrenList_k.length; children_k_index++){
-				int[] children_k = childrenList_k[children_k_index];
+			for(int children_k_index = 0; children_k_index < numEdges; children_k_index++){
+				int[] children_k = edges == null ? childrenList_k[children_k_index] : null;
+				int[] childIndices = edges == null ? children_k : edges.children;
+				int childStart = edges == null ? 0 : edges.childOffsets[edges.getEdge(k, children_k_index)];
+				int childEnd = edges == null ? children_k.length : edges.childOffsets[edges.getEdge(k, children_k_index)+1];
 
 				boolean ignoreflag = false;
-				for(int child_k : children_k){
+				for(int c = childStart; c < childEnd; c++){
+					int child_k = childIndices[c];
 					if(child_k < 0){
 						// A negative child_k is not a reference to a node, it's just a number associated with this edge
 						continue;
@@ -845,22 +934,9 @@ public abstract class Network implements Serializable, HyperGraph{
 				if(ignoreflag)
 					continue;
 				
-				FeatureArray fa = this._param.extract(this, k, children_k, children_k_index);
-				int globalParamVersion = this._param._fm.getParam_G().getVersion();
-				double score = NetworkConfig.INFERENCE==InferenceType.MEAN_FIELD? 
-			 			fa.getScore_MF_Version(this._param, this.getUnlabeledNetwork().getMarginalSharedArray(), globalParamVersion):
-			 				fa.getScore(this._param, globalParamVersion);
-				if(NetworkConfig.MODEL_TYPE.USE_COST){
-					try{
-						score += this._param.cost(this, k, children_k, children_k_index, this._compiler);
-					} catch (NullPointerException e){
-						System.err.println("WARNING: Compiler was not specified during network creation, setting cost to 0.0");
-					}
-				}
-				if (NetworkConfig.USE_NEURAL_FEATURES) {
-					score += this._param._fm.getParam_G().getNNParamG().getNNScore(this, k, children_k, children_k_index);
-				}
-				for(int child_k : children_k){
+				double score = this.computeEdgeScore(k, children_k, children_k_index);
+				for(int c = childStart; c < childEnd; c++){
+					int child_k = childIndices[c];
 					if(child_k < 0){
 						// A negative child_k is not a reference to a node, it's just a number associated with this edge
 						continue;
@@ -874,15 +950,17 @@ public abstract class Network implements Serializable, HyperGraph{
 			
 			this._max[k] = inside;
 		} else { // This is a max node, not a sum node
-			int[][] childrenList_k = this.getChildren(k);
 			this._max[k] = Double.NEGATIVE_INFINITY;
+			int maxChildrenIndex = -1;
 			
-//			EdgeHypothesis[] childrenOfThisNodeHypothesis = new EdgeHypothesis[childrenList_k.length];
-			
-			for(int children_k_index = 0; children_k_index < childrenList_k.length; children_k_index++){
-				int[] children_k = childrenList_k[children_k_index];
+			for(int children_k_index = 0; children_k_index < numEdges; children_k_index++){
+				int[] children_k = edges == null ? childrenList_k[children_k_index] : null;
+				int[] childIndices = edges == null ? children_k : edges.children;
+				int childStart = edges == null ? 0 : edges.childOffsets[edges.getEdge(k, children_k_index)];
+				int childEnd = edges == null ? children_k.length : edges.childOffsets[edges.getEdge(k, children_k_index)+1];
 				boolean ignoreflag = false;
-				for(int child_k : children_k){
+				for(int c = childStart; c < childEnd; c++){
+					int child_k = childIndices[c];
 					if(child_k < 0){
 						// A negative child_k is not a reference to a node, it's just a number associated with this edge
 						continue;
@@ -895,49 +973,20 @@ public abstract class Network implements Serializable, HyperGraph{
 				if(ignoreflag)
 					continue;
 				
-				FeatureArray fa = this._param.extract(this, k, children_k, children_k_index);
-				int globalParamVersion = this._param._fm.getParam_G().getVersion();
-				double score = NetworkConfig.INFERENCE==InferenceType.MEAN_FIELD  ?
-			 			fa.getScore_MF_Version(this._param, this.getUnlabeledNetwork().getMarginalSharedArray(), globalParamVersion):
-			 				fa.getScore(this._param, globalParamVersion);
-				if(NetworkConfig.MODEL_TYPE.USE_COST){
-					try{
-						score += this._param.cost(this, k, children_k, children_k_index, this._compiler);
-					} catch (NullPointerException e){
-						System.err.println("WARNING: Compiler was not specified during network creation, setting cost to 0.0");
-					}
-				}
-				if (NetworkConfig.USE_NEURAL_FEATURES) {
-					score += this._param._fm.getParam_G().getNNParamG().getNNScore(this, k, children_k, children_k_index);
-				}
-				for(int child_k : children_k){
-					score += this._max[child_k];
+				double score = this.computeEdgeScore(k, children_k, children_k_index);
+				// Keep the score of the hyperedge itself for the k-best decoder
+				this._edgeScores[this._edgeOffsets[k]+children_k_index] = score;
+				for(int c = childStart; c < childEnd; c++){
+					score += this._max[childIndices[c]];
 				}
 				if(score >= this._max[k]){
 					this._max[k] = score;
-					this._max_paths[k] = children_k;
+					maxChildrenIndex = children_k_index;
 				}
-//				NodeHypothesis[] children = new NodeHypothesis[children_k.length];
-//				for(int i=0; i<children.length; i++){
-//					if(children_k[i] < 0){
-//						children[i] = new NodeHypothesis(children_k[i]);
-//					} else {
-//						children[i] = this._hypotheses[children_k[i]];
-//					}
-//				}
-//				childrenOfThisNodeHypothesis[children_k_index] = new EdgeHypothesis(k, children, score);
 			}
-//			this._hypotheses[k] = new NodeHypothesis(k, childrenOfThisNodeHypothesis);
-//			ScoredIndex bestPath = this._hypotheses[k].getKthBestHypothesis(0);
-////			System.out.println("Node: "+this._hypotheses[k]);
-////			System.out.println("Edges: "+Arrays.toString(childrenOfThisNodeHypothesis));
-////			System.out.println(bestPath);
-//			EdgeHypothesis edge = this._hypotheses[k].children()[bestPath.index[0]];
-//			this._max_paths[k] = new int[edge.children().length];
-//			for(int i=0; i<edge.children().length; i++){
-//				this._max_paths[k][i] = edge.children()[i].nodeIndex();
-//			}
-//			this._max[k] = bestPath.score;
+			if(maxChildrenIndex >= 0){
+				this._max_paths[k] = edges == null ? childrenList_k[maxChildrenIndex] : edges.getChildren(k, maxChildrenIndex);
+			}
 		}
 	}
 	
@@ -178,6 +178,32 @@ public abstract class NetworkCompiler implements Serializable{
 				+ "in your custom NetworkCompiler");
 	}
 	
+	/**
+	 * Whether the networks created by this compiler are linear chains, in which case the inference is done
+	 * by {@link LinearChainInference} instead of the general hypergraph procedures
+	 * (see {@link NetworkConfig#USE_LINEAR_CHAIN_INFERENCE}).<br>
+	 * Override this to return true when every node (except the leaves) only has hyperedges with a single child
+	 * from the previous position, and the node IDs encode the position first (as with {@link NetworkIDMapper}).
+	 * Networks which turn out not to be linear chains still use the general procedures.
+	 * @return
+	 */
+	public boolean isLinearChain(){
+		return false;
+	}
+	
+	/**
+	 * Returns the estimated size of the unlabeled network of the specified instance, which is used to balance
+	 * the work among the threads during training (see {@link NetworkConfig#BALANCE_THREADS_BY_NETWORK_SIZE}).<br>
+	 * Only the relative sizes matter. By default this is the size of the instance, which is suitable for
+	 * linear-chain networks. Override this when the network size grows faster, e.g., the size times the
+	 * maximum span length for semi-Markov networks, or the cube of the size for tree networks.
+	 * @param inst
+	 * @return
+	 */
+	public double estimateNetworkSize(Instance inst){
+		return inst.size();
+	}
+	
 	/**
 	 * The cost of the structure from leaf nodes up to node <code>k</code>.<br>
 	 * This is used for structured SVM, and generally the implementation requires the labeled Instance.<br>
@@ -127,6 +127,36 @@ public class NetworkConfig {
 	 * Batch size for batch training (if {@link #USE_BATCH_TRAINING} is <tt>true</tt>) for each thread
 	 */
 	public static int BATCH_SIZE = 20;
+	/**
+	 * Whether to update only the weights of the features present in each batch in batch training, so that the
+	 * cost of each batch is proportional to the batch instead of the number of features.<br>
+	 * The L2 regularization and the decay of the adaptive learning rate states of the other features are applied
+	 * lazily when they are next updated (see {@link org.statnlp.commons.ml.opt.GradientDescentOptimizer#optimizeSparse(int[], int)}),
+	 * and to all features before decoding on the development set and at the end of training.<br>
+	 * This requires {@link #USE_BATCH_TRAINING} with the gradient descent optimizer, and does not support neural features.
+	 * Note that {@link org.statnlp.commons.ml.opt.GradientDescentOptimizer.BestParamCriteria#BEST_OBJ} still goes through
+	 * all features whenever the batch objective improves.
+	 */
+	public static boolean USE_SPARSE_BATCH_UPDATE = false;
+	/**
+	 * Whether to train asynchronously (Hogwild), where each learner thread applies a stochastic gradient step
+	 * to the shared weights right after each of its instances, without waiting for the other threads.
+	 * Each training iteration is then one pass over the instances.<br>
+	 * The steps use plain SGD with {@link #ASYNC_LEARNING_RATE}, regardless of the optimizer of the model.
+	 * The weights of the last epoch are kept, unless the optimizer selects the best parameters on the development set
+	 * ({@link org.statnlp.commons.ml.opt.GradientDescentOptimizer.BestParamCriteria#BEST_ON_DEV}).
+	 * This only supports discriminative models without neural features, and cannot be used with {@link #USE_BATCH_TRAINING}.
+	 */
+	public static boolean USE_ASYNC_TRAINING = false;
+	/** The learning rate of the asynchronous training */
+	public static double ASYNC_LEARNING_RATE = 0.05;
+	/**
+	 * The number of locks in the asynchronous training, where feature f is updated while holding lock f mod the number of
+	 * locks, so that concurrent updates on the same feature are not lost. 0 means the updates are lock-free.
+	 */
+	public static int ASYNC_LOCK_STRIPES = 0;
+	/** The number of instances after which the objective of the asynchronous training is printed, 0 to disable */
+	public static int ASYNC_REPORT_INTERVAL = 1000;
 	public static int RANDOM_BATCH_SEED = 2345;
 	public static boolean PRINT_BATCH_OBJECTIVE = false;
 	
@@ -178,6 +208,15 @@ public class NetworkConfig {
 	 * Build features in parallel during the touch process 
 	 */
 	public static boolean PARALLEL_FEATURE_EXTRACTION = true;
+	/**
+	 * Whether all threads share one {@link ConcurrentFeatureIndex} during parallel touch
+	 * (when {@link #PARALLEL_FEATURE_EXTRACTION} is <tt>true</tt> and {@link #NUM_THREADS} is more than 1),
+	 * so that the global feature indices are assigned directly instead of merging the feature indices of
+	 * each thread after the touch.<br>
+	 * Note that the feature indices then depend on the order the threads encounter the features, so
+	 * {@link #RANDOM_INIT_WEIGHT} will initialize the weights differently in each run.
+	 */
+	public static boolean USE_CONCURRENT_FEATURE_INDEX = false;
 	/**
 	 * Build features only from labeled instances
 	 */
@@ -194,15 +233,72 @@ public class NetworkConfig {
 	 * See {@link FeatureArray#FeatureArray(int[], FeatureArray)} for more information.
 	 */
 	public static boolean AVOID_DUPLICATE_FEATURES = false;
+	/**
+	 * Whether to move the features cached during the touch process into a {@link FlatFeatureCache}, which stores
+	 * the feature indices of all networks of a thread in one int pool instead of one {@link FeatureArray} per hyperedge.<br>
+	 * Each distinct element of a FeatureArray chain is stored only once per thread, so this saves the most memory
+	 * when the features shared by many hyperedges or instances (e.g., the label-only features) are put in their
+	 * own element of the chain.<br>
+	 * This is not used with mean-field inference, or for networks with feature values.
+	 */
+	public static boolean USE_FLAT_FEATURE_CACHE = false;
+	/**
+	 * The directory where the {@link FlatFeatureCache} writes the cached features into memory-mapped files,
+	 * so that they are paged in and out by the operating system instead of being kept on the heap.<br>
+	 * This allows caching the features of training data larger than the heap. The files are deleted right after
+	 * they are mapped, so the directory should be on a local disk with enough free space.<br>
+	 * Set to null (the default) to keep the cached features on the heap.
+	 * Only used when {@link #USE_FLAT_FEATURE_CACHE} is true.
+	 */
+	public static String FEATURE_CACHE_DIRECTORY = null;
 	
 	/**
 	 * The number of threads to be used for parallel execution
 	 */
 	public static int NUM_THREADS = 4;
+	/**
+	 * Whether to assign the training instances to the threads based on their estimated network size
+	 * (see {@link NetworkCompiler#estimateNetworkSize(org.statnlp.commons.types.Instance)}), so that each thread
+	 * has a similar amount of work in each iteration.<br>
+	 * If <tt>false</tt>, the instances are assigned in round-robin fashion, which might leave some threads idle
+	 * when the instance sizes vary a lot and the inference cost is super-linear in the instance size.
+	 */
+	public static boolean BALANCE_THREADS_BY_NETWORK_SIZE = false;
+	/**
+	 * Whether the counts of the threads are summed into the global counts in parallel, where each
+	 * thread of the reduction handles a disjoint range of the global features, so no locking is needed.<br>
+	 * The counts of each feature are still summed in the order of the threads, so the result is the same
+	 * as the sequential reduction.
+	 */
+	public static boolean PARALLEL_GRADIENT_REDUCTION = true;
 	
 	/** Decoding the max-marginal for each node as well. if set to true */
 	public static boolean MAX_MARGINAL_DECODING = false;
 	
+	/**
+	 * Enumerates the precision of the weights used during decoding
+	 * <ul>
+	 * <li>{@link #DOUBLE}: the weights are used as they are</li>
+	 * <li>{@link #FLOAT}: the weights are stored in 32-bit floating point</li>
+	 * <li>{@link #INT16}: the weights are quantized into 16-bit integers, with one scale for each block of features</li>
+	 * </ul>
+	 * @see DecodingWeights
+	 */
+	public static enum WeightPrecision {
+		DOUBLE,
+		FLOAT,
+		INT16,
+		;
+	}
+	
+	/**
+	 * The precision of the weights used during decoding.<br>
+	 * Reduced precision halves (or quarters) the memory used by the weights during decoding, at the cost of
+	 * slightly different scores. Use {@link DecodingWeightsCheck#compare(NetworkModel, org.statnlp.commons.types.Instance[], WeightPrecision)}
+	 * to check the effect on the predictions.
+	 */
+	public static WeightPrecision DECODING_WEIGHT_PRECISION = WeightPrecision.DOUBLE;
+	
 	/**
 	 * Enumerates the supported inference type
 	 */
@@ -217,6 +313,40 @@ public class NetworkConfig {
 	 */
 	public static InferenceType INFERENCE = InferenceType.FORWARD_BACKWARD;
 	
+	/**
+	 * The posterior probability below which the nodes of an unlabeled training network are pruned,
+	 * based on the inside-outside scores of the previous iteration (see {@link Network#prune(double)}).<br>
+	 * Pruned nodes are skipped in all later iterations, which speeds up training on large networks
+	 * (e.g., tree-CRF and semi-CRF), at the cost of approximating the partition function.
+	 * The nodes of the labeled network are never pruned.<br>
+	 * Only used with the softmax-based models, and requires the networks to be cached during training.<br>
+	 * Since the pruned nodes are removed for good, the objective function changes between iterations.
+	 * So pruning is only used with the gradient descent optimizers (see {@link GlobalNetworkParam#usesGradientDescent()})
+	 * and asynchronous training, and is ignored with L-BFGS, whose line search assumes a fixed objective function.<br>
+	 * Set to 0 (the default) to disable pruning.
+	 */
+	public static double PRUNING_THRESHOLD = 0.0;
+	/**
+	 * The first training iteration after which the networks are pruned, when {@link #PRUNING_THRESHOLD} is positive.
+	 * Pruning too early uses the posteriors of weights which are not trained yet.
+	 */
+	public static int PRUNING_START_ITERATION = 5;
+	
+	/**
+	 * Whether to use a polynomial approximation of exp (see {@link LogSumExp#fastExp(double)}) when summing
+	 * the scores in the inside-outside procedure, instead of {@link Math#exp(double)}.<br>
+	 * The approximation has a relative error below 1e-11, so the objective and the gradient are
+	 * practically the same.
+	 */
+	public static boolean USE_FAST_EXP = false;
+	
+	/**
+	 * Whether to use the specialized inference for linear chains (see {@link LinearChainInference}) on the networks
+	 * of the compilers which declare their networks to be linear chains (see {@link NetworkCompiler#isLinearChain()}).<br>
+	 * This is off by default, so the networks use the general procedures unless this is enabled explicitly.
+	 */
+	public static boolean USE_LINEAR_CHAIN_INFERENCE = false;
+	
 	/**
 	 * Limit the size of the priority queue used in {@link Hypothesis} class when decoding.<br>
 	 * Setting this to 0 will remove the limit, making the data structure slightly faster.<br>
@@ -225,20 +355,43 @@ public class NetworkConfig {
 	 */
 	public static int PRIORITY_QUEUE_SIZE_LIMIT = 0;
 	
+	/**
+	 * Whether the networks built through {@link org.statnlp.example.base.BaseNetwork.NetworkBuilder} store
+	 * their hyperedges in the compact form ({@link CompactEdges}) instead of one array per hyperedge.<br>
+	 * This reduces the memory usage of large networks (e.g., semi-CRF and tree-CRF) and makes the
+	 * inference loops more cache-friendly.
+	 */
+	public static boolean USE_COMPACT_NETWORK_STORAGE = false;
+	
 	/***
 	 * Neural network related flags.
 	 * Please read carefully about the README.txt to install the NN server and also the communication package for Neural CRF
 	 */
 	/** If enable the neural CRF model, set it true.  */
 	public static boolean USE_NEURAL_FEATURES = false;
-	/** "torch" (socket) or "torch-jni" (TH4J + JNLua) */
+	/**
+	 * "torch" (socket), "torch-jni" (TH4J + JNLua), "java" (pure Java, see {@link org.statnlp.hypergraph.neural.JavaNeuralNetwork},
+	 * which needs no native library, but supports only the MultiLayerPerceptron, EmbeddingLayer, and ContinuousFeature networks),
+	 * or "remote" (the same networks run by a neural server, see {@link org.statnlp.hypergraph.neural.RemoteNeuralNetwork})
+	 */
 	public static String NEURAL_BACKEND = "torch";
+	/** The host of the neural server, when {@link #NEURAL_BACKEND} is "remote" */
+	public static String NEURAL_SERVER_HOST = "localhost";
+	/** The port of the neural server, when {@link #NEURAL_BACKEND} is "remote" (see {@link org.statnlp.hypergraph.neural.NeuralServer}) */
+	public static int NEURAL_SERVER_PORT = 5557;
 	/** Regularized the neural features in CRF or not. set to false then can be done by dropout***/
 	public static boolean REGULARIZE_NEURAL_FEATURES = false;
 	/** If true: Optimized the neural net in CRF. optimizer in neural config must be set to none **/
 	public static boolean OPTIMIZE_NEURAL = true;   //false means not update the neural network parameters in CRF. false is faster
 	/** false: the feature is the word itself. true: word is the indexed word **/
 	public static boolean IS_INDEXED_NEURAL_FEATURES = false;
+	/**
+	 * If true, the neural networks' forward pass in training is computed in a background thread instance by instance,
+	 * while the learner threads already run the inference on the instances whose neural outputs are ready
+	 * (see {@link org.statnlp.hypergraph.neural.AsyncNeuralForward}).<br>
+	 * Only the networks run in Java compute their outputs by instance, the others do their whole forward pass first.
+	 */
+	public static boolean OVERLAP_NEURAL_FORWARD = false;
 	/** Randomly choose the batch at every iteration. (false may give better result) */
 	public static boolean RANDOM_BATCH = false;
 	/**
@@ -259,8 +412,6 @@ public class NetworkConfig {
 	public static int MAX_MF_UPDATES = 0;
 	/** The number of distinct structures in mean-field model. */
 	public static int NUM_STRUCTS = 2;
-	/** Currently only used by Mean-field inference. That's why protected. true if mean-field, false otherwise */
-	protected static boolean PRE_COMPILE_NETWORKS;
 	
 	/**
 	 * Returns the value of all the configurations
@@ -35,10 +35,12 @@ import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
+import org.statnlp.commons.ml.opt.MathsVector;
 import org.statnlp.commons.types.Instance;
 import org.statnlp.hypergraph.NetworkConfig.InferenceType;
 import org.statnlp.hypergraph.NetworkConfig.ModelStatus;
 import org.statnlp.hypergraph.decoding.Metric;
+import org.statnlp.hypergraph.neural.AsyncNeuralForward;
 import org.statnlp.hypergraph.neural.GlobalNeuralNetworkParam;
 import org.statnlp.ui.visualize.type.VisualizationViewerEngine;
 import org.statnlp.ui.visualize.type.VisualizerFrame;
@@ -63,17 +65,28 @@ public abstract class NetworkModel implements Serializable{
 	protected transient Network[] unlabeledNetworkByInstanceId;
 	protected transient Network[] labeledNetworkByInstanceId;
 	//the number of threads.
-	protected transient int _numThreads = NetworkConfig.NUM_THREADS;
+	protected transient int _numThreads;
+	//whether the networks are compiled before the touch, currently only in mean-field inference.
+	protected transient boolean _preCompileNetworks;
 	//the local learners.
 	private transient LocalNetworkLearnerThread[] _learners;
 	//the local decoder.
 	private transient LocalNetworkDecoderThread[] _decoders;
+	//the inference working arrays for each thread, shared by the learner and decoder of the thread.
+	private transient InferenceWorkspace[] _workspaces;
 	private transient PrintStream[] outstreams = new PrintStream[]{System.out};
 	private transient Consumer<TrainingIterationInformation> endOfIterCallback;
 	private transient GlobalNeuralNetworkParam _neuralLearner;
 	private transient GlobalNeuralNetworkParam _neuralDecoder;
 	//currBestMetric on development set.
 	private transient Metric currBestMetric;
+	//the progress of the asynchronous training.
+	private transient double asyncEpochObj;
+	private transient double asyncIntervalObj;
+	private transient int asyncNumInstances;
+	private transient int asyncMultiplier;
+	//the total number of nodes pruned from the training networks, see NetworkConfig#PRUNING_THRESHOLD.
+	private transient int numPrunedNodes;
 	
 	public static class TrainingIterationInformation {
 		public int iterNum;
@@ -93,7 +106,7 @@ public abstract class NetworkModel implements Serializable{
 	
 	public NetworkModel(FeatureManager fm, NetworkCompiler compiler, InstanceParser parser, PrintStream... outstreams){
 		this._fm = fm;
-		this._numThreads = NetworkConfig.NUM_THREADS;
+		this._numThreads = this.getConfig().getNumThreads();
 		this._compiler = compiler;
 		this._instanceParser = parser;
 		this.endOfIterCallback = null;
@@ -115,6 +128,24 @@ public abstract class NetworkModel implements Serializable{
 		return this._numThreads;
 	}
 	
+	/**
+	 * Returns the inference working arrays for the specified thread, which are shared by the learner and
+	 * the decoder of that thread, and reused across calls to train and decode of this model.
+	 * @param threadId
+	 * @return
+	 */
+	protected InferenceWorkspace getWorkspace(int threadId){
+		if(this._workspaces == null){
+			this._workspaces = new InferenceWorkspace[this._numThreads];
+		} else if(threadId >= this._workspaces.length){
+			this._workspaces = Arrays.copyOf(this._workspaces, threadId+1);
+		}
+		if(this._workspaces[threadId] == null){
+			this._workspaces[threadId] = new InferenceWorkspace();
+		}
+		return this._workspaces[threadId];
+	}
+	
 	public Network getLabeledNetwork(int instanceId){
 		return labeledNetworkByInstanceId[instanceId-1];
 	}
@@ -131,6 +162,15 @@ public abstract class NetworkModel implements Serializable{
 		return _fm;
 	}
 	
+	/**
+	 * Returns the configuration of this model, which is carried by its {@link GlobalNetworkParam}.
+	 * @return
+	 * @see GlobalNetworkParam#setConfig(ModelConfig)
+	 */
+	public ModelConfig getConfig(){
+		return this._fm.getParam_G().getConfig();
+	}
+	
 	public NetworkCompiler getNetworkCompiler(){
 		return _compiler;
 	}
@@ -141,6 +181,62 @@ public abstract class NetworkModel implements Serializable{
 	
 	protected abstract Instance[][] splitInstancesForTrain();
 	
+	/**
+	 * Assigns the instances to the threads.<br>
+	 * If {@link NetworkConfig#BALANCE_THREADS_BY_NETWORK_SIZE} is <tt>true</tt>, each instance, starting from
+	 * the largest, is assigned to the thread with the least total estimated network size so far
+	 * (see {@link NetworkCompiler#estimateNetworkSize(Instance)}). Otherwise the instances are assigned in
+	 * round-robin fashion.<br>
+	 * In both cases the instances in each thread are kept in their original order.
+	 * @param instances
+	 * @return The list of instances for each thread.
+	 */
+	protected ArrayList<ArrayList<Instance>> assignInstancesToThreads(Instance[] instances){
+		ArrayList<ArrayList<Instance>> insts_list = new ArrayList<ArrayList<Instance>>();
+		for(int threadId = 0; threadId<this._numThreads; threadId++){
+			insts_list.add(new ArrayList<Instance>());
+		}
+		if(!NetworkConfig.BALANCE_THREADS_BY_NETWORK_SIZE){
+			int threadId = 0;
+			for(int k = 0; k<instances.length; k++){
+				insts_list.get(threadId).add(instances[k]);
+				threadId = (threadId+1)%this._numThreads;
+			}
+			return insts_list;
+		}
+		final double[] sizes = new double[instances.length];
+		Integer[] order = new Integer[instances.length];
+		for(int k = 0; k<instances.length; k++){
+			sizes[k] = this._compiler.estimateNetworkSize(instances[k]);
+			order[k] = k;
+		}
+		Arrays.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(sizes[o2], sizes[o1]);
+			}
+		});
+		double[] loads = new double[this._numThreads];
+		int[] threadOf = new int[instances.length];
+		for(int k: order){
+			int minThread = 0;
+			for(int threadId = 1; threadId<this._numThreads; threadId++){
+				if(loads[threadId] < loads[minThread]){
+					minThread = threadId;
+				}
+			}
+			loads[minThread] += sizes[k];
+			threadOf[k] = minThread;
+		}
+		for(int k = 0; k<instances.length; k++){
+			insts_list.get(threadOf[k]).add(instances[k]);
+		}
+		for(int threadId = 0; threadId<this._numThreads; threadId++){
+			print(String.format("Thread %d has estimated network size %.1f", threadId, loads[threadId]), outstreams);
+		}
+		return insts_list;
+	}
+	
 	public Instance[][] splitInstancesForTest(Instance[] testInsts) {
 		
 		System.err.println("#instances="+testInsts.length);
@@ -264,7 +360,7 @@ public abstract class NetworkModel implements Serializable{
 	 * @throws InterruptedException If there are interruptions during multi-threaded training.
 	 */
 	public void train(Instance[] trainInstances, int maxNumIterations, Instance[] devInstances, Function<Instance[], Metric> evalFunction, int k) throws InterruptedException{
-		NetworkConfig.STATUS = ModelStatus.TRAINING;
+		this.getConfig().setStatus(ModelStatus.TRAINING);
 		Instance[][] insts = prepareInstanceForCompilation(trainInstances);
 		ArrayList<Integer> instIds = new ArrayList<Integer>();
 		for(int i=0; i<trainInstances.length; i++){
@@ -275,16 +371,16 @@ public abstract class NetworkModel implements Serializable{
 		 * In mean-field, we need to pre-compile because we need the unlabeled network
 		 * information in feature extraction process for the labeled network.
 		 */
-		NetworkConfig.PRE_COMPILE_NETWORKS = NetworkConfig.INFERENCE == InferenceType.MEAN_FIELD ? true : false;
-		if(NetworkConfig.PRE_COMPILE_NETWORKS){
+		this._preCompileNetworks = this.getConfig().getInference() == InferenceType.MEAN_FIELD ? true : false;
+		if(this._preCompileNetworks){
 			preCompileNetworks(insts);
 		}
-		if (NetworkConfig.USE_NEURAL_FEATURES) {
+		if (this.getConfig().isUsingNeuralFeatures()) {
 			this._fm.getParam_G().getNNParamG().setLearningState();
 		}
 		
 		printUsedMemory("before touch");
-		boolean keepExistingThreads = NetworkConfig.PRE_COMPILE_NETWORKS ? true : false;
+		boolean keepExistingThreads = this._preCompileNetworks ? true : false;
 		// The first touch
 		touch(insts, keepExistingThreads);
 		printUsedMemory("after touch");
@@ -304,12 +400,12 @@ public abstract class NetworkModel implements Serializable{
 			this._fm.completeType2Int(); 
 		}
 		
-		if (NetworkConfig.USE_NEURAL_FEATURES) {
+		if (this.getConfig().isUsingNeuralFeatures()) {
 			this._neuralLearner = this._fm.getParam_G().getNNParamG();
 			this._neuralLearner.setLearningState();
 			this._neuralLearner.setLocalNetworkParams(this._fm._params_l);
 			this._fm.getParam_G().getNNParamG().prepareInputId();
-			if (NetworkConfig.USE_BATCH_TRAINING) {
+			if (NetworkConfig.USE_BATCH_TRAINING || NetworkConfig.OVERLAP_NEURAL_FORWARD) {
 				this._fm.getParam_G().getNNParamG().prepareInstId2NNInputId();
 			}
 		}
@@ -317,6 +413,11 @@ public abstract class NetworkModel implements Serializable{
 		//finalize the features.
 		this._fm.getParam_G().lockIt();
 		printUsedMemory("after lock");
+		if(this._fm.getParam_G().isSparseUpdate()){
+			for(LocalNetworkLearnerThread learner: this._learners){
+				learner.getLocalNetworkParam().trackTouchedFeatures();
+			}
+		}
 		
 		if(NetworkConfig.BUILD_FEATURES_FROM_LABELED_ONLY && NetworkConfig.CACHE_FEATURES_DURING_TRAINING){
 			touch(insts, true); // Touch again to cache the features, both in labeled and unlabeled
@@ -335,10 +436,14 @@ public abstract class NetworkModel implements Serializable{
 		List<Callable<Void>> callables = Arrays.asList((Callable<Void>[])this._learners);
 		
 		int multiplier = 1; // By default, print the negative of the objective
-		if(!NetworkConfig.MODEL_TYPE.USE_SOFTMAX){
+		if(!this.getConfig().getModelType().USE_SOFTMAX){
 			// Print the objective if not using softmax 
 			multiplier = -1;
 		}
+		if(NetworkConfig.PRUNING_THRESHOLD > 0 && !NetworkConfig.USE_ASYNC_TRAINING && !this._fm.getParam_G().usesGradientDescent()){
+			print("Pruning requires a gradient descent optimizer, the networks will not be pruned.", outstreams);
+		}
+		this.numPrunedNodes = this.countPrunedNodes();
 		
 		//note that this batch inst ids only contains positive instance IDs.
 		TIntSet batchInstIds = new TIntHashSet();
@@ -347,37 +452,166 @@ public abstract class NetworkModel implements Serializable{
 		long startTime = System.nanoTime();
 		long epochStartTime = System.nanoTime();
 		try{
-			int batchId = 0;
-			int epochNum = 0;
-			double epochObj = 0.0;
-			int size = Math.min(NetworkConfig.BATCH_SIZE, instIds.size());
-			int offset = 0;
-			for(int it = 0; it<=maxNumIterations; it++){
-				if(NetworkConfig.USE_BATCH_TRAINING){
-					batchInstIds.clear();
-					//at each epoch, shuffle the inst ids. and reset the set, which is already in the learner thread
-					if(NetworkConfig.RANDOM_BATCH && batchId == 0) {
-						Collections.shuffle(instIds, RANDOM);
+			if(NetworkConfig.USE_ASYNC_TRAINING){
+				this.trainAsync(pool, callables, maxNumIterations, devInstances, evalFunction, k, multiplier);
+			} else {
+				int batchId = 0;
+				int epochNum = 0;
+				double epochObj = 0.0;
+				int size = Math.min(NetworkConfig.BATCH_SIZE, instIds.size());
+				int offset = 0;
+				for(int it = 0; it<=maxNumIterations; it++){
+					if(NetworkConfig.USE_BATCH_TRAINING){
+						batchInstIds.clear();
+						//at each epoch, shuffle the inst ids. and reset the set, which is already in the learner thread
+						if(NetworkConfig.RANDOM_BATCH && batchId == 0) {
+							Collections.shuffle(instIds, RANDOM);
+						}
+						for(int iid = 0; iid < size; iid++){
+							batchInstIds.add(instIds.get((iid+offset) % instIds.size()));
+						}
+						batchId++;
+						offset = NetworkConfig.BATCH_SIZE * batchId;
+					}
+					for(LocalNetworkLearnerThread learner: this._learners){
+						learner.setIterationNumber(it);
+						if(NetworkConfig.USE_BATCH_TRAINING) learner.setInstanceIdSet(batchInstIds);
+						else learner.setTrainInstanceIdSet(new TIntHashSet(instIds));
+					}
+					long time = System.nanoTime();
+				
+					// Feature value provider's ``forward''
+					AsyncNeuralForward neuralForward = null;
+					if (this.getConfig().isUsingNeuralFeatures()) {
+						if (NetworkConfig.OVERLAP_NEURAL_FORWARD) {
+							// The learners start as soon as the outputs of their first instances are ready
+							this._fm.getParam_G().getNNParamG().resetAllNNGradients();
+							neuralForward = new AsyncNeuralForward(this._fm.getParam_G().getNNParamG());
+							neuralForward.start(batchInstIds, this.getNeuralForwardOrder(batchInstIds));
+						} else {
+							this._fm.getParam_G().getNNParamG().forward(batchInstIds);
+							this._fm.getParam_G().getNNParamG().resetAllNNGradients();
+						}
+						for(LocalNetworkLearnerThread learner: this._learners){
+							learner.setNeuralForward(neuralForward);
+						}
+					}
+				
+					List<Future<Void>> results = pool.invokeAll(callables);
+					for(Future<Void> result: results){
+						try{
+							result.get(); // To ensure any exception is thrown
+						} catch (ExecutionException e){
+							throw new RuntimeException(e.getCause());
+						}
+					}
+					if (neuralForward != null) {
+						neuralForward.awaitAll();
+					}
+				
+					boolean done = true;
+					boolean lastIter = (it == maxNumIterations);
+					if(lastIter){
+						done = this._fm.update(true);
+					} else {
+						done = this._fm.update();
+					}
+					time = System.nanoTime() - time;
+					double obj = this._fm.getParam_G().getObj_old();
+					epochObj += obj;
+					if(!NetworkConfig.USE_BATCH_TRAINING){
+						print(String.format("Iteration %d: Obj=%-18.12f Time=%.3fs %.12f Total time: %.3fs", it, multiplier*obj, time/1.0e9, obj/obj_old, (System.nanoTime()-startTime)/1.0e9), outstreams);
+					} else {
+						if (NetworkConfig.PRINT_BATCH_OBJECTIVE) {
+							print(String.format("Batch %d: Obj=%-18.12f", batchId, multiplier*obj), outstreams);	
+						}
+					}
+					this.printPrunedNodes();
+					if (devInstances != null && evalFunction != null && k > 0 && (it + 1) % k == 0) {
+						/**
+						 * Evaluate on the development set after k iteration of parameter updates
+						 * This has to be after update (i.e. now) if using neural as the dev output
+						 * will modify the size of outputTensor which in turn modify the countOutputTensor 
+						 */
+						this.getConfig().setStatus(ModelStatus.DEV_IN_TRAINING);
+						this._fm.getParam_G().applyPendingUpdates();
+						this.evaluateDevelopment(devInstances, evalFunction);
+						this.getConfig().setStatus(ModelStatus.TRAINING);
+					}
+					if(offset >= instIds.size()) {
+						// this means one epoch
+						time = System.nanoTime();
+						print(String.format("Epoch %d: Obj=%-18.12f Time=%.3fs Total time: %.3fs", epochNum++, multiplier*epochObj*instIds.size()/(size + offset), (time-epochStartTime)/1.0e9, (time-startTime)/1.0e9), outstreams);
+						batchId = 0;
+						offset = 0;
+						epochObj = 0.0;
+						epochStartTime = System.nanoTime();
+					}
+					if(NetworkConfig.TRAIN_MODE_IS_GENERATIVE && it>1 && obj<obj_old && Math.abs(obj-obj_old)>1E-5){
+						throw new RuntimeException("Error:\n"+obj_old+"\n>\n"+obj);
 					}
-					for(int iid = 0; iid < size; iid++){
-						batchInstIds.add(instIds.get((iid+offset) % instIds.size()));
+					obj_old = obj;
+					if (lastIter || done) {
+						if (this.getConfig().isUsingNeuralFeatures()) {
+							this._fm.getParam_G()._nn_param_g.forward(batchInstIds);
+						}
+					}
+					if(endOfIterCallback != null){
+						endOfIterCallback.accept(new TrainingIterationInformation(it, epochNum, done, lastIter, obj));
+					}
+					if(lastIter){
+						print("Training completes. The specified number of iterations ("+it+") has passed.", outstreams);
+						break;
+					}
+					if(done){
+						print("Training completes. No significant progress (<objtol) after "+it+" iterations.", outstreams);
+						break;
 					}
-					batchId++;
-					offset = NetworkConfig.BATCH_SIZE * batchId;
 				}
+				this._fm._param_g.setBestParameters();
+			}
+		} finally {
+			pool.shutdown();
+			this._fm.shutdownReductionPool();
+		}
+		if (devInstances != null && evalFunction != null) {
+			if (currBestMetric != null)
+				print("Best metric on development set: " + currBestMetric.getMetricValue().toString());
+			this._decoders = null;
+			this._neuralDecoder = null;
+		}
+	}
+	
+	/**
+	 * Trains asynchronously (Hogwild), where each learner thread updates the shared weights right after each of its
+	 * instances, instead of all threads waiting for the global update in every iteration.
+	 * Each iteration here is one pass over all instances.<br>
+	 * The best parameters are restored at the end only when they are selected on the development set
+	 * (see {@link GlobalNetworkParam#selectsBestOnDevelopment()}), otherwise the weights of the last epoch are kept.
+	 * @see NetworkConfig#USE_ASYNC_TRAINING
+	 */
+	private void trainAsync(ExecutorService pool, List<Callable<Void>> callables, int maxNumIterations, Instance[] devInstances,
+			Function<Instance[], Metric> evalFunction, int k, int multiplier) throws InterruptedException{
+		if(NetworkConfig.USE_BATCH_TRAINING){
+			throw new RuntimeException("Asynchronous training cannot be used together with batch training.");
+		}
+		GlobalNetworkParam param_g = this._fm.getParam_G();
+		param_g.prepareAsyncTraining();
+		for(LocalNetworkLearnerThread learner: this._learners){
+			learner.getLocalNetworkParam().trackTouchedFeatures();
+			learner.setAsyncTraining(this, NetworkConfig.ASYNC_LEARNING_RATE);
+		}
+		this.asyncMultiplier = multiplier;
+		long startTime = System.nanoTime();
+		try{
+			for(int it = 0; it < maxNumIterations; it++){
+				long time = System.nanoTime();
+				this.asyncEpochObj = 0.0;
+				this.asyncIntervalObj = 0.0;
+				this.asyncNumInstances = 0;
 				for(LocalNetworkLearnerThread learner: this._learners){
 					learner.setIterationNumber(it);
-					if(NetworkConfig.USE_BATCH_TRAINING) learner.setInstanceIdSet(batchInstIds);
-					else learner.setTrainInstanceIdSet(new TIntHashSet(instIds));
 				}
-				long time = System.nanoTime();
-				
-				// Feature value provider's ``forward''
-				if (NetworkConfig.USE_NEURAL_FEATURES) {
-					this._fm.getParam_G().getNNParamG().forward(batchInstIds);
-					this._fm.getParam_G().getNNParamG().resetAllNNGradients();
-				}
-				
 				List<Future<Void>> results = pool.invokeAll(callables);
 				for(Future<Void> result: results){
 					try{
@@ -386,73 +620,110 @@ public abstract class NetworkModel implements Serializable{
 						throw new RuntimeException(e.getCause());
 					}
 				}
-				
-				boolean done = true;
-				boolean lastIter = (it == maxNumIterations);
-				if(lastIter){
-					done = this._fm.update(true);
-				} else {
-					done = this._fm.update();
+				double obj = this.asyncEpochObj;
+				if(param_g._kappa > 0){
+					obj -= param_g._kappa * MathsVector.square(param_g.getWeights());
 				}
 				time = System.nanoTime() - time;
-				double obj = this._fm.getParam_G().getObj_old();
-				epochObj += obj;
-				if(!NetworkConfig.USE_BATCH_TRAINING){
-					print(String.format("Iteration %d: Obj=%-18.12f Time=%.3fs %.12f Total time: %.3fs", it, multiplier*obj, time/1.0e9, obj/obj_old, (System.nanoTime()-startTime)/1.0e9), outstreams);
-				} else {
-					if (NetworkConfig.PRINT_BATCH_OBJECTIVE) {
-						print(String.format("Batch %d: Obj=%-18.12f", batchId, multiplier*obj), outstreams);	
-					}
-				}
+				print(String.format("Epoch %d: Obj=%-18.12f Time=%.3fs Total time: %.3fs", it, multiplier*obj, time/1.0e9, (System.nanoTime()-startTime)/1.0e9), outstreams);
+				this.printPrunedNodes();
 				if (devInstances != null && evalFunction != null && k > 0 && (it + 1) % k == 0) {
-					/**
-					 * Evaluate on the development set after k iteration of parameter updates
-					 * This has to be after update (i.e. now) if using neural as the dev output
-					 * will modify the size of outputTensor which in turn modify the countOutputTensor 
-					 */
-					NetworkConfig.STATUS = ModelStatus.DEV_IN_TRAINING;
+					this.getConfig().setStatus(ModelStatus.DEV_IN_TRAINING);
 					this.evaluateDevelopment(devInstances, evalFunction);
-					NetworkConfig.STATUS = ModelStatus.TRAINING;
-				}
-				if(offset >= instIds.size()) {
-					// this means one epoch
-					time = System.nanoTime();
-					print(String.format("Epoch %d: Obj=%-18.12f Time=%.3fs Total time: %.3fs", epochNum++, multiplier*epochObj*instIds.size()/(size + offset), (time-epochStartTime)/1.0e9, (time-startTime)/1.0e9), outstreams);
-					batchId = 0;
-					offset = 0;
-					epochObj = 0.0;
-					epochStartTime = System.nanoTime();
-				}
-				if(NetworkConfig.TRAIN_MODE_IS_GENERATIVE && it>1 && obj<obj_old && Math.abs(obj-obj_old)>1E-5){
-					throw new RuntimeException("Error:\n"+obj_old+"\n>\n"+obj);
-				}
-				obj_old = obj;
-				if (lastIter || done) {
-					if (NetworkConfig.USE_NEURAL_FEATURES) {
-						this._fm.getParam_G()._nn_param_g.forward(batchInstIds);
-					}
+					this.getConfig().setStatus(ModelStatus.TRAINING);
 				}
 				if(endOfIterCallback != null){
-					endOfIterCallback.accept(new TrainingIterationInformation(it, epochNum, done, lastIter, obj));
+					endOfIterCallback.accept(new TrainingIterationInformation(it, it, false, it == maxNumIterations-1, obj));
+				}
+			}
+			print("Training completes. The specified number of iterations ("+maxNumIterations+") has passed.", outstreams);
+			if(currBestMetric != null && param_g.selectsBestOnDevelopment()){
+				param_g.setBestParameters();
+			}
+		} finally {
+			for(LocalNetworkLearnerThread learner: this._learners){
+				learner.setAsyncTraining(null, 0.0);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the total number of nodes pruned from the training networks of all threads so far.
+	 * @return
+	 * @see NetworkConfig#PRUNING_THRESHOLD
+	 */
+	private int countPrunedNodes(){
+		int total = 0;
+		for(LocalNetworkLearnerThread learner: this._learners){
+			total += learner.getNumPrunedNodes();
+		}
+		return total;
+	}
+	
+	/**
+	 * Prints the number of nodes pruned from the training networks in the last iteration, if any.
+	 * @see NetworkConfig#PRUNING_THRESHOLD
+	 */
+	private void printPrunedNodes(){
+		if(NetworkConfig.PRUNING_THRESHOLD <= 0){
+			return;
+		}
+		int total = this.countPrunedNodes();
+		if(total > this.numPrunedNodes){
+			print(String.format("Pruned %d nodes (%d in total)", total-this.numPrunedNodes, total), outstreams);
+		}
+		this.numPrunedNodes = total;
+	}
+	
+	/**
+	 * Returns the (positive) IDs of the instances to be trained in this iteration, in the order the neural
+	 * outputs are computed when {@link NetworkConfig#OVERLAP_NEURAL_FORWARD} is true.<br>
+	 * The instances of the learner threads are interleaved, so that every thread gets the outputs of its
+	 * first instance early.
+	 * @param batchInstIds The IDs of the instances in the batch, or null if all instances are trained
+	 * @return
+	 */
+	private int[] getNeuralForwardOrder(TIntSet batchInstIds){
+		TIntHashSet added = new TIntHashSet();
+		List<Integer> order = new ArrayList<Integer>();
+		int maxNumInstances = 0;
+		for(LocalNetworkLearnerThread learner: this._learners){
+			maxNumInstances = Math.max(maxNumInstances, learner.getInstances().length);
+		}
+		for(int i = 0; i < maxNumInstances; i++){
+			for(LocalNetworkLearnerThread learner: this._learners){
+				Instance[] instances = learner.getInstances();
+				if(i >= instances.length){
+					continue;
 				}
-				if(lastIter){
-					print("Training completes. The specified number of iterations ("+it+") has passed.", outstreams);
-					break;
+				int instId = Math.abs(instances[i].getInstanceId());
+				if(NetworkConfig.USE_BATCH_TRAINING && batchInstIds != null && !batchInstIds.contains(instId)){
+					continue;
 				}
-				if(done){
-					print("Training completes. No significant progress (<objtol) after "+it+" iterations.", outstreams);
-					break;
+				if(added.add(instId)){
+					order.add(instId);
 				}
 			}
-			this._fm._param_g.setBestParameters();
-		} finally {
-			pool.shutdown();
 		}
-		if (devInstances != null && evalFunction != null) {
-			if (currBestMetric != null)
-				print("Best metric on development set: " + currBestMetric.getMetricValue().toString());
-			this._decoders = null;
-			this._neuralDecoder = null;
+		int[] result = new int[order.size()];
+		for(int i = 0; i < result.length; i++){
+			result[i] = order.get(i);
+		}
+		return result;
+	}
+	
+	/**
+	 * Records the objective value of an instance trained in the asynchronous training,
+	 * printing the objective of the last {@link NetworkConfig#ASYNC_REPORT_INTERVAL} instances periodically.
+	 * @param obj
+	 */
+	synchronized void reportAsyncProgress(double obj){
+		this.asyncEpochObj += obj;
+		this.asyncIntervalObj += obj;
+		this.asyncNumInstances++;
+		if(NetworkConfig.ASYNC_REPORT_INTERVAL > 0 && this.asyncNumInstances % NetworkConfig.ASYNC_REPORT_INTERVAL == 0){
+			print(String.format("Instances %d: Obj=%-18.12f", this.asyncNumInstances, this.asyncMultiplier*this.asyncIntervalObj), outstreams);
+			this.asyncIntervalObj = 0.0;
 		}
 	}
 	
@@ -467,8 +738,11 @@ public abstract class NetworkModel implements Serializable{
 		Instance[] devRes = this.decode(devInsts, true);
 		Metric metric = evalFunction.apply(devRes);
 		
-		if (currBestMetric == null) currBestMetric = metric;
-		else {
+		if (currBestMetric == null) {
+			// The first evaluation is the best so far, so that the best parameters can always be restored
+			this._fm._param_g.setCurrentAsBestParameters();
+			currBestMetric = metric;
+		} else {
 			if (metric.isBetter(currBestMetric)) {
 				this._fm._param_g.setCurrentAsBestParameters();
 				print("[Model] Better than previous best, saving best metric:"+metric.getMetricValue().toString());
@@ -476,7 +750,7 @@ public abstract class NetworkModel implements Serializable{
 			}
 		}
 		this._fm._param_g.setNNParamG(_neuralLearner);
-		if (NetworkConfig.USE_NEURAL_FEATURES) {
+		if (this.getConfig().isUsingNeuralFeatures()) {
 			for(int threadId=0; threadId<this._numThreads; threadId++){
 				this._fm.setLocalNetworkParams(threadId, this._learners[threadId].getLocalNetworkParam());
 			}
@@ -487,7 +761,7 @@ public abstract class NetworkModel implements Serializable{
 	}
 
 	private Instance[][] prepareInstanceForCompilation(Instance[] allInstances) {
-		this._numThreads = NetworkConfig.NUM_THREADS;
+		this._numThreads = this.getConfig().getNumThreads();
 		
 		this._allInstances = allInstances;
 		for(int k = 0; k<this._allInstances.length; k++){
@@ -504,6 +778,7 @@ public abstract class NetworkModel implements Serializable{
 	private void preCompileNetworks(Instance[][] insts) throws InterruptedException{
 		for(int threadId = 0; threadId < this._numThreads; threadId++){
 			this._learners[threadId] = new LocalNetworkLearnerThread(threadId, this._fm, insts[threadId], this._compiler, -1);
+			this._learners[threadId].getLocalNetworkParam().setWorkspace(this.getWorkspace(threadId));
 			this._learners[threadId].setPrecompile();
 			this._learners[threadId].start();
 		}
@@ -516,13 +791,14 @@ public abstract class NetworkModel implements Serializable{
 	}
 	
 	private void touch(Instance[][] insts, boolean keepExisting) throws InterruptedException {
-		if(!NetworkConfig.PARALLEL_FEATURE_EXTRACTION || NetworkConfig.NUM_THREADS == 1){
+		if(!NetworkConfig.PARALLEL_FEATURE_EXTRACTION || this._numThreads == 1){
 			for(int threadId = 0; threadId<this._numThreads; threadId++){
 				if(!keepExisting){
 					this._learners[threadId] = new LocalNetworkLearnerThread(threadId, this._fm, insts[threadId], this._compiler, 0);
 				} else {
 					this._learners[threadId] = this._learners[threadId].copyThread();
 				}
+				this._learners[threadId].getLocalNetworkParam().setWorkspace(this.getWorkspace(threadId));
 				this._learners[threadId].touch();
 				System.err.println("Okay..thread "+threadId+" touched.");
 			}
@@ -533,6 +809,7 @@ public abstract class NetworkModel implements Serializable{
 				} else {
 					this._learners[threadId] = this._learners[threadId].copyThread();
 				}
+				this._learners[threadId].getLocalNetworkParam().setWorkspace(this.getWorkspace(threadId));
 				this._learners[threadId].setTouch();
 				this._learners[threadId].start();
 			}
@@ -541,7 +818,7 @@ public abstract class NetworkModel implements Serializable{
 				this._learners[threadId].setUnTouch();
 			}
 			
-			if(NetworkConfig.PRE_COMPILE_NETWORKS || !keepExisting){
+			if(this._preCompileNetworks || !keepExisting){
 				//this one is because in the first touch, we don't have the exisiting threads if not precompile network. 
 				//So we merge in first feature extraction.
 				//If precompile network, we keep exisiting threads. But we still need to merge features because
@@ -632,10 +909,22 @@ public abstract class NetworkModel implements Serializable{
 	 * @throws InterruptedException
 	 */
 	public Instance[] test(Instance[] instances, boolean cacheFeatures, int numPredictionsGenerated) throws InterruptedException {
-		NetworkConfig.STATUS = ModelStatus.TESTING;
+		this.getConfig().setStatus(ModelStatus.TESTING);
 		return this.decode(instances, cacheFeatures, numPredictionsGenerated);
 	}
 	
+	/**
+	 * Creates a service to decode instances one at a time using the learned parameters, with a persistent pool
+	 * of the specified number of decoder threads.<br>
+	 * This is useful for online decoding, where each instance should be decoded as soon as it arrives.
+	 * @param numThreads The number of decoder threads.
+	 * @return
+	 * @see DecodingService
+	 */
+	public DecodingService createDecodingService(int numThreads){
+		return new DecodingService(this, numThreads);
+	}
+	
 	/**
 	 * Decodes the instances based on the learned parameters.<br>
 	 * The predictions can be obtained through {@link Instance#getPrediction()}.
@@ -692,7 +981,7 @@ public abstract class NetworkModel implements Serializable{
 //			this._fm.getParam_G().expandFeaturesForGenerativeModelDuringTesting();
 //		}
 		
-		this._numThreads = NetworkConfig.NUM_THREADS;
+		this._numThreads = this.getConfig().getNumThreads();
 		System.err.println("#threads:"+this._numThreads);
 		
 		Instance[] results = new Instance[instances.length];
@@ -709,7 +998,7 @@ public abstract class NetworkModel implements Serializable{
 		
 		//distribute the works into different threads.
 		for(int threadId = 0; threadId<this._numThreads; threadId++){
-			if(cacheFeatures || NetworkConfig.FEATURE_TOUCH_TEST){
+			if(cacheFeatures || this.getConfig().isFeatureTouchTest()){
 				if(this._decoders[threadId] != null){
 					this._decoders[threadId] = new LocalNetworkDecoderThread(threadId, this._fm, insts[threadId], this._compiler, this._decoders[threadId].getParam(), true, numPredictionsGenerated);
 				} else {
@@ -720,8 +1009,8 @@ public abstract class NetworkModel implements Serializable{
 			}
 		}
 
-		if (NetworkConfig.USE_NEURAL_FEATURES) {
-			if (!NetworkConfig.FEATURE_TOUCH_TEST) throw new RuntimeException("with neural, you need to enable Feature Touch test option");
+		if (this.getConfig().isUsingNeuralFeatures()) {
+			if (!this.getConfig().isFeatureTouchTest()) throw new RuntimeException("with neural, you need to enable Feature Touch test option");
 			LocalNetworkParam[] params_l = new LocalNetworkParam[this._numThreads];
 			for(int threadId = 0; threadId<this._numThreads; threadId++){
 				params_l[threadId] = this._decoders[threadId].getParam();
@@ -734,7 +1023,7 @@ public abstract class NetworkModel implements Serializable{
 		
 		printUsedMemory("before decode");
 		this._compiler.reset();
-		if (NetworkConfig.FEATURE_TOUCH_TEST) {
+		if (this.getConfig().isFeatureTouchTest()) {
 			System.err.println("Touching test set.");
 			
 			for(int threadId = 0; threadId<this._numThreads; threadId++){
@@ -751,7 +1040,7 @@ public abstract class NetworkModel implements Serializable{
 		
 		long time = System.nanoTime();
 		
-		if (NetworkConfig.USE_NEURAL_FEATURES) {
+		if (this.getConfig().isUsingNeuralFeatures()) {
 			//initialize the neural decoder.
 			GlobalNeuralNetworkParam learner = this._fm.getParam_G().getNNParamG();
 			if (_neuralDecoder == null || !cacheFeatures) {
@@ -767,8 +1056,11 @@ public abstract class NetworkModel implements Serializable{
 			this._fm.getParam_G().getNNParamG().forward(null);
 		}
 		
+		DecodingWeights decodingWeights = this._fm.getParam_G().getDecodingWeights();
 		for(int threadId = 0; threadId<this._numThreads; threadId++){
 			this._decoders[threadId] = this._decoders[threadId].copyThread(this._fm);
+			this._decoders[threadId].getParam().setWorkspace(this.getWorkspace(threadId));
+			this._decoders[threadId].getParam().setDecodingWeights(decodingWeights);
 			this._decoders[threadId].start();
 		}
 		for(int threadId = 0; threadId<this._numThreads; threadId++){
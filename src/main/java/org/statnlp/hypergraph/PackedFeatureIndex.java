@@ -0,0 +1,394 @@
+/** Statistical Natural Language Processing System
+    Copyright (C) 2014-2016  Lu, Wei
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.statnlp.hypergraph;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+/**
+ * The feature index, mapping each (type, output, input) triple into its feature ID.<br>
+ * Each distinct (type, output) pair is given a dense group ID, and the group ID and the input are
+ * packed into a single 64-bit key, so all features are stored in one primitive open-addressing
+ * hash table, instead of one map for each (type, output) pair as in the nested map representation
+ * (see {@link GlobalNetworkParam#getFeatureIntMap()}).<br>
+ * This index is not thread-safe for modification, but can be read by multiple threads.
+ */
+public class PackedFeatureIndex implements Serializable {
+
+	private static final long serialVersionUID = -2446409389315592453L;
+
+	/** Map from the packed (type, output) pair into its group ID */
+	private TLongIntHashMap groupIds;
+	/** The feature type of each group */
+	private int[] groupTypes;
+	/** The output of each group */
+	private int[] groupOutputs;
+	private int numGroups;
+
+	/** The packed (group ID, input) key of each slot */
+	private long[] keys;
+	/** The feature ID of each slot, -1 if the slot is empty */
+	private int[] ids;
+	private int size;
+	private int mask;
+
+	/**
+	 * Creates an empty index with default capacity.
+	 */
+	public PackedFeatureIndex(){
+		this(Constants.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty index which can hold the specified number of features before resizing.
+	 * @param capacity
+	 */
+	public PackedFeatureIndex(int capacity){
+		this.groupIds = new TLongIntHashMap(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1L, -1);
+		this.groupTypes = new int[16];
+		this.groupOutputs = new int[16];
+		this.numGroups = 0;
+		int numSlots = 16;
+		while(numSlots < 2*capacity){
+			numSlots <<= 1;
+		}
+		this.allocate(numSlots);
+		this.size = 0;
+	}
+
+	/**
+	 * Creates an index containing the features in the specified map from feature type to
+	 * [a map from output to [a map from input to feature ID]].
+	 * @param featureIntMap
+	 * @return
+	 */
+	public static PackedFeatureIndex fromNestedMap(TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>> featureIntMap){
+		int numFeatures = 0;
+		for(TIntObjectHashMap<TIntIntHashMap> outputToInputToIdx: featureIntMap.valueCollection()){
+			for(TIntIntHashMap inputToIdx: outputToInputToIdx.valueCollection()){
+				numFeatures += inputToIdx.size();
+			}
+		}
+		PackedFeatureIndex result = new PackedFeatureIndex(numFeatures);
+		for(int type: featureIntMap.keys()){
+			TIntObjectHashMap<TIntIntHashMap> outputToInputToIdx = featureIntMap.get(type);
+			for(int output: outputToInputToIdx.keys()){
+				TIntIntHashMap inputToIdx = outputToInputToIdx.get(output);
+				for(int input: inputToIdx.keys()){
+					result.getOrPut(type, output, input, inputToIdx.get(input));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the features in this index as a map from feature type to [a map from output to [a map from input
+	 * to feature ID]].<br>
+	 * The returned map is a copy, so changes to it are not reflected in this index.
+	 * @return
+	 */
+	public TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>> toNestedMap(){
+		TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>> result = new TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>>();
+		TIntIntHashMap[] inputToIdxByGroup = new TIntIntHashMap[this.numGroups];
+		for(int group=0; group<this.numGroups; group++){
+			TIntObjectHashMap<TIntIntHashMap> outputToInputToIdx = result.get(this.groupTypes[group]);
+			if(outputToInputToIdx == null){
+				outputToInputToIdx = new TIntObjectHashMap<TIntIntHashMap>();
+				result.put(this.groupTypes[group], outputToInputToIdx);
+			}
+			inputToIdxByGroup[group] = new TIntIntHashMap();
+			outputToInputToIdx.put(this.groupOutputs[group], inputToIdxByGroup[group]);
+		}
+		for(int slot=0; slot<this.ids.length; slot++){
+			if(this.ids[slot] != -1){
+				inputToIdxByGroup[group(this.keys[slot])].put(input(this.keys[slot]), this.ids[slot]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the ID of the specified feature, or -1 if it is not present.
+	 * @param type
+	 * @param output
+	 * @param input
+	 * @return
+	 */
+	public int get(int type, int output, int input){
+		int group = this.groupIds.get(pack(type, output));
+		if(group == -1){
+			return -1;
+		}
+		return this.ids[this.find(pack(group, input))];
+	}
+
+	/**
+	 * Returns the ID of the specified feature, or adds the feature with the specified new ID if it is not present,
+	 * in which case the new ID is returned.
+	 * @param type
+	 * @param output
+	 * @param input
+	 * @param newId
+	 * @return
+	 */
+	public int getOrPut(int type, int output, int input, int newId){
+		long key = pack(this.getOrPutGroup(type, output), input);
+		int slot = this.find(key);
+		if(this.ids[slot] != -1){
+			return this.ids[slot];
+		}
+		this.keys[slot] = key;
+		this.ids[slot] = newId;
+		this.size++;
+		if(2*this.size > this.ids.length){
+			this.rehash();
+		}
+		return newId;
+	}
+
+	/**
+	 * Returns the group ID of the specified (type, output) pair, or -1 if no feature has this pair.
+	 * @param type
+	 * @param output
+	 * @return
+	 */
+	public int getGroupId(int type, int output){
+		return this.groupIds.get(pack(type, output));
+	}
+
+	/**
+	 * Returns the number of distinct (type, output) pairs.
+	 * @return
+	 */
+	public int countGroups(){
+		return this.numGroups;
+	}
+
+	/**
+	 * Returns the feature type of the (type, output) pair with the specified group ID.
+	 * @param groupId
+	 * @return
+	 */
+	public int getGroupType(int groupId){
+		return this.groupTypes[groupId];
+	}
+
+	/**
+	 * Returns the output of the (type, output) pair with the specified group ID.
+	 * @param groupId
+	 * @return
+	 */
+	public int getGroupOutput(int groupId){
+		return this.groupOutputs[groupId];
+	}
+
+	/**
+	 * Returns the number of features in this index.
+	 * @return
+	 */
+	public int size(){
+		return this.size;
+	}
+
+	/**
+	 * Returns an iterator over the features in this index.
+	 * @return
+	 */
+	public FeatureIterator iterator(){
+		return new FeatureIterator();
+	}
+
+	/**
+	 * Writes this index in the binary layout read by {@link MappedFeatureIndex}, which is:
+	 * <ol>
+	 * <li>The number of groups, the number of features, the number of group slots, and the number of feature slots (4 ints)</li>
+	 * <li>The feature type and the output of each group (2 int arrays)</li>
+	 * <li>The open-addressing table from the packed (type, output) pair into the group ID (a long array and an int array)</li>
+	 * <li>The open-addressing table from the packed (group ID, input) key into the feature ID (a long array and an int array)</li>
+	 * </ol>
+	 * Both tables use linear probing with the same hash function as this index, and -1 marks empty slots.
+	 * @param out
+	 * @throws IOException
+	 */
+	void write(DataOutput out) throws IOException{
+		int numGroupSlots = 16;
+		while(numGroupSlots < 2*this.numGroups){
+			numGroupSlots <<= 1;
+		}
+		long[] groupKeys = new long[numGroupSlots];
+		int[] groupValues = new int[numGroupSlots];
+		Arrays.fill(groupValues, -1);
+		for(int group=0; group<this.numGroups; group++){
+			long pair = pack(this.groupTypes[group], this.groupOutputs[group]);
+			int slot = hash(pair) & (numGroupSlots-1);
+			while(groupValues[slot] != -1){
+				slot = (slot+1) & (numGroupSlots-1);
+			}
+			groupKeys[slot] = pair;
+			groupValues[slot] = group;
+		}
+		out.writeInt(this.numGroups);
+		out.writeInt(this.size);
+		out.writeInt(numGroupSlots);
+		out.writeInt(this.ids.length);
+		for(int group=0; group<this.numGroups; group++){
+			out.writeInt(this.groupTypes[group]);
+		}
+		for(int group=0; group<this.numGroups; group++){
+			out.writeInt(this.groupOutputs[group]);
+		}
+		for(long key: groupKeys){
+			out.writeLong(key);
+		}
+		for(int value: groupValues){
+			out.writeInt(value);
+		}
+		for(long key: this.keys){
+			out.writeLong(key);
+		}
+		for(int id: this.ids){
+			out.writeInt(id);
+		}
+	}
+
+	int getOrPutGroup(int type, int output){
+		long pair = pack(type, output);
+		int group = this.groupIds.get(pair);
+		if(group == -1){
+			group = this.numGroups++;
+			if(group == this.groupTypes.length){
+				this.groupTypes = Arrays.copyOf(this.groupTypes, 2*group);
+				this.groupOutputs = Arrays.copyOf(this.groupOutputs, 2*group);
+			}
+			this.groupTypes[group] = type;
+			this.groupOutputs[group] = output;
+			this.groupIds.put(pair, group);
+		}
+		return group;
+	}
+
+	static long pack(int high, int low){
+		return ((long)high << 32) | (low & 0xFFFFFFFFL);
+	}
+
+	private static int group(long key){
+		return (int)(key >>> 32);
+	}
+
+	private static int input(long key){
+		return (int)key;
+	}
+
+	static int hash(long key){
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	/**
+	 * Returns the slot containing the specified key, or the empty slot where it should be inserted.
+	 */
+	private int find(long key){
+		int slot = hash(key) & this.mask;
+		while(this.ids[slot] != -1 && this.keys[slot] != key){
+			slot = (slot+1) & this.mask;
+		}
+		return slot;
+	}
+
+	private void allocate(int numSlots){
+		this.keys = new long[numSlots];
+		this.ids = new int[numSlots];
+		Arrays.fill(this.ids, -1);
+		this.mask = numSlots-1;
+	}
+
+	private void rehash(){
+		long[] oldKeys = this.keys;
+		int[] oldIds = this.ids;
+		this.allocate(2*oldIds.length);
+		for(int slot=0; slot<oldIds.length; slot++){
+			if(oldIds[slot] != -1){
+				int newSlot = this.find(oldKeys[slot]);
+				this.keys[newSlot] = oldKeys[slot];
+				this.ids[newSlot] = oldIds[slot];
+			}
+		}
+	}
+
+	/**
+	 * An iterator over the features in the index, in no particular order.<br>
+	 * Call {@link #advance()} to move to the next feature before reading it.
+	 */
+	public class FeatureIterator {
+
+		private int slot = -1;
+		private int next = -1;
+
+		private FeatureIterator(){
+			this.moveNext();
+		}
+
+		private void moveNext(){
+			do{
+				this.next++;
+			} while(this.next < ids.length && ids[this.next] == -1);
+		}
+
+		public boolean hasNext(){
+			return this.next < ids.length;
+		}
+
+		public void advance(){
+			this.slot = this.next;
+			this.moveNext();
+		}
+
+		/** Returns the feature type of the current feature */
+		public int type(){
+			return groupTypes[group(keys[this.slot])];
+		}
+
+		/** Returns the output of the current feature */
+		public int output(){
+			return groupOutputs[group(keys[this.slot])];
+		}
+
+		/** Returns the input of the current feature */
+		public int input(){
+			return PackedFeatureIndex.input(keys[this.slot]);
+		}
+
+		/** Returns the group ID of the (type, output) pair of the current feature */
+		public int groupId(){
+			return group(keys[this.slot]);
+		}
+
+		/** Returns the ID of the current feature */
+		public int featureId(){
+			return ids[this.slot];
+		}
+	}
+
+}
@@ -3,7 +3,11 @@
  */
 package org.statnlp.hypergraph;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Set;
 
 import gnu.trove.impl.Constants;
@@ -189,6 +193,68 @@ public class StringIndex implements Serializable {
 		return index.iterator();
 	}
 	
+	/**
+	 * Writes this index in the binary layout read by {@link MappedStringIndex}, which is:
+	 * <ol>
+	 * <li>The number of IDs (the largest ID plus one), the number of hash slots, and the total length of the strings (3 ints)</li>
+	 * <li>The start offset of each string in the string data, ordered by ID, followed by the end offset of the last string (an int array)</li>
+	 * <li>The open-addressing table containing the ID of each string, -1 marking empty slots (an int array)</li>
+	 * <li>The string data, which is the UTF-8 bytes of the strings ordered by ID (a byte array)</li>
+	 * </ol>
+	 * @param out
+	 * @throws IOException
+	 */
+	void write(DataOutput out) throws IOException{
+		int numIds = 0;
+		for(TObjectIntIterator<String> iter = index.iterator(); iter.hasNext(); ){
+			iter.advance();
+			numIds = Math.max(numIds, iter.value()+1);
+		}
+		byte[][] bytes = new byte[numIds][];
+		for(TObjectIntIterator<String> iter = index.iterator(); iter.hasNext(); ){
+			iter.advance();
+			bytes[iter.value()] = iter.key().getBytes(StandardCharsets.UTF_8);
+		}
+		int numSlots = 16;
+		while(numSlots < 2*numIds){
+			numSlots <<= 1;
+		}
+		int[] offsets = new int[numIds+1];
+		int[] slots = new int[numSlots];
+		Arrays.fill(slots, -1);
+		long length = 0;
+		for(int id=0; id<numIds; id++){
+			offsets[id] = (int)length;
+			if(bytes[id] == null){
+				continue;
+			}
+			length += bytes[id].length;
+			if(length > Integer.MAX_VALUE){
+				throw new IOException("The strings are too long to be written in the binary format.");
+			}
+			int slot = MappedStringIndex.hash(bytes[id]) & (numSlots-1);
+			while(slots[slot] != -1){
+				slot = (slot+1) & (numSlots-1);
+			}
+			slots[slot] = id;
+		}
+		offsets[numIds] = (int)length;
+		out.writeInt(numIds);
+		out.writeInt(numSlots);
+		out.writeInt((int)length);
+		for(int offset: offsets){
+			out.writeInt(offset);
+		}
+		for(int slot: slots){
+			out.writeInt(slot);
+		}
+		for(byte[] str: bytes){
+			if(str != null){
+				out.write(str);
+			}
+		}
+	}
+	
 	/**
 	 * Creates a new index from the given indexes.
 	 * @param indexes
@@ -50,7 +50,10 @@ public abstract class TableLookupNetwork extends Network{
 	//at each index, store the node's ID
 	protected long[] _nodes;
 	//at each index, store the node's list of children's indices (with respect to _nodes)
+	//this is null if the edges are stored in _compactEdges instead.
 	protected int[][][] _children;
+	//the compact storage of the edges, used instead of _children if not null.
+	protected CompactEdges _compactEdges;
 	//will be useful when doing decoding.
 	protected boolean[] _isSumNode;
 	
@@ -192,22 +195,59 @@ public abstract class TableLookupNetwork extends Network{
 		this._nodes = nodes;
 		this._children = children;
 	}
-	
+
 	@Override
 	public long getNode(int k){
 		return this._nodes[k];
 	}
-	
+
+	/**
+	 * {@inheritDoc}<br>
+	 * Note that if this network uses compact edge storage, the returned array is a new copy.
+	 */
 	@Override
 	public int[][] getChildren(int k){
+		if(this._compactEdges != null){
+			return this._compactEdges.getChildren(k);
+		}
 		return this._children[k];
 	}
-	
+
+	@Override
+	public int[] getChildren(int k, int children_k_index){
+		if(this._compactEdges != null){
+			return this._compactEdges.getChildren(k, children_k_index);
+		}
+		return this._children[k][children_k_index];
+	}
+
+	@Override
+	public int countEdges(int k){
+		if(this._compactEdges != null){
+			return this._compactEdges.countEdges(k);
+		}
+		return this._children[k].length;
+	}
+
+	@Override
+	public CompactEdges getCompactEdges(){
+		return this._compactEdges;
+	}
+
 	public long[] getAllNodes(){
 		return this._nodes;
 	}
-	
+
+	/**
+	 * Returns the edges of all nodes in the nested array form.<br>
+	 * Note that if this network uses compact edge storage, the returned array is newly created,
+	 * so {@link #getCompactEdges()} should be preferred in that case.
+	 * @return
+	 */
 	public int[][][] getAllChildren(){
+		if(this._compactEdges != null){
+			return this._compactEdges.toNested(this._compactEdges.countNodes());
+		}
 		return this._children;
 	}
 	
@@ -256,6 +296,11 @@ public abstract class TableLookupNetwork extends Network{
 	
 	@Override
 	public boolean isLeaf(int k){
+		if(this._compactEdges != null){
+			CompactEdges edges = this._compactEdges;
+			if(edges.countEdges(k)==0) return false;
+			return edges.getArity(edges.getEdge(k, 0))==0;
+		}
 		int[][] v= this._children[k];
 		if(v.length==0) return false;
 		if(v[0].length==0) return true;
@@ -295,7 +340,7 @@ public abstract class TableLookupNetwork extends Network{
 			sb.append('<');
 			long parent = this._nodes[k];
 			sb.append(Arrays.toString(NetworkIDMapper.toHybridNodeArray(parent)));
-			int[][] childrenList = this._children[k];
+			int[][] childrenList = this.getChildren(k);
 			for(int i = 0; i<childrenList.length; i++){
 				sb.append('\n');
 				sb.append('\t');
@@ -482,7 +527,7 @@ public abstract class TableLookupNetwork extends Network{
 			this.isVisible[k] = true;
 			nodesValue2IdMap.put(this._nodes[k], k);
 		}
-		if (NetworkConfig.INFERENCE == InferenceType.MEAN_FIELD) {
+		if (this.getConfig().getInference() == InferenceType.MEAN_FIELD) {
 			this.structArr = new int[this._nodes.length];
 		}
 		
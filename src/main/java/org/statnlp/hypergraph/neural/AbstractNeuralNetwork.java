@@ -9,6 +9,7 @@ import java.util.Arrays;
 
 import org.statnlp.commons.ml.opt.MathsVector;
 import org.statnlp.hypergraph.LocalNetworkParam;
+import org.statnlp.hypergraph.ModelConfig;
 import org.statnlp.hypergraph.Network;
 import org.statnlp.hypergraph.NetworkConfig;
 
@@ -57,13 +58,42 @@ public abstract class AbstractNeuralNetwork implements Serializable{
 	
 	public AbstractNeuralNetwork(int numLabels) {
 		this.numLabels = numLabels;
-		this.configureJNLua();
+		if (!isJavaBackend() && !isRemoteBackend()) {
+			this.configureJNLua();
+		}
+	}
+	
+	/**
+	 * Returns true if the neural networks are run in Java (see {@link JavaNeuralNetwork}) instead of Torch,
+	 * i.e., if {@link NetworkConfig#NEURAL_BACKEND} is "java".
+	 * @return
+	 */
+	public static boolean isJavaBackend() {
+		return NetworkConfig.NEURAL_BACKEND.equals("java");
+	}
+	
+	/**
+	 * Returns true if the neural networks are run by a neural server (see {@link RemoteNeuralNetwork}),
+	 * i.e., if {@link NetworkConfig#NEURAL_BACKEND} is "remote".
+	 * @return
+	 */
+	public static boolean isRemoteBackend() {
+		return NetworkConfig.NEURAL_BACKEND.equals("remote");
 	}
 	
 	public void setLocalNetworkParams (LocalNetworkParam[] params_l) {
 		this.params_l = params_l;
 	}
 	
+	/**
+	 * Returns the configuration of the model this network belongs to, or the global configuration
+	 * if the network is not yet attached to a model (see {@link #setLocalNetworkParams(LocalNetworkParam[])}).
+	 * @return
+	 */
+	public ModelConfig getModelConfig() {
+		return this.params_l == null ? ModelConfig.global() : this.params_l[0].getConfig();
+	}
+	
 	/**
 	 * Configure paths for JNLua and create a new LuaState instance
 	 * for loading the backend Torch/Lua script
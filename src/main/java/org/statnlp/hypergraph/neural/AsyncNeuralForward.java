@@ -0,0 +1,128 @@
+package org.statnlp.hypergraph.neural;
+
+import org.statnlp.hypergraph.NetworkConfig;
+
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+
+/**
+ * The neural networks' forward pass of one training iteration, computed in a background thread
+ * while the learner threads run the inference on the networks, when {@link NetworkConfig#OVERLAP_NEURAL_FORWARD}
+ * is true.<br>
+ * The outputs are computed instance by instance, in the order the instances are processed by the learner
+ * threads, and each instance is published as soon as the outputs of all its inputs are ready.
+ * A learner thread calls {@link #awaitInstance(int)} before the inference on the networks of an instance,
+ * so that it waits only for the outputs of that instance.<br>
+ * The networks which cannot compute their outputs by instance (see {@link NeuralNetworkCore#canForwardByInstance()})
+ * do their whole forward pass first in the background thread.
+ */
+public class AsyncNeuralForward {
+
+	private GlobalNeuralNetworkParam nnParam;
+	/** The IDs of the instances whose outputs are ready */
+	private TIntHashSet readyInstIds;
+	private boolean done;
+	private Throwable error;
+
+	public AsyncNeuralForward(GlobalNeuralNetworkParam nnParam) {
+		this.nnParam = nnParam;
+	}
+
+	/**
+	 * Starts the forward pass on the specified instances.
+	 * The output arrays are prepared before this method returns, the outputs themselves are computed
+	 * in a background thread.
+	 * @param batchInstIds The (positive) IDs of the instances in the batch, as in {@link GlobalNeuralNetworkParam#forward(TIntSet)}
+	 * @param instIdOrder The (positive) IDs of the instances, in the order they are expected to be processed
+	 */
+	public void start(final TIntSet batchInstIds, final int[] instIdOrder) {
+		synchronized (this) {
+			this.readyInstIds = new TIntHashSet(instIdOrder.length);
+			this.done = false;
+			this.error = null;
+		}
+		for (NeuralNetworkCore net : this.nnParam.getAllNets()) {
+			if (net.canForwardByInstance()) {
+				net.prepareForwardByInstance(batchInstIds, instIdOrder);
+			}
+		}
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (NeuralNetworkCore net : nnParam.getAllNets()) {
+						if (!net.canForwardByInstance()) {
+							net.forward(batchInstIds);
+						}
+					}
+					for (int instId : instIdOrder) {
+						for (NeuralNetworkCore net : nnParam.getAllNets()) {
+							if (net.canForwardByInstance()) {
+								net.forwardInstance(instId);
+							}
+						}
+						publish(instId);
+					}
+					for (NeuralNetworkCore net : nnParam.getAllNets()) {
+						if (net.canForwardByInstance()) {
+							net.finishForwardByInstance();
+						}
+					}
+				} catch (Throwable e) {
+					synchronized (AsyncNeuralForward.this) {
+						error = e;
+					}
+				} finally {
+					synchronized (AsyncNeuralForward.this) {
+						done = true;
+						AsyncNeuralForward.this.notifyAll();
+					}
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private synchronized void publish(int instId) {
+		this.readyInstIds.add(instId);
+		this.notifyAll();
+	}
+
+	/**
+	 * Waits until the outputs of the specified instance are ready.
+	 * @param instId The instance ID, either positive or negative
+	 */
+	public synchronized void awaitInstance(int instId) {
+		instId = Math.abs(instId);
+		while (!this.done && !this.readyInstIds.contains(instId)) {
+			this.waitForUpdate();
+		}
+		this.checkError();
+	}
+
+	/**
+	 * Waits until the whole forward pass is done.
+	 */
+	public synchronized void awaitAll() {
+		while (!this.done) {
+			this.waitForUpdate();
+		}
+		this.checkError();
+	}
+
+	private void waitForUpdate() {
+		try {
+			this.wait();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void checkError() {
+		if (this.error != null) {
+			throw new RuntimeException("Error in the neural forward pass", this.error);
+		}
+	}
+
+}
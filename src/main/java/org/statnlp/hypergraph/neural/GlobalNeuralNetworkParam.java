@@ -10,10 +10,12 @@ import java.util.Set;
 import org.statnlp.hypergraph.LocalNetworkParam;
 import org.statnlp.hypergraph.Network;
 
+import gnu.trove.impl.Constants;
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import gnu.trove.set.TIntSet;
 
 public class GlobalNeuralNetworkParam implements Serializable{
@@ -101,13 +103,16 @@ public class GlobalNeuralNetworkParam implements Serializable{
 		}
 		//System.out.println(allNNInput2Id.get(0).size());
 		for (int netId = 0; netId < this.nets.size(); netId++) {
-			this.nets.get(netId).nnInput2Id = new HashMap<Object, Integer>();
+			// Unknown inputs are mapped to -1
+			this.nets.get(netId).nnInput2Id = new TObjectIntHashMap<Object>(Constants.DEFAULT_CAPACITY,
+					Constants.DEFAULT_LOAD_FACTOR, -1);
 			int inputId = 0;
 			for (Object input : allNNInput2Id.get(netId).keySet()) {
 				this.nets.get(netId).nnInput2Id.put(input, inputId);
 				inputId++;
 			}
 			allNNInput2Id.set(netId, null);
+			this.nets.get(netId).invalidateEdgeTables();
 		}
 		allNNInput2Id = null;
 	}
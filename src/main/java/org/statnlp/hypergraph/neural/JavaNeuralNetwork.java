@@ -0,0 +1,687 @@
+package org.statnlp.hypergraph.neural;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.statnlp.hypergraph.NetworkConfig;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * The pure Java implementation of the neural networks used when {@link NetworkConfig#NEURAL_BACKEND} is "java",
+ * in place of the Torch modules in nn-crf-interface/neural_server.<br>
+ * The network is a feed-forward network built from the same configuration as the Torch module,
+ * according to the "class" entry:
+ * <ul>
+ * <li>"ContinuousFeature": a linear layer over the feature values ("numValues" values per input)</li>
+ * <li>"EmbeddingLayer": a lookup table ("hiddenSize" dimensions, fixed if "fixEmbedding" is true)
+ * followed by a linear layer</li>
+ * <li>"MultiLayerPerceptron": for each input type, a lookup table ("embSizeList", 100 dimensions by default,
+ * or one-hot vectors if the size is 0) for each token in the window, followed by "numLayer" hidden layers
+ * (1 by default) of "hiddenSize" units (50 by default) with the "activation" function (tanh by default),
+ * followed by a linear layer. The input types and the tokens are separated in the input as in
+ * {@link MultiLayerPerceptron}.</li>
+ * </ul>
+ * The output is a flat matrix with one row of <code>numLabels</code> scores for each input.
+ * Unlike the Torch modules, pre-trained embeddings and dropout are not supported,
+ * so the lookup tables are always randomly initialized.<br>
+ * The parameters are stored in one flat array: the trainable lookup tables, then the weight matrix
+ * and the bias vector of each linear layer.
+ */
+public class JavaNeuralNetwork implements Serializable {
+
+	private static final long serialVersionUID = -3519617512380236041L;
+
+	private static final int UNKNOWN = 0;
+
+	private String className;
+	private int numLabels;
+
+	/** Whether the inputs are continuous feature values instead of tokens */
+	private boolean continuousInput;
+	/** For each input type, the token to index mapping, where 0 is the unknown token */
+	private List<TObjectIntHashMap<String>> token2idxList;
+	/** For each input type, the number of tokens in each input */
+	private int[] numTokens;
+	/** The total number of tokens in each input */
+	private int totalTokens;
+	/** For each input type, the embedding size, or 0 for one-hot vectors */
+	private int[] embSizes;
+	/** For each input type, the offset of its lookup table in the parameter array, or -1 if it is fixed */
+	private int[] embOffsets;
+	/** The lookup tables which are not trained, one for each input type (null if the type is trainable) */
+	private double[][] fixedEmbeddings;
+	private boolean fixEmbedding;
+
+	/** The dimension of each layer, starting from the input layer, ending with the output layer */
+	private int[] layerDims;
+	private int[] weightOffsets;
+	private int[] biasOffsets;
+	private String activation;
+
+	private double[] params;
+	private transient double[] gradParams;
+
+	/** The optimizer used when the parameters are not optimized together with the CRF */
+	private String optimizer;
+	private double learningRate;
+	private transient double[] sumSquaredGrads;
+
+	/** The token indices (or the feature values) of the inputs, for training and for testing */
+	private transient int[] trainTokens, testTokens;
+	private transient double[] trainValues, testValues;
+
+	/** The rows used in the last forward pass in training, null if all rows were used */
+	private transient int[] forwardRows;
+	private transient int numForwardRows;
+	/** The values of each layer in the last forward pass in training */
+	private transient double[][] layerValues;
+
+	/** The maximum number of threads used by the kernels, see {@link #setNumThreads(int)} */
+	private transient int numThreads = 1;
+
+	private JavaNeuralNetwork() {
+	}
+
+	public JavaNeuralNetwork(Map<String, Object> config) {
+		this.className = (String)config.get("class");
+		this.numLabels = (Integer)config.get("numLabels");
+		if(!"ContinuousFeature".equals(className) && !"EmbeddingLayer".equals(className)
+				&& !"MultiLayerPerceptron".equals(className)){
+			throw new RuntimeException("The Java neural backend does not support "+className);
+		}
+		this.continuousInput = className.equals("ContinuousFeature");
+		this.fixEmbedding = className.equals("EmbeddingLayer") && Boolean.TRUE.equals(config.get("fixEmbedding"));
+		this.activation = config.containsKey("activation") ? (String)config.get("activation") : "tanh";
+		this.optimizer = config.containsKey("optimizer") ? (String)config.get("optimizer") : "none";
+		this.learningRate = config.containsKey("learningRate") ? ((Number)config.get("learningRate")).doubleValue() : 0.01;
+	}
+
+	/**
+	 * Sets the maximum number of threads used in the forward and backward passes, which is 1 by default,
+	 * and after the network is deserialized.
+	 * @param numThreads
+	 */
+	public void setNumThreads(int numThreads){
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Prepares the inputs, and creates the network when it is first initialized in training.
+	 * @param config The configuration, containing the continuous feature values in "nnInputs" for "ContinuousFeature"
+	 * @param nnInputs The inputs, indexed by their neural network input IDs
+	 * @param isTraining
+	 */
+	public void initialize(Map<String, Object> config, Object[] nnInputs, boolean isTraining){
+		if(this.continuousInput){
+			double[][] featureValues = (double[][])config.get("nnInputs");
+			if(this.layerDims == null){
+				this.createLayers(featureValues.length == 0 ? (Integer)config.get("numValues") : featureValues[0].length, config);
+			}
+			double[] values = new double[featureValues.length*this.layerDims[0]];
+			for(int i = 0; i < featureValues.length; i++){
+				System.arraycopy(featureValues[i], 0, values, i*this.layerDims[0], this.layerDims[0]);
+			}
+			if(isTraining){
+				this.trainValues = values;
+			} else {
+				this.testValues = values;
+			}
+			return;
+		}
+		if(this.token2idxList == null){
+			if(!isTraining){
+				throw new RuntimeException("The network should be initialized in training first");
+			}
+			this.buildVocab(nnInputs, config);
+			int inputDim = 0;
+			for(int type = 0; type < this.numTokens.length; type++){
+				int embSize = this.embSizes[type] == 0 ? this.token2idxList.get(type).size()+1 : this.embSizes[type];
+				inputDim += this.numTokens[type] * embSize;
+			}
+			this.createLayers(inputDim, config);
+		}
+		int[] tokens = new int[nnInputs.length*this.totalTokens];
+		for(int i = 0; i < nnInputs.length; i++){
+			String[][] tokensPerType = this.split(nnInputs[i]);
+			int pos = i*this.totalTokens;
+			for(int type = 0; type < tokensPerType.length; type++){
+				TObjectIntHashMap<String> token2idx = this.token2idxList.get(type);
+				for(String token: tokensPerType[type]){
+					tokens[pos++] = token2idx.get(token);
+				}
+			}
+		}
+		if(isTraining){
+			this.trainTokens = tokens;
+		} else {
+			this.testTokens = tokens;
+		}
+	}
+
+	/**
+	 * Splits an input into its tokens for each input type.
+	 * @param nnInput
+	 * @return
+	 */
+	private String[][] split(Object nnInput){
+		String input = nnInput.toString();
+		String[][] result;
+		if(this.className.equals("EmbeddingLayer")){
+			result = new String[][]{{input}};
+		} else {
+			String[] inputPerType = input.split(MultiLayerPerceptron.OUT_SEP);
+			result = new String[inputPerType.length][];
+			for(int type = 0; type < inputPerType.length; type++){
+				result[type] = inputPerType[type].split(MultiLayerPerceptron.IN_SEP);
+			}
+		}
+		if(this.numTokens != null){
+			boolean sameShape = result.length == this.numTokens.length;
+			for(int type = 0; sameShape && type < result.length; type++){
+				sameShape = result[type].length == this.numTokens[type];
+			}
+			if(!sameShape){
+				throw new RuntimeException("The input "+input+" does not have the same number of tokens as the other inputs");
+			}
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void buildVocab(Object[] nnInputs, Map<String, Object> config){
+		this.token2idxList = new ArrayList<TObjectIntHashMap<String>>();
+		for(Object nnInput: nnInputs){
+			String[][] tokensPerType = this.split(nnInput);
+			if(this.numTokens == null){
+				this.numTokens = new int[tokensPerType.length];
+				for(int type = 0; type < tokensPerType.length; type++){
+					this.numTokens[type] = tokensPerType[type].length;
+					this.totalTokens += tokensPerType[type].length;
+					this.token2idxList.add(new TObjectIntHashMap<String>(16, 0.5f, UNKNOWN));
+				}
+			}
+			for(int type = 0; type < tokensPerType.length; type++){
+				TObjectIntHashMap<String> token2idx = this.token2idxList.get(type);
+				for(String token: tokensPerType[type]){
+					if(!token2idx.containsKey(token)){
+						token2idx.put(token, token2idx.size()+1);
+					}
+				}
+			}
+		}
+		if(this.numTokens == null){
+			throw new RuntimeException("No input for the neural network");
+		}
+		int numTypes = this.numTokens.length;
+		this.embSizes = new int[numTypes];
+		if(this.className.equals("EmbeddingLayer")){
+			this.embSizes[0] = (Integer)config.get("hiddenSize");
+		} else {
+			List<Integer> embSizeList = (List<Integer>)config.get("embSizeList");
+			for(int type = 0; type < numTypes; type++){
+				this.embSizes[type] = embSizeList == null ? 100 : embSizeList.get(type);
+			}
+		}
+		// A list of embedding names for each input type in MultiLayerPerceptron, a single name in EmbeddingLayer
+		String embedding = String.valueOf(config.get("embedding"));
+		if(embedding.contains("glove") || embedding.contains("polyglot") || embedding.contains("google")){
+			System.err.println("[Warning] Pre-trained embeddings are not supported by the Java neural backend, using random embeddings.");
+		}
+	}
+
+	/**
+	 * Creates the layers and the parameters, given the input dimension.
+	 * @param inputDim
+	 * @param config
+	 */
+	private void createLayers(int inputDim, Map<String, Object> config){
+		int numHiddenLayers = 0;
+		int hiddenSize = 0;
+		if(this.className.equals("MultiLayerPerceptron")){
+			numHiddenLayers = config.containsKey("numLayer") ? (Integer)config.get("numLayer") : 1;
+			hiddenSize = config.containsKey("hiddenSize") ? (Integer)config.get("hiddenSize") : 50;
+		}
+		this.layerDims = new int[numHiddenLayers+2];
+		this.layerDims[0] = inputDim;
+		for(int l = 1; l <= numHiddenLayers; l++){
+			this.layerDims[l] = hiddenSize;
+		}
+		this.layerDims[numHiddenLayers+1] = this.numLabels;
+
+		Random rng = new Random(NetworkConfig.RANDOM_INIT_FEATURE_SEED);
+		int size = 0;
+		if(!this.continuousInput){
+			int numTypes = this.numTokens.length;
+			this.embOffsets = new int[numTypes];
+			this.fixedEmbeddings = new double[numTypes][];
+			for(int type = 0; type < numTypes; type++){
+				int vocabSize = this.token2idxList.get(type).size()+1;
+				if(this.embSizes[type] == 0){
+					this.embOffsets[type] = -1;
+				} else if(this.fixEmbedding){
+					this.embOffsets[type] = -1;
+					this.fixedEmbeddings[type] = new double[vocabSize*this.embSizes[type]];
+					for(int i = 0; i < this.fixedEmbeddings[type].length; i++){
+						this.fixedEmbeddings[type][i] = rng.nextGaussian();
+					}
+				} else {
+					this.embOffsets[type] = size;
+					size += vocabSize*this.embSizes[type];
+				}
+			}
+		}
+		int numLinear = this.layerDims.length-1;
+		this.weightOffsets = new int[numLinear];
+		this.biasOffsets = new int[numLinear];
+		for(int l = 0; l < numLinear; l++){
+			this.weightOffsets[l] = size;
+			size += this.layerDims[l+1]*this.layerDims[l];
+			this.biasOffsets[l] = size;
+			size += this.layerDims[l+1];
+		}
+		this.params = new double[size];
+		// The same initialization as nn.LookupTable and nn.Linear in Torch
+		for(int l = 0; l < numLinear; l++){
+			double stdv = 1.0/Math.sqrt(this.layerDims[l]);
+			for(int i = this.weightOffsets[l]; i < this.biasOffsets[l]+this.layerDims[l+1]; i++){
+				this.params[i] = (rng.nextDouble()*2-1)*stdv;
+			}
+		}
+		if(!this.continuousInput){
+			for(int type = 0; type < this.numTokens.length; type++){
+				if(this.embOffsets[type] >= 0){
+					int end = this.embOffsets[type] + (this.token2idxList.get(type).size()+1)*this.embSizes[type];
+					for(int i = this.embOffsets[type]; i < end; i++){
+						this.params[i] = rng.nextGaussian();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the output scores of the specified inputs.
+	 * @param params The parameters to be used, or null to use the parameters of this network
+	 * @param isTraining Whether to use the training inputs or the testing inputs
+	 * @param rows The neural network input IDs of the inputs, or null for all inputs
+	 * @param output The buffer for the output, may be null
+	 * @return The output scores (number of inputs x numLabels)
+	 */
+	public double[] forward(double[] params, boolean isTraining, int[] rows, double[] output){
+		if(isTraining){
+			output = this.prepareForward(params, rows, output);
+			this.forwardPositions(null, 0, this.numForwardRows);
+			return output;
+		}
+		if(params != null && params != this.params){
+			System.arraycopy(params, 0, this.params, 0, this.params.length);
+		}
+		int numRows = rows != null ? rows.length : this.countInputs(false);
+		double[][] values = this.allocateLayers(numRows, output);
+		this.computePositions(values, false, rows, null, 0, numRows);
+		return values[values.length-1];
+	}
+
+	/**
+	 * Prepares a forward pass in training on the specified inputs, without computing the scores yet.
+	 * The scores are then computed by {@link #forwardPositions(int[], int, int)}, in any order,
+	 * before the backward pass.
+	 * @param params The parameters to be used, or null to use the parameters of this network
+	 * @param rows The neural network input IDs of the inputs, or null for all inputs
+	 * @param output The buffer for the output, may be null
+	 * @return The output array (number of inputs x numLabels), to be filled by {@link #forwardPositions(int[], int, int)}
+	 */
+	public double[] prepareForward(double[] params, int[] rows, double[] output){
+		if(params != null && params != this.params){
+			System.arraycopy(params, 0, this.params, 0, this.params.length);
+		}
+		this.forwardRows = rows;
+		this.numForwardRows = rows != null ? rows.length : this.countInputs(true);
+		this.layerValues = this.allocateLayers(this.numForwardRows, output);
+		return this.layerValues[this.layerValues.length-1];
+	}
+
+	/**
+	 * Computes the scores of the prepared forward pass at the specified positions (rows of the output).
+	 * Different positions can be computed in different calls, but not concurrently.
+	 * @param positions The positions, or null for all positions from begin (inclusive) to end (exclusive)
+	 * @param begin
+	 * @param end
+	 */
+	public void forwardPositions(int[] positions, int begin, int end){
+		this.computePositions(this.layerValues, true, this.forwardRows, positions, begin, end);
+	}
+
+	private double[][] allocateLayers(int numRows, double[] output){
+		double[][] values = new double[this.layerDims.length][];
+		int last = this.layerDims.length-1;
+		for(int l = 0; l < last; l++){
+			values[l] = new double[numRows*this.layerDims[l]];
+		}
+		int outSize = numRows*this.layerDims[last];
+		if(output == null || output.length < outSize){
+			output = new double[outSize];
+		}
+		values[last] = output;
+		return values;
+	}
+
+	/**
+	 * Computes the values of all layers at the specified positions.
+	 * If the positions are all the positions in order, the layers are computed in place, otherwise the
+	 * positions are computed together in temporary layers, which are then copied into place.
+	 * @param values The layers, each with one row for each position
+	 * @param isTraining
+	 * @param rows The neural network input IDs of the positions, or null if they are the same as the positions
+	 * @param positions The positions, or null for all positions from begin (inclusive) to end (exclusive)
+	 * @param begin
+	 * @param end
+	 */
+	private void computePositions(double[][] values, boolean isTraining, int[] rows, int[] positions, int begin, int end){
+		int numRows = end-begin;
+		boolean inPlace = positions == null && begin == 0 && numRows*this.layerDims[0] == values[0].length;
+		int[] inputIds = new int[numRows];
+		for(int i = 0; i < numRows; i++){
+			int position = positions == null ? begin+i : positions[i];
+			inputIds[i] = rows == null ? position : rows[position];
+		}
+		double[][] chunk = inPlace ? values : this.allocateLayers(numRows, null);
+		this.gatherInputs(isTraining, inputIds, numRows, chunk[0]);
+		int numLinear = this.layerDims.length-1;
+		for(int l = 0; l < numLinear; l++){
+			NeuralKernels.linearForward(this.numThreads, chunk[l], numRows, this.layerDims[l], this.params, this.weightOffsets[l],
+					this.biasOffsets[l], this.layerDims[l+1], chunk[l+1]);
+			if(l < numLinear-1){
+				NeuralKernels.activate(this.activation, chunk[l+1], numRows*this.layerDims[l+1]);
+			}
+		}
+		if(inPlace){
+			return;
+		}
+		for(int l = 0; l <= numLinear; l++){
+			int dim = this.layerDims[l];
+			for(int i = 0; i < numRows; i++){
+				int position = positions == null ? begin+i : positions[i];
+				System.arraycopy(chunk[l], i*dim, values[l], position*dim, dim);
+			}
+		}
+	}
+
+	private int countInputs(boolean isTraining){
+		if(this.continuousInput){
+			double[] values = isTraining ? this.trainValues : this.testValues;
+			return values.length/this.layerDims[0];
+		}
+		int[] tokens = isTraining ? this.trainTokens : this.testTokens;
+		return tokens.length/this.totalTokens;
+	}
+
+	/**
+	 * Builds the input layer of the specified inputs.
+	 * @param isTraining
+	 * @param rows The neural network input IDs
+	 * @param numRows
+	 * @param in The input layer (numRows x input dimension), which should be filled with zeros
+	 */
+	private void gatherInputs(boolean isTraining, int[] rows, int numRows, double[] in){
+		int inputDim = this.layerDims[0];
+		if(this.continuousInput){
+			double[] values = isTraining ? this.trainValues : this.testValues;
+			for(int i = 0; i < numRows; i++){
+				System.arraycopy(values, rows[i]*inputDim, in, i*inputDim, inputDim);
+			}
+			return;
+		}
+		int[] tokens = isTraining ? this.trainTokens : this.testTokens;
+		for(int i = 0; i < numRows; i++){
+			int tokenPos = rows[i]*this.totalTokens;
+			int pos = i*inputDim;
+			for(int type = 0; type < this.numTokens.length; type++){
+				int embSize = this.embSizes[type];
+				for(int t = 0; t < this.numTokens[type]; t++){
+					int idx = tokens[tokenPos++];
+					if(embSize == 0){
+						in[pos+idx] = 1.0;
+						pos += this.token2idxList.get(type).size()+1;
+					} else {
+						double[] table = this.embOffsets[type] >= 0 ? this.params : this.fixedEmbeddings[type];
+						int offset = this.embOffsets[type] >= 0 ? this.embOffsets[type] : 0;
+						System.arraycopy(table, offset+idx*embSize, in, pos, embSize);
+						pos += embSize;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the gradient of the parameters given the gradient of the output of the last forward pass
+	 * in training, and updates the parameters with the optimizer of this network if they are not optimized
+	 * together with the CRF.
+	 * @param gradOutput The gradient of the output (number of inputs x numLabels)
+	 * @param optimizeNeural Whether the parameters are optimized together with the CRF
+	 * @return The gradient of the parameters
+	 */
+	public double[] backward(double[] gradOutput, boolean optimizeNeural){
+		if(this.gradParams == null){
+			this.gradParams = new double[this.params.length];
+		} else {
+			Arrays.fill(this.gradParams, 0.0);
+		}
+		int numRows = this.numForwardRows;
+		double[] grad = gradOutput;
+		for(int l = this.layerDims.length-2; l >= 0; l--){
+			NeuralKernels.linearBackwardParams(this.numThreads, grad, this.layerValues[l], numRows, this.layerDims[l], this.layerDims[l+1],
+					this.gradParams, this.weightOffsets[l], this.biasOffsets[l]);
+			if(l == 0 && (this.continuousInput || !this.hasTrainableEmbeddings())){
+				break;
+			}
+			double[] gradIn = new double[numRows*this.layerDims[l]];
+			NeuralKernels.linearBackwardInput(this.numThreads, grad, numRows, this.layerDims[l+1], this.params, this.weightOffsets[l],
+					this.layerDims[l], gradIn);
+			if(l > 0){
+				NeuralKernels.activateBackward(this.activation, this.layerValues[l], gradIn, gradIn.length);
+			}
+			grad = gradIn;
+		}
+		if(!this.continuousInput && this.hasTrainableEmbeddings()){
+			this.scatterEmbeddingGrads(grad, numRows);
+		}
+		if(!optimizeNeural){
+			this.step();
+		}
+		return this.gradParams;
+	}
+
+	private boolean hasTrainableEmbeddings(){
+		for(int offset: this.embOffsets){
+			if(offset >= 0){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds the gradient of the input layer into the gradients of the rows of the lookup tables.
+	 * This is done in a single thread, since different inputs may share tokens.
+	 * @param gradIn
+	 * @param numRows
+	 */
+	private void scatterEmbeddingGrads(double[] gradIn, int numRows){
+		int inputDim = this.layerDims[0];
+		for(int i = 0; i < numRows; i++){
+			int row = this.forwardRows == null ? i : this.forwardRows[i];
+			int tokenPos = row*this.totalTokens;
+			int pos = i*inputDim;
+			for(int type = 0; type < this.numTokens.length; type++){
+				int embSize = this.embSizes[type];
+				for(int t = 0; t < this.numTokens[type]; t++){
+					int idx = this.trainTokens[tokenPos++];
+					if(embSize == 0){
+						pos += this.token2idxList.get(type).size()+1;
+						continue;
+					}
+					if(this.embOffsets[type] >= 0){
+						int offset = this.embOffsets[type]+idx*embSize;
+						for(int j = 0; j < embSize; j++){
+							this.gradParams[offset+j] += gradIn[pos+j];
+						}
+					}
+					pos += embSize;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Updates the parameters with the optimizer of this network ("sgd" or "adagrad"),
+	 * or keeps them fixed if the optimizer is "none".
+	 */
+	private void step(){
+		if(this.optimizer.equals("none")){
+			return;
+		}
+		if(this.optimizer.equals("sgd")){
+			for(int i = 0; i < this.params.length; i++){
+				this.params[i] -= this.learningRate * this.gradParams[i];
+			}
+		} else if(this.optimizer.equals("adagrad")){
+			if(this.sumSquaredGrads == null){
+				this.sumSquaredGrads = new double[this.params.length];
+			}
+			for(int i = 0; i < this.params.length; i++){
+				this.sumSquaredGrads[i] += this.gradParams[i] * this.gradParams[i];
+				this.params[i] -= this.learningRate * this.gradParams[i] / (Math.sqrt(this.sumSquaredGrads[i]) + 1e-10);
+			}
+		} else {
+			throw new RuntimeException("The Java neural backend does not support the optimizer "+this.optimizer);
+		}
+	}
+
+	/**
+	 * Returns the structure of this network, which is everything but the parameters and the inputs,
+	 * as a map of the values supported by {@link NeuralProtocol}, so that the network can be sent to or from
+	 * a neural server without Java serialization, and rebuilt by {@link #fromStructure(Map, double[])}.<br>
+	 * The vocabulary of each input type is a list of the tokens in the order of their indices (from 1).
+	 * @return
+	 */
+	public Map<String, Object> getStructure(){
+		Map<String, Object> structure = new HashMap<String, Object>();
+		structure.put("class", this.className);
+		structure.put("numLabels", this.numLabels);
+		structure.put("continuousInput", this.continuousInput);
+		if(this.token2idxList != null){
+			List<String[]> vocabs = new ArrayList<String[]>();
+			for(TObjectIntHashMap<String> token2idx: this.token2idxList){
+				String[] vocab = new String[token2idx.size()];
+				for(String token: token2idx.keySet()){
+					vocab[token2idx.get(token)-1] = token;
+				}
+				vocabs.add(vocab);
+			}
+			structure.put("vocabs", vocabs);
+		}
+		structure.put("numTokens", this.numTokens);
+		structure.put("totalTokens", this.totalTokens);
+		structure.put("embSizes", this.embSizes);
+		structure.put("embOffsets", this.embOffsets);
+		structure.put("fixedEmbeddings", this.fixedEmbeddings);
+		structure.put("fixEmbedding", this.fixEmbedding);
+		structure.put("layerDims", this.layerDims);
+		structure.put("weightOffsets", this.weightOffsets);
+		structure.put("biasOffsets", this.biasOffsets);
+		structure.put("activation", this.activation);
+		structure.put("optimizer", this.optimizer);
+		structure.put("learningRate", this.learningRate);
+		return structure;
+	}
+
+	/**
+	 * Rebuilds a network from its structure (see {@link #getStructure()}) and its parameters,
+	 * where the structure may have been read by {@link NeuralProtocol#unpack(org.msgpack.core.MessageUnpacker)}.
+	 * @param structure
+	 * @param params
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static JavaNeuralNetwork fromStructure(Map<String, Object> structure, double[] params){
+		JavaNeuralNetwork network = new JavaNeuralNetwork();
+		network.className = (String)structure.get("class");
+		network.numLabels = ((Number)structure.get("numLabels")).intValue();
+		network.continuousInput = (Boolean)structure.get("continuousInput");
+		List<Object> vocabs = (List<Object>)structure.get("vocabs");
+		if(vocabs != null){
+			network.token2idxList = new ArrayList<TObjectIntHashMap<String>>();
+			for(Object vocab: vocabs){
+				TObjectIntHashMap<String> token2idx = new TObjectIntHashMap<String>(16, 0.5f, UNKNOWN);
+				for(Object token: toList(vocab)){
+					token2idx.put((String)token, token2idx.size()+1);
+				}
+				network.token2idxList.add(token2idx);
+			}
+		}
+		network.numTokens = toInts(structure.get("numTokens"));
+		network.totalTokens = ((Number)structure.get("totalTokens")).intValue();
+		network.embSizes = toInts(structure.get("embSizes"));
+		network.embOffsets = toInts(structure.get("embOffsets"));
+		List<Object> fixedEmbeddings = toList(structure.get("fixedEmbeddings"));
+		if(fixedEmbeddings != null){
+			network.fixedEmbeddings = new double[fixedEmbeddings.size()][];
+			for(int type = 0; type < network.fixedEmbeddings.length; type++){
+				network.fixedEmbeddings[type] = toDoubles(fixedEmbeddings.get(type));
+			}
+		}
+		network.fixEmbedding = (Boolean)structure.get("fixEmbedding");
+		network.layerDims = toInts(structure.get("layerDims"));
+		network.weightOffsets = toInts(structure.get("weightOffsets"));
+		network.biasOffsets = toInts(structure.get("biasOffsets"));
+		network.activation = (String)structure.get("activation");
+		network.optimizer = (String)structure.get("optimizer");
+		network.learningRate = ((Number)structure.get("learningRate")).doubleValue();
+		network.params = params;
+		return network;
+	}
+
+	/**
+	 * Returns the values as a list, whether they are still an array or already read as a list.
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Object> toList(Object values){
+		if(values == null){
+			return null;
+		}
+		return values instanceof Object[] ? Arrays.asList((Object[])values) : (List<Object>)values;
+	}
+
+	private static int[] toInts(Object values){
+		return values instanceof byte[] ? NeuralProtocol.toInts(values) : (int[])values;
+	}
+
+	private static double[] toDoubles(Object values){
+		return values instanceof byte[] ? NeuralProtocol.toDoubles(values) : (double[])values;
+	}
+
+	/**
+	 * Returns the parameters of this network, which are updated in place.
+	 * @return
+	 */
+	public double[] getParams(){
+		return this.params;
+	}
+
+	/**
+	 * Returns the gradient of the parameters computed in the last backward pass.
+	 * @return
+	 */
+	public double[] getGradParams(){
+		return this.gradParams;
+	}
+
+}
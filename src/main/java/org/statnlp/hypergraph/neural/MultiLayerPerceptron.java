@@ -75,6 +75,8 @@ public class MultiLayerPerceptron extends NeuralNetworkCore {
 		super(numLabels, -1);
 		this.config = this.createConfigFromFile(configFile);
 		config.put("numLabels", numLabels);
+		// The configuration passed to the backend in NeuralNetworkCore#initialize
+		super.config.putAll(this.config);
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -198,9 +200,7 @@ public class MultiLayerPerceptron extends NeuralNetworkCore {
 			int outputLabel = io.getOutput();
 			int id = nnInput2Id.get(edgeInput);
 			int idx = id * this.numLabels + outputLabel;
-			synchronized (countOutput) {
-				countOutput[idx] -= count;
-			}
+			this.getThreadCountOutput(network.getThreadId())[idx] -= count;
 		}
 	}
 	
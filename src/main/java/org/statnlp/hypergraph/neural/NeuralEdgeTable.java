@@ -0,0 +1,77 @@
+package org.statnlp.hypergraph.neural;
+
+import org.statnlp.hypergraph.Network;
+
+/**
+ * The binding of the hyperedges of one network to the output of a neural network, compiled from the
+ * {@link NeuralIO} of each hyperedge into flat int arrays, so that the score and the gradient of a hyperedge
+ * are a single array access in {@link NeuralNetworkCore#output} and {@link NeuralNetworkCore#countOutput}.<br>
+ * The output index of a hyperedge is its output row (see {@link NeuralNetworkCore#hyperEdgeInput2OutputRowIndex(Object)})
+ * times the number of labels plus its output label, so the indices are compiled again whenever the mapping from
+ * the inputs to the output rows changes, e.g., for each batch in batch training.
+ */
+public class NeuralEdgeTable {
+
+	/** The hyperedges of node k are at indices nodeOffsets[k] (inclusive) to nodeOffsets[k+1] (exclusive) */
+	protected int[] nodeOffsets;
+	/** The output index of each hyperedge, or -1 if the hyperedge has no neural input or an unknown input */
+	protected int[] outputIndices;
+	/** The version of the input mapping the output indices were compiled for */
+	protected int version;
+
+	/**
+	 * Creates the table of the specified network.
+	 * @param ios The input and output of each hyperedge of each node of the network, as added in
+	 * 		{@link org.statnlp.hypergraph.LocalNetworkParam#addHyperEdge(Network, int, int, int, Object, int)},
+	 * 		or null if the network has no neural input
+	 */
+	public NeuralEdgeTable(NeuralIO[][] ios) {
+		this.version = -1;
+		if (ios == null) {
+			return;
+		}
+		this.nodeOffsets = new int[ios.length+1];
+		for (int k = 0; k < ios.length; k++) {
+			this.nodeOffsets[k+1] = this.nodeOffsets[k] + (ios[k] == null ? 0 : ios[k].length);
+		}
+		this.outputIndices = new int[this.nodeOffsets[ios.length]];
+	}
+
+	/**
+	 * Computes the output index of each hyperedge for the current input mapping of the neural network.
+	 * @param ios The same input and output as given in the constructor
+	 * @param net
+	 * @param version The version of the input mapping
+	 */
+	public void compile(NeuralIO[][] ios, NeuralNetworkCore net, int version) {
+		if (this.outputIndices != null) {
+			for (int k = 0; k < ios.length; k++) {
+				if (ios[k] == null) {
+					continue;
+				}
+				int offset = this.nodeOffsets[k];
+				for (int children_k_index = 0; children_k_index < ios[k].length; children_k_index++) {
+					NeuralIO io = ios[k][children_k_index];
+					int row = io == null ? -1 : net.hyperEdgeInput2OutputRowIndex(io.getInput());
+					this.outputIndices[offset+children_k_index] = row < 0 ? -1 : row * net.numLabels + io.getOutput();
+				}
+			}
+		}
+		this.version = version;
+	}
+
+	/**
+	 * Returns the output index of the specified hyperedge, or -1 if the hyperedge has no neural input.
+	 * @param parent_k
+	 * @param children_k_index
+	 * @return
+	 */
+	public int getOutputIndex(int parent_k, int children_k_index) {
+		if (this.outputIndices == null || parent_k+1 >= this.nodeOffsets.length) {
+			return -1;
+		}
+		int offset = this.nodeOffsets[parent_k];
+		return offset == this.nodeOffsets[parent_k+1] ? -1 : this.outputIndices[offset+children_k_index];
+	}
+
+}
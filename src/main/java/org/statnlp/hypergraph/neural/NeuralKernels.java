@@ -0,0 +1,279 @@
+package org.statnlp.hypergraph.neural;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.statnlp.hypergraph.ModelConfig;
+
+/**
+ * The dense matrix kernels used by {@link JavaNeuralNetwork}.<br>
+ * All matrices are flat row-major double arrays. A linear layer with input dimension <code>inDim</code>
+ * and output dimension <code>outDim</code> stores its weight matrix (outDim x inDim) starting at
+ * <code>weightOffset</code> in the parameter array, and its bias vector (outDim) starting at
+ * <code>biasOffset</code>.<br>
+ * The kernels split their work into ranges of rows (or of output units) which are processed by up to the
+ * specified number of threads (the number of threads of the model, see {@link ModelConfig#getNumThreads()}),
+ * so that no two threads write to the same element. The threads are taken from a shared pool of daemon threads,
+ * so models with different numbers of threads can use the kernels at the same time.
+ */
+public class NeuralKernels {
+
+	/** The minimum number of multiply-adds in a range before the work is split among threads */
+	private static final long MIN_WORK_PER_THREAD = 1 << 15;
+
+	/** The shared pool, which creates threads as needed and releases them when they are idle */
+	private static final ExecutorService POOL = Executors.newCachedThreadPool(new ThreadFactory(){
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r);
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * A kernel over a range of indices.
+	 */
+	private static abstract class RangeKernel {
+		public abstract void run(int begin, int end);
+	}
+
+	/**
+	 * Runs the kernel over [0, size), split among the threads if the total work is large enough.
+	 * @param maxThreads The maximum number of threads
+	 * @param size
+	 * @param workPerIndex The number of multiply-adds for each index
+	 * @param kernel
+	 */
+	private static void parallelFor(int maxThreads, int size, long workPerIndex, final RangeKernel kernel){
+		int numThreads = (int)Math.min(maxThreads, size*workPerIndex/MIN_WORK_PER_THREAD);
+		if(numThreads <= 1){
+			kernel.run(0, size);
+			return;
+		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for(int range = 0; range < numThreads; range++){
+			final int begin = (int)((long)size*range/numThreads);
+			final int end = (int)((long)size*(range+1)/numThreads);
+			tasks.add(new Callable<Void>(){
+				@Override
+				public Void call() {
+					kernel.run(begin, end);
+					return null;
+				}
+			});
+		}
+		try {
+			for(Future<Void> future: POOL.invokeAll(tasks)){
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Computes out = in * W^T + b for each of the numRows rows of in.
+	 * @param numThreads The maximum number of threads
+	 * @param in The input matrix (numRows x inDim)
+	 * @param numRows
+	 * @param inDim
+	 * @param params The parameter array containing W and b
+	 * @param weightOffset
+	 * @param biasOffset
+	 * @param outDim
+	 * @param out The output matrix (numRows x outDim)
+	 */
+	public static void linearForward(int numThreads, final double[] in, int numRows, final int inDim, final double[] params,
+			final int weightOffset, final int biasOffset, final int outDim, final double[] out){
+		parallelFor(numThreads, numRows, (long)inDim*outDim, new RangeKernel(){
+			@Override
+			public void run(int begin, int end) {
+				for(int i = begin; i < end; i++){
+					int inRow = i*inDim;
+					int outRow = i*outDim;
+					for(int o = 0; o < outDim; o++){
+						int w = weightOffset + o*inDim;
+						double sum = params[biasOffset+o];
+						for(int j = 0; j < inDim; j++){
+							sum += params[w+j] * in[inRow+j];
+						}
+						out[outRow+o] = sum;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Computes gradIn = gradOut * W, the gradient with respect to the input of a linear layer.
+	 * @param numThreads The maximum number of threads
+	 * @param gradOut The gradient with respect to the output (numRows x outDim)
+	 * @param numRows
+	 * @param outDim
+	 * @param params The parameter array containing W
+	 * @param weightOffset
+	 * @param inDim
+	 * @param gradIn The gradient with respect to the input (numRows x inDim), overwritten
+	 */
+	public static void linearBackwardInput(int numThreads, final double[] gradOut, int numRows, final int outDim, final double[] params,
+			final int weightOffset, final int inDim, final double[] gradIn){
+		parallelFor(numThreads, numRows, (long)inDim*outDim, new RangeKernel(){
+			@Override
+			public void run(int begin, int end) {
+				for(int i = begin; i < end; i++){
+					int inRow = i*inDim;
+					int outRow = i*outDim;
+					for(int j = 0; j < inDim; j++){
+						gradIn[inRow+j] = 0.0;
+					}
+					for(int o = 0; o < outDim; o++){
+						double g = gradOut[outRow+o];
+						if(g == 0.0){
+							continue;
+						}
+						int w = weightOffset + o*inDim;
+						for(int j = 0; j < inDim; j++){
+							gradIn[inRow+j] += g * params[w+j];
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds gradOut^T * in to the gradient of W, and the column sums of gradOut to the gradient of b.
+	 * The work is split by output units, so each thread owns a set of rows of W.
+	 * @param numThreads The maximum number of threads
+	 * @param gradOut The gradient with respect to the output (numRows x outDim)
+	 * @param in The input matrix (numRows x inDim)
+	 * @param numRows
+	 * @param inDim
+	 * @param outDim
+	 * @param gradParams The gradient array containing the gradients of W and b
+	 * @param weightOffset
+	 * @param biasOffset
+	 */
+	public static void linearBackwardParams(int numThreads, final double[] gradOut, final double[] in, final int numRows, final int inDim,
+			final int outDim, final double[] gradParams, final int weightOffset, final int biasOffset){
+		parallelFor(numThreads, outDim, (long)numRows*inDim, new RangeKernel(){
+			@Override
+			public void run(int begin, int end) {
+				for(int o = begin; o < end; o++){
+					int w = weightOffset + o*inDim;
+					double biasGrad = 0.0;
+					for(int i = 0; i < numRows; i++){
+						double g = gradOut[i*outDim+o];
+						if(g == 0.0){
+							continue;
+						}
+						biasGrad += g;
+						int inRow = i*inDim;
+						for(int j = 0; j < inDim; j++){
+							gradParams[w+j] += g * in[inRow+j];
+						}
+					}
+					gradParams[biasOffset+o] += biasGrad;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds each of the source arrays to the target array over [0, size), and resets the sources to zero.
+	 * The work is split by ranges of indices, so each thread owns a range of the target.
+	 * @param numThreads The maximum number of threads
+	 * @param sources The arrays to add, where a null array is skipped, and an array shorter than size is added
+	 * 		over its length
+	 * @param target
+	 * @param size
+	 */
+	public static void reduceInto(int numThreads, final double[][] sources, final double[] target, int size){
+		int numSources = 0;
+		for(double[] source: sources){
+			if(source != null){
+				numSources++;
+			}
+		}
+		if(numSources == 0){
+			return;
+		}
+		parallelFor(numThreads, size, numSources, new RangeKernel(){
+			@Override
+			public void run(int begin, int end) {
+				for(double[] source: sources){
+					if(source == null){
+						continue;
+					}
+					int sourceEnd = Math.min(end, source.length);
+					for(int i = begin; i < sourceEnd; i++){
+						target[i] += source[i];
+						source[i] = 0.0;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Applies the activation function in place.
+	 * @param activation One of "tanh", "relu", "hardtanh", or "identity"
+	 * @param values
+	 * @param size
+	 */
+	public static void activate(String activation, double[] values, int size){
+		if(activation.equals("tanh")){
+			for(int i = 0; i < size; i++){
+				values[i] = Math.tanh(values[i]);
+			}
+		} else if(activation.equals("relu")){
+			for(int i = 0; i < size; i++){
+				values[i] = Math.max(0.0, values[i]);
+			}
+		} else if(activation.equals("hardtanh")){
+			for(int i = 0; i < size; i++){
+				values[i] = Math.max(-1.0, Math.min(1.0, values[i]));
+			}
+		} else if(!activation.equals("identity")){
+			throw new RuntimeException("Unknown activation function: "+activation);
+		}
+	}
+
+	/**
+	 * Multiplies the gradient in place by the derivative of the activation function,
+	 * given the activated values.
+	 * @param activation
+	 * @param activated The output of {@link #activate(String, double[], int)}
+	 * @param grad
+	 * @param size
+	 */
+	public static void activateBackward(String activation, double[] activated, double[] grad, int size){
+		if(activation.equals("tanh")){
+			for(int i = 0; i < size; i++){
+				grad[i] *= 1.0 - activated[i]*activated[i];
+			}
+		} else if(activation.equals("relu")){
+			for(int i = 0; i < size; i++){
+				if(activated[i] <= 0.0){
+					grad[i] = 0.0;
+				}
+			}
+		} else if(activation.equals("hardtanh")){
+			for(int i = 0; i < size; i++){
+				if(activated[i] <= -1.0 || activated[i] >= 1.0){
+					grad[i] = 0.0;
+				}
+			}
+		}
+	}
+
+}
@@ -7,20 +7,24 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 
+import org.statnlp.commons.io.RAWF;
+import org.statnlp.hypergraph.LocalNetworkParam;
 import org.statnlp.hypergraph.Network;
 import org.statnlp.hypergraph.NetworkConfig;
 import org.statnlp.hypergraph.NetworkConfig.ModelStatus;
 import org.statnlp.hypergraph.neural.util.LuaFunctionHelper;
 
 import gnu.trove.iterator.TIntIterator;
+import gnu.trove.iterator.TObjectIntIterator;
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import th4j.Tensor.DoubleTensor;
@@ -45,12 +49,52 @@ public abstract class NeuralNetworkCore extends AbstractNeuralNetwork implements
 	
 	public transient boolean optimizeNeural;
 	
+	/**
+	 * The network used in place of the Torch module when {@link NetworkConfig#NEURAL_BACKEND} is "java"
+	 */
+	protected transient JavaNeuralNetwork javaNetwork;
+	
+	/**
+	 * The connection to the neural server used in place of the Torch module when {@link NetworkConfig#NEURAL_BACKEND} is "remote"
+	 */
+	protected transient RemoteNeuralNetwork remoteNetwork;
+	
+	/**
+	 * The positions (rows of the output) to be computed for each instance in the forward pass by instance,
+	 * see {@link #prepareForwardByInstance(TIntSet, int[])}
+	 */
+	protected transient TIntObjectMap<int[]> instId2Positions;
+	
+	/**
+	 * The positions in the forward pass by instance which do not belong to any of the instances
+	 */
+	protected transient int[] remainingPositions;
+	
+	/**
+	 * The output index of each hyperedge, one table for each network of each thread,
+	 * indexed by the thread ID and then by the network ID
+	 */
+	protected transient NeuralEdgeTable[][] edgeTables;
+	
+	/**
+	 * The version of the mapping from the inputs to the output rows, incremented whenever the mapping changes,
+	 * so that the edge tables are compiled again
+	 */
+	protected transient int inputMappingVersion;
+	
+	/**
+	 * The counts accumulated by each thread in {@link #update(double, Network, int, int)}, indexed by the thread ID,
+	 * which are added to {@link #countOutput} before the backward pass,
+	 * so that the threads do not share any array while updating the gradients
+	 */
+	protected transient double[][] threadCountOutputs;
+	
 	/**
 	 * Neural network input to index (id)
 	 * If you are using batch training, do not directly use this to obtain input id.
 	 * Use the method # {@link #getNNInputID()}
 	 */
-	protected transient Map<Object, Integer> nnInput2Id;
+	protected transient TObjectIntMap<Object> nnInput2Id;
 	
 	/**
 	 * Save the mapping from instance id to neural network input id.
@@ -83,6 +127,14 @@ public abstract class NeuralNetworkCore extends AbstractNeuralNetwork implements
 	
 	@Override
 	public void initialize() {
+		if (isJavaBackend()) {
+			this.initializeJavaNetwork();
+			return;
+		}
+		if (isRemoteBackend()) {
+			this.initializeRemoteNetwork();
+			return;
+		}
 		List<Object> nnInputs = new ArrayList<>(nnInput2Id.size());
 		for (Object obj : nnInput2Id.keySet()) {
 			nnInputs.add(obj);
@@ -117,14 +169,81 @@ public abstract class NeuralNetworkCore extends AbstractNeuralNetwork implements
 				this.params = this.getArray(this.paramsTensor, this.params);
 				//TODO: this one might not be needed. Because the gradient at the first initialization is 0..
 				this.gradParams = this.getArray(this.gradParamsTensor, this.gradParams);
-				if (NetworkConfig.INIT_FV_WEIGHTS) {
-					Random rng = new Random(NetworkConfig.RANDOM_INIT_FEATURE_SEED);
-					//also be careful that you may overwrite the initialized embedding if you use this.
-					for(int i = 0; i < this.params.length; i++) {
-						this.params[i] = NetworkConfig.RANDOM_INIT_WEIGHT ? (rng.nextDouble()-.5)/10 :
-							NetworkConfig.FEATURE_INIT_WEIGHT;
-					}
-				}
+				this.initFeatureValueWeights();
+			}
+		}
+	}
+	
+	/**
+	 * Initialize the network in Java, with the inputs ordered by their IDs.
+	 * The parameters of the Java network are used directly as {@link #params}.
+	 */
+	protected void initializeJavaNetwork() {
+		Object[] nnInputs = this.getNNInputsById();
+		if (this.continuousFeatureValue) {
+			this.prepareContinuousFeatureValue();
+		}
+		if (this.javaNetwork == null) {
+			this.javaNetwork = new JavaNeuralNetwork(config);
+		}
+		this.javaNetwork.setNumThreads(this.getModelConfig().getNumThreads());
+		this.javaNetwork.initialize(config, nnInputs, isTraining);
+		if (optimizeNeural && isTraining) {
+			this.params = this.javaNetwork.getParams();
+			if (this.gradParams == null || this.gradParams.length != this.params.length) {
+				this.gradParams = new double[this.params.length];
+			}
+			if (this.params.length > 0) {
+				this.initFeatureValueWeights();
+			}
+		}
+	}
+	
+	/**
+	 * Initialize the network in the neural server, with the inputs ordered by their IDs.
+	 */
+	protected void initializeRemoteNetwork() {
+		Object[] nnInputs = this.getNNInputsById();
+		if (this.continuousFeatureValue) {
+			this.prepareContinuousFeatureValue();
+		}
+		if (this.remoteNetwork == null) {
+			this.remoteNetwork = new RemoteNeuralNetwork(NetworkConfig.NEURAL_SERVER_HOST, NetworkConfig.NEURAL_SERVER_PORT);
+		}
+		double[] remoteParams = this.remoteNetwork.initialize(config, nnInputs, isTraining);
+		if (optimizeNeural && isTraining) {
+			this.params = remoteParams;
+			if (this.gradParams == null || this.gradParams.length != this.params.length) {
+				this.gradParams = new double[this.params.length];
+			}
+			if (this.params.length > 0) {
+				this.initFeatureValueWeights();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the inputs indexed by their IDs.
+	 * @return
+	 */
+	private Object[] getNNInputsById() {
+		Object[] nnInputs = new Object[nnInput2Id.size()];
+		for (TObjectIntIterator<Object> iter = nnInput2Id.iterator(); iter.hasNext(); ) {
+			iter.advance();
+			if (iter.value() >= 0) {
+				nnInputs[iter.value()] = iter.key();
+			}
+		}
+		return nnInputs;
+	}
+	
+	private void initFeatureValueWeights() {
+		if (NetworkConfig.INIT_FV_WEIGHTS) {
+			Random rng = new Random(NetworkConfig.RANDOM_INIT_FEATURE_SEED);
+			//also be careful that you may overwrite the initialized embedding if you use this.
+			for(int i = 0; i < this.params.length; i++) {
+				this.params[i] = NetworkConfig.RANDOM_INIT_WEIGHT ? (rng.nextDouble()-.5)/10 :
+					NetworkConfig.FEATURE_INIT_WEIGHT;
 			}
 		}
 	}
@@ -160,29 +279,25 @@ public abstract class NeuralNetworkCore extends AbstractNeuralNetwork implements
 	 */
 	@Override
 	public void forward(TIntSet batchInstIds) {
-		if ((optimizeNeural && isTraining) || NetworkConfig.STATUS == ModelStatus.TESTING
-				|| NetworkConfig.STATUS == ModelStatus.DEV_IN_TRAINING) { // update with new params
+		if (isJavaBackend()) {
+			this.forwardJavaNetwork(batchInstIds);
+			return;
+		}
+		if (isRemoteBackend()) {
+			this.forwardRemoteNetwork(batchInstIds);
+			return;
+		}
+		ModelStatus status = this.getModelConfig().getStatus();
+		if ((optimizeNeural && isTraining) || status == ModelStatus.TESTING
+				|| status == ModelStatus.DEV_IN_TRAINING) { // update with new params
 			if (getParamSize() > 0) {
 				this.paramsTensor.storage().copy(this.params); // we can do this because params is contiguous
 				//System.out.println("java side forward weights: " + this.params[0] + " " + this.params[1]);
 			}
 		}
 		Object[] args = null;
-		if (NetworkConfig.USE_BATCH_TRAINING && isTraining && batchInstIds != null
-				&& batchInstIds.size() > 0) {
-			//pass the batch input id.
-			TIntIterator iter = batchInstIds.iterator();
-			TIntHashSet set = new TIntHashSet();
-			while(iter.hasNext()) {
-				int positiveInstId = iter.next();
-				if (this.instId2NNInputId.containsKey(positiveInstId))
-					set.addAll(this.instId2NNInputId.get(positiveInstId));
-			}
-			TIntList batchInputIds = new TIntArrayList(set);
-			this.dynamicNNInputId2BatchInputId = new TIntIntHashMap(batchInputIds.size());
-			for (int i = 0; i < batchInputIds.size(); i++) {
-				this.dynamicNNInputId2BatchInputId.put(batchInputIds.get(i), i);
-			}
+		TIntList batchInputIds = this.prepareBatchInputIds(batchInstIds);
+		if (batchInputIds != null) {
 			args = new Object[]{isTraining, batchInputIds};
 		} else {
 			args = new Object[]{isTraining};
@@ -199,17 +314,190 @@ public abstract class NeuralNetworkCore extends AbstractNeuralNetwork implements
 		}
 	}
 	
+	/**
+	 * Collect the input IDs of the instances in the batch, and map them to the rows of the batch output.
+	 * @param batchInstIds
+	 * @return the input IDs in the batch, or null if not using batch training.
+	 */
+	private TIntList prepareBatchInputIds(TIntSet batchInstIds) {
+		if (!(NetworkConfig.USE_BATCH_TRAINING && isTraining && batchInstIds != null
+				&& batchInstIds.size() > 0)) {
+			return null;
+		}
+		//pass the batch input id.
+		TIntIterator iter = batchInstIds.iterator();
+		TIntHashSet set = new TIntHashSet();
+		while(iter.hasNext()) {
+			int positiveInstId = iter.next();
+			if (this.instId2NNInputId.containsKey(positiveInstId))
+				set.addAll(this.instId2NNInputId.get(positiveInstId));
+		}
+		TIntList batchInputIds = new TIntArrayList(set);
+		this.dynamicNNInputId2BatchInputId = new TIntIntHashMap(batchInputIds.size());
+		for (int i = 0; i < batchInputIds.size(); i++) {
+			this.dynamicNNInputId2BatchInputId.put(batchInputIds.get(i), i);
+		}
+		this.invalidateEdgeTables();
+		return batchInputIds;
+	}
+	
+	/**
+	 * Neural network's forward in Java, writing the scores directly into {@link #output}.
+	 * @param batchInstIds
+	 */
+	protected void forwardJavaNetwork(TIntSet batchInstIds) {
+		TIntList batchInputIds = this.prepareBatchInputIds(batchInstIds);
+		int[] rows = batchInputIds == null ? null : batchInputIds.toArray();
+		output = this.javaNetwork.forward(this.params, isTraining, rows, output);
+		if (isTraining) {
+			this.prepareCountOutput(rows == null ? this.nnInput2Id.size() : rows.length);
+		}
+	}
+	
+	/**
+	 * Neural network's forward in the neural server, where the scores of the whole batch are computed in one request.
+	 * The parameters are sent with the request if they are optimized together with the CRF.
+	 * @param batchInstIds
+	 */
+	protected void forwardRemoteNetwork(TIntSet batchInstIds) {
+		TIntList batchInputIds = this.prepareBatchInputIds(batchInstIds);
+		int[] rows = batchInputIds == null ? null : batchInputIds.toArray();
+		double[] sentParams = optimizeNeural && getParamSize() > 0 ? this.params : null;
+		output = this.remoteNetwork.forward(isTraining, sentParams, rows);
+		if (isTraining) {
+			this.prepareCountOutput(rows == null ? this.nnInput2Id.size() : rows.length);
+		}
+	}
+	
+	private void prepareCountOutput(int numRows) {
+		int size = numRows * this.numLabels;
+		if (countOutput == null || countOutput.length < size)
+			countOutput = new double[size];
+	}
+	
+	/**
+	 * Whether this network can compute its outputs instance by instance in training,
+	 * which is the case for the networks run in Java, when the inputs of each instance are known.
+	 * @return
+	 * @see AsyncNeuralForward
+	 */
+	public boolean canForwardByInstance() {
+		return isJavaBackend() && this.instId2NNInputId != null && isTraining;
+	}
+	
+	/**
+	 * Prepare the forward pass by instance, where the outputs of the inputs of each instance are
+	 * computed by {@link #forwardInstance(int)}, in the specified order of instances.
+	 * The output arrays are allocated here, so that they are not replaced during the forward pass.
+	 * @param batchInstIds
+	 * @param instIdOrder
+	 */
+	public void prepareForwardByInstance(TIntSet batchInstIds, int[] instIdOrder) {
+		TIntList batchInputIds = this.prepareBatchInputIds(batchInstIds);
+		int[] rows = batchInputIds == null ? null : batchInputIds.toArray();
+		output = this.javaNetwork.prepareForward(this.params, rows, output);
+		int numRows = rows == null ? this.nnInput2Id.size() : rows.length;
+		this.prepareCountOutput(numRows);
+		// An input shared by several instances is computed with the first of them
+		boolean[] assigned = new boolean[numRows];
+		this.instId2Positions = new TIntObjectHashMap<int[]>(instIdOrder.length);
+		for (int instId : instIdOrder) {
+			TIntList inputIds = this.instId2NNInputId.get(instId);
+			if (inputIds == null) {
+				continue;
+			}
+			TIntList positions = new TIntArrayList(inputIds.size());
+			for (int i = 0; i < inputIds.size(); i++) {
+				int position = batchInputIds == null ? inputIds.get(i) : this.dynamicNNInputId2BatchInputId.get(inputIds.get(i));
+				if (!assigned[position]) {
+					assigned[position] = true;
+					positions.add(position);
+				}
+			}
+			this.instId2Positions.put(instId, positions.toArray());
+		}
+		TIntList remaining = new TIntArrayList();
+		for (int position = 0; position < numRows; position++) {
+			if (!assigned[position]) {
+				remaining.add(position);
+			}
+		}
+		this.remainingPositions = remaining.toArray();
+	}
+	
+	/**
+	 * Compute the outputs of the inputs of the specified instance, in the forward pass by instance.
+	 * @param instId
+	 */
+	public void forwardInstance(int instId) {
+		int[] positions = this.instId2Positions.get(instId);
+		if (positions != null && positions.length > 0) {
+			this.javaNetwork.forwardPositions(positions, 0, positions.length);
+		}
+	}
+	
+	/**
+	 * Compute the outputs which do not belong to any instance, ending the forward pass by instance.
+	 */
+	public void finishForwardByInstance() {
+		if (this.remainingPositions.length > 0) {
+			this.javaNetwork.forwardPositions(this.remainingPositions, 0, this.remainingPositions.length);
+		}
+		this.instId2Positions = null;
+		this.remainingPositions = null;
+	}
+	
 	@Override
 	public double getScore(Network network, int parent_k, int children_k_index) {
-		double val = 0.0;
-		NeuralIO io = getHyperEdgeInputOutput(network, parent_k, children_k_index);
-		if (io != null) {
-			Object edgeInput = io.getInput();
-			int outputLabel = io.getOutput();
-			int idx = this.hyperEdgeInput2OutputRowIndex(edgeInput) * this.numLabels + outputLabel;
-			val = output[idx];
+		int idx = this.getEdgeOutputIndex(network, parent_k, children_k_index);
+		return idx < 0 ? 0.0 : output[idx];
+	}
+	
+	/**
+	 * Returns the index in the output of the specified hyperedge, or -1 if the hyperedge has no neural input,
+	 * compiling the edge table of the network if the mapping from the inputs to the output rows has changed.
+	 * @param network
+	 * @param parent_k
+	 * @param children_k_index
+	 * @return
+	 * @see NeuralEdgeTable
+	 */
+	protected int getEdgeOutputIndex(Network network, int parent_k, int children_k_index) {
+		int threadId = network.getThreadId();
+		int networkId = network.getNetworkId();
+		NeuralEdgeTable[] tables = this.edgeTables[threadId];
+		if (tables == null || networkId >= tables.length) {
+			// Only the thread of the network accesses its tables
+			tables = new NeuralEdgeTable[Math.max(networkId+1, this.params_l[threadId].countNetworks())];
+			if (this.edgeTables[threadId] != null) {
+				System.arraycopy(this.edgeTables[threadId], 0, tables, 0, this.edgeTables[threadId].length);
+			}
+			this.edgeTables[threadId] = tables;
 		}
-		return val;
+		NeuralEdgeTable table = tables[networkId];
+		if (table == null || table.version != this.inputMappingVersion) {
+			NeuralIO[][] ios = this.params_l[threadId].getHyperEdgeIOs(this.netId, networkId);
+			if (table == null) {
+				table = new NeuralEdgeTable(ios);
+				tables[networkId] = table;
+			}
+			table.compile(ios, this, this.inputMappingVersion);
+		}
+		return table.getOutputIndex(parent_k, children_k_index);
+	}
+	
+	/**
+	 * Marks the edge tables to be compiled again, when the mapping from the inputs to the output rows changes.
+	 */
+	public void invalidateEdgeTables() {
+		this.inputMappingVersion++;
+	}
+	
+	@Override
+	public void setLocalNetworkParams(LocalNetworkParam[] params_l) {
+		super.setLocalNetworkParams(params_l);
+		this.edgeTables = new NeuralEdgeTable[params_l.length][];
+		this.threadCountOutputs = new double[params_l.length][];
 	}
 	
 	/**
@@ -217,6 +505,29 @@ public abstract class NeuralNetworkCore extends AbstractNeuralNetwork implements
 	 */
 	@Override
 	public void backward() {
+		this.reduceCountOutput();
+		if (isJavaBackend()) {
+			double[] grads = this.javaNetwork.backward(this.countOutput, optimizeNeural);
+			if (optimizeNeural && getParamSize() > 0) {
+				System.arraycopy(grads, 0, gradParams, 0, gradParams.length);
+				if (NetworkConfig.REGULARIZE_NEURAL_FEATURES) {
+					addL2ParamsGrad();
+				}
+			}
+			this.resetCountOutput();
+			return;
+		}
+		if (isRemoteBackend()) {
+			double[] grads = this.remoteNetwork.backward(Arrays.copyOf(this.countOutput, output.length), optimizeNeural);
+			if (optimizeNeural && getParamSize() > 0) {
+				System.arraycopy(grads, 0, gradParams, 0, gradParams.length);
+				if (NetworkConfig.REGULARIZE_NEURAL_FEATURES) {
+					addL2ParamsGrad();
+				}
+			}
+			this.resetCountOutput();
+			return;
+		}
 		countOutputTensorBuffer.storage().copy(this.countOutput);
 		Object[] args = new Object[]{};
 		Class<?>[] retTypes = new Class[0];
@@ -232,16 +543,33 @@ public abstract class NeuralNetworkCore extends AbstractNeuralNetwork implements
 	
 	@Override
 	public void update(double count, Network network, int parent_k, int children_k_index) {
-		NeuralIO io = getHyperEdgeInputOutput(network, parent_k, children_k_index);
-		if (io != null) {
-			Object edgeInput = io.getInput();
-			int outputLabel = io.getOutput();
-			int idx = this.hyperEdgeInput2OutputRowIndex(edgeInput) * this.numLabels + outputLabel;
-			synchronized (countOutput) {
-				//TODO: alternatively, create #threads of countOutput array.
-				//Then aggregate them together.
-				countOutput[idx] -= count;
-			}
+		int idx = this.getEdgeOutputIndex(network, parent_k, children_k_index);
+		if (idx >= 0) {
+			this.getThreadCountOutput(network.getThreadId())[idx] -= count;
+		}
+	}
+	
+	/**
+	 * Returns the count array of the specified thread, which has the same size as {@link #countOutput}.
+	 * @param threadId
+	 * @return
+	 */
+	protected double[] getThreadCountOutput(int threadId) {
+		double[] counts = this.threadCountOutputs[threadId];
+		if (counts == null || counts.length < countOutput.length) {
+			// Only the thread itself accesses its count array during the update
+			counts = new double[countOutput.length];
+			this.threadCountOutputs[threadId] = counts;
+		}
+		return counts;
+	}
+	
+	/**
+	 * Adds the counts of all threads to {@link #countOutput}, resetting the counts of the threads to zero.
+	 */
+	protected void reduceCountOutput() {
+		if (this.threadCountOutputs != null && countOutput != null) {
+			NeuralKernels.reduceInto(this.getModelConfig().getNumThreads(), this.threadCountOutputs, countOutput, countOutput.length);
 		}
 	}
 	
@@ -263,6 +591,17 @@ public abstract class NeuralNetworkCore extends AbstractNeuralNetwork implements
 	 * @param prefix
 	 */
 	public void save(String prefix) {
+		if (isJavaBackend() || isRemoteBackend()) {
+			try {
+				ObjectOutputStream out = RAWF.objectWriter(prefix);
+				out.writeObject(isJavaBackend() ? this.javaNetwork
+						: this.remoteNetwork.save(optimizeNeural && getParamSize() > 0 ? this.params : null));
+				out.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return;
+		}
 		if (optimizeNeural) {
 			if (getParamSize() > 0) {
 				this.paramsTensor.storage().copy(this.params); // we can do this because params is contiguous
@@ -285,6 +624,30 @@ public abstract class NeuralNetworkCore extends AbstractNeuralNetwork implements
 	 * @param prefix
 	 */
 	public void load() {
+		if (isJavaBackend()) {
+			try {
+				ObjectInputStream in = RAWF.objectReader(this.nnModelFile);
+				this.javaNetwork = (JavaNeuralNetwork) in.readObject();
+				in.close();
+			} catch (IOException | ClassNotFoundException e) {
+				throw new RuntimeException(e);
+			}
+			return;
+		}
+		if (isRemoteBackend()) {
+			try {
+				ObjectInputStream in = RAWF.objectReader(this.nnModelFile);
+				JavaNeuralNetwork network = (JavaNeuralNetwork) in.readObject();
+				in.close();
+				if (this.remoteNetwork == null) {
+					this.remoteNetwork = new RemoteNeuralNetwork(NetworkConfig.NEURAL_SERVER_HOST, NetworkConfig.NEURAL_SERVER_PORT);
+				}
+				this.remoteNetwork.load(network);
+			} catch (IOException | ClassNotFoundException e) {
+				throw new RuntimeException(e);
+			}
+			return;
+		}
 		this.load("load_model", this.nnModelFile, this.gpuid);
 	}
 	
@@ -297,7 +660,12 @@ public abstract class NeuralNetworkCore extends AbstractNeuralNetwork implements
 	 * Clean up resources, currently, we clean up the resource after decoding
 	 */
 	public void cleanUp() {
-		L.close();
+		if (L != null) {
+			L.close();
+		}
+		if (this.remoteNetwork != null) {
+			this.remoteNetwork.close();
+		}
 	}
 	
 	/**
@@ -320,6 +688,8 @@ public abstract class NeuralNetworkCore extends AbstractNeuralNetwork implements
 		try {
 			c = (NeuralNetworkCore) super.clone();
 			c.nnInput2Id = null;
+			c.edgeTables = null;
+			c.threadCountOutputs = null;
 			c.params = this.params;
 		} catch (CloneNotSupportedException e) {
 			e.printStackTrace();
@@ -339,7 +709,7 @@ public abstract class NeuralNetworkCore extends AbstractNeuralNetwork implements
 		out.writeInt(this.numLabels);
 		out.writeDouble(this.scale);
 		out.writeObject(this.nnModelFile);
-		out.writeObject(this.gpuid);
+		out.writeInt(this.gpuid);
 		this.save(this.nnModelFile);
 	}
 	
@@ -353,7 +723,9 @@ public abstract class NeuralNetworkCore extends AbstractNeuralNetwork implements
 		this.nnModelFile = (String) in.readObject();
 		this.gpuid = in.readInt();
 		this.config.put("nnModelFile", this.nnModelFile);
-		this.configureJNLua();
+		if (!isJavaBackend() && !isRemoteBackend()) {
+			this.configureJNLua();
+		}
 		this.load();
 	}
 	
@@ -0,0 +1,199 @@
+package org.statnlp.hypergraph.neural;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ValueType;
+
+/**
+ * The messages exchanged between {@link RemoteNeuralNetwork} and {@link NeuralServer}, in MessagePack.<br>
+ * Each request is an array whose first element is the command, followed by its arguments:
+ * <ul>
+ * <li><code>["initialize", config, inputs, featureValues, isTraining]</code>, where inputs are the neural network
+ * inputs indexed by their IDs, and featureValues are the continuous feature values (or nil)</li>
+ * <li><code>["forward", isTraining, params, rows]</code>, where params are the parameters to use (or nil to keep the
+ * parameters of the server), and rows are the input IDs in the batch (or nil for all inputs)</li>
+ * <li><code>["backward", gradOutput, optimizeNeural]</code></li>
+ * <li><code>["save", params]</code>, where params are the parameters to set before saving (or nil), whose result is
+ * <code>[structure, params]</code>, and <code>["load", structure, params]</code>, where structure is the map of
+ * {@link JavaNeuralNetwork#getStructure()} and params are the parameters of the network</li>
+ * <li><code>["close"]</code></li>
+ * </ul>
+ * Each response is an array <code>["ok", result]</code> or <code>["error", message]</code>.<br>
+ * The double and int arrays (parameters, scores, gradients, and rows) are sent as binary values in big-endian
+ * order instead of arrays of numbers, so that the scores of a whole batch are a single copy.
+ */
+public class NeuralProtocol {
+
+	public static final String INITIALIZE = "initialize";
+	public static final String FORWARD = "forward";
+	public static final String BACKWARD = "backward";
+	public static final String SAVE = "save";
+	public static final String LOAD = "load";
+	public static final String CLOSE = "close";
+	public static final String OK = "ok";
+	public static final String ERROR = "error";
+
+	/**
+	 * Writes a value, which can be null, a boolean, a number, a string, a double array, an int array,
+	 * a byte array, a list or an array of values, or a map from strings to values.
+	 * @param packer
+	 * @param value
+	 * @throws IOException
+	 */
+	public static void pack(MessagePacker packer, Object value) throws IOException {
+		if (value == null) {
+			packer.packNil();
+		} else if (value instanceof Boolean) {
+			packer.packBoolean((Boolean)value);
+		} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			packer.packInt(((Number)value).intValue());
+		} else if (value instanceof Long) {
+			packer.packLong((Long)value);
+		} else if (value instanceof Number) {
+			packer.packDouble(((Number)value).doubleValue());
+		} else if (value instanceof String) {
+			packer.packString((String)value);
+		} else if (value instanceof double[]) {
+			packDoubles(packer, (double[])value, ((double[])value).length);
+		} else if (value instanceof int[]) {
+			packInts(packer, (int[])value);
+		} else if (value instanceof byte[]) {
+			packer.packBinaryHeader(((byte[])value).length);
+			packer.writePayload((byte[])value);
+		} else if (value instanceof Object[]) {
+			Object[] array = (Object[])value;
+			packer.packArrayHeader(array.length);
+			for (Object element : array) {
+				pack(packer, element);
+			}
+		} else if (value instanceof List) {
+			List<?> list = (List<?>)value;
+			packer.packArrayHeader(list.size());
+			for (Object element : list) {
+				pack(packer, element);
+			}
+		} else if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>)value;
+			packer.packMapHeader(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				packer.packString(String.valueOf(entry.getKey()));
+				pack(packer, entry.getValue());
+			}
+		} else {
+			throw new RuntimeException("Cannot send a value of type "+value.getClass().getName()+" to the neural server");
+		}
+	}
+
+	/**
+	 * Reads a value written by {@link #pack(MessagePacker, Object)}, where the integers are read as Integer
+	 * (or Long if they do not fit), the floating point numbers as Double, the arrays as lists, the maps as
+	 * HashMap with string keys, and the binary values as byte arrays.
+	 * @param unpacker
+	 * @return
+	 * @throws IOException
+	 */
+	public static Object unpack(MessageUnpacker unpacker) throws IOException {
+		ValueType type = unpacker.getNextFormat().getValueType();
+		switch (type) {
+		case NIL:
+			unpacker.unpackNil();
+			return null;
+		case BOOLEAN:
+			return unpacker.unpackBoolean();
+		case INTEGER:
+			long value = unpacker.unpackLong();
+			if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+				return (int)value;
+			}
+			return value;
+		case FLOAT:
+			return unpacker.unpackDouble();
+		case STRING:
+			return unpacker.unpackString();
+		case BINARY:
+			return unpacker.readPayload(unpacker.unpackBinaryHeader());
+		case ARRAY:
+			int size = unpacker.unpackArrayHeader();
+			List<Object> list = new ArrayList<Object>(size);
+			for (int i = 0; i < size; i++) {
+				list.add(unpack(unpacker));
+			}
+			return list;
+		case MAP:
+			int numEntries = unpacker.unpackMapHeader();
+			Map<String, Object> map = new HashMap<String, Object>();
+			for (int i = 0; i < numEntries; i++) {
+				String key = unpacker.unpackString();
+				map.put(key, unpack(unpacker));
+			}
+			return map;
+		default:
+			throw new RuntimeException("Unsupported value type in the neural protocol: "+type);
+		}
+	}
+
+	/**
+	 * Writes the first length values of a double array as a binary value.
+	 * @param packer
+	 * @param values
+	 * @param length
+	 * @throws IOException
+	 */
+	public static void packDoubles(MessagePacker packer, double[] values, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length*8);
+		buffer.asDoubleBuffer().put(values, 0, length);
+		packer.packBinaryHeader(length*8);
+		packer.writePayload(buffer.array());
+	}
+
+	/**
+	 * Writes an int array as a binary value.
+	 * @param packer
+	 * @param values
+	 * @throws IOException
+	 */
+	public static void packInts(MessagePacker packer, int[] values) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(values.length*4);
+		buffer.asIntBuffer().put(values);
+		packer.packBinaryHeader(values.length*4);
+		packer.writePayload(buffer.array());
+	}
+
+	/**
+	 * Converts a binary value written by {@link #packDoubles(MessagePacker, double[], int)} back to a double array.
+	 * @param value The binary value as read by {@link #unpack(MessageUnpacker)}, or null
+	 * @return
+	 */
+	public static double[] toDoubles(Object value) {
+		if (value == null) {
+			return null;
+		}
+		byte[] bytes = (byte[])value;
+		double[] values = new double[bytes.length/8];
+		ByteBuffer.wrap(bytes).asDoubleBuffer().get(values);
+		return values;
+	}
+
+	/**
+	 * Converts a binary value written by {@link #packInts(MessagePacker, int[])} back to an int array.
+	 * @param value The binary value as read by {@link #unpack(MessageUnpacker)}, or null
+	 * @return
+	 */
+	public static int[] toInts(Object value) {
+		if (value == null) {
+			return null;
+		}
+		byte[] bytes = (byte[])value;
+		int[] values = new int[bytes.length/4];
+		ByteBuffer.wrap(bytes).asIntBuffer().get(values);
+		return values;
+	}
+
+}
@@ -0,0 +1,253 @@
+package org.statnlp.hypergraph.neural;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
+import org.statnlp.hypergraph.NetworkConfig;
+
+/**
+ * A neural server which scores the inputs with {@link JavaNeuralNetwork}, serving the requests of
+ * {@link RemoteNeuralNetwork} over TCP with the messages of {@link NeuralProtocol}.<br>
+ * Each connection has its own network, so each neural network of a model uses one connection.<br>
+ * The server has no authentication, so it only listens on the loopback address unless another host is specified,
+ * in which case it should only be reachable by trusted clients. The networks are exchanged as their structure and
+ * parameters (see {@link JavaNeuralNetwork#getStructure()}), never as serialized Java objects.<br>
+ * This is a stand-in for a neural scoring service on another process or host: it can be run from the command
+ * line with the port as the argument, or started in the same process, e.g., in tests:
+ * <pre>
+ * NeuralServer server = new NeuralServer(0);
+ * server.start();
+ * NetworkConfig.NEURAL_BACKEND = "remote";
+ * NetworkConfig.NEURAL_SERVER_PORT = server.getPort();
+ * </pre>
+ */
+public class NeuralServer {
+
+	private ServerSocket serverSocket;
+	private List<Socket> connections;
+	/** The maximum number of threads used by each network */
+	private int numThreads;
+
+	/**
+	 * Creates a server listening on the specified port of the loopback address,
+	 * whose networks use {@link NetworkConfig#NUM_THREADS} threads.
+	 * @param port The port, or 0 to use any free port
+	 * @throws IOException
+	 */
+	public NeuralServer(int port) throws IOException {
+		this(port, NetworkConfig.NUM_THREADS);
+	}
+
+	/**
+	 * Creates a server listening on the specified port of the loopback address.
+	 * @param port The port, or 0 to use any free port
+	 * @param numThreads The maximum number of threads used by each network
+	 * @throws IOException
+	 */
+	public NeuralServer(int port, int numThreads) throws IOException {
+		this(null, port, numThreads);
+	}
+
+	/**
+	 * Creates a server listening on the specified host and port.
+	 * @param host The host name or address to listen on, e.g., "0.0.0.0" for all interfaces,
+	 * 		or null for the loopback address
+	 * @param port The port, or 0 to use any free port
+	 * @param numThreads The maximum number of threads used by each network
+	 * @throws IOException
+	 */
+	public NeuralServer(String host, int port, int numThreads) throws IOException {
+		InetAddress address = host == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host);
+		this.serverSocket = new ServerSocket(port, 50, address);
+		this.connections = new ArrayList<Socket>();
+		this.numThreads = numThreads;
+	}
+
+	public int getPort() {
+		return this.serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Starts accepting connections in a background thread.
+	 */
+	public void start() {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				serve();
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Accepts connections until the server is closed, serving each connection in its own thread.
+	 */
+	public void serve() {
+		while (!this.serverSocket.isClosed()) {
+			final Socket socket;
+			try {
+				socket = this.serverSocket.accept();
+				socket.setTcpNoDelay(true);
+			} catch (IOException e) {
+				if (this.serverSocket.isClosed()) {
+					return;
+				}
+				throw new RuntimeException(e);
+			}
+			synchronized (this.connections) {
+				this.connections.add(socket);
+			}
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					handle(socket);
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops the server, closing all connections.
+	 */
+	public void close() {
+		try {
+			this.serverSocket.close();
+			synchronized (this.connections) {
+				for (Socket socket : this.connections) {
+					socket.close();
+				}
+				this.connections.clear();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void handle(Socket socket) {
+		JavaNeuralNetwork network = null;
+		try {
+			MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(socket.getInputStream());
+			MessagePacker packer = MessagePack.newDefaultPacker(socket.getOutputStream());
+			while (unpacker.hasNext()) {
+				@SuppressWarnings("unchecked")
+				List<Object> request = (List<Object>) NeuralProtocol.unpack(unpacker);
+				String command = (String) request.get(0);
+				if (command.equals(NeuralProtocol.CLOSE)) {
+					break;
+				}
+				Object result;
+				try {
+					if (command.equals(NeuralProtocol.LOAD)) {
+						@SuppressWarnings("unchecked")
+						Map<String, Object> structure = (Map<String, Object>) request.get(1);
+						network = JavaNeuralNetwork.fromStructure(structure, NeuralProtocol.toDoubles(request.get(2)));
+						result = null;
+					} else if (command.equals(NeuralProtocol.INITIALIZE)) {
+						network = this.initialize(network, request);
+						result = network.getParams();
+					} else if (network == null) {
+						throw new RuntimeException("The network is not initialized");
+					} else {
+						result = this.execute(network, command, request);
+					}
+				} catch (RuntimeException e) {
+					packer.packArrayHeader(2);
+					packer.packString(NeuralProtocol.ERROR);
+					packer.packString(String.valueOf(e));
+					packer.flush();
+					continue;
+				}
+				packer.packArrayHeader(2);
+				packer.packString(NeuralProtocol.OK);
+				NeuralProtocol.pack(packer, result);
+				packer.flush();
+			}
+		} catch (EOFException | SocketException e) {
+			// The client is gone
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Already closed
+			}
+			synchronized (this.connections) {
+				this.connections.remove(socket);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private JavaNeuralNetwork initialize(JavaNeuralNetwork network, List<Object> request) {
+		Map<String, Object> config = (Map<String, Object>) request.get(1);
+		List<Object> inputs = (List<Object>) request.get(2);
+		List<Object> featureValues = (List<Object>) request.get(3);
+		boolean isTraining = (Boolean) request.get(4);
+		if (featureValues != null) {
+			double[][] values = new double[featureValues.size()][];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = NeuralProtocol.toDoubles(featureValues.get(i));
+			}
+			config.put("nnInputs", values);
+		}
+		if (network == null) {
+			network = new JavaNeuralNetwork(config);
+		}
+		network.setNumThreads(this.numThreads);
+		network.initialize(config, inputs.toArray(), isTraining);
+		return network;
+	}
+
+	private Object execute(JavaNeuralNetwork network, String command, List<Object> request) {
+		if (command.equals(NeuralProtocol.FORWARD)) {
+			boolean isTraining = (Boolean) request.get(1);
+			double[] params = NeuralProtocol.toDoubles(request.get(2));
+			int[] rows = NeuralProtocol.toInts(request.get(3));
+			return network.forward(params, isTraining, rows, null);
+		} else if (command.equals(NeuralProtocol.BACKWARD)) {
+			double[] gradOutput = NeuralProtocol.toDoubles(request.get(1));
+			boolean optimizeNeural = (Boolean) request.get(2);
+			double[] grads = network.backward(gradOutput, optimizeNeural);
+			return optimizeNeural ? grads : null;
+		} else if (command.equals(NeuralProtocol.SAVE)) {
+			double[] params = NeuralProtocol.toDoubles(request.get(1));
+			if (params != null) {
+				System.arraycopy(params, 0, network.getParams(), 0, params.length);
+			}
+			return new Object[]{network.getStructure(), network.getParams()};
+		}
+		throw new RuntimeException("Unknown command: "+command);
+	}
+
+	/**
+	 * Runs the server until it is killed.
+	 * @param args The port (by default {@link NetworkConfig#NEURAL_SERVER_PORT}), optionally the number of
+	 * 		threads used by each network (by default {@link NetworkConfig#NUM_THREADS}), and optionally the host
+	 * 		to listen on (by default the loopback address only)
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : NetworkConfig.NEURAL_SERVER_PORT;
+		int numThreads = args.length > 1 ? Integer.parseInt(args[1]) : NetworkConfig.NUM_THREADS;
+		String host = args.length > 2 ? args[2] : null;
+		NeuralServer server = new NeuralServer(host, port, numThreads);
+		System.out.println("Neural server listening on "+server.serverSocket.getInetAddress().getHostAddress()+":"+server.getPort());
+		server.serve();
+	}
+
+}
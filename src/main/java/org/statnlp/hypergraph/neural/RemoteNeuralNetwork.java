@@ -0,0 +1,147 @@
+package org.statnlp.hypergraph.neural;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
+import org.statnlp.hypergraph.NetworkConfig;
+
+/**
+ * The client of a neural server (see {@link NeuralServer}), used in place of the Torch module when
+ * {@link NetworkConfig#NEURAL_BACKEND} is "remote", so that the neural networks can be run on another process
+ * or host than the CRF.<br>
+ * The inputs are sent once when the network is initialized, then each forward pass sends the input IDs of the
+ * whole batch in one message and receives the scores of the whole batch in one message, and each backward pass
+ * sends the gradient of the scores in one message (see {@link NeuralProtocol}).
+ */
+public class RemoteNeuralNetwork {
+
+	private Socket socket;
+	private MessagePacker packer;
+	private MessageUnpacker unpacker;
+
+	/**
+	 * Connects to the neural server at the specified host and port.
+	 * @param host
+	 * @param port
+	 */
+	public RemoteNeuralNetwork(String host, int port) {
+		try {
+			this.socket = new Socket(host, port);
+			this.socket.setTcpNoDelay(true);
+			this.packer = MessagePack.newDefaultPacker(this.socket.getOutputStream());
+			this.unpacker = MessagePack.newDefaultUnpacker(this.socket.getInputStream());
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot connect to the neural server at "+host+":"+port, e);
+		}
+	}
+
+	/**
+	 * Prepares the inputs in the server, and creates the network when it is first initialized in training.
+	 * @param config The configuration, containing the continuous feature values in "nnInputs" for "ContinuousFeature"
+	 * @param nnInputs The inputs, indexed by their neural network input IDs
+	 * @param isTraining
+	 * @return The parameters of the network
+	 */
+	public synchronized double[] initialize(Map<String, Object> config, Object[] nnInputs, boolean isTraining) {
+		Map<String, Object> sentConfig = new HashMap<String, Object>(config);
+		Object featureValues = sentConfig.remove("nnInputs");
+		if (!(featureValues instanceof double[][])) {
+			featureValues = null;
+		}
+		String[] inputs = new String[nnInputs.length];
+		for (int i = 0; i < nnInputs.length; i++) {
+			inputs[i] = nnInputs[i] == null ? null : nnInputs[i].toString();
+		}
+		return NeuralProtocol.toDoubles(this.call(NeuralProtocol.INITIALIZE, sentConfig, inputs, featureValues, isTraining));
+	}
+
+	/**
+	 * Computes the scores of the specified inputs in the server.
+	 * @param isTraining Whether to use the training inputs or the testing inputs
+	 * @param params The parameters to be used, or null to use the parameters of the server
+	 * @param rows The neural network input IDs of the inputs, or null for all inputs
+	 * @return The output scores (number of inputs x numLabels)
+	 */
+	public synchronized double[] forward(boolean isTraining, double[] params, int[] rows) {
+		return NeuralProtocol.toDoubles(this.call(NeuralProtocol.FORWARD, isTraining, params, rows));
+	}
+
+	/**
+	 * Backpropagates the gradient of the scores of the last forward pass in training.
+	 * @param gradOutput The gradient of the scores
+	 * @param optimizeNeural Whether the parameters are optimized together with the CRF, otherwise the server
+	 * 		updates the parameters itself
+	 * @return The gradient of the parameters if optimizeNeural is true, otherwise null
+	 */
+	public synchronized double[] backward(double[] gradOutput, boolean optimizeNeural) {
+		return NeuralProtocol.toDoubles(this.call(NeuralProtocol.BACKWARD, gradOutput, optimizeNeural));
+	}
+
+	/**
+	 * Returns a copy of the network in the server, to be saved with the model.
+	 * @param params The parameters optimized together with the CRF, to be set in the server first, or null
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized JavaNeuralNetwork save(double[] params) {
+		List<Object> result = (List<Object>) this.call(NeuralProtocol.SAVE, params);
+		return JavaNeuralNetwork.fromStructure((Map<String, Object>) result.get(0), NeuralProtocol.toDoubles(result.get(1)));
+	}
+
+	/**
+	 * Replaces the network in the server with the specified network, e.g., a network loaded with the model.
+	 * @param network
+	 */
+	public synchronized void load(JavaNeuralNetwork network) {
+		this.call(NeuralProtocol.LOAD, network.getStructure(), network.getParams());
+	}
+
+	/**
+	 * Closes the connection, which releases the network in the server.
+	 */
+	public synchronized void close() {
+		if (this.socket.isClosed()) {
+			return;
+		}
+		try {
+			this.packer.packArrayHeader(1);
+			this.packer.packString(NeuralProtocol.CLOSE);
+			this.packer.flush();
+			this.socket.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Sends a request and returns the result of the response.
+	 * @param command
+	 * @param args
+	 * @return
+	 */
+	private Object call(String command, Object... args) {
+		try {
+			this.packer.packArrayHeader(args.length+1);
+			this.packer.packString(command);
+			for (Object arg : args) {
+				NeuralProtocol.pack(this.packer, arg);
+			}
+			this.packer.flush();
+			@SuppressWarnings("unchecked")
+			List<Object> response = (List<Object>) NeuralProtocol.unpack(this.unpacker);
+			if (!NeuralProtocol.OK.equals(response.get(0))) {
+				throw new RuntimeException("The neural server failed to "+command+": "+response.get(1));
+			}
+			return response.get(1);
+		} catch (IOException e) {
+			throw new RuntimeException("Lost the connection to the neural server", e);
+		}
+	}
+
+}
@@ -24,8 +24,10 @@ import org.statnlp.commons.types.Instance;
 import org.statnlp.commons.types.LinearInstance;
 import org.statnlp.example.base.TemplateBasedFeatureManager;
 import org.statnlp.hypergraph.FeatureManager;
+import org.statnlp.hypergraph.MappedModelFile;
 import org.statnlp.hypergraph.NetworkCompiler;
 import org.statnlp.hypergraph.NetworkConfig;
+import org.statnlp.hypergraph.NetworkConfig.WeightPrecision;
 import org.statnlp.hypergraph.NetworkModel;
 import org.statnlp.hypergraph.StringIndex;
 import org.statnlp.hypergraph.NetworkModel.TrainingIterationInformation;
@@ -107,6 +109,10 @@ public class GenericPipeline extends Pipeline<GenericPipeline> {
 				.type(Boolean.class)
 				.action(Arguments.storeTrue())
 				.help("Whether to additionally write the model as text with .txt extension."));
+		argParserObjects.put("--writeModelAsBinary", argParser.addArgument("--writeModelAsBinary")
+				.type(Boolean.class)
+				.action(Arguments.storeTrue())
+				.help("Whether to write the model in the binary format which can be memory-mapped when loaded."));
 		argParserObjects.put("--resultPath", argParser.addArgument("--resultPath")
 				.type(String.class)
 				.help("The path to where we should store prediction results."));
@@ -238,6 +244,17 @@ public class GenericPipeline extends Pipeline<GenericPipeline> {
 		return getThis();
 	}
 
+	/**
+	 * Whether to write the model in the binary format (see {@link MappedModelFile}), which can be memory-mapped
+	 * when loaded, instead of Java serialization.
+	 * @param writeModelAsBinary
+	 * @return
+	 */
+	public GenericPipeline withWriteModelAsBinary(boolean writeModelAsBinary){
+		setParameter("writeModelAsBinary", writeModelAsBinary);
+		return getThis();
+	}
+
 	/**
 	 * With evaluation on development data every specified number of iterations.
 	 * @param evaluateEvery
@@ -433,10 +450,14 @@ public class GenericPipeline extends Pipeline<GenericPipeline> {
 		}
 		LOGGER.info("[%s]Writing model into %s...", getCurrentTask(), modelPath);
 		long startTime = System.nanoTime();
-		ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(modelPath));
-		oos.writeObject(networkModel);
-		oos.writeObject(instanceParser);
-		oos.close();
+		if(hasParameter("writeModelAsBinary") && (boolean)getParameter("writeModelAsBinary")){
+			MappedModelFile.write(new File(modelPath), networkModel, instanceParser);
+		} else {
+			ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(modelPath));
+			oos.writeObject(networkModel);
+			oos.writeObject(instanceParser);
+			oos.close();
+		}
 		long endTime = System.nanoTime();
 		LOGGER.info("[%s]Writing model...Done in %.3fs", getCurrentTask(), (endTime-startTime)/1.0e9);
 		if((boolean)getParameter("writeModelAsText")){
@@ -507,16 +528,29 @@ public class GenericPipeline extends Pipeline<GenericPipeline> {
 				throw LOGGER.throwing(Level.ERROR, new RuntimeException("["+getCurrentTask()+"]Loading model requires --modelPath to be set."));
 			}
 			LOGGER.info("Reading model from %s...", modelPath);
-			ObjectInputStream ois = new ObjectInputStream(new FileInputStream(modelPath));
 			long startTime = System.nanoTime();
-			try {
-				networkModel = (NetworkModel)ois.readObject();
-				instanceParser = (InstanceParser)ois.readObject();
-			} catch (ClassNotFoundException e) {
-				LOGGER.warn("[%s]Cannot load the model from %s", getCurrentTask(), modelPath);
-				throw new RuntimeException(LOGGER.throwing(Level.FATAL, e));
-			} finally {
-				ois.close();
+			if(MappedModelFile.isMappedModelFile(new File(modelPath))){
+				try {
+					// When only testing, the weights are loaded only in the precision used for decoding
+					WeightPrecision precision = currentTask.equals(TASK_TEST) ? NetworkConfig.DECODING_WEIGHT_PRECISION : WeightPrecision.DOUBLE;
+					Object[] objects = MappedModelFile.read(new File(modelPath), precision);
+					networkModel = (NetworkModel)objects[0];
+					instanceParser = (InstanceParser)objects[1];
+				} catch (ClassNotFoundException e) {
+					LOGGER.warn("[%s]Cannot load the model from %s", getCurrentTask(), modelPath);
+					throw new RuntimeException(LOGGER.throwing(Level.FATAL, e));
+				}
+			} else {
+				ObjectInputStream ois = new ObjectInputStream(new FileInputStream(modelPath));
+				try {
+					networkModel = (NetworkModel)ois.readObject();
+					instanceParser = (InstanceParser)ois.readObject();
+				} catch (ClassNotFoundException e) {
+					LOGGER.warn("[%s]Cannot load the model from %s", getCurrentTask(), modelPath);
+					throw new RuntimeException(LOGGER.throwing(Level.FATAL, e));
+				} finally {
+					ois.close();
+				}
 			}
 			long endTime = System.nanoTime();
 			LOGGER.info("[%s]Reading model...Done in %.3fs", getCurrentTask(), (endTime-startTime)/1.0e9);
@@ -0,0 +1,77 @@
+package org.statnlp.commons.ml.opt;
+
+import java.util.Random;
+
+import org.statnlp.commons.ml.opt.LBFGS.ExceptionWithIflag;
+
+/**
+ * Checks that the sparse update of {@link GradientDescentOptimizer} ({@link GradientDescentOptimizer#optimizeSparse(int[], int)}
+ * followed by {@link GradientDescentOptimizer#catchUp()}) gives the same weights as the dense update under L2 regularization,
+ * where the features not in a batch only receive the regularization gradient.
+ */
+public class GradientDescentSparseUpdateTest {
+
+	private static final int NUM_WEIGHTS = 200;
+	private static final int NUM_FIXED = 10;
+	private static final int NUM_ITERATIONS = 100;
+	private static final double LEARNING_RATE = 0.05;
+	private static final double L2_COEF = 0.3;
+
+	public static void main(String[] args) throws ExceptionWithIflag {
+		Random random = new Random(17);
+		double[] denseX = new double[NUM_WEIGHTS];
+		for(int k=0; k<NUM_WEIGHTS; k++){
+			denseX[k] = random.nextGaussian();
+		}
+		double[] sparseX = denseX.clone();
+		double[] denseG = new double[NUM_WEIGHTS];
+		double[] sparseG = new double[NUM_WEIGHTS];
+
+		GradientDescentOptimizer dense = OptimizerFactory.getGradientDescentFactory(LEARNING_RATE).create(NUM_WEIGHTS);
+		dense.setVariables(denseX);
+		dense.setGradients(denseG);
+		GradientDescentOptimizer sparse = OptimizerFactory.getGradientDescentFactory(LEARNING_RATE).create(NUM_WEIGHTS);
+		sparse.setVariables(sparseX);
+		sparse.setGradients(sparseG);
+		sparse.setLazyRegularization(L2_COEF, NUM_FIXED);
+
+		int[] touched = new int[NUM_WEIGHTS];
+		double maxDiff = 0.0;
+		for(int iter=0; iter<NUM_ITERATIONS; iter++){
+			// Each batch touches a few features, some of them many iterations apart
+			int numTouched = 0;
+			for(int k=0; k<NUM_WEIGHTS; k++){
+				double lossGradient = 0.0;
+				if(random.nextInt(10) == 0){
+					lossGradient = random.nextGaussian();
+					touched[numTouched++] = k;
+					sparseG[k] = lossGradient;
+				}
+				denseG[k] = lossGradient;
+				if(k >= NUM_FIXED){
+					denseG[k] += L2_COEF * denseX[k];
+				}
+			}
+			dense.setObjective(NUM_ITERATIONS-iter);
+			dense.optimize();
+			sparse.setObjective(NUM_ITERATIONS-iter);
+			sparse.optimizeSparse(touched, numTouched);
+			for(int i=0; i<numTouched; i++){
+				sparseG[touched[i]] = 0.0;
+			}
+
+			if(iter % 25 == 24 || iter == NUM_ITERATIONS-1){
+				sparse.catchUp();
+				for(int k=0; k<NUM_WEIGHTS; k++){
+					double diff = Math.abs(denseX[k]-sparseX[k]);
+					maxDiff = Math.max(maxDiff, diff);
+					if(diff > 1e-10 * Math.max(1.0, Math.abs(denseX[k]))){
+						throw new RuntimeException("Different weight "+k+" after iteration "+(iter+1)+": dense "+denseX[k]+", sparse "+sparseX[k]);
+					}
+				}
+			}
+		}
+		System.out.println("GradientDescentSparseUpdate: "+NUM_WEIGHTS+" weights over "+NUM_ITERATIONS+" iterations OK, max difference "+maxDiff);
+	}
+
+}
@@ -0,0 +1,111 @@
+package org.statnlp.hypergraph;
+
+import static org.statnlp.hypergraph.TestChecks.check;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.statnlp.commons.types.Label;
+import org.statnlp.commons.types.LinearInstance;
+import org.statnlp.example.linear_crf.LinearCRFNetworkCompiler;
+
+/**
+ * Checks that the k-best structures selected by {@link KBestDecoder} (through {@link Network#selectKthBestPath(int)})
+ * have the same scores as the best structures found by enumerating all structures of small networks,
+ * and that they are distinct structures.
+ */
+public class KBestDecoderTest {
+
+	private static final int K = 50;
+	private static final int LENGTH = 3;
+
+	/**
+	 * Returns the scores of all derivations of the specified node, enumerated exhaustively.
+	 * @param network
+	 * @param k
+	 * @return
+	 */
+	private static double[] enumerate(Network network, int k){
+		int[][] childrenList = network.getChildren(k);
+		if(childrenList.length == 0){
+			// As in Network#max(), a node without hyperedge has the score of an empty hyperedge
+			childrenList = new int[1][0];
+		}
+		List<Double> scores = new ArrayList<Double>();
+		for(int edge = 0; edge < childrenList.length; edge++){
+			int[] children = childrenList[edge];
+			double[] derivations = new double[]{network.computeEdgeScore(k, children, edge)};
+			for(int child: children){
+				if(child < 0){
+					continue;
+				}
+				double[] childScores = enumerate(network, child);
+				double[] combined = new double[derivations.length*childScores.length];
+				int i = 0;
+				for(double score: derivations){
+					for(double childScore: childScores){
+						combined[i++] = score + childScore;
+					}
+				}
+				derivations = combined;
+			}
+			for(double score: derivations){
+				scores.add(score);
+			}
+		}
+		double[] result = new double[scores.size()];
+		for(int i = 0; i < result.length; i++){
+			result[i] = scores.get(i);
+		}
+		return result;
+	}
+
+	public static void main(String[] args) throws Exception {
+		NetworkConfig.NUM_THREADS = 1;
+		NetworkConfig.L2_REGULARIZATION_CONSTANT = 0.01;
+		LinearCRFTestData data = new LinearCRFTestData();
+		NetworkModel model = data.train(100, 10);
+		LinearCRFNetworkCompiler compiler = (LinearCRFNetworkCompiler)model.getNetworkCompiler();
+
+		LinearInstance<Label>[] sentences = data.read(LinearCRFTestData.TEST_PATH, false, 20);
+		LocalNetworkParam param = new LocalNetworkParam(0, model.getFeatureManager(), sentences.length);
+		param.setGlobalMode();
+		int numChecked = 0;
+		for(int id = 0; id < sentences.length; id++){
+			// Short prefixes, so that all structures can be enumerated
+			LinearInstance<Label> instance = new LinearInstance<Label>(id+1, 1,
+					new ArrayList<String[]>(sentences[id].getInput().subList(0, LENGTH)),
+					new ArrayList<Label>(sentences[id].getOutput().subList(0, LENGTH)));
+			instance.setUnlabeled();
+			// Not through compileAndStore, which would return the networks cached for the training instances of the same IDs
+			Network network = compiler.compileUnlabeled(id, instance, param);
+			network.max();
+
+			double[] expected = enumerate(network, network.countNodes()-1);
+			Arrays.sort(expected);
+			int numStructures = expected.length;
+			for(int k = 0; k < Math.min(K, numStructures); k++){
+				check(network.selectKthBestPath(k), "Only "+k+" structures found, expected "+numStructures);
+				double score = network.getMax();
+				double expectedScore = expected[numStructures-1-k];
+				check(Math.abs(score-expectedScore) <= 1e-9*Math.max(1.0, Math.abs(expectedScore)),
+						"Wrong score of structure "+k+" of instance "+(id+1)+": "+score+", expected "+expectedScore);
+			}
+			if(numStructures < K){
+				check(!network.selectKthBestPath(numStructures), "More than "+numStructures+" structures found");
+			}
+			// Decoding the k-best list also restores the best structure
+			LinearInstance<Label> output = compiler.decompile(network, K);
+			List<List<Label>> topK = output.getTopKPredictions();
+			check(topK.size() == Math.min(K, numStructures), "Decoded "+topK.size()+" structures of instance "+(id+1));
+			check(new HashSet<List<Label>>(topK).size() == topK.size(), "Duplicate structures of instance "+(id+1));
+			check(Math.abs(network.getMax()-expected[numStructures-1]) <= 1e-9*Math.max(1.0, Math.abs(expected[numStructures-1])),
+					"The best structure is not restored");
+			numChecked++;
+		}
+		System.out.println("KBestDecoder: "+K+"-best lists of "+numChecked+" networks OK");
+	}
+
+}
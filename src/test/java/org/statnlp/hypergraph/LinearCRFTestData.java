@@ -0,0 +1,106 @@
+package org.statnlp.hypergraph;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.statnlp.commons.ml.opt.OptimizerFactory;
+import org.statnlp.commons.types.Instance;
+import org.statnlp.commons.types.Label;
+import org.statnlp.commons.types.LinearInstance;
+import org.statnlp.example.linear_crf.LinearCRFFeatureManager;
+import org.statnlp.example.linear_crf.LinearCRFNetworkCompiler;
+
+/**
+ * The linear-chain CRF on the CoNLL-2000 chunking data in data/, used by the checks in this package.
+ */
+public class LinearCRFTestData {
+
+	public static final String TRAIN_PATH = "data/train.data";
+	public static final String TEST_PATH = "data/test.data";
+
+	private final Map<String, Label> labels = new TreeMap<String, Label>();
+
+	/**
+	 * Reads the first number sentences (all if number is negative) of the specified file.
+	 * @param fileName
+	 * @param isLabeled
+	 * @param number
+	 * @return
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public LinearInstance<Label>[] read(String fileName, boolean isLabeled, int number) throws IOException{
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "UTF-8"));
+		List<LinearInstance<Label>> result = new ArrayList<LinearInstance<Label>>();
+		ArrayList<String[]> words = new ArrayList<String[]>();
+		ArrayList<Label> outputs = new ArrayList<Label>();
+		String line;
+		while((line = br.readLine()) != null && result.size() != number){
+			line = line.trim();
+			if(line.length() == 0){
+				if(words.isEmpty()){
+					continue;
+				}
+				LinearInstance<Label> instance = new LinearInstance<Label>(result.size()+1, 1, words, outputs);
+				if(isLabeled){
+					instance.setLabeled();
+				} else {
+					instance.setUnlabeled();
+				}
+				result.add(instance);
+				words = new ArrayList<String[]>();
+				outputs = new ArrayList<Label>();
+			} else {
+				int lastSpace = line.lastIndexOf(" ");
+				words.add(line.substring(0, lastSpace).split(" "));
+				outputs.add(this.getLabel(line.substring(lastSpace+1)));
+			}
+		}
+		br.close();
+		return result.toArray(new LinearInstance[result.size()]);
+	}
+
+	public Label getLabel(String form){
+		Label label = this.labels.get(form);
+		if(label == null){
+			label = new Label(form, this.labels.size());
+			this.labels.put(form, label);
+		}
+		return label;
+	}
+
+	/**
+	 * Returns a new model over the labels read so far, with the specified optimizer.
+	 * @param optimizerFactory
+	 * @return
+	 */
+	public NetworkModel createModel(OptimizerFactory optimizerFactory){
+		GlobalNetworkParam param = new GlobalNetworkParam(optimizerFactory);
+		LinearCRFNetworkCompiler compiler = new LinearCRFNetworkCompiler(this.labels.values());
+		LinearCRFFeatureManager fm = new LinearCRFFeatureManager(param, compiler._labels);
+		return DiscriminativeNetworkModel.create(fm, compiler, new PrintStream[0]);
+	}
+
+	/**
+	 * Trains a model on the first numTrain training sentences.
+	 * @param numTrain
+	 * @param numIterations
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public NetworkModel train(int numTrain, int numIterations) throws IOException, InterruptedException{
+		Instance[] trainInstances = this.read(TRAIN_PATH, true, numTrain);
+		NetworkModel model = this.createModel(OptimizerFactory.getLBFGSFactory());
+		model.train(trainInstances, numIterations);
+		return model;
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.statnlp.hypergraph;
+
+import static org.statnlp.hypergraph.TestChecks.check;
+
+import java.util.Arrays;
+
+import org.statnlp.commons.types.Label;
+import org.statnlp.commons.types.LinearInstance;
+
+/**
+ * Checks that {@link LinearChainInference} gives the same inside scores, outside scores, max scores, max paths,
+ * and gradients as the general procedures of {@link Network}, on the labeled and unlabeled networks of LinearCRF.
+ */
+public class LinearChainInferenceTest {
+
+	private static final double TOLERANCE = 1e-9;
+
+	private static double checkClose(double[] expected, double[] actual, int length, String what){
+		double maxDiff = 0.0;
+		for(int i = 0; i < length; i++){
+			if(expected[i] == actual[i]){
+				// Also covers the infinite values
+				continue;
+			}
+			double diff = Math.abs(expected[i]-actual[i]);
+			check(diff <= TOLERANCE*Math.max(1.0, Math.abs(expected[i])),
+					"Different "+what+" at "+i+": "+expected[i]+" in general, "+actual[i]+" in linear chain");
+			maxDiff = Math.max(maxDiff, diff);
+		}
+		return maxDiff;
+	}
+
+	private static Network compile(NetworkCompiler compiler, int networkId, LinearInstance<Label> instance, LocalNetworkParam param){
+		// Not through compileAndStore, which would return the networks cached for the training instances of the same IDs
+		return instance.isLabeled() ? compiler.compileLabeled(networkId, instance, param) : compiler.compileUnlabeled(networkId, instance, param);
+	}
+
+	/**
+	 * Runs the inference on the network, returning the inside scores, the outside scores, the max scores,
+	 * the max paths, and the gradients, in this order.
+	 * @param network
+	 * @param param
+	 * @param useLinearChain
+	 * @return
+	 */
+	private static Object[] infer(Network network, GlobalNetworkParam param, boolean useLinearChain){
+		NetworkConfig.USE_LINEAR_CHAIN_INFERENCE = useLinearChain;
+		check((network.getChainLayers() != null) == useLinearChain, "The linear chain inference is not used as configured");
+		int numNodes = network.countNodes();
+		network.inside();
+		double[] inside = Arrays.copyOf(network._inside, numNodes);
+		network.outside();
+		double[] outside = Arrays.copyOf(network._outside, numNodes);
+		param.resetCountsAndObj();
+		network.updateGradient();
+		double[] counts = param.getCounts().clone();
+		network.max();
+		double[] max = Arrays.copyOf(network._max, numNodes);
+		int[][] maxPaths = new int[numNodes][];
+		for(int k = 0; k < numNodes; k++){
+			int[] maxPath = network.getMaxPath(k);
+			maxPaths[k] = maxPath == null ? null : maxPath.clone();
+		}
+		return new Object[]{inside, outside, max, maxPaths, counts};
+	}
+
+	@SuppressWarnings("unchecked")
+	public static void main(String[] args) throws Exception {
+		NetworkConfig.NUM_THREADS = 1;
+		NetworkConfig.L2_REGULARIZATION_CONSTANT = 0.01;
+		NetworkConfig.USE_LINEAR_CHAIN_INFERENCE = false;
+		LinearCRFTestData data = new LinearCRFTestData();
+		NetworkModel model = data.train(100, 10);
+		NetworkCompiler compiler = model.getNetworkCompiler();
+		GlobalNetworkParam param_g = model.getFeatureManager().getParam_G();
+
+		// Training sentences, whose features all have weights, so that their gradients can be accumulated
+		LinearInstance<Label>[] sentences = data.read(LinearCRFTestData.TRAIN_PATH, true, 20);
+		LocalNetworkParam param = new LocalNetworkParam(0, model.getFeatureManager(), 2*sentences.length);
+		param.setGlobalMode();
+		double maxDiff = 0.0;
+		int numNetworks = 0;
+		for(LinearInstance<Label> sentence: sentences){
+			LinearInstance<Label> unlabeled = sentence.duplicate();
+			unlabeled.setUnlabeled();
+			for(LinearInstance<Label> instance: new LinearInstance[]{sentence, unlabeled}){
+				// A new network for each procedure, since the outside pass removes the nodes which are not reachable from the root
+				Object[] general = infer(compile(compiler, numNetworks, instance, param), param_g, false);
+				Network network = compile(compiler, numNetworks, instance, param);
+				Object[] chain = infer(network, param_g, true);
+				String name = " of network "+numNetworks;
+				int numNodes = network.countNodes();
+				maxDiff = Math.max(maxDiff, checkClose((double[])general[0], (double[])chain[0], numNodes, "inside score"+name));
+				maxDiff = Math.max(maxDiff, checkClose((double[])general[1], (double[])chain[1], numNodes, "outside score"+name));
+				maxDiff = Math.max(maxDiff, checkClose((double[])general[2], (double[])chain[2], numNodes, "max score"+name));
+				int[][] generalPaths = (int[][])general[3];
+				int[][] chainPaths = (int[][])chain[3];
+				for(int k = 0; k < numNodes; k++){
+					check(Arrays.equals(generalPaths[k], chainPaths[k]), "Different max path at "+k+name);
+				}
+				double[] counts = (double[])general[4];
+				maxDiff = Math.max(maxDiff, checkClose(counts, (double[])chain[4], counts.length, "gradient"+name));
+				numNetworks++;
+			}
+		}
+		NetworkConfig.USE_LINEAR_CHAIN_INFERENCE = false;
+		System.out.println("LinearChainInference: "+numNetworks+" networks OK, max difference "+maxDiff);
+	}
+
+}
@@ -0,0 +1,102 @@
+package org.statnlp.hypergraph;
+
+import static org.statnlp.hypergraph.TestChecks.check;
+
+import java.io.File;
+import java.util.List;
+
+import org.statnlp.commons.types.Instance;
+import org.statnlp.hypergraph.NetworkConfig.WeightPrecision;
+
+/**
+ * Checks that a model written by {@link MappedModelFile} and read back has exactly the same weights,
+ * feature index, and string index, and makes the same predictions.
+ */
+public class MappedModelFileTest {
+
+	public static void main(String[] args) throws Exception {
+		NetworkConfig.NUM_THREADS = 2;
+		NetworkConfig.L2_REGULARIZATION_CONSTANT = 0.01;
+		NetworkConfig.RANDOM_INIT_WEIGHT = false;
+		NetworkConfig.FEATURE_INIT_WEIGHT = 0.0;
+		LinearCRFTestData data = new LinearCRFTestData();
+		NetworkModel model = data.train(100, 20);
+		GlobalNetworkParam param = model.getFeatureManager().getParam_G();
+
+		File file = File.createTempFile("statnlp", ".model");
+		file.deleteOnExit();
+		MappedModelFile.write(file, model, "extra");
+		check(MappedModelFile.isMappedModelFile(file), "The file is not recognized as a binary model file");
+		Object[] objects = MappedModelFile.read(file);
+		check(objects.length == 2 && "extra".equals(objects[1]), "The objects are not read back in order");
+		NetworkModel readModel = (NetworkModel)objects[0];
+		GlobalNetworkParam readParam = readModel.getFeatureManager().getParam_G();
+
+		check(readParam.size() == param.size(), "Expected "+param.size()+" features, found "+readParam.size());
+		check(readParam.countFixedFeatures() == param.countFixedFeatures(), "Wrong number of fixed features");
+		check(readParam.isLocked() == param.isLocked(), "Wrong locked state");
+		for(int f = 0; f < param.size(); f++){
+			check(Double.doubleToLongBits(readParam.getWeight(f)) == Double.doubleToLongBits(param.getWeight(f)),
+					"Different weight of feature "+f+": "+param.getWeight(f)+" and "+readParam.getWeight(f));
+		}
+
+		PackedFeatureIndex index = param.getFeatureIndex();
+		PackedFeatureIndex readIndex = readParam.getFeatureIndex();
+		check(readIndex instanceof MappedFeatureIndex, "The feature index is not mapped");
+		check(readIndex.size() == index.size() && readIndex.countGroups() == index.countGroups(), "Wrong feature index size");
+		PackedFeatureIndex.FeatureIterator iter = index.iterator();
+		while(iter.hasNext()){
+			iter.advance();
+			check(readIndex.get(iter.type(), iter.output(), iter.input()) == iter.featureId(),
+					"Different ID of feature "+iter.featureId());
+			check(readIndex.getGroupId(iter.type(), iter.output()) == iter.groupId(), "Different group of feature "+iter.featureId());
+		}
+		check(readIndex.get(-1, -1, -1) == -1, "Found an absent feature");
+
+		StringIndex strings = param.getStringIndex();
+		StringIndex readStrings = readParam.getStringIndex();
+		check(readStrings instanceof MappedStringIndex, "The string index is not mapped");
+		check(readStrings.size() == strings.size(), "Expected "+strings.size()+" strings, found "+readStrings.size());
+		for(String str: strings.keys()){
+			int id = strings.get(str);
+			check(readStrings.get(str) == id, "Different ID of string "+str);
+			check(str.equals(readStrings.get(id)), "Different string of ID "+id);
+		}
+		check(readStrings.get("absent string \u0000") == -1, "Found an absent string");
+
+		Instance[] predictions = model.decode(data.read(LinearCRFTestData.TEST_PATH, false, 200));
+		Instance[] readPredictions = readModel.decode(data.read(LinearCRFTestData.TEST_PATH, false, 200));
+		for(int i = 0; i < predictions.length; i++){
+			List<?> prediction = (List<?>)predictions[i].getPrediction();
+			check(prediction.equals(readPredictions[i].getPrediction()), "Different prediction for instance "+(i+1));
+		}
+
+		// Read for decoding only, the weights are only loaded in reduced precision
+		NetworkModel floatModel = (NetworkModel)MappedModelFile.read(file, WeightPrecision.FLOAT)[0];
+		GlobalNetworkParam floatParam = floatModel.getFeatureManager().getParam_G();
+		check(floatParam.isDecodingOnly() && floatParam.getWeights() == null, "The weights are loaded in double precision");
+		for(int f = 0; f < param.size(); f++){
+			check(floatParam.getWeight(f) == (float)param.getWeight(f), "Different reduced weight of feature "+f);
+		}
+		check(floatParam.getDecodingWeights() == floatParam.getDecodingWeights(), "The decoding weights are not cached");
+		model.getConfig().setDecodingWeightPrecision(WeightPrecision.FLOAT);
+		Instance[] floatPredictions = floatModel.decode(data.read(LinearCRFTestData.TEST_PATH, false, 200));
+		predictions = model.decode(data.read(LinearCRFTestData.TEST_PATH, false, 200));
+		model.getConfig().setDecodingWeightPrecision(WeightPrecision.DOUBLE);
+		for(int i = 0; i < predictions.length; i++){
+			check(predictions[i].getPrediction().equals(floatPredictions[i].getPrediction()),
+					"Different prediction in float precision for instance "+(i+1));
+		}
+		File floatFile = File.createTempFile("statnlp", ".model");
+		floatFile.deleteOnExit();
+		try{
+			MappedModelFile.write(floatFile, floatModel);
+			check(false, "A model read for decoding only was written");
+		} catch(IllegalStateException e){
+			// Expected, the weights in double precision are not loaded
+		}
+		System.out.println("MappedModelFile: "+param.size()+" weights, "+strings.size()+" strings, "
+				+predictions.length+" predictions OK in "+file.length()+" bytes");
+	}
+
+}
@@ -0,0 +1,91 @@
+package org.statnlp.hypergraph;
+
+import static org.statnlp.hypergraph.TestChecks.check;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * Checks that {@link PackedFeatureIndex} packs and unpacks the (type, output, input) triples exactly,
+ * including the values at the limits of the 32-bit halves of the packed keys, and through resizing.
+ */
+public class PackedFeatureIndexTest {
+
+	private static final int[] LIMITS = new int[]{0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE-1, Integer.MIN_VALUE+1};
+
+	public static void main(String[] args){
+		for(int high: LIMITS){
+			for(int low: LIMITS){
+				long key = PackedFeatureIndex.pack(high, low);
+				check((int)(key >>> 32) == high && (int)key == low, "Wrong unpacking of ("+high+", "+low+")");
+			}
+		}
+		check(PackedFeatureIndex.pack(0, -1) != PackedFeatureIndex.pack(-1, 0), "The sign of the low half leaks into the high half");
+
+		// Every combination of the limits, so the same group has inputs at both limits,
+		// and the (type, output) pair (-1, -1) packs into -1, the no-entry key of the group map
+		PackedFeatureIndex index = new PackedFeatureIndex(4);
+		int numFeatures = 0;
+		for(int type: LIMITS){
+			for(int output: LIMITS){
+				for(int input: LIMITS){
+					int id = index.getOrPut(type, output, input, numFeatures);
+					check(id == numFeatures, "Duplicate feature ("+type+", "+output+", "+input+")");
+					numFeatures++;
+				}
+			}
+		}
+		// Enough ordinary features, in groups other than the above, to resize the table several times
+		for(int type=2; type<7; type++){
+			for(int output=0; output<20; output++){
+				for(int input=0; input<200; input++){
+					index.getOrPut(type, output, input+1000, numFeatures++);
+				}
+			}
+		}
+		check(index.size() == numFeatures, "Expected "+numFeatures+" features, found "+index.size());
+		check(index.countGroups() == LIMITS.length*LIMITS.length+5*20, "Wrong number of groups: "+index.countGroups());
+
+		int id = 0;
+		for(int type: LIMITS){
+			for(int output: LIMITS){
+				int group = index.getGroupId(type, output);
+				check(group != -1 && index.getGroupType(group) == type && index.getGroupOutput(group) == output,
+						"Wrong group of ("+type+", "+output+")");
+				for(int input: LIMITS){
+					check(index.get(type, output, input) == id, "Wrong ID of ("+type+", "+output+", "+input+")");
+					check(index.getOrPut(type, output, input, -2) == id, "getOrPut replaced ("+type+", "+output+", "+input+")");
+					id++;
+				}
+			}
+		}
+		check(index.get(7, 0, 1000) == -1, "Found a feature of an absent group");
+		check(index.get(2, 0, 999) == -1, "Found an absent feature of a present group");
+		check(index.get(Integer.MAX_VALUE, Integer.MAX_VALUE, 2) == -1, "Found an absent feature at the limits");
+
+		boolean[] seen = new boolean[numFeatures];
+		int numIterated = 0;
+		PackedFeatureIndex.FeatureIterator iter = index.iterator();
+		while(iter.hasNext()){
+			iter.advance();
+			check(index.get(iter.type(), iter.output(), iter.input()) == iter.featureId(), "The iterator disagrees with get");
+			check(index.getGroupId(iter.type(), iter.output()) == iter.groupId(), "The iterator disagrees with getGroupId");
+			check(!seen[iter.featureId()], "The iterator repeated feature "+iter.featureId());
+			seen[iter.featureId()] = true;
+			numIterated++;
+		}
+		check(numIterated == numFeatures, "The iterator returned "+numIterated+" of "+numFeatures+" features");
+
+		TIntObjectHashMap<TIntObjectHashMap<TIntIntHashMap>> nested = index.toNestedMap();
+		PackedFeatureIndex copy = PackedFeatureIndex.fromNestedMap(nested);
+		check(copy.size() == numFeatures, "The nested map round trip lost features");
+		iter = index.iterator();
+		while(iter.hasNext()){
+			iter.advance();
+			check(nested.get(iter.type()).get(iter.output()).get(iter.input()) == iter.featureId(), "Wrong nested map");
+			check(copy.get(iter.type(), iter.output(), iter.input()) == iter.featureId(), "Wrong nested map round trip");
+		}
+		System.out.println("PackedFeatureIndex: "+numFeatures+" features in "+index.countGroups()+" groups OK");
+	}
+
+}
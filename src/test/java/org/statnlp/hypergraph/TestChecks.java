@@ -0,0 +1,21 @@
+package org.statnlp.hypergraph;
+
+/**
+ * The checks shared by the tests, which are run as main classes and fail by throwing a {@link RuntimeException}.
+ */
+public class TestChecks {
+
+	private TestChecks(){}
+
+	/**
+	 * Throws a {@link RuntimeException} with the specified message if the condition does not hold.
+	 * @param condition
+	 * @param message
+	 */
+	public static void check(boolean condition, String message){
+		if(!condition){
+			throw new RuntimeException(message);
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+package org.statnlp.neural;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.statnlp.hypergraph.neural.JavaNeuralNetwork;
+import org.statnlp.hypergraph.neural.NeuralServer;
+import org.statnlp.hypergraph.neural.RemoteNeuralNetwork;
+
+/**
+ * Checks that a network run by {@link NeuralServer} through {@link RemoteNeuralNetwork}
+ * gives the same scores and gradients as the same network run in process, and that the network saved from
+ * the server and loaded into another connection gives the same scores.
+ */
+public class RemoteNeuralNetworkTest {
+
+	public static void main(String[] args) throws IOException {
+		NeuralServer server = new NeuralServer(0);
+		server.start();
+		HashMap<String, Object> config = new HashMap<String, Object>();
+		config.put("class", "EmbeddingLayer");
+		config.put("numLabels", 3);
+		config.put("hiddenSize", 4);
+		Object[] nnInputs = new Object[]{"the", "cat", "sat", "on", "mat"};
+		int[] rows = new int[]{4, 1, 2};
+
+		JavaNeuralNetwork local = new JavaNeuralNetwork(config);
+		local.initialize(config, nnInputs, true);
+		RemoteNeuralNetwork remote = new RemoteNeuralNetwork("localhost", server.getPort());
+		remote.initialize(config, nnInputs, true);
+
+		double[] params = local.getParams().clone();
+		for (int i = 0; i < params.length; i++) {
+			params[i] = Math.sin(i);
+		}
+		double[] localOutput = local.forward(params, true, rows, null).clone();
+		double[] remoteOutput = remote.forward(true, params, rows);
+		double[] gradOutput = new double[localOutput.length];
+		for (int i = 0; i < gradOutput.length; i++) {
+			gradOutput[i] = Math.cos(i);
+		}
+		double[] localGrad = local.backward(gradOutput, true).clone();
+		double[] remoteGrad = remote.backward(gradOutput, true);
+
+		// The network is sent as its structure and parameters, in both directions
+		JavaNeuralNetwork saved = remote.save(null);
+		remote.close();
+		RemoteNeuralNetwork loaded = new RemoteNeuralNetwork("localhost", server.getPort());
+		loaded.load(saved);
+		loaded.initialize(config, nnInputs, false);
+		local.initialize(config, nnInputs, false);
+		saved.initialize(config, nnInputs, false);
+		double[] localTestOutput = local.forward(null, false, rows, null).clone();
+		double[] savedOutput = saved.forward(null, false, rows, null);
+		double[] loadedOutput = loaded.forward(false, null, rows);
+		loaded.close();
+		server.close();
+
+		System.out.println("Same scores: "+Arrays.equals(localOutput, remoteOutput));
+		System.out.println("Same gradients: "+Arrays.equals(localGrad, remoteGrad));
+		System.out.println("Same scores after saving and loading: "+(Arrays.equals(localTestOutput, savedOutput)
+				&& Arrays.equals(localTestOutput, loadedOutput)));
+		if (!Arrays.equals(localOutput, remoteOutput) || !Arrays.equals(localGrad, remoteGrad)) {
+			throw new RuntimeException("The remote network differs from the local network");
+		}
+		if (!Arrays.equals(localTestOutput, savedOutput) || !Arrays.equals(localTestOutput, loadedOutput)) {
+			throw new RuntimeException("The saved or loaded network differs from the local network");
+		}
+	}
+
+}